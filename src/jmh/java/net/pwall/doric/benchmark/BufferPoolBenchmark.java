@@ -0,0 +1,162 @@
+/*
+ * @(#) BufferPoolBenchmark.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.pwall.doric.BufferPool;
+import net.pwall.doric.FileHandle;
+import net.pwall.doric.FileHandleCache;
+
+/**
+ * Benchmarks for {@link BufferPool}: the hit path, where the requested buffer is already in the pool (at varying
+ * positions in the pool), the miss path, where every request requires a buffer to be evicted and re-read, and a
+ * sequential scan with read-ahead enabled.  The results are reported per buffer request.
+ *
+ * @author  Peter Wall
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BufferPoolBenchmark {
+
+    public static final int bufferSize = 8192;
+    public static final int fileBuffers = 1024;
+    public static final int requests = 1024;
+
+    @Param({ "8", "40" })
+    public int poolSize;
+
+    private File directory;
+    private FileHandle handle;
+    private long fileSize;
+    private BufferPool bufferPool;
+    private BufferPool readAheadBufferPool;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkFiles.createTempDirectory();
+        File file = new File(directory, "buffers.data");
+        byte[] block = new byte[bufferSize];
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < fileBuffers; i++) {
+                block[0] = (byte)i;
+                out.write(block);
+            }
+        }
+        fileSize = (long)fileBuffers * bufferSize;
+        handle = new FileHandleCache().getHandle(file);
+        bufferPool = new BufferPool(poolSize, bufferSize, false, 0, 0);
+        readAheadBufferPool = new BufferPool(poolSize, bufferSize, false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        bufferPool.purge(handle);
+        readAheadBufferPool.purge(handle);
+        handle.close();
+        BenchmarkFiles.delete(directory);
+    }
+
+    /**
+     * Repeatedly request the same buffer, which will always be at the front of the pool.
+     *
+     * @return  a value derived from the buffers (to avoid dead code elimination)
+     * @throws  IOException if thrown by the buffer pool
+     */
+    @Benchmark
+    @OperationsPerInvocation(requests)
+    public int hitFront() throws IOException {
+        int total = 0;
+        for (int i = 0; i < requests; i++)
+            total += bufferPool.findBuffer(handle, fileSize, (i & 0xFF) * 8).get();
+        return total;
+    }
+
+    /**
+     * Request buffers in rotation from a set that just fits in the pool, so that every request is a hit but the
+     * buffer is always at the back of the pool.
+     *
+     * @return  a value derived from the buffers (to avoid dead code elimination)
+     * @throws  IOException if thrown by the buffer pool
+     */
+    @Benchmark
+    @OperationsPerInvocation(requests)
+    public int hitRotating() throws IOException {
+        int total = 0;
+        for (int i = 0; i < requests; i++)
+            total += bufferPool.findBuffer(handle, fileSize, (long)(i % poolSize) * bufferSize).get();
+        return total;
+    }
+
+    /**
+     * Request every buffer in the file in turn, with read-ahead disabled, so that (since the file is larger than the
+     * pool) every request is a miss.  The file will normally be in the operating system cache, so this measures the cost of the pool search,
+     * the eviction and the read system call rather than the cost of physical I/O.
+     *
+     * @return  a value derived from the buffers (to avoid dead code elimination)
+     * @throws  IOException if thrown by the buffer pool
+     */
+    @Benchmark
+    @OperationsPerInvocation(requests)
+    public int miss() throws IOException {
+        int total = 0;
+        for (int i = 0; i < requests; i++)
+            total += bufferPool.findBuffer(handle, fileSize, (long)(i % fileBuffers) * bufferSize).get();
+        return total;
+    }
+
+    /**
+     * Request every buffer in the file in turn, as in {@link #miss()}, but with read-ahead enabled, so that most
+     * requests are satisfied by blocks read asynchronously.
+     *
+     * @return  a value derived from the buffers (to avoid dead code elimination)
+     * @throws  IOException if thrown by the buffer pool
+     */
+    @Benchmark
+    @OperationsPerInvocation(requests)
+    public int sequentialReadAhead() throws IOException {
+        int total = 0;
+        for (int i = 0; i < requests; i++)
+            total += readAheadBufferPool.findBuffer(handle, fileSize, (long)(i % fileBuffers) * bufferSize).get();
+        return total;
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * @(#) ColumnAnalysisBenchmark.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.ColumnAnalysis;
+
+/**
+ * Benchmark for {@link ColumnAnalysis#analyse(String)}, analysing a column of each kind of synthetic data and
+ * resolving the result.  The results are reported per value analysed.
+ *
+ * @author  Peter Wall
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColumnAnalysisBenchmark {
+
+    public static final int numRows = 100000;
+
+    @Param
+    public SyntheticData.Kind kind;
+
+    private String[] values;
+
+    @Setup
+    public void setup() {
+        values = new SyntheticData().column(kind, numRows);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(numRows)
+    public Column analyse() {
+        ColumnAnalysis columnAnalysis = new ColumnAnalysis(kind.name());
+        for (String value : values)
+            columnAnalysis.analyse(value);
+        return columnAnalysis.resolve();
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * @(#) ColumnOutputBenchmark.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.ColumnAnalysis;
+import net.pwall.doric.columnoutput.ColumnOutput;
+
+/**
+ * Benchmark for the {@link ColumnOutput} implementations.  Each kind of synthetic data is analysed in the set-up, and
+ * the {@link ColumnOutput} chosen for it by {@link ColumnOutput#getExtendedColumnOutputObject(File, Column, int)} is
+ * benchmarked, so that the set of kinds covers each of the writers (including the date and decimal shift
+ * extensions, and the different combinations of offset and length for string data).  The results are reported per
+ * value written.
+ *
+ * @author  Peter Wall
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColumnOutputBenchmark {
+
+    public static final int numRows = 100000;
+
+    @Param
+    public SyntheticData.Kind kind;
+
+    private File directory;
+    private String[] values;
+    private Column column;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkFiles.createTempDirectory();
+        values = new SyntheticData().column(kind, numRows);
+        ColumnAnalysis columnAnalysis = new ColumnAnalysis(kind.name());
+        for (String value : values)
+            columnAnalysis.analyse(value);
+        column = columnAnalysis.resolve();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(numRows)
+    public Column.FileData write() throws IOException {
+        ColumnOutput columnOutput = ColumnOutput.getExtendedColumnOutputObject(directory, column, 0);
+        for (String value : values)
+            columnOutput.putString(value);
+        return columnOutput.summariseAndClose();
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * @(#) ColumnReaderBenchmark.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.pwall.doric.BufferPool;
+import net.pwall.doric.ColumnReader;
+import net.pwall.doric.ColumnWriter;
+
+/**
+ * Benchmarks for {@link ColumnReader}: sequential and random reads of fixed-length values, and sequential reads of
+ * variable-length strings.  The results are reported per value read.
+ *
+ * @author  Peter Wall
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColumnReaderBenchmark {
+
+    public static final int numRows = 1000000;
+    public static final int numRandomReads = 10000;
+
+    private File directory;
+    private BufferPool bufferPool;
+    private ColumnReader int32Reader;
+    private ColumnReader int64Reader;
+    private ColumnReader bytesReader;
+    private long[] bytesOffsets;
+    private int[] bytesLengths;
+    private int[] randomRows;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkFiles.createTempDirectory();
+        SyntheticData data = new SyntheticData();
+        ColumnWriter int32Writer = new ColumnWriter(directory, "int32.rows");
+        ColumnWriter int64Writer = new ColumnWriter(directory, "int64.rows");
+        ColumnWriter bytesWriter = new ColumnWriter(directory, "bytes.data");
+        String[] int32Values = data.column(SyntheticData.Kind.int32, numRows);
+        String[] int64Values = data.column(SyntheticData.Kind.int64, numRows);
+        String[] textValues = data.column(SyntheticData.Kind.text, numRows);
+        bytesOffsets = new long[numRows];
+        bytesLengths = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            int32Writer.writeInt32(Integer.parseInt(int32Values[i]));
+            int64Writer.writeInt64(Long.parseLong(int64Values[i]));
+            bytesOffsets[i] = bytesWriter.getOffset();
+            bytesWriter.writeBytes(textValues[i]);
+            bytesLengths[i] = (int)(bytesWriter.getOffset() - bytesOffsets[i]);
+        }
+        int32Writer.close();
+        int64Writer.close();
+        long bytesSize = bytesWriter.getOffset();
+        bytesWriter.close();
+        bufferPool = new BufferPool(40, 8192, false);
+        int32Reader = new ColumnReader(bufferPool, new File(directory, "int32.rows"), (long)numRows * 4);
+        int64Reader = new ColumnReader(bufferPool, new File(directory, "int64.rows"), (long)numRows * 8);
+        bytesReader = new ColumnReader(bufferPool, new File(directory, "bytes.data"), bytesSize);
+        Random random = new Random(SyntheticData.defaultSeed);
+        randomRows = new int[numRandomReads];
+        for (int i = 0; i < numRandomReads; i++)
+            randomRows[i] = random.nextInt(numRows);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        int32Reader.close();
+        int64Reader.close();
+        bytesReader.close();
+        BenchmarkFiles.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(numRows)
+    public long sequentialInt32() throws IOException {
+        long total = 0;
+        for (int i = 0; i < numRows; i++)
+            total += int32Reader.readInt32((long)i * 4);
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(numRows)
+    public long sequentialInt64() throws IOException {
+        long total = 0;
+        for (int i = 0; i < numRows; i++)
+            total += int64Reader.readInt64((long)i * 8);
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(numRandomReads)
+    public long randomInt64() throws IOException {
+        long total = 0;
+        for (int row : randomRows)
+            total += int64Reader.readInt64((long)row * 8);
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(numRows)
+    public long sequentialBytes() throws IOException {
+        long total = 0;
+        for (int i = 0; i < numRows; i++)
+            total += bytesReader.readBytes(bytesOffsets[i], bytesLengths[i]).length();
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(numRandomReads)
+    public long randomBytes() throws IOException {
+        long total = 0;
+        for (int row : randomRows)
+            total += bytesReader.readBytes(bytesOffsets[row], bytesLengths[row]).length();
+        return total;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * @(#) IngestBenchmark.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.pwall.doric.Ingestor;
+
+/**
+ * End-to-end benchmark for {@link Ingestor#ingest(String, File, File, Ingestor.Options)}, ingesting a synthetic CSV
+ * file containing one column of each kind of synthetic data.
+ *
+ * @author  Peter Wall
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IngestBenchmark {
+
+    @Param({ "100000" })
+    public int numRows;
+
+    private File directory;
+    private File csvFile;
+    private File outFile;
+    private Ingestor.Options options;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkFiles.createTempDirectory();
+        csvFile = new File(directory, "synthetic.csv");
+        new SyntheticData().writeCSV(csvFile, numRows);
+        outFile = new File(directory, "synthetic");
+        if (!outFile.mkdir())
+            throw new IOException("Can't create directory " + outFile);
+        options = new Ingestor.Options();
+        options.setHeaders(true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.delete(directory);
+    }
+
+    @Benchmark
+    public File ingest() throws IOException {
+        Ingestor.ingest("synthetic", csvFile, outFile, options);
+        return outFile;
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * @(#) SyntheticData.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Generator for deterministic synthetic data, for use in benchmarks.  The data is generated from a pseudo-random
+ * sequence with a fixed seed, so that the same seed always produces the same data, and results from different runs
+ * (or different versions of the code) may be compared.
+ *
+ * <p>The data may be generated as individual columns of strings (the form in which values are supplied to the column
+ * analysis and the column outputs), or as a CSV file containing one column of each {@link Kind}.</p>
+ *
+ * @author  Peter Wall
+ */
+public class SyntheticData {
+
+    public static final long defaultSeed = 0x5EED;
+
+    /**
+     * The kinds of column that may be generated, each chosen to exercise a different storage type.
+     */
+    public enum Kind {
+        /** ascending sequence number (sorted integer) */
+        sequence,
+        /** small integers (8-bit storage) */
+        int8,
+        /** medium integers (16-bit storage) */
+        int16,
+        /** large integers (32-bit storage) */
+        int32,
+        /** very large integers (64-bit storage) */
+        int64,
+        /** numbers with 2 decimal places (decimal shift) */
+        decimal,
+        /** floating point numbers (64-bit floating point storage) */
+        floating,
+        /** dates (epoch day) */
+        date,
+        /** a small set of string values (unique values) */
+        category,
+        /** short high-cardinality strings, such as identifiers */
+        code,
+        /** longer text of varying length */
+        text
+    }
+
+    private static final String[] categories = { "red", "orange", "yellow", "green", "blue", "indigo", "violet",
+            "black", "white", "grey" };
+    private static final String[] words = { "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing",
+            "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua" };
+    private static final String codeChars = "ABCDEFGHJKLMNPQRSTUVWXYZ0123456789";
+    private static final LocalDate baseDate = LocalDate.of(2000, 1, 1);
+
+    private Random random;
+
+    public SyntheticData(long seed) {
+        random = new Random(seed);
+    }
+
+    public SyntheticData() {
+        this(defaultSeed);
+    }
+
+    /**
+     * Generate a single value.
+     *
+     * @param   kind        the kind of value
+     * @param   rowNumber   the row number (used for sequence values)
+     * @return              the value, as a string
+     */
+    public String value(Kind kind, int rowNumber) {
+        switch (kind) {
+        case sequence:
+            return String.valueOf(rowNumber + 1);
+        case int8:
+            return String.valueOf(random.nextInt(201) - 100);
+        case int16:
+            return String.valueOf(random.nextInt(60001) - 30000);
+        case int32:
+            return String.valueOf(random.nextInt());
+        case int64:
+            return String.valueOf(random.nextLong());
+        case decimal:
+            int cents = random.nextInt(10000000);
+            StringBuilder sb = new StringBuilder();
+            sb.append(cents / 100).append('.');
+            int fraction = cents % 100;
+            if (fraction < 10)
+                sb.append('0');
+            return sb.append(fraction).toString();
+        case floating:
+            return String.valueOf(random.nextDouble() * 1000.0);
+        case date:
+            return baseDate.plusDays(random.nextInt(7300)).toString();
+        case category:
+            return categories[random.nextInt(categories.length)];
+        case code:
+            char[] chars = new char[8];
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = codeChars.charAt(random.nextInt(codeChars.length()));
+            return new String(chars);
+        case text:
+            StringBuilder text = new StringBuilder();
+            for (int i = 0, n = 2 + random.nextInt(30); i < n; i++) {
+                if (i > 0)
+                    text.append(' ');
+                text.append(words[random.nextInt(words.length)]);
+            }
+            return text.toString();
+        }
+        throw new IllegalArgumentException("Unknown kind: " + kind);
+    }
+
+    /**
+     * Generate a column of values.
+     *
+     * @param   kind        the kind of value
+     * @param   numRows     the number of rows
+     * @return              the values
+     */
+    public String[] column(Kind kind, int numRows) {
+        String[] result = new String[numRows];
+        for (int i = 0; i < numRows; i++)
+            result[i] = value(kind, i);
+        return result;
+    }
+
+    /**
+     * Write a CSV file containing one column of each {@link Kind}, with a header line giving the column names.
+     *
+     * @param   file        the output {@link File}
+     * @param   numRows     the number of rows (excluding the header)
+     * @throws  IOException if thrown writing the file
+     */
+    public void writeCSV(File file, int numRows) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8))) {
+            writeCSV(writer, numRows);
+        }
+    }
+
+    /**
+     * Write CSV data containing one column of each {@link Kind}, with a header line giving the column names.
+     *
+     * @param   writer      the output {@link Writer}
+     * @param   numRows     the number of rows (excluding the header)
+     * @throws  IOException if thrown writing the data
+     */
+    public void writeCSV(Writer writer, int numRows) throws IOException {
+        Kind[] kinds = Kind.values();
+        for (int i = 0; i < kinds.length; i++) {
+            if (i > 0)
+                writer.write(',');
+            writer.write(kinds[i].name());
+        }
+        writer.write('\n');
+        for (int row = 0; row < numRows; row++) {
+            for (int i = 0; i < kinds.length; i++) {
+                if (i > 0)
+                    writer.write(',');
+                writer.write(value(kinds[i], row));
+            }
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Create a synthetic CSV file from the command line.
+     *
+     * @param   args    the output filename, the number of rows, and optionally the seed
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length < 2)
+                throw new IllegalArgumentException("Usage: SyntheticData filename rows [seed]");
+            SyntheticData data = args.length > 2 ? new SyntheticData(Long.parseLong(args[2])) :
+                    new SyntheticData();
+            data.writeCSV(new File(args[0]), Integer.parseInt(args[1]));
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+}
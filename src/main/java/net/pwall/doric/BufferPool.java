@@ -25,59 +25,464 @@
 
 package net.pwall.doric;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
-public class BufferPool {
+/**
+ * A pool of buffers holding blocks read from column files, managed on a least-recently-used basis.
+ *
+ * <p>Files are identified by {@link FileHandle}s, which are opened (and may be closed) by a {@link FileHandleCache};
+ * the pool acquires the file channel only for the duration of each read.</p>
+ *
+ * <p>When a file is being read sequentially, the pool will read ahead: the blocks following the one requested are
+ * read asynchronously by a small pool of I/O threads, so that the next block will usually be available by the time
+ * the scan reaches it.  The number of blocks read ahead adapts to the rate at which the scan consumes them: it is
+ * doubled each time the scan has to wait for a block that is still being read, and halved each time blocks that have
+ * been read ahead are discarded because the scan has stopped (or jumped elsewhere).  Read-ahead is only used when the
+ * observed read latency for the file is high enough to justify the cost of handing the reads to another thread; a
+ * file that is already in the operating system cache is read synchronously.</p>
+ *
+ * @author  Peter Wall
+ */
+public class BufferPool implements BufferPoolMXBean {
+
+    public static final int defaultMaxReadAhead = 8;
+    public static final int defaultReadAheadThreads = 2;
+    public static final int sequentialThreshold = 2;
+    public static final long readAheadMinLatency = 50000; // nanoseconds
 
     private int maxEntries;
     private int bufferSize;
     private boolean direct;
+    private int maxReadAhead;
+    private int readAheadThreads;
     private List<Entry> pool;
+    private Metrics totalMetrics;
+    private long evictions;
+    private Map<String, Metrics> metricsByName;
+    private Map<FileHandle, Metrics> metricsByHandle;
+    private Map<FileHandle, ReadAhead> readAheadByHandle;
+    private FileHandle lastHandle;
+    private ReadAhead lastReadAhead;
+    private Deque<ByteBuffer> freeBuffers;
+    private ThreadPoolExecutor executor;
 
-    public BufferPool(int maxEntries, int bufferSize, boolean direct) {
+    /**
+     * Construct a {@code BufferPool}.
+     *
+     * @param   maxEntries          the maximum number of buffers in the pool
+     * @param   bufferSize          the buffer size (must be a power of 2)
+     * @param   direct              {@code true} to use direct buffers
+     * @param   maxReadAhead        the maximum number of blocks to read ahead on a sequential scan (0 to disable
+     *                              read-ahead)
+     * @param   readAheadThreads    the number of threads to use for read-ahead
+     */
+    public BufferPool(int maxEntries, int bufferSize, boolean direct, int maxReadAhead, int readAheadThreads) {
         if (((bufferSize - 1) & bufferSize) != 0 || bufferSize < 8)
             throw new IllegalArgumentException("Buffer size must be power of 2 and >= 8");
+        if (maxReadAhead < 0 || maxReadAhead > 0 && readAheadThreads < 1)
+            throw new IllegalArgumentException("Invalid read-ahead parameters");
         this.maxEntries = maxEntries;
         this.bufferSize = bufferSize;
         this.direct = direct;
+        this.maxReadAhead = maxReadAhead;
+        this.readAheadThreads = readAheadThreads;
         pool = new ArrayList<>(maxEntries);
+        totalMetrics = new Metrics("total");
+        evictions = 0;
+        metricsByName = new HashMap<>();
+        metricsByHandle = new IdentityHashMap<>();
+        readAheadByHandle = new IdentityHashMap<>();
+        lastHandle = null;
+        lastReadAhead = null;
+        freeBuffers = new ArrayDeque<>();
+        executor = null;
+    }
+
+    public BufferPool(int maxEntries, int bufferSize, boolean direct) {
+        this(maxEntries, bufferSize, direct, defaultMaxReadAhead, defaultReadAheadThreads);
     }
 
+    /**
+     * Register the pool as a JMX MBean, with an object name of
+     * {@code net.pwall.doric:type=BufferPool,name=}<i>name</i>.  If an MBean of that name is already registered, no
+     * action is taken.
+     *
+     * @param   name    the name to be used in the object name
+     */
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("net.pwall.doric:type=BufferPool,name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName))
+                server.registerMBean(this, objectName);
+        }
+        catch (JMException e) {
+            throw new RuntimeException("Error registering buffer pool MBean", e);
+        }
+    }
+
+    @Override
     public int getBufferSize() {
         return bufferSize;
     }
 
-    public ByteBuffer findBuffer(FileChannel channel, long fileSize, long offset) throws IOException {
+    /**
+     * Find the buffer holding the block containing the given offset in a file, reading it if necessary.  If the block
+     * is being read ahead, the wait for the read takes place without holding the lock on the pool, so that other
+     * threads may use the pool in the meantime.
+     *
+     * @param   handle      the {@link FileHandle}
+     * @param   fileSize    the file size
+     * @param   offset      the offset
+     * @return              the buffer, positioned at the offset
+     * @throws  IOException if thrown reading the file
+     */
+    public ByteBuffer findBuffer(FileHandle handle, long fileSize, long offset) throws IOException {
         long bufferOffset = roundDown(offset, bufferSize);
-        long bytesRemaining = fileSize - bufferOffset;
+        ReadAheadTask task;
+        synchronized (this) {
+            if (maxReadAhead > 0)
+                checkReadAhead(handle, fileSize, bufferOffset);
+            ByteBuffer buffer = findInPool(handle, offset, bufferOffset);
+            if (buffer != null)
+                return buffer;
+            task = maxReadAhead > 0 ? takeReadAhead(handle, bufferOffset) : null;
+            if (task == null)
+                return readIntoPool(handle, fileSize, offset, bufferOffset);
+        }
+        Completed completed = awaitReadAhead(task);
+        synchronized (this) {
+            ByteBuffer buffer = findInPool(handle, offset, bufferOffset);
+            if (buffer != null) {
+                // another thread has read the block while this one was waiting
+                if (completed != null)
+                    freeBuffers.addFirst(completed.buffer);
+                return buffer;
+            }
+            if (completed == null)
+                return readIntoPool(handle, fileSize, offset, bufferOffset);
+            Entry entry = addEntry(handle, bufferOffset);
+            recordLatency(handle, completed.latency);
+            freeBuffers.addFirst(entry.getBuffer());
+            entry.setBuffer(completed.buffer);
+            totalMetrics.recordReadAhead(completed.buffer.limit(), completed.latency);
+            entry.getMetrics().recordReadAhead(completed.buffer.limit(), completed.latency);
+            return positionBuffer(completed.buffer, offset, bufferOffset);
+        }
+    }
+
+    private ByteBuffer findInPool(FileHandle handle, long offset, long bufferOffset) {
         for (int i = 0, n = pool.size(); i < n; i++) {
             Entry entry = pool.get(i);
-            if (entry.getChannel() == channel && entry.getOffset() == bufferOffset) {
+            if (entry.getHandle() == handle && entry.getOffset() == bufferOffset) {
                 if (i > 0) {
                     pool.remove(i);
                     pool.add(0, entry);
                 }
-                ByteBuffer buffer = entry.getBuffer();
-                return positionBuffer(buffer, offset, bufferOffset);
+                totalMetrics.hits++;
+                entry.getMetrics().hits++;
+                return positionBuffer(entry.getBuffer(), offset, bufferOffset);
             }
         }
-        Entry entry = pool.size() == maxEntries ? pool.remove(maxEntries - 1) : new Entry(bufferSize, direct);
+        return null;
+    }
+
+    private Entry addEntry(FileHandle handle, long bufferOffset) {
+        Entry entry;
+        if (pool.size() == maxEntries) {
+            entry = pool.remove(maxEntries - 1);
+            evictions++;
+        }
+        else
+            entry = new Entry(allocateBuffer());
         pool.add(0, entry);
-        entry.setChannel(channel);
+        entry.setHandle(handle);
         entry.setOffset(bufferOffset);
-        channel.position(bufferOffset);
+        entry.setMetrics(getMetrics(handle));
+        return entry;
+    }
+
+    private ByteBuffer readIntoPool(FileHandle handle, long fileSize, long offset, long bufferOffset)
+            throws IOException {
+        Entry entry = addEntry(handle, bufferOffset);
+        long startTime = System.nanoTime();
         ByteBuffer buffer = entry.getBuffer();
+        try {
+            readBlock(handle, fileSize, bufferOffset, buffer);
+        }
+        catch (IOException | RuntimeException e) {
+            pool.remove(entry);
+            throw e;
+        }
+        long latency = System.nanoTime() - startTime;
+        if (maxReadAhead > 0)
+            recordLatency(handle, latency);
+        int bytesRead = buffer.limit();
+        totalMetrics.recordMiss(bytesRead, latency);
+        entry.getMetrics().recordMiss(bytesRead, latency);
+        return positionBuffer(buffer, offset, bufferOffset);
+    }
+
+    /**
+     * Read a block from a file into a buffer.  The file channel is acquired from the handle for the duration of the
+     * read, and a positional read is used, so that reads may be performed concurrently by the read-ahead threads.
+     *
+     * @param   handle      the {@link FileHandle}
+     * @param   fileSize    the file size
+     * @param   blockOffset the offset of the block
+     * @param   buffer      the buffer
+     * @throws  IOException if thrown by the channel, or if the file is shorter than expected
+     */
+    private void readBlock(FileHandle handle, long fileSize, long blockOffset, ByteBuffer buffer)
+            throws IOException {
         buffer.clear();
+        long bytesRemaining = fileSize - blockOffset;
         if (bytesRemaining < bufferSize)
             buffer.limit((int)(bytesRemaining));
-        do {
-            channel.read(buffer);
-        } while (buffer.hasRemaining());
-        return positionBuffer(buffer, offset, bufferOffset);
+        FileChannel channel = handle.acquire();
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, blockOffset + buffer.position()) < 0)
+                    throw new EOFException();
+            }
+        }
+        finally {
+            handle.release();
+        }
+    }
+
+    /**
+     * Track the sequence of blocks requested from a file, and when a sequential scan is detected, start the
+     * asynchronous reads of the blocks that follow.
+     *
+     * @param   handle      the {@link FileHandle}
+     * @param   fileSize    the file size
+     * @param   bufferOffset    the offset of the block being requested
+     */
+    private void checkReadAhead(FileHandle handle, long fileSize, long bufferOffset) {
+        ReadAhead readAhead;
+        if (handle == lastHandle)
+            readAhead = lastReadAhead;
+        else {
+            readAhead = readAheadByHandle.computeIfAbsent(handle, k -> new ReadAhead());
+            lastHandle = handle;
+            lastReadAhead = readAhead;
+        }
+        if (bufferOffset == readAhead.lastOffset)
+            return;
+        if (bufferOffset == readAhead.lastOffset + bufferSize)
+            readAhead.runLength++;
+        else {
+            readAhead.runLength = 0;
+            if (!readAhead.pending.isEmpty()) {
+                discardReadAhead(handle, readAhead);
+                readAhead.depth = Math.max(readAhead.depth / 2, 1);
+            }
+            readAhead.nextOffset = 0;
+        }
+        readAhead.lastOffset = bufferOffset;
+        if (readAhead.runLength < sequentialThreshold || readAhead.latency < readAheadMinLatency)
+            return;
+        long limit = Math.min(bufferOffset + (long)(readAhead.depth + 1) * bufferSize, fileSize);
+        for (long blockOffset = Math.max(bufferOffset + bufferSize, readAhead.nextOffset); blockOffset < limit;
+                blockOffset += bufferSize) {
+            if (!readAhead.pending.containsKey(blockOffset) && !isInPool(handle, blockOffset))
+                startReadAhead(handle, fileSize, blockOffset, readAhead);
+        }
+        readAhead.nextOffset = Math.max(readAhead.nextOffset, limit);
+    }
+
+    /**
+     * Record the latency of a read, as an exponentially weighted moving average, for use in deciding whether to read
+     * ahead on the file.
+     *
+     * @param   handle  the {@link FileHandle}
+     * @param   latency the latency of the read in nanoseconds
+     */
+    private void recordLatency(FileHandle handle, long latency) {
+        ReadAhead readAhead = handle == lastHandle ? lastReadAhead : readAheadByHandle.get(handle);
+        if (readAhead != null)
+            readAhead.latency += (latency - readAhead.latency) / 8;
+    }
+
+    private void startReadAhead(FileHandle handle, long fileSize, long blockOffset, ReadAhead readAhead) {
+        ReadAheadTask task = new ReadAheadTask(allocateBuffer());
+        task.future = getExecutor().submit(() -> runReadAhead(handle, fileSize, blockOffset, task));
+        readAhead.pending.put(blockOffset, task);
+        getMetrics(handle).readAheads++;
+        totalMetrics.readAheads++;
+    }
+
+    /**
+     * Perform a read-ahead (on a read-ahead thread).  If the read has been discarded before it starts, it is skipped;
+     * if it is discarded while the read is in progress, the buffer is returned to the free list when the read
+     * completes.
+     *
+     * @param   handle      the {@link FileHandle}
+     * @param   fileSize    the file size
+     * @param   blockOffset the offset of the block
+     * @param   task        the {@link ReadAheadTask}
+     * @return              the completed read, or {@code null} if the read was discarded
+     * @throws  IOException if thrown reading the file
+     */
+    private Completed runReadAhead(FileHandle handle, long fileSize, long blockOffset, ReadAheadTask task)
+            throws IOException {
+        synchronized (this) {
+            if (task.discarded) {
+                task.finished = true;
+                freeBuffers.addFirst(task.buffer);
+                return null;
+            }
+        }
+        long startTime = System.nanoTime();
+        boolean discarded;
+        try {
+            readBlock(handle, fileSize, blockOffset, task.buffer);
+        }
+        finally {
+            synchronized (this) {
+                task.finished = true;
+                discarded = task.discarded;
+                if (discarded)
+                    freeBuffers.addFirst(task.buffer);
+            }
+        }
+        return discarded ? null : new Completed(task.buffer, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Take the read-ahead for the requested block, if there is one.  If the read has not yet completed (so that the
+     * scan will have to wait), the read-ahead depth for the file is increased.
+     *
+     * @param   handle      the {@link FileHandle}
+     * @param   bufferOffset    the offset of the block
+     * @return              the {@link ReadAheadTask}, or {@code null} if there is none
+     */
+    private ReadAheadTask takeReadAhead(FileHandle handle, long bufferOffset) {
+        ReadAhead readAhead = handle == lastHandle ? lastReadAhead : readAheadByHandle.get(handle);
+        if (readAhead == null)
+            return null;
+        ReadAheadTask task = readAhead.pending.remove(bufferOffset);
+        if (task != null && !task.future.isDone()) {
+            readAhead.depth = Math.min(readAhead.depth * 2, maxReadAhead);
+            getMetrics(handle).readAheadWaits++;
+            totalMetrics.readAheadWaits++;
+        }
+        return task;
+    }
+
+    /**
+     * Wait for a read-ahead to complete.  This must be called without holding the lock on the pool.
+     *
+     * @param   task    the {@link ReadAheadTask}
+     * @return          the completed read, or {@code null} if it failed (or the wait was interrupted)
+     */
+    private Completed awaitReadAhead(ReadAheadTask task) {
+        try {
+            return task.future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (this) {
+                discardTask(task);
+            }
+            return null;
+        }
+        catch (ExecutionException e) {
+            synchronized (this) {
+                freeBuffers.addFirst(task.buffer);
+            }
+            return null;
+        }
+    }
+
+    private void discardReadAhead(FileHandle handle, ReadAhead readAhead) {
+        Metrics metrics = getMetrics(handle);
+        for (ReadAheadTask task : readAhead.pending.values()) {
+            discardTask(task);
+            metrics.readAheadsWasted++;
+            totalMetrics.readAheadsWasted++;
+        }
+        readAhead.pending.clear();
+    }
+
+    /**
+     * Discard a read-ahead.  The task is not cancelled, because a cancelled task may still be writing to its buffer;
+     * instead, it is marked as discarded, and the buffer is returned to the free list either now (if the read has
+     * finished) or by the read-ahead thread when it finishes.
+     *
+     * @param   task    the {@link ReadAheadTask}
+     */
+    private void discardTask(ReadAheadTask task) {
+        if (task.finished)
+            freeBuffers.addFirst(task.buffer);
+        else
+            task.discarded = true;
+    }
+
+    private boolean isInPool(FileHandle handle, long bufferOffset) {
+        for (int i = 0, n = pool.size(); i < n; i++) {
+            Entry entry = pool.get(i);
+            if (entry.getHandle() == handle && entry.getOffset() == bufferOffset)
+                return true;
+        }
+        return false;
+    }
+
+    private ByteBuffer allocateBuffer() {
+        ByteBuffer buffer = freeBuffers.pollFirst();
+        if (buffer != null)
+            return buffer;
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(readAheadThreads, readAheadThreads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "doric-read-ahead");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Get the metrics for a file.  The metrics are accumulated by pathname, so that if a file is closed and re-opened,
+     * the statistics are combined.
+     *
+     * @param   handle  the {@link FileHandle}
+     * @return          the metrics
+     */
+    private Metrics getMetrics(FileHandle handle) {
+        Metrics metrics = metricsByHandle.get(handle);
+        if (metrics == null) {
+            metrics = metricsByName.computeIfAbsent(handle.getFile().getPath(), Metrics::new);
+            metricsByHandle.put(handle, metrics);
+        }
+        return metrics;
     }
 
     private ByteBuffer positionBuffer(ByteBuffer buffer, long offset, long bufferOffset) {
@@ -85,14 +490,126 @@ public class BufferPool {
         return buffer;
     }
 
-    public void purge(FileChannel channel) {
+    synchronized int getNumFreeBuffers() {
+        return freeBuffers.size();
+    }
+
+    public synchronized void purge(FileHandle handle) {
         int i = 0;
         while (i < pool.size()) {
-            if (pool.get(i).getChannel() == channel)
+            if (pool.get(i).getHandle() == handle)
                 pool.remove(i);
             else
                 i++;
         }
+        metricsByHandle.remove(handle);
+        ReadAhead readAhead = readAheadByHandle.remove(handle);
+        if (readAhead != null)
+            discardReadAhead(handle, readAhead);
+        if (handle == lastHandle) {
+            lastHandle = null;
+            lastReadAhead = null;
+        }
+    }
+
+    /**
+     * Get a snapshot of the statistics for the pool.
+     *
+     * @return  the {@link BufferPoolStats}
+     */
+    public synchronized BufferPoolStats getStats() {
+        List<BufferPoolStats.ChannelStats> channels = new ArrayList<>(metricsByName.size());
+        for (Metrics metrics : metricsByName.values())
+            channels.add(metrics.snapshot());
+        return new BufferPoolStats(maxEntries, bufferSize, pool.size(), evictions, totalMetrics.snapshot(),
+                channels);
+    }
+
+    @Override
+    public synchronized void resetStats() {
+        totalMetrics.reset();
+        evictions = 0;
+        for (Metrics metrics : metricsByName.values())
+            metrics.reset();
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public synchronized int getEntriesInUse() {
+        return pool.size();
+    }
+
+    @Override
+    public synchronized long getHits() {
+        return totalMetrics.hits;
+    }
+
+    @Override
+    public synchronized long getMisses() {
+        return totalMetrics.misses;
+    }
+
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized long getBytesRead() {
+        return totalMetrics.bytesRead;
+    }
+
+    @Override
+    public synchronized long getReadAheads() {
+        return totalMetrics.readAheads;
+    }
+
+    @Override
+    public synchronized long getReadAheadHits() {
+        return totalMetrics.readAheadHits;
+    }
+
+    @Override
+    public synchronized long getReadAheadWaits() {
+        return totalMetrics.readAheadWaits;
+    }
+
+    @Override
+    public synchronized long getReadAheadsWasted() {
+        return totalMetrics.readAheadsWasted;
+    }
+
+    @Override
+    public double getHitRatio() {
+        return getStats().getHitRatio();
+    }
+
+    @Override
+    public synchronized long[] getReadLatencyHistogram() {
+        return totalMetrics.readLatency.getCounts();
+    }
+
+    @Override
+    public synchronized double getMeanReadLatencyMicros() {
+        return totalMetrics.readLatency.getMeanMicros();
+    }
+
+    @Override
+    public String[] getChannelSummaries() {
+        List<BufferPoolStats.ChannelStats> channels = getStats().getChannels();
+        String[] result = new String[channels.size()];
+        for (int i = 0, n = channels.size(); i < n; i++) {
+            BufferPoolStats.ChannelStats channel = channels.get(i);
+            result[i] = channel.getName() + ": hits=" + channel.getHits() + ", misses=" + channel.getMisses() +
+                    ", readAheadHits=" + channel.getReadAheadHits() + ", bytesRead=" + channel.getBytesRead() +
+                    ", meanReadMicros=" +
+                    channel.getReadLatency().getMeanMicros();
+        }
+        return result;
     }
 
     /**
@@ -108,24 +625,131 @@ public class BufferPool {
         return offset & -bufferSize;
     }
 
+    /**
+     * The counters accumulated for a file (or for the pool as a whole).
+     */
+    private static class Metrics {
+
+        private String name;
+        private long hits;
+        private long misses;
+        private long bytesRead;
+        private long readAheads;
+        private long readAheadHits;
+        private long readAheadWaits;
+        private long readAheadsWasted;
+        private LatencyHistogram readLatency;
+
+        public Metrics(String name) {
+            this.name = name;
+            readLatency = new LatencyHistogram();
+        }
+
+        public void recordMiss(int bytes, long latency) {
+            misses++;
+            bytesRead += bytes;
+            readLatency.record(latency);
+        }
+
+        public void recordReadAhead(int bytes, long latency) {
+            readAheadHits++;
+            bytesRead += bytes;
+            readLatency.record(latency);
+        }
+
+        public void reset() {
+            hits = 0;
+            misses = 0;
+            bytesRead = 0;
+            readAheads = 0;
+            readAheadHits = 0;
+            readAheadWaits = 0;
+            readAheadsWasted = 0;
+            readLatency.reset();
+        }
+
+        public BufferPoolStats.ChannelStats snapshot() {
+            return new BufferPoolStats.ChannelStats(name, hits, misses, bytesRead, readAheads, readAheadHits,
+                    readAheadWaits, readAheadsWasted, new LatencyHistogram(readLatency));
+        }
+
+    }
+
+    /**
+     * The read-ahead state for a file.
+     */
+    private static class ReadAhead {
+
+        private long lastOffset;
+        private int runLength;
+        private int depth;
+        private long nextOffset;
+        private long latency;
+        private TreeMap<Long, ReadAheadTask> pending;
+
+        public ReadAhead() {
+            lastOffset = -1;
+            runLength = 0;
+            depth = sequentialThreshold;
+            nextOffset = 0;
+            latency = 0;
+            pending = new TreeMap<>();
+        }
+
+    }
+
+    /**
+     * A read-ahead in progress.  The {@code discarded} and {@code finished} flags are guarded by the lock on the pool.
+     */
+    private static class ReadAheadTask {
+
+        private ByteBuffer buffer;
+        private Future<Completed> future;
+        private boolean discarded;
+        private boolean finished;
+
+        public ReadAheadTask(ByteBuffer buffer) {
+            this.buffer = buffer;
+            discarded = false;
+            finished = false;
+        }
+
+    }
+
+    /**
+     * The result of a completed read-ahead.
+     */
+    private static class Completed {
+
+        private ByteBuffer buffer;
+        private long latency;
+
+        public Completed(ByteBuffer buffer, long latency) {
+            this.buffer = buffer;
+            this.latency = latency;
+        }
+
+    }
+
     private static class Entry {
 
-        private FileChannel channel;
+        private FileHandle handle;
         private long offset;
         private ByteBuffer buffer;
+        private Metrics metrics;
 
-        public Entry(int size, boolean direct) {
-            channel = null;
+        public Entry(ByteBuffer buffer) {
+            handle = null;
             offset = 0;
-            buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+            this.buffer = buffer;
         }
 
-        public FileChannel getChannel() {
-            return channel;
+        public FileHandle getHandle() {
+            return handle;
         }
 
-        public void setChannel(FileChannel channel) {
-            this.channel = channel;
+        public void setHandle(FileHandle handle) {
+            this.handle = handle;
         }
 
         public long getOffset() {
@@ -136,10 +760,22 @@ public class BufferPool {
             this.offset = offset;
         }
 
+        public Metrics getMetrics() {
+            return metrics;
+        }
+
+        public void setMetrics(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
         private ByteBuffer getBuffer() {
             return buffer;
         }
 
+        private void setBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
     }
 
 }
@@ -0,0 +1,78 @@
+/*
+ * @(#) BufferPoolMXBean.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+/**
+ * Management interface for a {@link BufferPool}, allowing the pool statistics to be monitored through JMX.
+ *
+ * @author  Peter Wall
+ */
+public interface BufferPoolMXBean {
+
+    int getMaxEntries();
+
+    int getBufferSize();
+
+    int getEntriesInUse();
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    long getBytesRead();
+
+    long getReadAheads();
+
+    long getReadAheadHits();
+
+    long getReadAheadWaits();
+
+    long getReadAheadsWasted();
+
+    double getHitRatio();
+
+    /**
+     * Get the read latency histogram, as the counts in each bucket of a {@link LatencyHistogram}.
+     *
+     * @return  the bucket counts
+     */
+    long[] getReadLatencyHistogram();
+
+    double getMeanReadLatencyMicros();
+
+    /**
+     * Get a summary of the statistics for each file read through the pool, one line per file, in descending order of
+     * bytes read.
+     *
+     * @return  the summaries
+     */
+    String[] getChannelSummaries();
+
+    void resetStats();
+
+}
@@ -0,0 +1,228 @@
+/*
+ * @(#) BufferPoolStats.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.pwall.json.JSONArray;
+import net.pwall.json.JSONObject;
+
+/**
+ * A snapshot of the statistics for a {@link BufferPool}: the number of requests satisfied from the pool (hits), the
+ * number that required a read (misses), the number satisfied by a block that had been read ahead, the number of
+ * buffers evicted to make way for a read, the number of bytes read and a histogram of read latencies.  The same statistics are also given for each file (channel) read through the
+ * pool, in descending order of bytes read, so that the columns that dominate the I/O may be identified.
+ *
+ * @author  Peter Wall
+ */
+public class BufferPoolStats {
+
+    private int maxEntries;
+    private int bufferSize;
+    private int entriesInUse;
+    private long evictions;
+    private ChannelStats total;
+    private List<ChannelStats> channels;
+
+    public BufferPoolStats(int maxEntries, int bufferSize, int entriesInUse, long evictions, ChannelStats total,
+            List<ChannelStats> channels) {
+        this.maxEntries = maxEntries;
+        this.bufferSize = bufferSize;
+        this.entriesInUse = entriesInUse;
+        this.evictions = evictions;
+        this.total = total;
+        List<ChannelStats> list = new ArrayList<>(channels);
+        list.sort((a, b) -> Long.compare(b.getBytesRead(), a.getBytesRead()));
+        this.channels = Collections.unmodifiableList(list);
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getEntriesInUse() {
+        return entriesInUse;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getHits() {
+        return total.getHits();
+    }
+
+    public long getMisses() {
+        return total.getMisses();
+    }
+
+    public long getBytesRead() {
+        return total.getBytesRead();
+    }
+
+    public long getReadAheadHits() {
+        return total.getReadAheadHits();
+    }
+
+    public double getHitRatio() {
+        return total.getHitRatio();
+    }
+
+    public LatencyHistogram getReadLatency() {
+        return total.getReadLatency();
+    }
+
+    public List<ChannelStats> getChannels() {
+        return channels;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject result = JSONObject.create().putValue("maxEntries", maxEntries).
+                putValue("bufferSize", bufferSize).putValue("entriesInUse", entriesInUse).
+                putValue("evictions", evictions);
+        total.addToJSON(result);
+        JSONArray array = new JSONArray();
+        for (ChannelStats channel : channels) {
+            JSONObject json = JSONObject.create().putValue("name", channel.getName());
+            channel.addToJSON(json);
+            array.add(json);
+        }
+        result.put("channels", array);
+        return result;
+    }
+
+    /**
+     * The statistics for a single file (or for the pool as a whole).
+     */
+    public static class ChannelStats {
+
+        private String name;
+        private long hits;
+        private long misses;
+        private long bytesRead;
+        private long readAheads;
+        private long readAheadHits;
+        private long readAheadWaits;
+        private long readAheadsWasted;
+        private LatencyHistogram readLatency;
+
+        public ChannelStats(String name, long hits, long misses, long bytesRead, long readAheads,
+                long readAheadHits, long readAheadWaits, long readAheadsWasted, LatencyHistogram readLatency) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+            this.bytesRead = bytesRead;
+            this.readAheads = readAheads;
+            this.readAheadHits = readAheadHits;
+            this.readAheadWaits = readAheadWaits;
+            this.readAheadsWasted = readAheadsWasted;
+            this.readLatency = readLatency;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * Get the number of blocks read ahead.
+         *
+         * @return  the number of read-ahead operations started
+         */
+        public long getReadAheads() {
+            return readAheads;
+        }
+
+        /**
+         * Get the number of requests satisfied by a block that had been read ahead (whether or not the read had
+         * completed by the time of the request).
+         *
+         * @return  the number of read-ahead hits
+         */
+        public long getReadAheadHits() {
+            return readAheadHits;
+        }
+
+        /**
+         * Get the number of requests that had to wait for a read-ahead to complete.
+         *
+         * @return  the number of waits
+         */
+        public long getReadAheadWaits() {
+            return readAheadWaits;
+        }
+
+        /**
+         * Get the number of blocks read ahead that were discarded without being used.
+         *
+         * @return  the number of wasted read-aheads
+         */
+        public long getReadAheadsWasted() {
+            return readAheadsWasted;
+        }
+
+        /**
+         * Get the proportion of requests satisfied without a synchronous read, that is, those satisfied from the pool
+         * or from a block that had been read ahead.
+         *
+         * @return  the hit ratio
+         */
+        public double getHitRatio() {
+            long requests = hits + misses + readAheadHits;
+            return requests == 0 ? 0.0 : (double)(hits + readAheadHits) / requests;
+        }
+
+        public LatencyHistogram getReadLatency() {
+            return readLatency;
+        }
+
+        private void addToJSON(JSONObject json) {
+            json.putValue("hits", hits).putValue("misses", misses).putValue("hitRatio", getHitRatio()).
+                    putValue("bytesRead", bytesRead).putValue("readAheads", readAheads).
+                    putValue("readAheadHits", readAheadHits).putValue("readAheadWaits", readAheadWaits).
+                    putValue("readAheadsWasted", readAheadsWasted).put("readLatency", readLatency.toJSON());
+        }
+
+    }
+
+}
@@ -0,0 +1,388 @@
+/*
+ * @(#) Catalog.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The binary metadata catalog for a table.  This holds the same information as {@code metadata.json}, in a compact
+ * form that can be memory-mapped and read without parsing: a fixed header, a directory of column descriptor offsets,
+ * and the column descriptors themselves.  Opening a table reads only the header; each column descriptor is decoded
+ * when the column is first used.
+ *
+ * <p>File layout (all values big-endian):</p>
+ * <pre>
+ *   int      magic ("DORC")
+ *   short    version
+ *   short    flags (reserved)
+ *   long     number of rows
+ *   int      number of columns (n)
+ *   string   table name
+ *   string   source
+ *   int[n+1] offsets of the column descriptors (the last is the end of the file)
+ *   column descriptors
+ * </pre>
+ * <p>Strings are stored as an int length followed by UTF-8 bytes, with a length of -1 for {@code null}.  Enumerated
+ * values are stored as ordinals, so new enum values must only be added at the end.</p>
+ * <p>Version 2 added the column cardinality (a long following the floating-point minimum and maximum); version 1 files
+ * are still readable.</p>
+ *
+ * @author  Peter Wall
+ */
+public class Catalog {
+
+    public static final String fileName = "catalog.bin";
+    public static final int magic = 0x444F5243;
+    public static final int version = 2;
+
+    private static final int flagNullable = 1;
+    private static final int flagAscending = 2;
+    private static final int flagDescending = 4;
+    private static final int flagCardinalityEstimated = 8;
+
+    private static final int fileKindMain = 0;
+    private static final int fileKindData = 1;
+    private static final int fileKindBitmaps = 2;
+    private static final int fileKindSorted = 3;
+    private static final int fileKindText = 4;
+    private static final int fileKindBloom = 5;
+    private static final int fileKindSketch = 6;
+
+    private ByteBuffer buffer;
+    private String name;
+    private String source;
+    private int fileVersion;
+    private long numRows;
+    private int numColumns;
+    private int directoryOffset;
+    private Map<String, Integer> columnNumbers;
+
+    private Catalog(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < 20 || buffer.getInt(0) != magic)
+            throw new IOException("Not a catalog file");
+        fileVersion = buffer.getShort(4);
+        if (fileVersion > version)
+            throw new IOException("Unsupported catalog version: " + fileVersion);
+        numRows = buffer.getLong(8);
+        numColumns = buffer.getInt(16);
+        try {
+            ByteBuffer header = buffer.duplicate();
+            header.position(20);
+            name = readString(header);
+            source = readString(header);
+            directoryOffset = header.position();
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Catalog file truncated");
+        }
+        if (numColumns < 0 || directoryOffset + (numColumns + 1L) * 4 > buffer.limit() ||
+                getOffset(numColumns) != buffer.limit())
+            throw new IOException("Catalog file truncated");
+        int previous = directoryOffset + (numColumns + 1) * 4;
+        for (int i = 0; i < numColumns; i++) {
+            int offset = getOffset(i);
+            if (offset < previous)
+                throw new IOException("Catalog file corrupt");
+            previous = offset;
+        }
+        columnNumbers = null;
+    }
+
+    /**
+     * Open the catalog file in the nominated table directory.  The file is memory-mapped; only the header is read.
+     *
+     * @param   directory   the table directory
+     * @return              the {@code Catalog}
+     * @throws  IOException if the file can not be read, or is not a valid catalog
+     */
+    public static Catalog open(File directory) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, fileName), "r")) {
+            FileChannel channel = raf.getChannel();
+            return new Catalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Test whether the nominated table directory contains a catalog file.
+     *
+     * @param   directory   the table directory
+     * @return              {@code true} if the catalog file exists
+     */
+    public static boolean exists(File directory) {
+        return new File(directory, fileName).isFile();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getNumRows() {
+        return numRows;
+    }
+
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * Get the name of a column, without decoding the rest of the column descriptor.
+     *
+     * @param   columnNumber    the column number
+     * @return                  the column name
+     */
+    public String getColumnName(int columnNumber) {
+        ByteBuffer descriptor = buffer.duplicate();
+        descriptor.position(getOffset(columnNumber));
+        return readString(descriptor);
+    }
+
+    /**
+     * Find a column by name.  The first call builds a map of the column names.
+     *
+     * @param   columnName  the column name
+     * @return              the column number, or -1 if not found
+     */
+    public synchronized int findColumn(String columnName) {
+        if (columnNumbers == null) {
+            Map<String, Integer> map = new HashMap<>(numColumns * 2);
+            for (int i = 0; i < numColumns; i++)
+                map.putIfAbsent(getColumnName(i), i);
+            columnNumbers = map;
+        }
+        Integer result = columnNumbers.get(columnName);
+        return result == null ? -1 : result;
+    }
+
+    /**
+     * Decode a column descriptor.
+     *
+     * @param   columnNumber    the column number
+     * @return                  a new {@link Column}
+     */
+    public Column readColumn(int columnNumber) {
+        if (columnNumber < 0 || columnNumber >= numColumns)
+            throw new IndexOutOfBoundsException("Column number out of range: " + columnNumber);
+        ByteBuffer descriptor = buffer.duplicate();
+        descriptor.position(getOffset(columnNumber));
+        Column column = new Column(readString(descriptor));
+        column.setType(Column.Type.values()[descriptor.get()]);
+        column.setStorageType(Column.StorageType.values()[descriptor.get()]);
+        column.setDataOffsetStorageType(Column.StorageType.values()[descriptor.get()]);
+        column.setDataLengthStorageType(Column.StorageType.values()[descriptor.get()]);
+        int flags = descriptor.get();
+        column.setNullable((flags & flagNullable) != 0);
+        column.setAscending((flags & flagAscending) != 0);
+        column.setDescending((flags & flagDescending) != 0);
+        column.setMinWidth(descriptor.getInt());
+        column.setMaxWidth(descriptor.getInt());
+        column.setMaxDecimals(descriptor.getInt());
+        column.setDecimalShift(descriptor.getInt());
+        column.setMinInt(descriptor.getLong());
+        column.setMaxInt(descriptor.getLong());
+        column.setMinFloat(descriptor.getDouble());
+        column.setMaxFloat(descriptor.getDouble());
+        if (fileVersion >= 2)
+            column.setCardinality(descriptor.getLong(), (flags & flagCardinalityEstimated) != 0);
+        if (column.getStorageType() == Column.StorageType.constant) {
+            if (column.getType() == Column.Type.integer)
+                column.setConstantValueInt(descriptor.getLong());
+            else if (column.getType() == Column.Type.floating)
+                column.setConstantValueFloat(descriptor.getDouble());
+            else
+                column.setConstantValue(readString(descriptor));
+        }
+        int numFiles = descriptor.get();
+        if (numFiles > 0) {
+            Column.FileData fileData = new Column.FileData();
+            for (int i = 0; i < numFiles; i++) {
+                int kind = descriptor.get();
+                Column.FileDetails details = new Column.FileDetails(readString(descriptor), descriptor.getLong());
+                switch (kind) {
+                case fileKindMain:
+                    fileData.setRowData(details);
+                    break;
+                case fileKindData:
+                    fileData.setBytesData(details);
+                    break;
+                case fileKindBitmaps:
+                    fileData.setBitmapIndex(details);
+                    break;
+                case fileKindSorted:
+                    fileData.setSortedIndex(details);
+                    break;
+                case fileKindText:
+                    fileData.setTextIndex(details);
+                    break;
+                case fileKindBloom:
+                    fileData.setBloomFilter(details);
+                    break;
+                case fileKindSketch:
+                    fileData.setSketch(details);
+                    break;
+                }
+            }
+            column.setFileData(fileData);
+        }
+        if (column.getMaxWidth() == 0) { // same treatment as "null" type in metadata.json
+            column.setMinWidth(0);
+            column.setNullable(true);
+            column.setType(Column.Type.undetermined);
+            column.setStorageType(Column.StorageType.none);
+        }
+        return column;
+    }
+
+    private int getOffset(int index) {
+        return buffer.getInt(directoryOffset + index * 4);
+    }
+
+    /**
+     * Write the catalog for a table to the nominated table directory.
+     *
+     * @param   table       the {@link Table}
+     * @param   directory   the table directory
+     * @throws  IOException if thrown writing the file
+     */
+    public static void write(Table table, File directory) throws IOException {
+        int numColumns = table.getNumColumns();
+        ByteArrayOutputStream descriptors = new ByteArrayOutputStream();
+        DataOutputStream descriptorsOut = new DataOutputStream(descriptors);
+        int[] offsets = new int[numColumns + 1];
+        for (int i = 0; i < numColumns; i++) {
+            offsets[i] = descriptorsOut.size();
+            writeColumn(descriptorsOut, table.getColumn(i));
+        }
+        offsets[numColumns] = descriptorsOut.size();
+        descriptorsOut.flush();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(magic);
+        headerOut.writeShort(version);
+        headerOut.writeShort(0);
+        headerOut.writeLong(table.getNumRows());
+        headerOut.writeInt(numColumns);
+        writeString(headerOut, table.getName());
+        writeString(headerOut, table.getSource());
+        int base = headerOut.size() + (numColumns + 1) * 4;
+        for (int offset : offsets)
+            headerOut.writeInt(base + offset);
+        headerOut.flush();
+
+        try (FileOutputStream out = new FileOutputStream(new File(directory, fileName))) {
+            header.writeTo(out);
+            descriptors.writeTo(out);
+        }
+    }
+
+    private static void writeColumn(DataOutputStream out, Column column) throws IOException {
+        writeString(out, column.getName());
+        out.writeByte(column.getType().ordinal());
+        out.writeByte(column.getStorageType().ordinal());
+        out.writeByte(column.getDataOffsetStorageType().ordinal());
+        out.writeByte(column.getDataLengthStorageType().ordinal());
+        out.writeByte((column.isNullable() ? flagNullable : 0) | (column.isAscending() ? flagAscending : 0) |
+                (column.isDescending() ? flagDescending : 0) |
+                (column.isCardinalityEstimated() ? flagCardinalityEstimated : 0));
+        out.writeInt(column.getMinWidth());
+        out.writeInt(column.getMaxWidth());
+        out.writeInt(column.getMaxDecimals());
+        out.writeInt(column.getDecimalShift());
+        out.writeLong(column.getMinInt());
+        out.writeLong(column.getMaxInt());
+        out.writeDouble(column.getMinFloat());
+        out.writeDouble(column.getMaxFloat());
+        out.writeLong(column.getCardinality());
+        if (column.getStorageType() == Column.StorageType.constant) {
+            if (column.getType() == Column.Type.integer)
+                out.writeLong(column.getConstantValueInt());
+            else if (column.getType() == Column.Type.floating)
+                out.writeDouble(column.getConstantValueFloat());
+            else
+                writeString(out, column.getConstantValue());
+        }
+        Column.FileData fileData = column.getFileData();
+        if (fileData == null)
+            out.writeByte(0);
+        else {
+            // in the order of the fileKind constants
+            Column.FileDetails[] files = { fileData.getRowData(), fileData.getBytesData(), fileData.getBitmapIndex(),
+                    fileData.getSortedIndex(), fileData.getTextIndex(), fileData.getBloomFilter(),
+                    fileData.getSketch() };
+            int numFiles = 0;
+            for (Column.FileDetails details : files)
+                if (details != null)
+                    numFiles++;
+            out.writeByte(numFiles);
+            for (int i = 0; i < files.length; i++) {
+                Column.FileDetails details = files[i];
+                if (details != null) {
+                    out.writeByte(i);
+                    writeString(out, details.getName());
+                    out.writeLong(details.getSize());
+                }
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null)
+            out.writeInt(-1);
+        else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        if (length > buffer.remaining())
+            throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
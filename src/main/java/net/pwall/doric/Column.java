@@ -25,9 +25,18 @@
 
 package net.pwall.doric;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import net.pwall.doric.columninput.ColumnInput;
+import net.pwall.doric.index.BitmapIndex;
+import net.pwall.doric.index.BloomFilter;
+import net.pwall.doric.index.SortedIndex;
+import net.pwall.doric.index.TextIndex;
 import net.pwall.json.JSONObject;
 
 /**
@@ -55,6 +64,9 @@ public class Column {
     private Map<Long, Long> integerUniqueValues;
     private Map<Double, Long> floatUniqueValues;
 
+    private long cardinality;
+    private boolean cardinalityEstimated;
+
     private Type type;
     private StorageType storageType;
     private StorageType dataOffsetStorageType;
@@ -66,7 +78,13 @@ public class Column {
 
     private FileData fileData;
 
-    private ColumnInput columnInput;
+    private File directory;
+    private volatile ColumnInput columnInput;
+    private BitmapIndex bitmapIndex;
+    private SortedIndex sortedIndex;
+    private TextIndex textIndex;
+    private BloomFilter bloomFilter;
+    private HyperLogLog sketch;
 
     public Column(String name) {
         this.name = name;
@@ -85,6 +103,9 @@ public class Column {
         integerUniqueValues = null;
         floatUniqueValues = null;
 
+        cardinality = 0;
+        cardinalityEstimated = false;
+
         type = Type.undetermined;
         storageType = StorageType.undetermined;
         dataOffsetStorageType = StorageType.undetermined;
@@ -96,7 +117,13 @@ public class Column {
         decimalShift = 0;
         fileData = null;
 
+        directory = null;
         columnInput = null;
+        bitmapIndex = null;
+        sortedIndex = null;
+        textIndex = null;
+        bloomFilter = null;
+        sketch = null;
     }
 
     public Type getType() {
@@ -107,14 +134,100 @@ public class Column {
         this.type = type;
     }
 
-    public ColumnInput getColumnInput() {
-        return columnInput;
+    /**
+     * Get the {@link ColumnInput} for the column.  The column input (and the files it reads) is opened on first use,
+     * so that a query on a table with many columns opens only the columns it uses.
+     *
+     * @return  the {@link ColumnInput}
+     * @throws  IOException if thrown opening the column input
+     * @throws  IllegalStateException if the column does not belong to an open table
+     */
+    public ColumnInput getColumnInput() throws IOException {
+        ColumnInput result = columnInput;
+        if (result == null) {
+            synchronized (this) {
+                result = columnInput;
+                if (result == null) {
+                    if (directory == null)
+                        throw new IllegalStateException("Column not open: " + name);
+                    result = ColumnInput.getExtendedColumnInputObject(directory, this);
+                    columnInput = result;
+                }
+            }
+        }
+        return result;
     }
 
     public void setColumnInput(ColumnInput columnInput) {
         this.columnInput = columnInput;
     }
 
+    /**
+     * Test whether the {@link ColumnInput} for the column has been opened.
+     *
+     * @return  {@code true} if the column input has been opened
+     */
+    public boolean isColumnInputOpen() {
+        return columnInput != null;
+    }
+
+    /**
+     * Close the {@link ColumnInput} for the column, if it has been opened.
+     *
+     * @throws  Exception if thrown by the column input
+     */
+    public synchronized void closeColumnInput() throws Exception {
+        if (columnInput != null) {
+            columnInput.close();
+            columnInput = null;
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Set the directory holding the files for the column, from which the {@link ColumnInput} will be opened.
+     *
+     * @param   directory   the directory
+     */
+    void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public BitmapIndex getBitmapIndex() {
+        return bitmapIndex;
+    }
+
+    public void setBitmapIndex(BitmapIndex bitmapIndex) {
+        this.bitmapIndex = bitmapIndex;
+    }
+
+    public SortedIndex getSortedIndex() {
+        return sortedIndex;
+    }
+
+    public void setSortedIndex(SortedIndex sortedIndex) {
+        this.sortedIndex = sortedIndex;
+    }
+
+    public TextIndex getTextIndex() {
+        return textIndex;
+    }
+
+    public void setTextIndex(TextIndex textIndex) {
+        this.textIndex = textIndex;
+    }
+
+    public BloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+
+    public void setBloomFilter(BloomFilter bloomFilter) {
+        this.bloomFilter = bloomFilter;
+    }
+
     public String getName() {
         return name;
     }
@@ -221,6 +334,48 @@ public class Column {
         return 0;
     }
 
+    /**
+     * Get the number of distinct non-null values in the column, as determined when the data was analysed.
+     *
+     * @return  the number of distinct values (0 if not known)
+     * @see     #isCardinalityEstimated()
+     */
+    public long getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Test whether the cardinality is an estimate (the column had too many distinct values to be counted exactly).
+     *
+     * @return  {@code true} if the cardinality is an estimate
+     */
+    public boolean isCardinalityEstimated() {
+        return cardinalityEstimated;
+    }
+
+    void setCardinality(long cardinality, boolean cardinalityEstimated) {
+        this.cardinality = cardinality;
+        this.cardinalityEstimated = cardinalityEstimated;
+    }
+
+    /**
+     * Get the {@link HyperLogLog} sketch of the values in the column.  A sketch is kept for every column with non-null
+     * values other than a constant column; for a column in a stored table, it is read from the sketch file when first
+     * requested.
+     *
+     * @return  the sketch, or {@code null} if the column does not have one (or was written without one)
+     * @throws  IOException if thrown reading the sketch file
+     */
+    public synchronized HyperLogLog getSketch() throws IOException {
+        if (sketch == null && directory != null && fileData != null && fileData.getSketch() != null)
+            sketch = HyperLogLog.read(new File(directory, fileData.getSketch().getName()));
+        return sketch;
+    }
+
+    void setSketch(HyperLogLog sketch) {
+        this.sketch = sketch;
+    }
+
     public Map<String, Long> getUniqueValues() {
         return uniqueValues;
     }
@@ -301,6 +456,147 @@ public class Column {
         this.fileData = fileData;
     }
 
+    /**
+     * Create a description of a column whose values are held in a number of separate columns (for example, the
+     * segments of a table to which data has been appended).  The storage type is the narrowest that will hold the
+     * values of all the columns, the column is nullable if any of them is nullable, and the value ranges cover all the
+     * columns; a decimal shift is retained only if all the columns use the same shift.  The result describes the
+     * values only; it has no column input or indexes (values are read from the individual columns).
+     *
+     * @param   columns     the columns (all with the same name)
+     * @return              the merged column (the single column if there is only one)
+     */
+    public static Column merge(List<Column> columns) {
+        if (columns.size() == 1)
+            return columns.get(0);
+        Column result = new Column(columns.get(0).name);
+        List<Column> stored = new ArrayList<>();
+        boolean constant = true;
+        for (Column column : columns) {
+            result.nullable |= column.nullable;
+            result.minWidth = Math.min(result.minWidth, column.minWidth);
+            result.maxWidth = Math.max(result.maxWidth, column.maxWidth);
+            result.maxDecimals = Math.max(result.maxDecimals, column.maxDecimals);
+            result.cardinality = Math.max(result.cardinality, column.cardinality);
+            if (column.storageType != StorageType.none)
+                stored.add(column);
+            Column first = columns.get(0);
+            if (column.storageType != StorageType.constant || !Objects.equals(column.value, first.value) ||
+                    !Objects.equals(column.valueInt, first.valueInt) ||
+                    !Objects.equals(column.valueFloat, first.valueFloat))
+                constant = false;
+        }
+        result.cardinalityEstimated = result.cardinality > 0;
+        if (stored.isEmpty()) {
+            result.storageType = StorageType.none;
+            return result;
+        }
+        result.type = stored.get(0).type;
+        for (Column column : stored) {
+            if (column.type != result.type)
+                result.type = (column.type == Type.integer || column.type == Type.floating) &&
+                        (result.type == Type.integer || result.type == Type.floating) ? Type.floating :
+                        Type.undetermined;
+        }
+        if (constant && !result.nullable) {
+            Column first = columns.get(0);
+            result.storageType = StorageType.constant;
+            result.value = first.value;
+            result.valueInt = first.valueInt;
+            result.valueFloat = first.valueFloat;
+            result.decimalShift = first.decimalShift;
+            result.minInt = first.minInt;
+            result.maxInt = first.maxInt;
+            result.minFloat = first.minFloat;
+            result.maxFloat = first.maxFloat;
+            return result;
+        }
+        if (result.type == Type.integer || result.type == Type.date) {
+            result.minInt = Long.MAX_VALUE;
+            result.maxInt = Long.MIN_VALUE;
+            for (Column column : stored) {
+                result.minInt = Math.min(result.minInt, column.minInt);
+                result.maxInt = Math.max(result.maxInt, column.maxInt);
+            }
+            result.storageType = ColumnAnalysis.getIntStorageType(result.minInt, result.maxInt, result.nullable);
+        }
+        else if (result.type == Type.floating) {
+            result.minFloat = Double.POSITIVE_INFINITY;
+            result.maxFloat = Double.NEGATIVE_INFINITY;
+            int shift = stored.get(0).decimalShift;
+            boolean shifted = true;
+            for (Column column : stored) {
+                boolean integer = column.type == Type.integer;
+                result.minFloat = Math.min(result.minFloat, integer ? column.minInt : column.minFloat);
+                result.maxFloat = Math.max(result.maxFloat, integer ? column.maxInt : column.maxFloat);
+                if (column.decimalShift != shift || column.storageType == StorageType.float64)
+                    shifted = false;
+            }
+            if (shifted) {
+                result.storageType = ColumnAnalysis.getIntStorageType(
+                        Math.round(result.minFloat * Table.decimalShifts[shift]),
+                        Math.round(result.maxFloat * Table.decimalShifts[shift]), result.nullable);
+                result.decimalShift = shift;
+            }
+            else
+                result.storageType = StorageType.float64;
+        }
+        else {
+            result.storageType = StorageType.bytes;
+            result.dataOffsetStorageType = StorageType.uint8;
+            result.dataLengthStorageType = StorageType.uint8;
+            for (Column column : stored) {
+                if (column.storageType == StorageType.bytes) {
+                    result.dataOffsetStorageType = wider(result.dataOffsetStorageType, column.dataOffsetStorageType);
+                    result.dataLengthStorageType = wider(result.dataLengthStorageType, column.dataLengthStorageType);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the narrower of the integer storage types that will hold all the values of both of the nominated types.
+     */
+    private static StorageType wider(StorageType a, StorageType b) {
+        return ColumnAnalysis.getIntStorageType(Math.min(minimum(a), minimum(b)), Math.max(maximum(a), maximum(b)),
+                false);
+    }
+
+    private static long minimum(StorageType storageType) {
+        switch (storageType) {
+        case int8:
+            return Byte.MIN_VALUE;
+        case int16:
+            return Short.MIN_VALUE;
+        case int32:
+            return Integer.MIN_VALUE;
+        case int64:
+            return Long.MIN_VALUE;
+        default:
+            return 0;
+        }
+    }
+
+    private static long maximum(StorageType storageType) {
+        switch (storageType) {
+        case int8:
+            return Byte.MAX_VALUE;
+        case uint8:
+            return 0xFF;
+        case int16:
+            return Short.MAX_VALUE;
+        case uint16:
+            return 0xFFFF;
+        case int32:
+            return Integer.MAX_VALUE;
+        case uint32:
+            return 0xFFFFFFFFL;
+        default:
+            return Long.MAX_VALUE;
+        }
+    }
+
     public JSONObject toJSON() {
         JSONObject json = JSONObject.create().putValue("name", name);
         if (maxWidth == 0) {
@@ -331,6 +627,11 @@ public class Column {
             int numUnique = getNumUniqueValues();
             if (numUnique > 0)
                 json.putValue("uniqueValues", numUnique);
+            if (cardinality > 0) {
+                json.putValue("cardinality", cardinality);
+                if (cardinalityEstimated)
+                    json.putValue("cardinalityEstimated", true);
+            }
             json.putValue("storageType", storageType.toString());
             if (storageType == StorageType.bytes) {
                 json.putValue("offsetStorageType", dataOffsetStorageType.toString());
@@ -392,6 +693,10 @@ public class Column {
             if (json.containsKey("nullable"))
                 column.nullable = json.getBoolean("nullable");
             // TODO - if "uniqueValues" is in JSON, how do we make use of it?
+            // (if the column has a bitmap index, the unique values are held in the index file)
+            if (json.containsKey("cardinality"))
+                column.setCardinality(json.getLong("cardinality"), json.containsKey("cardinalityEstimated") &&
+                        json.getBoolean("cardinalityEstimated"));
             column.storageType = StorageType.valueOf(json.getString("storageType"));
             if (column.storageType == StorageType.bytes) {
                 column.dataOffsetStorageType =
@@ -419,6 +724,11 @@ public class Column {
 
         private FileDetails rowData;
         private FileDetails bytesData;
+        private FileDetails bitmapIndex;
+        private FileDetails sortedIndex;
+        private FileDetails textIndex;
+        private FileDetails bloomFilter;
+        private FileDetails sketch;
 
         public FileDetails getRowData() {
             return rowData;
@@ -436,12 +746,62 @@ public class Column {
             this.bytesData = bytesData;
         }
 
+        public FileDetails getBitmapIndex() {
+            return bitmapIndex;
+        }
+
+        public void setBitmapIndex(FileDetails bitmapIndex) {
+            this.bitmapIndex = bitmapIndex;
+        }
+
+        public FileDetails getSortedIndex() {
+            return sortedIndex;
+        }
+
+        public void setSortedIndex(FileDetails sortedIndex) {
+            this.sortedIndex = sortedIndex;
+        }
+
+        public FileDetails getTextIndex() {
+            return textIndex;
+        }
+
+        public void setTextIndex(FileDetails textIndex) {
+            this.textIndex = textIndex;
+        }
+
+        public FileDetails getBloomFilter() {
+            return bloomFilter;
+        }
+
+        public void setBloomFilter(FileDetails bloomFilter) {
+            this.bloomFilter = bloomFilter;
+        }
+
+        public FileDetails getSketch() {
+            return sketch;
+        }
+
+        public void setSketch(FileDetails sketch) {
+            this.sketch = sketch;
+        }
+
         public JSONObject toJSON() {
             JSONObject result = new JSONObject();
             if (rowData != null)
                 result.put("main", rowData.toJSON());
             if (bytesData != null)
                 result.put("data", bytesData.toJSON());
+            if (bitmapIndex != null)
+                result.put("bitmaps", bitmapIndex.toJSON());
+            if (sortedIndex != null)
+                result.put("sorted", sortedIndex.toJSON());
+            if (textIndex != null)
+                result.put("text", textIndex.toJSON());
+            if (bloomFilter != null)
+                result.put("bloom", bloomFilter.toJSON());
+            if (sketch != null)
+                result.put("sketch", sketch.toJSON());
             return result.size() == 0 ? null : result;
         }
 
@@ -451,7 +811,20 @@ public class Column {
                 result.setRowData(FileDetails.fromJSON(json.getObject("main")));
             if (json.containsKey("data"))
                 result.setBytesData(FileDetails.fromJSON(json.getObject("data")));
-            return result.getRowData() == null && result.getBytesData() == null ? null : result;
+            if (json.containsKey("bitmaps"))
+                result.setBitmapIndex(FileDetails.fromJSON(json.getObject("bitmaps")));
+            if (json.containsKey("sorted"))
+                result.setSortedIndex(FileDetails.fromJSON(json.getObject("sorted")));
+            if (json.containsKey("text"))
+                result.setTextIndex(FileDetails.fromJSON(json.getObject("text")));
+            if (json.containsKey("bloom"))
+                result.setBloomFilter(FileDetails.fromJSON(json.getObject("bloom")));
+            if (json.containsKey("sketch"))
+                result.setSketch(FileDetails.fromJSON(json.getObject("sketch")));
+            return result.getRowData() == null && result.getBytesData() == null &&
+                    result.getBitmapIndex() == null && result.getSortedIndex() == null &&
+                    result.getTextIndex() == null && result.getBloomFilter() == null &&
+                    result.getSketch() == null ? null : result;
         }
 
     }
@@ -25,10 +25,12 @@
 
 package net.pwall.doric;
 
-import java.time.LocalDate;
-import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 
 import net.pwall.json.JSONArray;
 import net.pwall.json.JSONObject;
@@ -37,33 +39,40 @@ import net.pwall.util.SortedListMap;
 public class ColumnAnalysis {
 
     public static final int defaultMaxUniqueValues = 256;
+    public static final long maxUniqueValuesSize = 4 << 20;
 
     private String name;
 
     private int itemCount;
     private boolean nullable;
 
-    private MinMax<Integer> widthMinMax;
+    private IntMinMax widthMinMax;
+    private IntMax byteWidthMax;
 
     private boolean couldBeFloat;
-    private MinMax<Double> floatMinMax;
-    private Max<Integer> decimalMax;
+    private DoubleMinMax floatMinMax;
+    private IntMax decimalMax;
 
     private boolean couldBeInt;
-    private MinMax<Long> intMinMax;
+    private LongMinMax intMinMax;
 
     private boolean couldBeDate;
 
     private int maxUniqueValues;
     private Map<String, Long> uniqueValues;
+    private long uniqueValuesSize;
     // Implementation note - once the maximum is reached, this variable is set to null.
     // That can be used to determine that the column has more than the maximum
+    private HyperLogLog sketch;
+    // the sketch takes over the estimation of the number of distinct values from that point
 
     private String previousString;
 
     private boolean stringAscending;
     private boolean stringDescending;
 
+    private ValueParser parser;
+
     public ColumnAnalysis(String name, int maxUniqueValues) {
 
         this.name = name;
@@ -71,24 +80,29 @@ public class ColumnAnalysis {
         itemCount = 0;
         nullable = false;
 
-        widthMinMax = new MinMax<>();
+        widthMinMax = new IntMinMax();
+        byteWidthMax = new IntMax();
 
         couldBeFloat = true;
-        floatMinMax = new MinMax<>();
-        decimalMax = new Max<>();
+        floatMinMax = new DoubleMinMax();
+        decimalMax = new IntMax();
 
         couldBeInt = true;
-        intMinMax = new MinMax<>();
+        intMinMax = new LongMinMax();
 
         couldBeDate = true;
 
         this.maxUniqueValues = maxUniqueValues;
-        uniqueValues = new SortedListMap<>(maxUniqueValues);
+        uniqueValues = new HashMap<>();
+        uniqueValuesSize = 0;
+        sketch = null;
 
         previousString = "";
 
         stringAscending = true;
         stringDescending = true;
+
+        parser = new ValueParser();
     }
 
     public ColumnAnalysis(String name) {
@@ -105,49 +119,42 @@ public class ColumnAnalysis {
         }
 
         widthMinMax.accept(value.length());
+        byteWidthMax.accept(utf8Length(value));
 
-        if (couldBeFloat) {
-            try {
-                floatMinMax.accept(Double.valueOf(value));
-                int decimals = 0;
-                int i = value.indexOf('.');
-                if (i >= 0) {
-                    while (++i < value.length()) {
-                        char ch = value.charAt(i);
-                        if (ch < '0' || ch > '9')
-                            break;
-                        decimals++;
-                    }
-                }
-                decimalMax.accept(decimals);
+        // The type candidates are tried narrowest first, and once a candidate has been eliminated it is never tried
+        // again, so in most cases each value is parsed only once.  An integer is also a valid floating-point value
+        // with no decimals, so the floating-point statistics are maintained from the integer without a second parse.
+        boolean parsed = false;
+
+        if (couldBeInt) {
+            if (parser.parseLong(value)) {
+                long longValue = parser.getLong();
+                intMinMax.accept(longValue);
+                floatMinMax.accept((double)longValue);
+                decimalMax.accept(0);
                 couldBeDate = false;
+                parsed = true;
             }
-            catch (NumberFormatException nfe) {
-                couldBeFloat = false;
+            else
                 couldBeInt = false;
-            }
         }
 
-        if (couldBeInt) {
-            try {
-                intMinMax.accept(Long.valueOf(value));
+        if (couldBeFloat && !parsed) {
+            if (parser.parseDouble(value)) {
+                floatMinMax.accept(parser.getDouble());
+                decimalMax.accept(parser.getDecimals());
                 couldBeDate = false;
+                parsed = true;
             }
-            catch (NumberFormatException nfe) {
-                couldBeInt = false;
-            }
+            else
+                couldBeFloat = false;
         }
 
-        if (couldBeDate) {
-            try {
-                LocalDate localDate = LocalDate.parse(value);
-                intMinMax.accept(localDate.toEpochDay());
-                couldBeInt = false;
-                couldBeFloat = false;
-            }
-            catch (DateTimeParseException e) {
+        if (couldBeDate && !parsed) {
+            if (parser.parseDate(value))
+                intMinMax.accept(parser.getLong());
+            else
                 couldBeDate = false;
-            }
         }
 
         if (stringAscending && value.compareTo(previousString) < 0)
@@ -156,25 +163,87 @@ public class ColumnAnalysis {
             stringDescending = false;
         previousString = value;
 
-        if (uniqueValues != null && !uniqueValues.containsKey(value)) {
-            if (uniqueValues.size() < maxUniqueValues)
-                uniqueValues.put(value, -1L);
-            else
-                uniqueValues = null;
+        if (uniqueValues != null) {
+            if (!uniqueValues.containsKey(value)) {
+                // approximate memory use: the string (2 bytes per character) plus object and entry overheads
+                uniqueValuesSize += value.length() * 2 + 80;
+                if (uniqueValues.size() < maxUniqueValues && uniqueValuesSize <= maxUniqueValuesSize)
+                    uniqueValues.put(value, -1L);
+                else {
+                    sketch = new HyperLogLog();
+                    for (String uniqueValue : uniqueValues.keySet())
+                        sketch.add(uniqueValue);
+                    sketch.add(value);
+                    uniqueValues = null;
+                }
+            }
         }
+        else
+            sketch.add(value);
 
         // At this point, we can check for other data types, like times, currency codes,
         // IATA city codes, ...
 
     }
 
+    /**
+     * Get the number of distinct non-null values in the column.  This is exact while the number of values is within
+     * the maximum tracked individually, and an estimate from a {@link HyperLogLog} sketch after that.
+     *
+     * @return  the number of distinct values
+     */
+    public long getCardinality() {
+        return uniqueValues != null ? uniqueValues.size() : sketch.estimate();
+    }
+
+    /**
+     * Get a {@link HyperLogLog} sketch of the distinct non-null values in the column.  While the values are tracked
+     * individually, the sketch is built from them; after that, it is the sketch that has taken over the estimation.
+     *
+     * @return  the sketch
+     */
+    public HyperLogLog getSketch() {
+        if (uniqueValues == null)
+            return sketch;
+        HyperLogLog result = new HyperLogLog();
+        for (String uniqueValue : uniqueValues.keySet())
+            result.add(uniqueValue);
+        return result;
+    }
+
+    /**
+     * Test whether the value returned by {@link #getCardinality()} is an estimate.
+     *
+     * @return  {@code true} if the cardinality is an estimate
+     */
+    public boolean isCardinalityEstimated() {
+        return uniqueValues == null;
+    }
+
     public Column resolve() {
+        return resolve(null);
+    }
+
+    /**
+     * Resolve the analysis to a {@link Column}, using the nominated type (when the data is to be appended to an
+     * existing column of that type).  Integer data may be stored as floating-point, and any data may be stored as
+     * strings, but other combinations would require the existing data to be rewritten.
+     *
+     * @param   requiredType    the required type, or {@code null} to use the type indicated by the data
+     * @return                  the {@link Column}
+     * @throws  IllegalArgumentException if the data can not be stored as the required type
+     */
+    public Column resolve(Column.Type requiredType) {
         Column column = new Column(name);
         if (itemCount == 0 || !widthMinMax.isInitialised()) {
             column.setType(Column.Type.undetermined);
             column.setStorageType(Column.StorageType.none);
         }
-        else if (couldBeInt) {
+        else if (requiredType != null && !isCompatible(requiredType)) {
+            throw new IllegalArgumentException("Column " + name + " data is not compatible with type " +
+                    requiredType);
+        }
+        else if (couldBeInt && (requiredType == null || requiredType == Column.Type.integer)) {
             column.setType(Column.Type.integer);
             if (intMinMax.isAscending())
                 column.setAscending(true);
@@ -185,7 +254,7 @@ public class ColumnAnalysis {
             column.setMinInt(intMinMax.getMinimum());
             column.setMaxInt(intMinMax.getMaximum());
         }
-        else if (couldBeFloat) {
+        else if (couldBeFloat && (requiredType == null || requiredType == Column.Type.floating)) {
             column.setType(Column.Type.floating);
             if (floatMinMax.isAscending())
                 column.setAscending(true);
@@ -206,7 +275,7 @@ public class ColumnAnalysis {
             column.setMaxFloat(floatMinMax.getMaximum());
             column.setMaxDecimals(maxDecimals);
         }
-        else if (couldBeDate) {
+        else if (couldBeDate && (requiredType == null || requiredType == Column.Type.date)) {
             column.setType(Column.Type.date);
             if (intMinMax.isAscending())
                 column.setAscending(true);
@@ -225,18 +294,38 @@ public class ColumnAnalysis {
                 column.setDescending(true);
             column.setStorageType(Column.StorageType.bytes);
             int numOccurrences = uniqueValues == null ? itemCount : uniqueValues.size();
-            int maxWidth = widthMinMax.getMaximum();
-            column.setDataOffsetStorageType(getIntStorageType(0, numOccurrences * maxWidth, nullable));
+            // the data is stored as UTF-8, so the offsets and lengths are in bytes, not characters
+            int maxWidth = byteWidthMax.getMaximum();
+            column.setDataOffsetStorageType(getIntStorageType(0, (long)numOccurrences * maxWidth, nullable));
             column.setDataLengthStorageType(getIntStorageType(0, maxWidth, nullable));
         }
         checkUnique(column);
+        column.setCardinality(getCardinality(), isCardinalityEstimated());
+        // the unique values are not stored, so a sketch is kept to allow the cardinality of segments to be combined
+        if (column.getStorageType() != Column.StorageType.constant && getCardinality() > 0)
+            column.setSketch(getSketch());
         // TODO - do we need minimum and maximum lengths?
-        column.setMinWidth(widthMinMax.getMinimum());
-        column.setMaxWidth(widthMinMax.getMaximum());
+        if (widthMinMax.isInitialised()) {
+            column.setMinWidth(widthMinMax.getMinimum());
+            column.setMaxWidth(widthMinMax.getMaximum());
+        }
         column.setNullable(nullable);
         return column;
     }
 
+    private boolean isCompatible(Column.Type type) {
+        switch (type) {
+        case integer:
+            return couldBeInt;
+        case floating:
+            return couldBeFloat;
+        case date:
+            return couldBeDate;
+        default:
+            return true;
+        }
+    }
+
     public JSONObject resolveJSON() {
         JSONObject result = JSONObject.create().putValue("name", name);
         if (itemCount == 0 || !widthMinMax.isInitialised()) {
@@ -293,20 +382,43 @@ public class ColumnAnalysis {
                 result.putValue("descending", true);
             result.putValue("storageType", "bytes");
             int numOccurrences = uniqueValues == null ? itemCount : uniqueValues.size();
-            int maxWidth = widthMinMax.getMaximum();
+            // the data is stored as UTF-8, so the offsets and lengths are in bytes, not characters
+            int maxWidth = byteWidthMax.getMaximum();
             result.putValue("offsetStorageType",
-                    getIntStorageType(0, numOccurrences * maxWidth, nullable).toString());
+                    getIntStorageType(0, (long)numOccurrences * maxWidth, nullable).toString());
             result.putValue("lengthStorageType", getIntStorageType(0, maxWidth, nullable).toString());
         }
         result.putValue("minWidth", widthMinMax.getMinimum());
         result.putValue("maxWidth", widthMinMax.getMaximum());
         if (nullable)
             result.putValue("nullable", true);
+        result.putValue("cardinality", getCardinality());
+        if (isCardinalityEstimated())
+            result.putValue("cardinalityEstimated", true);
         checkUnique(result);
         return result;
     }
 
-    private static Column.StorageType getIntStorageType(long min, long max, boolean nullable) {
+    private static int utf8Length(String value) {
+        int n = value.length();
+        int length = n;
+        for (int i = 0; i < n; i++) {
+            char ch = value.charAt(i);
+            if (ch >= 0x80) {
+                if (ch < 0x800)
+                    length++;
+                else if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 2; // a surrogate pair (2 characters) is 4 bytes
+                    i++;
+                }
+                else
+                    length += 2;
+            }
+        }
+        return length;
+    }
+
+    static Column.StorageType getIntStorageType(long min, long max, boolean nullable) {
         if (nullable) {
             min <<= 1;
             max <<= 1;
@@ -328,7 +440,7 @@ public class ColumnAnalysis {
 
     private void checkUnique(Column column) {
         int uniqueValueCount = uniqueValues == null ? 0 : uniqueValues.size();
-        if (uniqueValueCount == 1) {
+        if (uniqueValueCount == 1 && !nullable) { // a constant column can't represent nulls
             column.setStorageType(Column.StorageType.constant);
             String constantValue = uniqueValues.keySet().iterator().next();
             if (column.getType() == Column.Type.integer)
@@ -339,18 +451,10 @@ public class ColumnAnalysis {
                 column.setConstantValue(constantValue);
         }
         else if (uniqueValueCount > 0 && uniqueValueCount <= maxUniqueValues) {
-            if (column.getType() == Column.Type.integer) {
-                Map<Long, Long> integerUniqueValues = new SortedListMap<>(uniqueValueCount);
-                for (Map.Entry<String, Long> entry : uniqueValues.entrySet())
-                    integerUniqueValues.put(Long.valueOf(entry.getKey()), entry.getValue());
-                column.setIntegerUniqueValues(integerUniqueValues);
-            }
-            else if (column.getType() == Column.Type.floating) {
-                Map<Double, Long> floatUniqueValues = new SortedListMap<>(uniqueValueCount);
-                for (Map.Entry<String, Long> entry : uniqueValues.entrySet())
-                    floatUniqueValues.put(Double.valueOf(entry.getKey()), entry.getValue());
-                column.setFloatUniqueValues(floatUniqueValues);
-            }
+            if (column.getType() == Column.Type.integer)
+                column.setIntegerUniqueValues(getIntegerUniqueValues());
+            else if (column.getType() == Column.Type.floating)
+                column.setFloatUniqueValues(getFloatUniqueValues());
             else
                 column.setUniqueValues(uniqueValues);
         }
@@ -358,7 +462,7 @@ public class ColumnAnalysis {
 
     private void checkUnique(JSONObject result) {
         int uniqueValueCount = uniqueValues == null ? 0 : uniqueValues.size();
-        if (uniqueValueCount == 1) {
+        if (uniqueValueCount == 1 && !nullable) {
             result.putValue("storageType", "constant");
             String constantValue = uniqueValues.keySet().iterator().next();
             if ("integer".equals(result.getString("type")))
@@ -372,99 +476,244 @@ public class ColumnAnalysis {
             result.putValue("uniqueValues", uniqueValueCount);
             JSONArray array = new JSONArray(uniqueValueCount);
             if ("integer".equals(result.getString("type"))) {
-                Map<Long, Long> integerUniqueValues = new SortedListMap<>(uniqueValueCount);
-                for (Map.Entry<String, Long> entry : uniqueValues.entrySet())
-                    integerUniqueValues.put(Long.valueOf(entry.getKey()), entry.getValue());
-                for (Long key : integerUniqueValues.keySet())
+                for (Long key : getIntegerUniqueValues().keySet())
                     array.addValue(key);
                 result.put("integerValues", array);
             }
             else if ("floating".equals(result.getString("type"))) {
-                Map<Double, Long> floatUniqueValues = new SortedListMap<>(uniqueValueCount);
-                for (Map.Entry<String, Long> entry : uniqueValues.entrySet())
-                    floatUniqueValues.put(Double.valueOf(entry.getKey()), entry.getValue());
-                for (Double key : floatUniqueValues.keySet())
+                for (Double key : getFloatUniqueValues().keySet())
                     array.addValue(key);
                 result.put("floatValues", array);
             }
             else {
-                for (String key : uniqueValues.keySet())
+                String[] keys = uniqueValues.keySet().toArray(new String[0]);
+                Arrays.sort(keys);
+                for (String key : keys)
                     array.addValue(key);
                 result.put("values", array);
             }
         }
     }
 
-    public static class Max<T extends Comparable<T>> implements Consumer<T> {
+    /**
+     * Convert the unique values to a sorted map of integer values.  The values are sorted before being added to the
+     * map, so that each insertion is at the end.
+     *
+     * @return  the map
+     */
+    private Map<Long, Long> getIntegerUniqueValues() {
+        long[] keys = new long[uniqueValues.size()];
+        int i = 0;
+        for (String key : uniqueValues.keySet())
+            keys[i++] = Long.parseLong(key);
+        Arrays.sort(keys);
+        Map<Long, Long> result = new SortedListMap<>(keys.length);
+        for (long key : keys)
+            result.put(key, -1L);
+        return result;
+    }
+
+    /**
+     * Convert the unique values to a sorted map of floating-point values.
+     *
+     * @return  the map
+     */
+    private Map<Double, Long> getFloatUniqueValues() {
+        double[] keys = new double[uniqueValues.size()];
+        int i = 0;
+        for (String key : uniqueValues.keySet())
+            keys[i++] = Double.parseDouble(key);
+        Arrays.sort(keys);
+        Map<Double, Long> result = new SortedListMap<>(keys.length);
+        for (double key : keys)
+            result.put(key, -1L);
+        return result;
+    }
+
+    /**
+     * Accumulator for the maximum of a set of {@code int} values.
+     */
+    public static class IntMax implements IntConsumer {
 
-        private T maximum;
+        private boolean initialised;
+        private int maximum;
 
-        public Max() {
-            maximum = null;
+        public IntMax() {
+            initialised = false;
+            maximum = 0;
         }
 
         @Override
-        public void accept(T t) {
-            if (maximum == null) {
-                maximum = t;
+        public void accept(int value) {
+            if (!initialised) {
+                maximum = value;
+                initialised = true;
+            }
+            else if (value > maximum)
+                maximum = value;
+        }
+
+        public boolean isInitialised() {
+            return initialised;
+        }
+
+        public int getMaximum() {
+            return maximum;
+        }
+
+    }
+
+    /**
+     * Accumulator for the minimum and maximum of a sequence of {@code int} values.
+     */
+    public static class IntMinMax implements IntConsumer {
+
+        private boolean initialised;
+        private int minimum;
+        private int maximum;
+
+        public IntMinMax() {
+            initialised = false;
+            minimum = 0;
+            maximum = 0;
+        }
+
+        @Override
+        public void accept(int value) {
+            if (!initialised) {
+                minimum = value;
+                maximum = value;
+                initialised = true;
+            }
+            else if (value < minimum)
+                minimum = value;
+            else if (value > maximum)
+                maximum = value;
+        }
+
+        public boolean isInitialised() {
+            return initialised;
+        }
+
+        public int getMinimum() {
+            return minimum;
+        }
+
+        public int getMaximum() {
+            return maximum;
+        }
+
+    }
+
+    /**
+     * Accumulator for the minimum and maximum of a sequence of {@code long} values, also tracking whether the
+     * sequence is in ascending or descending order.
+     */
+    public static class LongMinMax implements LongConsumer {
+
+        private boolean initialised;
+        private long minimum;
+        private long maximum;
+        private boolean ascending;
+        private boolean descending;
+
+        public LongMinMax() {
+            initialised = false;
+            minimum = 0;
+            maximum = 0;
+            ascending = true;
+            descending = true;
+        }
+
+        @Override
+        public void accept(long value) {
+            if (!initialised) {
+                minimum = value;
+                maximum = value;
+                initialised = true;
             }
             else {
-                if (t.compareTo(maximum) > 0)
-                    maximum = t;
+                if (value < maximum)
+                    ascending = false;
+                if (value > minimum)
+                    descending = false;
+                if (value < minimum)
+                    minimum = value;
+                else if (value > maximum)
+                    maximum = value;
             }
         }
 
         public boolean isInitialised() {
-            return maximum != null;
+            return initialised;
         }
 
-        public T getMaximum() {
+        public long getMinimum() {
+            return minimum;
+        }
+
+        public long getMaximum() {
             return maximum;
         }
 
+        public boolean isAscending() {
+            return ascending && !descending;
+        }
+
+        public boolean isDescending() {
+            return descending && !ascending;
+        }
+
     }
 
-    public static class MinMax<T extends Comparable<T>> implements Consumer<T> {
+    /**
+     * Accumulator for the minimum and maximum of a sequence of {@code double} values, also tracking whether the
+     * sequence is in ascending or descending order.
+     */
+    public static class DoubleMinMax implements DoubleConsumer {
 
-        private T minimum;
-        private T maximum;
+        private boolean initialised;
+        private double minimum;
+        private double maximum;
         private boolean ascending;
         private boolean descending;
 
-        public MinMax() {
-            minimum = null;
-            maximum = null;
+        public DoubleMinMax() {
+            initialised = false;
+            minimum = 0;
+            maximum = 0;
             ascending = true;
             descending = true;
         }
 
         @Override
-        public void accept(T t) {
-            if (minimum == null) {
-                minimum = t;
-                maximum = t;
+        public void accept(double value) {
+            if (!initialised) {
+                minimum = value;
+                maximum = value;
+                initialised = true;
             }
             else {
-                if (ascending && t.compareTo(maximum) < 0)
+                if (value < maximum)
                     ascending = false;
-                if (descending && t.compareTo(minimum) > 0)
+                if (value > minimum)
                     descending = false;
-                if (t.compareTo(minimum) < 0)
-                    minimum = t;
-                if (t.compareTo(maximum) > 0)
-                    maximum = t;
+                if (value < minimum)
+                    minimum = value;
+                else if (value > maximum)
+                    maximum = value;
             }
         }
 
         public boolean isInitialised() {
-            return minimum != null;
+            return initialised;
         }
 
-        public T getMinimum() {
+        public double getMinimum() {
             return minimum;
         }
 
-        public T getMaximum() {
+        public double getMaximum() {
             return maximum;
         }
 
@@ -28,32 +28,35 @@ package net.pwall.doric;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 
 import net.pwall.util.Strings;
 
 public class ColumnReader {
 
     private BufferPool bufferPool;
-    private RandomAccessFile raf;
-    private FileChannel channel;
+    private FileHandle handle;
     private long fileSize;
     private byte[] byteArray;
     private ByteBuffer arrayByteBuffer;
+    private byte[] stringArray;
 
     public ColumnReader(BufferPool bufferPool, String filename, long fileSize) throws FileNotFoundException {
         this(bufferPool, new File(filename), fileSize);
     }
 
     public ColumnReader(BufferPool bufferPool, File file, long fileSize) throws FileNotFoundException {
+        this(bufferPool, Doric.getFileHandleCache(), file, fileSize);
+    }
+
+    public ColumnReader(BufferPool bufferPool, FileHandleCache fileHandleCache, File file, long fileSize)
+            throws FileNotFoundException {
         this.bufferPool = bufferPool;
-        raf = new RandomAccessFile(file, "r");
-        channel = raf.getChannel();
+        handle = fileHandleCache.getHandle(file);
         this.fileSize = fileSize;
         byteArray = new byte[8];
         arrayByteBuffer = ByteBuffer.wrap(byteArray);
+        stringArray = new byte[64];
     }
 
     public int readInt8(long offset) throws IOException {
@@ -98,6 +101,36 @@ public class ColumnReader {
 
     public String readBytes(long offset, int len) throws IOException {
         byte[] array = new byte[len];
+        copyBytes(offset, array, len);
+        return Strings.fromUTF8(array);
+    }
+
+    /**
+     * Append a sequence of UTF-8 bytes to an {@link Appendable}.  The bytes are copied to a work area that is reused
+     * from one call to the next, and ASCII characters are appended directly, so that no {@link String} is created
+     * unless the sequence contains non-ASCII characters.
+     *
+     * @param   a       the {@link Appendable}
+     * @param   offset  the offset of the bytes within the file
+     * @param   len     the number of bytes
+     * @throws  IOException if thrown reading the file or by the {@link Appendable}
+     */
+    public void appendBytes(Appendable a, long offset, int len) throws IOException {
+        if (stringArray.length < len)
+            stringArray = new byte[Math.max(len, stringArray.length * 2)];
+        byte[] array = stringArray;
+        copyBytes(offset, array, len);
+        for (int i = 0; i < len; i++) {
+            byte b = array[i];
+            if (b < 0) {
+                a.append(Strings.fromUTF8(array, i, len)); // the arguments are the start and end indexes
+                break;
+            }
+            a.append((char)b);
+        }
+    }
+
+    private void copyBytes(long offset, byte[] array, int len) throws IOException {
         int arrayOffset = 0;
         int bytesLeft = len;
         while (bytesLeft > 0) {
@@ -111,7 +144,6 @@ public class ColumnReader {
             arrayOffset += remaining;
             bytesLeft -= remaining;
         }
-        return Strings.fromUTF8(array);
     }
 
     private ByteBuffer fillArray(ByteBuffer buffer, int len, long offset) throws IOException {
@@ -124,12 +156,12 @@ public class ColumnReader {
     }
 
     private ByteBuffer findBuffer(long offset) throws IOException {
-        return bufferPool.findBuffer(channel, fileSize, offset);
+        return bufferPool.findBuffer(handle, fileSize, offset);
     }
 
     public void close() throws IOException {
-        bufferPool.purge(channel);
-        raf.close();
+        bufferPool.purge(handle);
+        handle.close();
     }
 
 }
@@ -34,97 +34,82 @@ import java.nio.channels.FileChannel;
 
 import net.pwall.util.Strings;
 
+/**
+ * Sequential writer for a column file.  Data is accumulated in direct buffers taken from a {@link WriteBufferPool},
+ * and when all of the writer's buffers are full they are written to the file with a single gathering write.  A
+ * multi-byte value is never split across buffers: if the current buffer does not have room for the value, the buffer
+ * is ended at its current position (the unused space at the end is not written) and the value is written to the next
+ * buffer.
+ *
+ * @author  Peter Wall
+ */
 public class ColumnWriter {
 
     private FileChannel channel;
+    private WriteBufferPool pool;
+    private ByteBuffer[] buffers;
+    private int bufferIndex;
     private ByteBuffer buffer;
-    private byte[] byteArray;
-    private ByteBuffer arrayByteBuffer;
     private long offset;
 
-    // TODO do we want to allow partial buffer write, so that buffer can be released back to pool?
-
-    public ColumnWriter(File directory, String name) throws FileNotFoundException {
+    public ColumnWriter(File directory, String name, WriteBufferPool pool) throws FileNotFoundException {
         FileOutputStream out = new FileOutputStream(new File(directory, name));
         channel = out.getChannel();
-        buffer = ByteBuffer.allocate(8192); // TODO parameterise this? Or steal buffer from BufferPool?
-        byteArray = new byte[8];
-        arrayByteBuffer = ByteBuffer.wrap(byteArray);
+        this.pool = pool;
+        buffers = new ByteBuffer[pool.getBuffersPerWriter()];
+        bufferIndex = 0;
+        buffer = pool.acquire();
+        buffers[0] = buffer;
         offset = 0;
     }
 
+    public ColumnWriter(File directory, String name) throws FileNotFoundException {
+        this(directory, name, Doric.getWriteBufferPool());
+    }
+
     public long getOffset() {
         return offset;
     }
 
     public void writeInt8(int i) throws IOException {
+        if (!buffer.hasRemaining())
+            nextBuffer();
         buffer.put((byte)i);
-        checkWriteBuffer();
         offset++;
     }
 
     public void writeInt16(int i) throws IOException {
-        if (buffer.remaining() >= 2) {
-            buffer.putShort((short)i);
-            checkWriteBuffer();
-        }
-        else {
-            arrayByteBuffer.clear();
-            arrayByteBuffer.putShort((short)i);
-            flushBytes(2);
-        }
+        if (buffer.remaining() < 2)
+            nextBuffer();
+        buffer.putShort((short)i);
         offset += 2;
     }
 
     public void writeInt32(int i) throws IOException {
-        if (buffer.remaining() >= 4) {
-            buffer.putInt(i);
-            checkWriteBuffer();
-        }
-        else {
-            arrayByteBuffer.clear();
-            arrayByteBuffer.putInt(i);
-            flushBytes(4);
-        }
+        if (buffer.remaining() < 4)
+            nextBuffer();
+        buffer.putInt(i);
         offset += 4;
     }
 
     public void writeInt64(long i) throws IOException {
-        if (buffer.remaining() >= 8) {
-            buffer.putLong(i);
-            checkWriteBuffer();
-        }
-        else {
-            arrayByteBuffer.clear();
-            arrayByteBuffer.putLong(i);
-            flushBytes(8);
-        }
+        if (buffer.remaining() < 8)
+            nextBuffer();
+        buffer.putLong(i);
         offset += 8;
     }
 
     public void writeFloat64(double d) throws IOException {
-        if (buffer.remaining() >= 8) {
-            buffer.putDouble(d);
-            checkWriteBuffer();
-        }
-        else {
-            arrayByteBuffer.clear();
-            arrayByteBuffer.putDouble(d);
-            flushBytes(8);
-        }
+        if (buffer.remaining() < 8)
+            nextBuffer();
+        buffer.putDouble(d);
         offset += 8;
     }
 
     public void writeFloat32(float f) throws IOException {
-        if (buffer.remaining() >= 4) {
-            buffer.putFloat(f);
-            checkWriteBuffer();
-        }
-        else {
-            arrayByteBuffer.clear();
-            arrayByteBuffer.putFloat(f);
-            flushBytes(4);
-        }
+        if (buffer.remaining() < 4)
+            nextBuffer();
+        buffer.putFloat(f);
         offset += 4;
     }
 
@@ -133,43 +118,75 @@ public class ColumnWriter {
         int len = bytes.length;
         int arrayOffset = 0;
         while (len > 0) {
-            int remaining = buffer.remaining();
-            if (len <= remaining) {
-                buffer.put(bytes, arrayOffset, len);
-                checkWriteBuffer();
-                break;
-            }
-            buffer.put(bytes, arrayOffset, remaining);
-            writeBuffer();
-            arrayOffset += remaining;
-            len -= remaining;
+            if (!buffer.hasRemaining())
+                nextBuffer();
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(bytes, arrayOffset, count);
+            arrayOffset += count;
+            len -= count;
         }
         offset += bytes.length;
     }
 
-    private void flushBytes(int len) throws IOException {
-        int remaining = buffer.remaining();
-        buffer.put(byteArray, 0, remaining);
-        writeBuffer();
-        buffer.put(byteArray, remaining, len - remaining);
-    }
-
-    private void checkWriteBuffer() throws IOException {
-        if (!buffer.hasRemaining())
-            writeBuffer();
+    /**
+     * Move on to the next buffer, writing all the buffers to the file if the current buffer is the last.
+     *
+     * @throws  IOException if thrown writing the file
+     */
+    private void nextBuffer() throws IOException {
+        if (bufferIndex == buffers.length - 1) {
+            writeBuffers();
+            bufferIndex = 0;
+        }
+        else {
+            bufferIndex++;
+            if (buffers[bufferIndex] == null)
+                buffers[bufferIndex] = pool.acquire();
+        }
+        buffer = buffers[bufferIndex];
     }
 
-    private void writeBuffer() throws IOException {
-        buffer.flip();
-        while (buffer.hasRemaining())
-            channel.write(buffer);
-        buffer.clear();
+    private void writeBuffers() throws IOException {
+        int n = bufferIndex + 1;
+        long remaining = 0;
+        for (int i = 0; i < n; i++) {
+            buffers[i].flip();
+            remaining += buffers[i].remaining();
+        }
+        while (remaining > 0)
+            remaining -= channel.write(buffers, 0, n);
+        for (int i = 0; i < n; i++)
+            buffers[i].clear();
     }
 
+    /**
+     * Write any remaining data and close the file.  The buffers are returned to the pool even if the write fails, and
+     * the writer must not be used after it has been closed; a second call to {@code close()} has no effect.
+     *
+     * @throws  IOException if thrown writing or closing the file
+     */
     public void close() throws IOException {
-        if (buffer.position() > 0)
-            writeBuffer();
-        channel.close();
+        if (buffer == null)
+            return;
+        try {
+            try {
+                if (bufferIndex > 0 || buffer.position() > 0)
+                    writeBuffers();
+            }
+            finally {
+                channel.close();
+            }
+        }
+        finally {
+            // the buffers may be handed to another writer as soon as they are released
+            buffer = null;
+            for (int i = 0; i < buffers.length; i++) {
+                if (buffers[i] != null) {
+                    pool.release(buffers[i]);
+                    buffers[i] = null;
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,547 @@
+/*
+ * @(#) Compactor.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.pwall.doric.columninput.ColumnInput;
+import net.pwall.doric.columnoutput.ColumnOutput;
+import net.pwall.doric.index.Bitmap;
+
+/**
+ * Compaction of a {@link SegmentedTable}.  Segments smaller than a threshold are merged into a single new segment:
+ * the data is re-analysed (so that the new segment uses the tightest storage for the combined data), optionally
+ * sorted by a clustering column, and written with the indexes requested in the ingest options.  The new segment then
+ * replaces the merged segments in {@code segments.json} in a single atomic rename.
+ *
+ * <p>Readers that opened the table before the swap continue to read the old segments, so the replaced files are not
+ * deleted immediately; they are recorded in the segment list and deleted by a later compaction run once the retention
+ * period has passed.</p>
+ *
+ * <p>Compaction may be run directly, or scheduled to run periodically on a background thread.  The rate at which it
+ * reads and writes column data may be limited, so that it does not starve queries of I/O bandwidth.</p>
+ *
+ * @author  Peter Wall
+ */
+public class Compactor implements AutoCloseable {
+
+    public static final int defaultMinSegments = 4;
+    public static final int defaultMaxSegmentRows = 1 << 20;
+    public static final long defaultRetainMillis = TimeUnit.MINUTES.toMillis(10);
+
+    private File directory;
+    private Ingestor.Options options;
+    private String clusterColumn;
+    private int minSegments;
+    private int maxSegmentRows;
+    private long maxBytesPerSecond;
+    private long retainMillis;
+    private ScheduledExecutorService executor;
+    private volatile Exception lastException;
+    private volatile int compactions;
+
+    public Compactor(File directory) {
+        this.directory = directory;
+        options = new Ingestor.Options();
+        clusterColumn = null;
+        minSegments = defaultMinSegments;
+        maxSegmentRows = defaultMaxSegmentRows;
+        maxBytesPerSecond = 0;
+        retainMillis = defaultRetainMillis;
+        executor = null;
+        lastException = null;
+        compactions = 0;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the ingest options, which determine the indexes to be created for the merged segment.
+     *
+     * @return  the options
+     */
+    public Ingestor.Options getOptions() {
+        return options;
+    }
+
+    public void setOptions(Ingestor.Options options) {
+        this.options = options;
+    }
+
+    /**
+     * Get the name of the column by which the rows of a merged segment are sorted, or {@code null} if the rows are
+     * kept in their original order.
+     *
+     * @return  the clustering column name
+     */
+    public String getClusterColumn() {
+        return clusterColumn;
+    }
+
+    public void setClusterColumn(String clusterColumn) {
+        this.clusterColumn = clusterColumn;
+    }
+
+    /**
+     * Get the minimum number of small segments that will trigger a compaction.
+     *
+     * @return  the minimum number of segments
+     */
+    public int getMinSegments() {
+        return minSegments;
+    }
+
+    public void setMinSegments(int minSegments) {
+        if (minSegments < 2)
+            throw new IllegalArgumentException("Minimum segments must be at least 2");
+        this.minSegments = minSegments;
+    }
+
+    /**
+     * Get the size (in rows) below which a segment is eligible to be merged.
+     *
+     * @return  the maximum number of rows
+     */
+    public int getMaxSegmentRows() {
+        return maxSegmentRows;
+    }
+
+    public void setMaxSegmentRows(int maxSegmentRows) {
+        this.maxSegmentRows = maxSegmentRows;
+    }
+
+    /**
+     * Get the limit on the rate at which column data is read and written, in bytes per second (zero for no limit).
+     *
+     * @return  the limit
+     */
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Get the time for which replaced segments are retained (for the benefit of readers that opened the table before
+     * the compaction) before they are deleted.
+     *
+     * @return  the retention time in milliseconds
+     */
+    public long getRetainMillis() {
+        return retainMillis;
+    }
+
+    public void setRetainMillis(long retainMillis) {
+        this.retainMillis = retainMillis;
+    }
+
+    /**
+     * Get the exception thrown by the most recent scheduled compaction run, if it failed.
+     *
+     * @return  the exception, or {@code null}
+     */
+    public Exception getLastException() {
+        return lastException;
+    }
+
+    /**
+     * Get the number of compactions performed.
+     *
+     * @return  the number of compactions
+     */
+    public int getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * Start running compaction periodically on a background thread.
+     *
+     * @param   period  the interval between the end of one run and the start of the next
+     * @param   unit    the time unit of the interval
+     * @throws  IllegalStateException if the compactor has already been started
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (executor != null)
+            throw new IllegalStateException("Compactor already started");
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "doric-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+                lastException = null;
+            }
+            catch (Exception e) {
+                lastException = e;
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stop the background thread, if started.  A compaction in progress is interrupted; the segments it was merging
+     * are left in place.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Perform a compaction run: delete any replaced segments whose retention period has passed, and merge the small
+     * segments if there are enough of them.  A merged segment is limited to {@link Bitmap#maxRows} rows (so that it
+     * may be indexed, and so that its rows may be addressed by {@code int} while they are being ordered); any further
+     * small segments are left for a later run.
+     *
+     * @return  {@code true} if segments were merged
+     * @throws  IOException if thrown reading or writing the table
+     */
+    public boolean compact() throws IOException {
+        deleteObsolete();
+        if (!SegmentedTable.exists(directory))
+            return false;
+        SegmentedTable.Manifest manifest = SegmentedTable.Manifest.read(directory);
+        List<String> names = new ArrayList<>(); // the base (the table directory itself) is represented by null
+        if (manifest.isBase())
+            names.add(null);
+        for (SegmentedTable.Manifest.Entry entry : manifest.getSegments())
+            names.add(entry.getName());
+        List<String> selectedNames = new ArrayList<>();
+        List<Table> selected = new ArrayList<>();
+        List<Table> opened = new ArrayList<>();
+        try {
+            long selectedRows = 0;
+            for (String name : names) {
+                Table segment = Table.openSingle(name == null ? directory : new File(directory, name));
+                opened.add(segment);
+                long numRows = segment.getNumRows();
+                if (numRows < maxSegmentRows && selectedRows + numRows <= Bitmap.maxRows) {
+                    selectedNames.add(name);
+                    selected.add(segment);
+                    selectedRows += numRows;
+                }
+            }
+            if (selected.size() < minSegments)
+                return false;
+            String segmentName = SegmentedTable.createSegmentDirectory(directory);
+            File segmentDirectory = new File(directory, segmentName);
+            try {
+                Table merged = merge(selected, segmentDirectory);
+                if (!swap(selectedNames, selected.get(0), segmentName, merged.getNumRows())) {
+                    delete(segmentDirectory);
+                    return false;
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                delete(segmentDirectory);
+                throw e;
+            }
+            compactions++;
+            return true;
+        }
+        finally {
+            for (Table segment : opened) {
+                try {
+                    segment.close();
+                }
+                catch (Exception ignore) {
+                }
+            }
+        }
+    }
+
+    private Table merge(List<Table> segments, File segmentDirectory) throws IOException {
+        Table first = segments.get(0);
+        int numColumns = first.getNumColumns();
+        long[] order = getOrder(segments);
+        Throttle throttle = new Throttle(maxBytesPerSecond);
+
+        // pass 1 - analyse the combined data
+
+        int maxUnique = options.getMaxUnique() != null ? options.getMaxUnique() : Table.defaultMaxUniqueValues;
+        ColumnAnalysis[] analyses = new ColumnAnalysis[numColumns];
+        for (int i = 0; i < numColumns; i++)
+            analyses[i] = new ColumnAnalysis(first.getColumn(i).getName(), maxUnique);
+        String[] values = new String[numColumns];
+        for (long entry : order) {
+            throttle.acquire(getValues(segments.get((int)(entry >>> 32)), (int)entry, values));
+            for (int i = 0; i < numColumns; i++)
+                analyses[i].analyse(values[i]);
+        }
+        List<Column> columns = new ArrayList<>(numColumns);
+        for (int i = 0; i < numColumns; i++) {
+            Column existing = first.getColumn(i);
+            columns.add(existing.getStorageType() == Column.StorageType.none ? analyses[i].resolve() :
+                    analyses[i].resolve(existing.getType()));
+        }
+        Table merged = new Table(first.getName());
+        merged.setSource(first.getSource());
+        merged.setColumns(columns);
+        merged.setNumRows(order.length);
+
+        // pass 2 - write the new segment
+
+        ColumnOutput[] columnOutputs = Ingestor.openOutputs(merged, segmentDirectory, options);
+        for (long entry : order) {
+            throttle.acquire(getValues(segments.get((int)(entry >>> 32)), (int)entry, values) * 2L);
+            for (int i = 0; i < numColumns; i++)
+                columnOutputs[i].putString(values[i]);
+        }
+        Ingestor.closeOutputs(merged, columnOutputs, segmentDirectory);
+        return merged;
+    }
+
+    /**
+     * Get the order in which the rows of the segments are to be written, as an array of segment index (high 32 bits)
+     * and row number (low 32 bits).  The segments have been selected so that the total number of rows does not exceed
+     * {@link Bitmap#maxRows}, so the row numbers (and the total) fit in an {@code int}.  Rows with a null value in
+     * the clustering column are placed after all others.
+     */
+    private long[] getOrder(List<Table> segments) throws IOException {
+        int total = 0;
+        for (Table segment : segments)
+            total = Math.toIntExact(total + segment.getNumRows());
+        long[] order = new long[total];
+        int k = 0;
+        for (int i = 0, n = segments.size(); i < n; i++)
+            for (int j = 0, m = (int)segments.get(i).getNumRows(); j < m; j++)
+                order[k++] = (long)i << 32 | j;
+        if (clusterColumn == null)
+            return order;
+        Column.Type type = segments.get(0).getColumn(clusterColumn).getType();
+        Comparator<Integer> comparator;
+        if (type == Column.Type.integer || type == Column.Type.date) {
+            long[] keys = new long[total];
+            BitSet nulls = new BitSet(total);
+            for (int i = 0; i < total; i++) {
+                ColumnInput columnInput = getColumnInput(segments, order[i]);
+                if (columnInput.isNull((int)order[i]))
+                    nulls.set(i);
+                else
+                    keys[i] = columnInput.getLong((int)order[i]);
+            }
+            comparator = (a, b) -> nulls.get(a) ? (nulls.get(b) ? 0 : 1) : nulls.get(b) ? -1 :
+                    Long.compare(keys[a], keys[b]);
+        }
+        else if (type == Column.Type.floating) {
+            double[] keys = new double[total];
+            for (int i = 0; i < total; i++) {
+                ColumnInput columnInput = getColumnInput(segments, order[i]);
+                keys[i] = columnInput.isNull((int)order[i]) ? Double.NaN :
+                        columnInput.getNumber((int)order[i]).doubleValue();
+            }
+            comparator = (a, b) -> Double.compare(keys[a], keys[b]); // NaN (null) sorts after all other values
+        }
+        else {
+            String[] keys = new String[total];
+            for (int i = 0; i < total; i++)
+                keys[i] = getColumnInput(segments, order[i]).getString((int)order[i]);
+            comparator = (a, b) -> keys[a].compareTo(keys[b]);
+        }
+        Integer[] indexes = new Integer[total];
+        for (int i = 0; i < total; i++)
+            indexes[i] = i;
+        Arrays.sort(indexes, comparator); // stable, so rows with equal keys keep their original order
+        long[] result = new long[total];
+        for (int i = 0; i < total; i++)
+            result[i] = order[indexes[i]];
+        return result;
+    }
+
+    private ColumnInput getColumnInput(List<Table> segments, long entry) throws IOException {
+        return segments.get((int)(entry >>> 32)).getColumn(clusterColumn).getColumnInput();
+    }
+
+    /**
+     * Get the values of a row as strings, in the form accepted by {@link ColumnAnalysis} and {@link ColumnOutput}.
+     *
+     * @return  the total length of the values (an approximation of the number of bytes read)
+     */
+    private static int getValues(Table segment, int rowNumber, String[] values) throws IOException {
+        int length = 0;
+        for (int i = 0; i < values.length; i++) {
+            ColumnInput columnInput = segment.getColumn(i).getColumnInput();
+            String value = columnInput.isNull(rowNumber) ? "" : columnInput.getString(rowNumber);
+            if (value.indexOf('E') >= 0 && segment.getColumn(i).getType() == Column.Type.floating)
+                value = new BigDecimal(value).toPlainString(); // so that the decimal places are counted correctly
+            values[i] = value;
+            length += value.length();
+        }
+        return length;
+    }
+
+    /**
+     * Replace the merged segments with the new segment in the segment list.  The table is locked against appends and
+     * other compactions (in this process or another) while the list is updated, and the replacement fails (returning
+     * {@code false}) if the merged segments are no longer all present.
+     */
+    private boolean swap(List<String> selectedNames, Table base, String segmentName, long numRows)
+            throws IOException {
+        long now = System.currentTimeMillis();
+        try (SegmentedTable.TableLock ignored = SegmentedTable.lock(directory)) {
+            SegmentedTable.Manifest manifest = SegmentedTable.Manifest.read(directory);
+            List<SegmentedTable.Manifest.Entry> segments = manifest.getSegments();
+            int insertAt = -1;
+            for (String name : selectedNames) {
+                if (name == null) {
+                    if (!manifest.isBase())
+                        return false;
+                    manifest.setBase(false);
+                    for (String path : getBaseFiles(base))
+                        manifest.getObsolete().add(new SegmentedTable.Manifest.Obsolete(path, now));
+                    insertAt = 0;
+                    continue;
+                }
+                int index = indexOf(segments, name);
+                if (index < 0)
+                    return false;
+                if (insertAt < 0)
+                    insertAt = index;
+                segments.remove(index);
+                manifest.getObsolete().add(new SegmentedTable.Manifest.Obsolete(name, now));
+            }
+            segments.add(insertAt, new SegmentedTable.Manifest.Entry(segmentName, numRows));
+            manifest.write(directory);
+        }
+        return true;
+    }
+
+    private static int indexOf(List<SegmentedTable.Manifest.Entry> segments, String name) {
+        for (int i = 0, n = segments.size(); i < n; i++)
+            if (segments.get(i).getName().equals(name))
+                return i;
+        return -1;
+    }
+
+    private static List<String> getBaseFiles(Table base) {
+        List<String> result = new ArrayList<>();
+        result.add("metadata.json");
+        result.add(Catalog.fileName);
+        for (Column column : base.getColumns()) {
+            Column.FileData fileData = column.getFileData();
+            if (fileData != null) {
+                for (Column.FileDetails details : new Column.FileDetails[] { fileData.getRowData(),
+                        fileData.getBytesData(), fileData.getBitmapIndex(), fileData.getSortedIndex(),
+                        fileData.getTextIndex(), fileData.getBloomFilter(), fileData.getSketch() })
+                    if (details != null)
+                        result.add(details.getName());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Delete the replaced segments whose retention period has passed.
+     *
+     * @throws  IOException if thrown reading or writing the segment list
+     */
+    public void deleteObsolete() throws IOException {
+        if (!SegmentedTable.exists(directory))
+            return;
+        long cutoff = System.currentTimeMillis() - retainMillis;
+        try (SegmentedTable.TableLock ignored = SegmentedTable.lock(directory)) {
+            SegmentedTable.Manifest manifest = SegmentedTable.Manifest.read(directory);
+            boolean changed = false;
+            Iterator<SegmentedTable.Manifest.Obsolete> iterator = manifest.getObsolete().iterator();
+            while (iterator.hasNext()) {
+                SegmentedTable.Manifest.Obsolete obsolete = iterator.next();
+                if (obsolete.getTime() <= cutoff) {
+                    delete(new File(directory, obsolete.getPath()));
+                    iterator.remove();
+                    changed = true;
+                }
+            }
+            if (changed)
+                manifest.write(directory);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+
+    /**
+     * A simple limit on the rate of I/O: the caller is delayed whenever the number of bytes processed exceeds the
+     * number allowed for the time elapsed.
+     */
+    private static class Throttle {
+
+        private long bytesPerSecond;
+        private long start;
+        private long bytes;
+
+        public Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            start = System.nanoTime();
+            bytes = 0;
+        }
+
+        public void acquire(long n) throws InterruptedIOException {
+            if (bytesPerSecond <= 0)
+                return;
+            bytes += n;
+            long due = bytes / bytesPerSecond * 1_000_000_000L + bytes % bytesPerSecond * 1_000_000_000L /
+                    bytesPerSecond;
+            long ahead = due - (System.nanoTime() - start);
+            if (ahead >= 1_000_000) {
+                try {
+                    Thread.sleep(ahead / 1_000_000);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Compaction interrupted");
+                }
+            }
+        }
+
+    }
+
+}
@@ -28,11 +28,15 @@ package net.pwall.doric;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import net.pwall.doric.columninput.ColumnInput;
 import net.pwall.json.JSON;
 import net.pwall.json.JSONArray;
+import net.pwall.json.JSONFormat;
 import net.pwall.json.JSONObject;
 import net.pwall.util.UserError;
 
@@ -44,15 +48,29 @@ import net.pwall.util.UserError;
 public class Doric {
 
     private static BufferPool bufferPool = null;
+    private static FileHandleCache fileHandleCache = null;
+    private static WriteBufferPool writeBufferPool = null;
 
     public static void main(String[] args) {
         try {
             String name = null;
             File csvFile = null;
+            File jsonFile = null;
+            File arrowFile = null;
             File outFile = null;
             Integer maxUnique = null;
             Boolean headers = null;
             Boolean showMetadata = null;
+            Boolean bitmapIndexes = null;
+            Boolean sortedIndexes = null;
+            Set<String> textIndexColumns = null;
+            Boolean bloomFilters = null;
+            Boolean stats = null;
+            String partition = null;
+            String partitionColumn = null;
+            Boolean append = null;
+            Integer threads = null;
+            Integer writeBufferSize = null;
             for (int i = 0, n = args.length; i< n; i++) {
                 String arg = args[i];
                 switch (arg) {
@@ -68,6 +86,20 @@ public class Doric {
                     if (!csvFile.exists() || csvFile.isDirectory())
                         throw new UserError("--csv file does not exist");
                     break;
+                case "--jsonl":
+                    if (jsonFile != null)
+                        throw new UserError("Duplicate --jsonl switch");
+                    jsonFile = new File(getArg(args, ++i, "--jsonl with no pathname"));
+                    if (!jsonFile.exists() || jsonFile.isDirectory())
+                        throw new UserError("--jsonl file does not exist");
+                    break;
+                case "--arrow":
+                    if (arrowFile != null)
+                        throw new UserError("Duplicate --arrow switch");
+                    arrowFile = new File(getArg(args, ++i, "--arrow with no pathname"));
+                    if (!arrowFile.exists() || arrowFile.isDirectory())
+                        throw new UserError("--arrow file does not exist");
+                    break;
                 case "--out":
                     if (outFile != null)
                         throw new UserError("Duplicate --out switch");
@@ -87,6 +119,47 @@ public class Doric {
                         throw new UserError("Duplicate --show switch");
                     showMetadata = Boolean.TRUE;
                     break;
+                case "--bitmapIndex":
+                    if (bitmapIndexes != null)
+                        throw new UserError("Duplicate --bitmapIndex switch");
+                    bitmapIndexes = Boolean.TRUE;
+                    break;
+                case "--sortedIndex":
+                    if (sortedIndexes != null)
+                        throw new UserError("Duplicate --sortedIndex switch");
+                    sortedIndexes = Boolean.TRUE;
+                    break;
+                case "--textIndex":
+                    if (textIndexColumns != null)
+                        throw new UserError("Duplicate --textIndex switch");
+                    textIndexColumns = new HashSet<>(Arrays.asList(getArg(args, ++i,
+                            "--textIndex with no column names").split(",")));
+                    break;
+                case "--bloomFilter":
+                    if (bloomFilters != null)
+                        throw new UserError("Duplicate --bloomFilter switch");
+                    bloomFilters = Boolean.TRUE;
+                    break;
+                case "--stats":
+                    if (stats != null)
+                        throw new UserError("Duplicate --stats switch");
+                    stats = Boolean.TRUE;
+                    break;
+                case "--append":
+                    if (append != null)
+                        throw new UserError("Duplicate --append switch");
+                    append = Boolean.TRUE;
+                    break;
+                case "--partition":
+                    if (partition != null)
+                        throw new UserError("Duplicate --partition switch");
+                    partition = getArg(args, ++i, "--partition with no name");
+                    break;
+                case "--partitionColumn":
+                    if (partitionColumn != null)
+                        throw new UserError("Duplicate --partitionColumn switch");
+                    partitionColumn = getArg(args, ++i, "--partitionColumn with no column name");
+                    break;
                 case "--maxUnique":
                     if (maxUnique != null)
                         throw new UserError("Duplicate --maxUnique switch");
@@ -98,21 +171,89 @@ public class Doric {
                         throw new UserError("--maxUnique invalid value");
                     }
                     break;
+                case "--threads":
+                    if (threads != null)
+                        throw new UserError("Duplicate --threads switch");
+                    try {
+                        threads = Integer.valueOf(getArg(args, ++i, "--threads with no value"));
+                    }
+                    catch (NumberFormatException nfe) {
+                        throw new UserError("--threads invalid value");
+                    }
+                    if (threads < 0)
+                        throw new UserError("--threads invalid value");
+                    break;
+                case "--writeBufferSize":
+                    if (writeBufferSize != null)
+                        throw new UserError("Duplicate --writeBufferSize switch");
+                    try {
+                        writeBufferSize = Integer.valueOf(getArg(args, ++i, "--writeBufferSize with no value"));
+                    }
+                    catch (NumberFormatException nfe) {
+                        throw new UserError("--writeBufferSize invalid value");
+                    }
+                    if (writeBufferSize < 1 || writeBufferSize > 1024 * 1024)
+                        throw new UserError("--writeBufferSize invalid value");
+                    break;
                 default:
                     throw new UserError("Unrecognised argument - " + arg);
                 }
             }
-            if (name == null)
+            if (name == null && (append == null || partition != null))
                 throw new UserError("--name not specified");
-            if (csvFile == null)
+            int inputCount = (csvFile != null ? 1 : 0) + (jsonFile != null ? 1 : 0) + (arrowFile != null ? 1 : 0);
+            if (inputCount == 0)
                 throw new UserError("--csv not specified");
+            if (inputCount > 1)
+                throw new UserError("Only one of --csv, --jsonl and --arrow may be specified");
+            if (jsonFile != null && (append != null || partition != null))
+                throw new UserError("--jsonl can not be used with --append or --partition");
+            if (arrowFile != null && (append != null || partition != null))
+                throw new UserError("--arrow can not be used with --append or --partition");
+            if ((partition == null) != (partitionColumn == null))
+                throw new UserError("--partition and --partitionColumn must be specified together");
+            if (partition != null && outFile == null)
+                throw new UserError("--partition requires --out");
+            if (append != null && (outFile == null || !outFile.isDirectory()))
+                throw new UserError("--append requires --out naming an existing table");
             if (headers == null)
                 headers = Boolean.FALSE;
             if (showMetadata == null)
                 showMetadata = Boolean.FALSE;
             if (outFile != null && !outFile.exists() && !outFile.mkdirs())
                 throw new UserError("Error creating output directory");
-            Ingestor.ingest(name, csvFile, headers, outFile, showMetadata, maxUnique);
+            if (writeBufferSize != null) // size in kilobytes
+                setWriteBufferPool(new WriteBufferPool(writeBufferSize * 1024,
+                        WriteBufferPool.defaultBuffersPerWriter, WriteBufferPool.defaultMaxPooled));
+            Ingestor.Options options = new Ingestor.Options();
+            options.setHeaders(headers);
+            options.setShowMetadata(showMetadata);
+            options.setMaxUnique(maxUnique);
+            options.setBitmapIndexes(bitmapIndexes != null);
+            options.setSortedIndexes(sortedIndexes != null);
+            if (textIndexColumns != null)
+                options.setTextIndexColumns(textIndexColumns);
+            options.setBloomFilters(bloomFilters != null);
+            if (threads != null)
+                options.setWriterThreads(threads);
+            if (append != null && partition != null) {
+                Ingestor.append(csvFile, new File(outFile, partition), options);
+                PartitionedTable.addPartition(outFile, name, partitionColumn, partition);
+            }
+            else if (append != null)
+                Ingestor.append(csvFile, outFile, options);
+            else if (partition != null)
+                Ingestor.ingestPartition(name, csvFile, outFile, partition, partitionColumn, options);
+            else if (jsonFile != null)
+                Ingestor.ingestJSONLines(name, jsonFile, outFile, options);
+            else if (arrowFile != null)
+                Ingestor.ingestArrow(name, arrowFile, outFile, options);
+            else
+                Ingestor.ingest(name, csvFile, outFile, options);
+            if (stats != null) {
+                JSONFormat format = new JSONFormat();
+                System.out.println(format.format(getBufferPool().getStats().toJSON()));
+            }
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -130,9 +271,33 @@ public class Doric {
     }
 
     public static synchronized BufferPool getBufferPool() {
-        if (bufferPool == null)
+        if (bufferPool == null) {
             bufferPool = new BufferPool(40, 8192, false); // TODO find a way to parameterise these values
+            bufferPool.registerMBean("default");
+        }
         return bufferPool;
     }
 
+    public static synchronized WriteBufferPool getWriteBufferPool() {
+        if (writeBufferPool == null)
+            writeBufferPool = new WriteBufferPool();
+        return writeBufferPool;
+    }
+
+    /**
+     * Set the {@link WriteBufferPool} to be used by column writers (for example, to change the buffer size).  This
+     * should be called before any writers are created.
+     *
+     * @param   pool    the {@link WriteBufferPool}
+     */
+    public static synchronized void setWriteBufferPool(WriteBufferPool pool) {
+        writeBufferPool = pool;
+    }
+
+    public static synchronized FileHandleCache getFileHandleCache() {
+        if (fileHandleCache == null)
+            fileHandleCache = new FileHandleCache();
+        return fileHandleCache;
+    }
+
 }
@@ -0,0 +1,352 @@
+/*
+ * @(#) Exporter.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.pwall.doric.query.Query;
+
+/**
+ * Export the rows of any {@link Query} as delimited text (CSV or TSV), encoded as UTF-8.
+ *
+ * <p>The rows are processed in blocks.  For each block, the values are read column by column, using
+ * {@link Row#appendString(Appendable, int)} to append them to a character buffer for the column without creating a
+ * {@code String} for each value (the columns of a table are read sequentially, which suits the buffer pool).  The
+ * block is then encoded: the values are interleaved into lines, quoted where necessary, and encoded as UTF-8 into a
+ * byte array that is written to the output in a single operation.  When more than one thread is specified, the
+ * encoding of each block is performed by a pool of threads while the next blocks are read, and the blocks are written
+ * in their original order; the reading of the column data remains on the calling thread, because the column readers
+ * are not safe for concurrent use.  The blocks (with their buffers) are reused.</p>
+ *
+ * <p>A value is quoted if it contains the delimiter, the quote character, a carriage return or a line feed, and a
+ * quote character within a quoted value is doubled.  Null values are output as empty fields.</p>
+ *
+ * @author  Peter Wall
+ */
+public class Exporter {
+
+    public static final int defaultBlockRows = 4096;
+
+    /**
+     * Export the rows of a {@link Query}.
+     *
+     * @param   query   the {@link Query}
+     * @param   out     the {@link OutputStream}
+     * @param   options the export options
+     * @return          the number of rows exported
+     * @throws  IOException if thrown reading the query or writing the output
+     */
+    public static long export(Query query, OutputStream out, Options options) throws IOException {
+        int numColumns = query.getNumColumns();
+        if (options.isHeaders()) {
+            Block header = new Block(numColumns, 1);
+            for (int i = 0; i < numColumns; i++) {
+                header.text[i].append(query.getColumn(i).getName());
+                header.ends[i][0] = header.text[i].length();
+            }
+            header.numRows = 1;
+            header.encode(options);
+            header.write(out);
+        }
+        Iterator<Row> rows = query.iterator();
+        long count = options.getThreads() > 1 ? exportParallel(rows, numColumns, out, options) :
+                exportSerial(rows, numColumns, out, options);
+        out.flush();
+        return count;
+    }
+
+    private static long exportSerial(Iterator<Row> rows, int numColumns, OutputStream out, Options options)
+            throws IOException {
+        Block block = new Block(numColumns, options.getBlockRows());
+        long count = 0;
+        while (block.read(rows) > 0) {
+            block.encode(options);
+            block.write(out);
+            count += block.numRows;
+        }
+        return count;
+    }
+
+    private static long exportParallel(Iterator<Row> rows, int numColumns, OutputStream out, Options options)
+            throws IOException {
+        int threads = options.getThreads();
+        int maxPending = threads * 2;
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "doric-export-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Block> freeBlocks = new ArrayDeque<>();
+        Deque<Future<Block>> pending = new ArrayDeque<>();
+        long count = 0;
+        try {
+            while (true) {
+                Block block = freeBlocks.isEmpty() ? new Block(numColumns, options.getBlockRows()) :
+                        freeBlocks.poll();
+                if (block.read(rows) == 0)
+                    break;
+                pending.add(executor.submit(() -> block.encode(options)));
+                if (pending.size() >= maxPending) {
+                    Block completed = getResult(pending.poll());
+                    completed.write(out);
+                    count += completed.numRows;
+                    freeBlocks.add(completed);
+                }
+            }
+            while (!pending.isEmpty()) {
+                Block completed = getResult(pending.poll());
+                completed.write(out);
+                count += completed.numRows;
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return count;
+    }
+
+    private static Block getResult(Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for export");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new IOException("Error encoding export data", cause);
+        }
+    }
+
+    /**
+     * A block of rows: the values of each column in a character buffer, with the end offset of each value, and the
+     * encoded bytes.
+     */
+    private static class Block {
+
+        private StringBuilder[] text;
+        private int[][] ends;
+        private Row[] rows;
+        private int numRows;
+        private byte[] bytes;
+        private int length;
+
+        public Block(int numColumns, int blockRows) {
+            text = new StringBuilder[numColumns];
+            ends = new int[numColumns][blockRows];
+            for (int i = 0; i < numColumns; i++)
+                text[i] = new StringBuilder();
+            rows = new Row[blockRows];
+            numRows = 0;
+            bytes = new byte[64 * 1024];
+            length = 0;
+        }
+
+        public int read(Iterator<Row> iterator) throws IOException {
+            int n = 0;
+            while (n < rows.length && iterator.hasNext())
+                rows[n++] = iterator.next();
+            for (int i = 0; i < text.length; i++) {
+                StringBuilder sb = text[i];
+                int[] columnEnds = ends[i];
+                sb.setLength(0);
+                for (int j = 0; j < n; j++) {
+                    rows[j].appendString(sb, i);
+                    columnEnds[j] = sb.length();
+                }
+            }
+            Arrays.fill(rows, 0, n, null);
+            numRows = n;
+            return n;
+        }
+
+        public Block encode(Options options) {
+            char delimiter = options.getDelimiter();
+            char quote = options.getQuote();
+            length = 0;
+            for (int j = 0; j < numRows; j++) {
+                for (int i = 0; i < text.length; i++) {
+                    if (i > 0)
+                        putByte(delimiter);
+                    int start = j == 0 ? 0 : ends[i][j - 1];
+                    putField(text[i], start, ends[i][j], delimiter, quote);
+                }
+                putByte('\n');
+            }
+            return this;
+        }
+
+        private void putField(StringBuilder sb, int start, int end, char delimiter, char quote) {
+            ensureCapacity((end - start) * 3 + 2); // allows for every character being a 3-byte sequence
+            boolean quoted = false;
+            for (int k = start; k < end; k++) {
+                char ch = sb.charAt(k);
+                if (ch == delimiter || ch == quote || ch == '\n' || ch == '\r') {
+                    quoted = true;
+                    break;
+                }
+            }
+            if (quoted)
+                bytes[length++] = (byte)quote;
+            for (int k = start; k < end; k++) {
+                char ch = sb.charAt(k);
+                if (ch < 0x80) {
+                    if (quoted && ch == quote)
+                        bytes[length++] = (byte)quote;
+                    bytes[length++] = (byte)ch;
+                }
+                else if (ch < 0x800) {
+                    bytes[length++] = (byte)(0xC0 | (ch >> 6));
+                    bytes[length++] = (byte)(0x80 | (ch & 0x3F));
+                }
+                else if (Character.isHighSurrogate(ch) && k + 1 < end && Character.isLowSurrogate(sb.charAt(k + 1))) {
+                    int cp = Character.toCodePoint(ch, sb.charAt(++k));
+                    bytes[length++] = (byte)(0xF0 | (cp >> 18));
+                    bytes[length++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                    bytes[length++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                    bytes[length++] = (byte)(0x80 | (cp & 0x3F));
+                }
+                else if (Character.isSurrogate(ch))
+                    bytes[length++] = '?';
+                else {
+                    bytes[length++] = (byte)(0xE0 | (ch >> 12));
+                    bytes[length++] = (byte)(0x80 | ((ch >> 6) & 0x3F));
+                    bytes[length++] = (byte)(0x80 | (ch & 0x3F));
+                }
+            }
+            if (quoted)
+                bytes[length++] = (byte)quote;
+        }
+
+        private void putByte(char ch) {
+            ensureCapacity(1);
+            bytes[length++] = (byte)ch;
+        }
+
+        private void ensureCapacity(int n) {
+            if (length + n > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+        }
+
+        public void write(OutputStream out) throws IOException {
+            out.write(bytes, 0, length);
+        }
+
+    }
+
+    public static class Options {
+
+        public static final int defaultThreads = Math.max(Math.min(Runtime.getRuntime().availableProcessors() - 1, 8),
+                1);
+
+        private char delimiter;
+        private char quote;
+        private boolean headers;
+        private int threads;
+        private int blockRows;
+
+        public Options() {
+            delimiter = ',';
+            quote = '"';
+            headers = true;
+            threads = defaultThreads;
+            blockRows = defaultBlockRows;
+        }
+
+        public char getDelimiter() {
+            return delimiter;
+        }
+
+        /**
+         * Set the delimiter.  The delimiter and quote characters must be ASCII characters.
+         *
+         * @param   delimiter   the delimiter (e.g. {@code ','} for CSV, {@code '\t'} for TSV)
+         */
+        public void setDelimiter(char delimiter) {
+            if (delimiter >= 0x80)
+                throw new IllegalArgumentException("Delimiter must be ASCII");
+            this.delimiter = delimiter;
+        }
+
+        public char getQuote() {
+            return quote;
+        }
+
+        public void setQuote(char quote) {
+            if (quote >= 0x80)
+                throw new IllegalArgumentException("Quote must be ASCII");
+            this.quote = quote;
+        }
+
+        public boolean isHeaders() {
+            return headers;
+        }
+
+        public void setHeaders(boolean headers) {
+            this.headers = headers;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * Set the number of threads to use to encode blocks of rows.  A value of 1 (or less) causes the blocks to be
+         * encoded on the calling thread.
+         *
+         * @param   threads     the number of threads
+         */
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getBlockRows() {
+            return blockRows;
+        }
+
+        public void setBlockRows(int blockRows) {
+            if (blockRows < 1)
+                throw new IllegalArgumentException("Block rows must be at least 1");
+            this.blockRows = blockRows;
+        }
+
+    }
+
+}
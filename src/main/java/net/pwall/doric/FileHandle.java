@@ -0,0 +1,139 @@
+/*
+ * @(#) FileHandle.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * A handle on a file, managed by a {@link FileHandleCache}.  The handle itself is a permanent identifier for the file
+ * (it is used as the key for buffers in the {@link BufferPool}), but the underlying {@link FileChannel} is opened only
+ * when required, and may be closed by the cache when the number of open files exceeds its limit.  A user of the
+ * channel must {@link #acquire() acquire} it before use and {@link #release() release} it after; the cache will not
+ * close a channel that has been acquired and not released.
+ *
+ * @author  Peter Wall
+ */
+public class FileHandle {
+
+    private FileHandleCache cache;
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private int pins;
+    private boolean closed;
+
+    FileHandle(FileHandleCache cache, File file) {
+        this.cache = cache;
+        this.file = file;
+        raf = null;
+        channel = null;
+        pins = 0;
+        closed = false;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Acquire the channel for the file, opening it if necessary.
+     *
+     * @return  the {@link FileChannel}
+     * @throws  IOException if thrown opening the file
+     * @throws  IllegalStateException if the handle has been closed
+     */
+    public FileChannel acquire() throws IOException {
+        return cache.acquire(this);
+    }
+
+    /**
+     * Release the channel acquired by {@link #acquire()}.
+     */
+    public void release() {
+        cache.release(this);
+    }
+
+    /**
+     * Close the handle.  The channel (if open) is closed, and the handle may not be used again.
+     *
+     * @throws  IOException if thrown closing the file
+     */
+    public void close() throws IOException {
+        cache.close(this);
+    }
+
+    boolean isOpen() {
+        return channel != null;
+    }
+
+    boolean isPinned() {
+        return pins > 0;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    FileChannel open() throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        return channel;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    void pin() {
+        pins++;
+    }
+
+    void unpin() {
+        pins--;
+    }
+
+    void closeChannel() throws IOException {
+        if (raf != null) {
+            channel = null;
+            RandomAccessFile r = raf;
+            raf = null;
+            r.close();
+        }
+    }
+
+    void setClosed() {
+        closed = true;
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+
+}
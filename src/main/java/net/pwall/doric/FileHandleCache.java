@@ -0,0 +1,159 @@
+/*
+ * @(#) FileHandleCache.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A cache of open files, shared by all the column readers.  Files are opened only when first read, and when the
+ * number of open files reaches the limit, the least recently used file that is not currently in use is closed (it
+ * will be re-opened if it is needed again).  This allows tables with very large numbers of columns to be opened
+ * cheaply, without exhausting the operating system limit on file handles.
+ *
+ * @author  Peter Wall
+ */
+public class FileHandleCache {
+
+    public static final int defaultMaxOpen = 256;
+
+    private int maxOpen;
+    private Set<FileHandle> open;
+    private long opens;
+    private long closes;
+
+    public FileHandleCache(int maxOpen) {
+        if (maxOpen < 1)
+            throw new IllegalArgumentException("Maximum open files must be at least 1");
+        this.maxOpen = maxOpen;
+        open = new LinkedHashSet<>();
+        opens = 0;
+        closes = 0;
+    }
+
+    public FileHandleCache() {
+        this(defaultMaxOpen);
+    }
+
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    public synchronized int getNumOpen() {
+        return open.size();
+    }
+
+    /**
+     * Get the number of times a file has been opened, including re-opening after being closed by the cache.
+     *
+     * @return  the number of opens
+     */
+    public synchronized long getOpens() {
+        return opens;
+    }
+
+    /**
+     * Get the number of times a file has been closed by the cache to make way for another.
+     *
+     * @return  the number of closes
+     */
+    public synchronized long getCloses() {
+        return closes;
+    }
+
+    /**
+     * Create a handle for a file.  The file is not opened until it is first used.
+     *
+     * @param   file    the {@link File}
+     * @return          the {@link FileHandle}
+     * @throws  FileNotFoundException if the file does not exist
+     */
+    public FileHandle getHandle(File file) throws FileNotFoundException {
+        if (!file.isFile())
+            throw new FileNotFoundException(file.getPath());
+        return new FileHandle(this, file);
+    }
+
+    synchronized FileChannel acquire(FileHandle handle) throws IOException {
+        if (handle.isClosed())
+            throw new IllegalStateException("File handle closed: " + handle);
+        FileChannel channel = handle.getChannel();
+        if (channel == null) {
+            if (open.size() >= maxOpen)
+                closeLeastRecentlyUsed();
+            channel = handle.open();
+            opens++;
+        }
+        else
+            open.remove(handle);
+        open.add(handle);
+        handle.pin();
+        return channel;
+    }
+
+    synchronized void release(FileHandle handle) {
+        handle.unpin();
+        if (handle.isClosed() && !handle.isPinned())
+            closeQuietly(handle);
+    }
+
+    synchronized void close(FileHandle handle) throws IOException {
+        handle.setClosed();
+        if (!handle.isPinned()) {
+            open.remove(handle);
+            handle.closeChannel();
+        }
+    }
+
+    private void closeLeastRecentlyUsed() {
+        // if every open file is in use, the limit is exceeded temporarily
+        Iterator<FileHandle> iterator = open.iterator();
+        while (iterator.hasNext()) {
+            FileHandle handle = iterator.next();
+            if (!handle.isPinned()) {
+                iterator.remove();
+                closeQuietly(handle);
+                closes++;
+                return;
+            }
+        }
+    }
+
+    private void closeQuietly(FileHandle handle) {
+        open.remove(handle);
+        try {
+            handle.closeChannel();
+        }
+        catch (IOException ignore) {
+        }
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * @(#) GzipInput.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Input from gzip-compressed files.  A file in the blocked gzip format (BGZF, as produced by {@code bgzip}), in which
+ * each gzip member records its compressed size in a header extra field, is decompressed on multiple threads: the
+ * members are read sequentially but inflated in parallel, and the results are returned in order.  Any other gzip file
+ * (including files with multiple members that do not record their size) is decompressed by a single background
+ * thread, so that decompression is overlapped with the parsing of the data.
+ *
+ * @author  Peter Wall
+ */
+public class GzipInput {
+
+    public static final int chunkSize = 64 * 1024;
+    public static final int queuedChunks = 16;
+
+    private static final int headerSize = 18; // BGZF header, including the BC extra subfield
+    private static final int maxBlockSize = 64 * 1024; // BGZF limit on the uncompressed size of a block
+    private static final int flagExtra = 4;
+
+    /**
+     * Open a file for input, decompressing it if it is gzip-compressed.
+     *
+     * @param   file        the file
+     * @param   threads     the number of threads to use to decompress a multi-member (BGZF) file
+     * @return              an {@link InputStream} returning the (decompressed) data
+     * @throws  IOException if thrown opening the file
+     */
+    public static InputStream open(File file, int threads) throws IOException {
+        byte[] header = readHeader(file);
+        if (header.length < 2 || (header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B)
+            return new FileInputStream(file);
+        if (threads > 1 && getBlockSize(header) > 0)
+            return new ParallelInputStream(file, threads);
+        return new BackgroundInputStream(new GZIPInputStream(new FileInputStream(file), chunkSize));
+    }
+
+    /**
+     * Test whether a file is gzip-compressed.
+     *
+     * @param   file    the file
+     * @return          {@code true} if the file starts with the gzip magic number
+     * @throws  IOException if thrown reading the file
+     */
+    public static boolean isGzip(File file) throws IOException {
+        byte[] header = readHeader(file);
+        return header.length >= 2 && (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B;
+    }
+
+    private static byte[] readHeader(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = new byte[headerSize];
+            int n = 0;
+            while (n < headerSize) {
+                int k = in.read(header, n, headerSize - n);
+                if (k < 0)
+                    break;
+                n += k;
+            }
+            if (n < headerSize) {
+                byte[] result = new byte[n];
+                System.arraycopy(header, 0, result, 0, n);
+                return result;
+            }
+            return header;
+        }
+    }
+
+    /**
+     * Get the total size of a BGZF member from its header.
+     *
+     * @param   header  the first 18 bytes of the member
+     * @return          the size of the member, or -1 if the header is not a BGZF header
+     */
+    private static int getBlockSize(byte[] header) {
+        if (header.length < headerSize || (header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B ||
+                header[2] != 8 || header[3] != flagExtra)
+            return -1;
+        int extraLength = (header[10] & 0xFF) | (header[11] & 0xFF) << 8;
+        if (extraLength != 6 || header[12] != 'B' || header[13] != 'C' || header[14] != 2 || header[15] != 0)
+            return -1;
+        return ((header[16] & 0xFF) | (header[17] & 0xFF) << 8) + 1;
+    }
+
+    private static int getIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 |
+                (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Inflate a BGZF member.  The uncompressed size recorded in the trailer (ISIZE) is used to allocate the result, so
+     * it is checked against the BGZF maximum block size before it is used.
+     *
+     * @param   member  the member (header, compressed data and trailer)
+     * @return          the decompressed data
+     * @throws  IOException if the data is invalid
+     */
+    private static byte[] inflate(byte[] member) throws IOException {
+        int size = member.length;
+        int uncompressedSize = getIntLE(member, size - 4);
+        if (uncompressedSize < 0 || uncompressedSize > maxBlockSize)
+            throw new IOException("Invalid BGZF block - uncompressed size " + (uncompressedSize & 0xFFFFFFFFL));
+        byte[] result = new byte[uncompressedSize];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, headerSize, size - headerSize - 8);
+            int n = 0;
+            while (n < uncompressedSize) {
+                int k = inflater.inflate(result, n, uncompressedSize - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += k;
+            }
+            if (n != uncompressedSize)
+                throw new IOException("Invalid BGZF block - incorrect size");
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Invalid BGZF block", e);
+        }
+        finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(result, 0, uncompressedSize);
+        if ((int)crc.getValue() != getIntLE(member, size - 8))
+            throw new IOException("Invalid BGZF block - CRC mismatch");
+        return result;
+    }
+
+    /**
+     * An {@link InputStream} that decompresses the members of a BGZF file in parallel.  The members are read by the
+     * consuming thread (reading the compressed data is cheap relative to inflating it) and submitted to a pool of
+     * threads; a limited number of members are kept in progress ahead of the one being consumed.
+     */
+    private static class ParallelInputStream extends InputStream {
+
+        private DataInputStream in;
+        private ExecutorService executor;
+        private int maxPending;
+        private Deque<Future<byte[]>> pending;
+        private boolean eof;
+        private byte[] current;
+        private int position;
+
+        ParallelInputStream(File file, int threads) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), chunkSize));
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "doric-gunzip-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            maxPending = threads * 4;
+            pending = new ArrayDeque<>();
+            eof = false;
+            current = null;
+            position = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!hasData())
+                return -1;
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!hasData())
+                return -1;
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean hasData() throws IOException {
+            while (current == null || position == current.length) {
+                fill();
+                Future<byte[]> future = pending.pollFirst();
+                if (future == null)
+                    return false;
+                try {
+                    current = future.get();
+                }
+                catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted waiting for decompression");
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException)cause;
+                    throw new IOException("Error decompressing", cause);
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        private void fill() throws IOException {
+            while (!eof && pending.size() < maxPending) {
+                byte[] member = readMember();
+                if (member == null) {
+                    eof = true;
+                    break;
+                }
+                pending.addLast(executor.submit(() -> inflate(member)));
+            }
+        }
+
+        private byte[] readMember() throws IOException {
+            byte[] header = new byte[headerSize];
+            int first = in.read();
+            if (first < 0)
+                return null;
+            header[0] = (byte)first;
+            try {
+                in.readFully(header, 1, headerSize - 1);
+                int size = getBlockSize(header);
+                if (size < headerSize + 8)
+                    throw new IOException("Invalid BGZF block header");
+                byte[] member = new byte[size];
+                System.arraycopy(header, 0, member, 0, headerSize);
+                in.readFully(member, headerSize, size - headerSize);
+                return member;
+            }
+            catch (EOFException e) {
+                throw new IOException("BGZF file truncated", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            executor.shutdownNow();
+            in.close();
+        }
+
+    }
+
+    /**
+     * An {@link InputStream} that reads from another stream on a background thread, handing the data to the consuming
+     * thread in chunks through a bounded queue.  This is used to overlap single-threaded decompression with parsing.
+     */
+    private static class BackgroundInputStream extends InputStream {
+
+        private static final byte[] endChunk = new byte[0];
+
+        private BlockingQueue<byte[]> queue;
+        private Thread thread;
+        private volatile IOException exception;
+        private byte[] current;
+        private int position;
+        private boolean eof;
+
+        BackgroundInputStream(InputStream in) {
+            queue = new ArrayBlockingQueue<>(queuedChunks);
+            exception = null;
+            current = null;
+            position = 0;
+            eof = false;
+            thread = new Thread(() -> {
+                try (InputStream input = in) {
+                    while (true) {
+                        byte[] chunk = new byte[chunkSize];
+                        int n = 0;
+                        while (n < chunkSize) {
+                            int k = input.read(chunk, n, chunkSize - n);
+                            if (k < 0)
+                                break;
+                            n += k;
+                        }
+                        if (n > 0) {
+                            if (n < chunkSize) {
+                                byte[] partial = new byte[n];
+                                System.arraycopy(chunk, 0, partial, 0, n);
+                                chunk = partial;
+                            }
+                            queue.put(chunk);
+                        }
+                        if (n < chunkSize)
+                            break;
+                    }
+                }
+                catch (IOException e) {
+                    exception = e;
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    queue.put(endChunk);
+                }
+                catch (InterruptedException ignore) {
+                }
+            }, "doric-gunzip");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!hasData())
+                return -1;
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!hasData())
+                return -1;
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean hasData() throws IOException {
+            while (current == null || position == current.length) {
+                if (eof)
+                    return false;
+                try {
+                    current = queue.take();
+                }
+                catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted waiting for decompression");
+                }
+                position = 0;
+                if (current == endChunk) {
+                    eof = true;
+                    if (exception != null)
+                        throw new IOException("Error decompressing", exception);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            thread.interrupt();
+        }
+
+    }
+
+}
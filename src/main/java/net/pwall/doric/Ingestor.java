@@ -26,60 +26,510 @@
 package net.pwall.doric;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
+import net.pwall.doric.arrow.ArrowReader;
 import net.pwall.doric.columnoutput.ColumnOutput;
+import net.pwall.doric.columnoutput.ColumnOutputBitmapIndex;
+import net.pwall.doric.columnoutput.ColumnOutputBloomFilter;
+import net.pwall.doric.columnoutput.ColumnOutputSortedIndex;
+import net.pwall.doric.columnoutput.ColumnOutputTextIndex;
+import net.pwall.doric.index.Bitmap;
+import net.pwall.doric.index.BitmapIndex;
+import net.pwall.doric.index.BloomFilter;
+import net.pwall.doric.index.SortedIndex;
+import net.pwall.doric.index.TextIndex;
 import net.pwall.json.JSONFormat;
 import net.pwall.json.JSONObject;
 import net.pwall.util.CSV;
+import net.pwall.util.Strings;
 
 public class Ingestor {
 
     public static void ingest(String name, File csvFile, boolean headers, File outFile, boolean showMetadata,
             Integer maxUnique) throws IOException {
+        Options options = new Options();
+        options.setHeaders(headers);
+        options.setShowMetadata(showMetadata);
+        options.setMaxUnique(maxUnique);
+        ingest(name, csvFile, outFile, options);
+    }
+
+    public static void ingest(String name, File csvFile, File outFile, Options options) throws IOException {
         Table table = new Table(name);
         table.setSource(csvFile.getCanonicalPath());
-        if (maxUnique != null)
-            table.setMaxUniqueValues(maxUnique);
-        try (CSV csv = new CSV(new FileInputStream(csvFile))) {
-            table.analyse(csv, headers);
+        if (options.getMaxUnique() != null)
+            table.setMaxUniqueValues(options.getMaxUnique());
+        try (CSV csv = new CSV(GzipInput.open(csvFile, options.getDecompressionThreads()))) {
+            table.analyse(csv, options.isHeaders());
         }
 
         // now write to files
 
-        if (outFile != null) {
+        if (outFile != null)
+            write(table, csvFile, outFile, options);
 
+        if (options.isShowMetadata()) {
+            JSONFormat format = new JSONFormat();
+            System.out.println(format.format(table.toJSON()));
+        }
+    }
+
+    /**
+     * Ingest a JSON Lines file.  The top-level properties of the objects become the columns of the table, and missing
+     * properties are stored as nulls.  Both the analysis and the write pass parse the lines in parallel chunks.
+     *
+     * @param   name        the table name
+     * @param   jsonFile    the JSON Lines file (which may be gzip-compressed)
+     * @param   outFile     the output directory
+     * @param   options     the ingest options
+     * @throws  IOException if thrown reading the input or writing the table
+     * @throws  IllegalArgumentException if the data is not valid JSON Lines
+     * @see     JSONLines
+     */
+    public static void ingestJSONLines(String name, File jsonFile, File outFile, Options options) throws IOException {
+        Table table = new Table(name);
+        table.setSource(jsonFile.getCanonicalPath());
+        if (options.getMaxUnique() != null)
+            table.setMaxUniqueValues(options.getMaxUnique());
+        int threads = options.getDecompressionThreads();
+        try (InputStream in = GzipInput.open(jsonFile, threads)) {
+            table.analyseJSONLines(in, threads);
+        }
+
+        if (outFile != null) {
             int columnCount = table.getNumColumns();
-            ColumnOutput[] columnOutputs = new ColumnOutput[columnCount];
+            Map<String, Integer> columnNumbers = new HashMap<>();
             for (int i = 0; i < columnCount; i++)
-                columnOutputs[i] = ColumnOutput.getExtendedColumnOutputObject(outFile, table.getColumn(i), i);
+                columnNumbers.put(table.getColumn(i).getName(), i);
+            ColumnOutput[] columnOutputs = openOutputs(table, outFile, options);
+            try (InputStream in = GzipInput.open(jsonFile, threads);
+                    WriterPipeline pipeline = options.getWriterThreads() == 0 ? null :
+                            new WriterPipeline(columnOutputs, options.getWriterThreads(), options.getBatchSize())) {
+                JSONLines.process(in, threads, (lines, count, firstLine) -> {
+                    String[][] rows = new String[count][columnCount];
+                    for (int i = 0; i < count; i++) {
+                        String[] row = rows[i];
+                        JSONLines.parseLine(lines[i], firstLine + i, (property, value) -> {
+                            Integer columnNumber = columnNumbers.get(property);
+                            if (columnNumber == null)
+                                throw new IllegalArgumentException("JSON Lines data changed during ingest");
+                            row[columnNumber] = value;
+                        });
+                        for (int j = 0; j < columnCount; j++)
+                            if (row[j] == null)
+                                row[j] = "";
+                    }
+                    return rows;
+                }, rows -> {
+                    for (String[] row : rows) {
+                        if (pipeline != null)
+                            pipeline.put(row);
+                        else {
+                            for (int i = 0; i < columnCount; i++)
+                                columnOutputs[i].putString(row[i]);
+                        }
+                    }
+                });
+                if (pipeline != null)
+                    pipeline.finish();
+            }
+            closeOutputs(table, columnOutputs, outFile);
+        }
+
+        if (options.isShowMetadata()) {
+            JSONFormat format = new JSONFormat();
+            System.out.println(format.format(table.toJSON()));
+        }
+    }
 
-            try (CSV csv = new CSV(new FileInputStream(csvFile))) {
-                if (headers)
-                    csv.next();
+    /**
+     * Ingest an Arrow IPC file (in either the file or the stream format).  The fields of the Arrow schema become the
+     * columns of the table, and the types are inferred from the values as for a CSV file.
+     *
+     * @param   name        the table name
+     * @param   arrowFile   the Arrow file
+     * @param   outFile     the output directory
+     * @param   options     the ingest options
+     * @throws  IOException if thrown reading the input or writing the table
+     * @throws  IllegalArgumentException if the data uses unsupported Arrow features
+     * @see     ArrowReader
+     */
+    public static void ingestArrow(String name, File arrowFile, File outFile, Options options) throws IOException {
+        Table table = new Table(name);
+        table.setSource(arrowFile.getCanonicalPath());
+        if (options.getMaxUnique() != null)
+            table.setMaxUniqueValues(options.getMaxUnique());
+        try (ArrowReader reader = new ArrowReader(arrowFile)) {
+            table.analyseArrow(reader);
+        }
+
+        if (outFile != null) {
+            int columnCount = table.getNumColumns();
+            ColumnOutput[] columnOutputs = openOutputs(table, outFile, options);
+            try (ArrowReader reader = new ArrowReader(arrowFile);
+                    WriterPipeline pipeline = options.getWriterThreads() == 0 ? null :
+                            new WriterPipeline(columnOutputs, options.getWriterThreads(), options.getBatchSize())) {
+                while (reader.nextBatch()) {
+                    for (int row = 0, n = reader.getBatchLength(); row < n; row++) {
+                        if (pipeline != null) {
+                            String[] values = new String[columnCount];
+                            for (int i = 0; i < columnCount; i++)
+                                values[i] = reader.getString(i, row);
+                            pipeline.put(values);
+                        }
+                        else {
+                            for (int i = 0; i < columnCount; i++)
+                                columnOutputs[i].putString(reader.getString(i, row));
+                        }
+                    }
+                }
+                if (pipeline != null)
+                    pipeline.finish();
+            }
+            closeOutputs(table, columnOutputs, outFile);
+        }
+
+        if (options.isShowMetadata()) {
+            JSONFormat format = new JSONFormat();
+            System.out.println(format.format(table.toJSON()));
+        }
+    }
+
+    /**
+     * Append the contents of a CSV file to an existing table.  The new data is analysed against the existing columns
+     * (widening the type where necessary) and written as a new segment with its own column files; the segment is then
+     * added to the table's list of segments, so that the time taken depends only on the size of the new data.
+     *
+     * @param   csvFile         the CSV file
+     * @param   tableDirectory  the table directory
+     * @param   options         the ingest options
+     * @throws  IOException if thrown reading the CSV file or writing the segment
+     * @throws  IllegalArgumentException if the data does not match the existing table
+     * @see     SegmentedTable
+     */
+    public static synchronized void append(File csvFile, File tableDirectory, Options options) throws IOException {
+        Table existing = Table.open(tableDirectory);
+        try {
+            Table segment = new Table(existing.getName());
+            segment.setSource(csvFile.getCanonicalPath());
+            if (options.getMaxUnique() != null)
+                segment.setMaxUniqueValues(options.getMaxUnique());
+            try (CSV csv = new CSV(GzipInput.open(csvFile, options.getDecompressionThreads()))) {
+                segment.analyse(csv, options.isHeaders(), existing);
+            }
+            if (segment.getNumRows() == 0)
+                return;
+            String segmentName = SegmentedTable.createSegmentDirectory(tableDirectory);
+            File segmentDirectory = new File(tableDirectory, segmentName);
+            write(segment, csvFile, segmentDirectory, options);
+            SegmentedTable.addSegment(tableDirectory, segmentName, segment.getNumRows());
+            if (options.isShowMetadata()) {
+                JSONFormat format = new JSONFormat();
+                System.out.println(format.format(segment.toJSON()));
+            }
+        }
+        finally {
+            try {
+                existing.close();
+            }
+            catch (Exception e) {
+                throw new IOException("Error closing table", e);
+            }
+        }
+    }
+
+    /**
+     * Write the data for an analysed table.  If the options specify writer threads, the parsed rows are handed off in
+     * batches to a {@link WriterPipeline}, so that the columns are encoded and written in parallel while parsing
+     * continues; otherwise each value is written by the parsing thread.
+     *
+     * @param   table       the analysed {@link Table}
+     * @param   csvFile     the CSV file
+     * @param   directory   the output directory
+     * @param   options     the ingest options
+     * @throws  IOException if thrown reading the CSV file or writing the columns
+     */
+    private static void write(Table table, File csvFile, File directory, Options options) throws IOException {
+        ColumnOutput[] columnOutputs = openOutputs(table, directory, options);
+        int columnCount = columnOutputs.length;
+        try (CSV csv = new CSV(GzipInput.open(csvFile, options.getDecompressionThreads()))) {
+            if (options.isHeaders())
+                csv.next();
+            if (options.getWriterThreads() > 0) {
+                try (WriterPipeline pipeline = new WriterPipeline(columnOutputs, options.getWriterThreads(),
+                        options.getBatchSize())) {
+                    String[] values = new String[columnCount];
+                    while (csv.hasNext()) {
+                        CSV.Record record = csv.next();
+                        for (int i = 0; i < columnCount; i++)
+                            values[i] = record.getField(i);
+                        pipeline.put(values);
+                    }
+                    pipeline.finish();
+                }
+            }
+            else {
                 while (csv.hasNext()) {
                     CSV.Record record = csv.next();
                     for (int i = 0; i < columnCount; i++)
                         columnOutputs[i].putString(record.getField(i));
                 }
             }
+        }
+        closeOutputs(table, columnOutputs, directory);
+    }
 
-            for (int i = 0; i < columnCount; i++) {
-                table.getColumn(i).setFileData(columnOutputs[i].summariseAndClose());
+    /**
+     * Create the {@link ColumnOutput} objects for the columns of an analysed table, including any indexes requested
+     * in the options.  Indexes address rows with {@code int} values, so a table with more than {@link Bitmap#maxRows}
+     * rows can not be indexed (it should be split into segments or partitions instead).
+     *
+     * @param   table       the analysed {@link Table}
+     * @param   directory   the output directory
+     * @param   options     the ingest options
+     * @return              an array of {@link ColumnOutput}, one for each column
+     * @throws  IOException if thrown creating the files
+     */
+    static ColumnOutput[] openOutputs(Table table, File directory, Options options) throws IOException {
+        int columnCount = table.getNumColumns();
+        if (table.getNumRows() > Bitmap.maxRows && (options.isBitmapIndexes() || options.isSortedIndexes() ||
+                !options.getTextIndexColumns().isEmpty() || options.isBloomFilters()))
+            throw new IllegalArgumentException("Too many rows to index: " + table.getNumRows());
+        ColumnOutput[] columnOutputs = new ColumnOutput[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            Column column = table.getColumn(i);
+            columnOutputs[i] = ColumnOutput.getExtendedColumnOutputObject(directory, column, i);
+            if (options.isBitmapIndexes() && BitmapIndex.isIndexable(column))
+                columnOutputs[i] = new ColumnOutputBitmapIndex(columnOutputs[i], directory, column, i);
+            if (options.isSortedIndexes() && SortedIndex.isIndexable(column))
+                columnOutputs[i] = new ColumnOutputSortedIndex(columnOutputs[i], directory, column, i);
+            if (options.getTextIndexColumns().contains(column.getName())) {
+                if (!TextIndex.isIndexable(column))
+                    throw new IllegalArgumentException("Column can not have text index: " + column.getName());
+                columnOutputs[i] = new ColumnOutputTextIndex(columnOutputs[i], directory, i);
             }
-            JSONObject json = table.toJSON();
-            FileWriter metadata = new FileWriter(new File(outFile, "metadata.json"));
-            json.appendJSON(metadata);
-            metadata.close();
+            if (options.isBloomFilters() && BloomFilter.isIndexable(column))
+                columnOutputs[i] = new ColumnOutputBloomFilter(columnOutputs[i], directory, column, i);
+        }
+        return columnOutputs;
+    }
 
+    /**
+     * Close the {@link ColumnOutput} objects for a table, write the {@link HyperLogLog} sketches of the columns (so
+     * that the sketches of segments can be merged later), and write the table metadata.
+     *
+     * @param   table           the analysed {@link Table}
+     * @param   columnOutputs   the {@link ColumnOutput} objects
+     * @param   directory       the output directory
+     * @throws  IOException if thrown closing the files or writing the metadata
+     */
+    static void closeOutputs(Table table, ColumnOutput[] columnOutputs, File directory) throws IOException {
+        for (int i = 0; i < columnOutputs.length; i++) {
+            Column column = table.getColumn(i);
+            Column.FileData fileData = columnOutputs[i].summariseAndClose();
+            HyperLogLog sketch = column.getSketch();
+            if (sketch != null) {
+                if (fileData == null)
+                    fileData = new Column.FileData();
+                StringBuilder sb = new StringBuilder(7);
+                Strings.append3Digits(sb, i);
+                sb.append(".hll");
+                String filename = sb.toString();
+                fileData.setSketch(new Column.FileDetails(filename, sketch.write(new File(directory, filename))));
+            }
+            column.setFileData(fileData);
         }
+        JSONObject json = table.toJSON();
+        FileWriter metadata = new FileWriter(new File(directory, "metadata.json"));
+        json.appendJSON(metadata);
+        metadata.close();
+        Catalog.write(table, directory);
+    }
 
-        if (showMetadata) {
-            JSONFormat format = new JSONFormat();
-            System.out.println(format.format(table.toJSON()));
+    /**
+     * Ingest a CSV file as a partition of a partitioned table.  The partition is written to a sub-directory of the
+     * table directory, and is then added to the list of partitions (replacing any existing partition of the same
+     * name).
+     *
+     * @param   name            the table name
+     * @param   csvFile         the CSV file
+     * @param   tableDirectory  the partitioned table directory
+     * @param   partitionName   the partition name
+     * @param   partitionColumn the partition column name
+     * @param   options         the ingest options
+     * @throws  IOException if thrown reading the CSV file or writing the partition
+     * @see     PartitionedTable
+     */
+    public static void ingestPartition(String name, File csvFile, File tableDirectory, String partitionName,
+            String partitionColumn, Options options) throws IOException {
+        File partitionDirectory = new File(tableDirectory, partitionName);
+        if (!partitionDirectory.exists() && !partitionDirectory.mkdirs())
+            throw new IOException("Error creating partition directory: " + partitionDirectory);
+        ingest(name, csvFile, partitionDirectory, options);
+        PartitionedTable.addPartition(tableDirectory, name, partitionColumn, partitionName);
+    }
+
+    /**
+     * Options for the ingest process.
+     */
+    public static class Options {
+
+        public static final int defaultWriterThreads =
+                Math.max(Math.min(Runtime.getRuntime().availableProcessors() - 1, 8), 1);
+        public static final int defaultDecompressionThreads =
+                Math.max(Math.min(Runtime.getRuntime().availableProcessors(), 8), 1);
+
+        private boolean headers;
+        private boolean showMetadata;
+        private Integer maxUnique;
+        private boolean bitmapIndexes;
+        private boolean sortedIndexes;
+        private Set<String> textIndexColumns;
+        private boolean bloomFilters;
+        private int writerThreads;
+        private int batchSize;
+        private int decompressionThreads;
+
+        public Options() {
+            headers = false;
+            showMetadata = false;
+            maxUnique = null;
+            bitmapIndexes = false;
+            sortedIndexes = false;
+            textIndexColumns = Collections.emptySet();
+            bloomFilters = false;
+            writerThreads = defaultWriterThreads;
+            batchSize = WriterPipeline.defaultBatchSize;
+            decompressionThreads = defaultDecompressionThreads;
+        }
+
+        public boolean isHeaders() {
+            return headers;
+        }
+
+        public void setHeaders(boolean headers) {
+            this.headers = headers;
+        }
+
+        public boolean isShowMetadata() {
+            return showMetadata;
+        }
+
+        public void setShowMetadata(boolean showMetadata) {
+            this.showMetadata = showMetadata;
+        }
+
+        public Integer getMaxUnique() {
+            return maxUnique;
+        }
+
+        public void setMaxUnique(Integer maxUnique) {
+            this.maxUnique = maxUnique;
+        }
+
+        /**
+         * Get the flag indicating whether bitmap indexes are to be created for low-cardinality columns.
+         *
+         * @return  {@code true} if bitmap indexes are to be created
+         */
+        public boolean isBitmapIndexes() {
+            return bitmapIndexes;
+        }
+
+        public void setBitmapIndexes(boolean bitmapIndexes) {
+            this.bitmapIndexes = bitmapIndexes;
+        }
+
+        /**
+         * Get the flag indicating whether sorted indexes are to be created for unsorted integer and date columns.
+         *
+         * @return  {@code true} if sorted indexes are to be created
+         */
+        public boolean isSortedIndexes() {
+            return sortedIndexes;
+        }
+
+        public void setSortedIndexes(boolean sortedIndexes) {
+            this.sortedIndexes = sortedIndexes;
+        }
+
+        /**
+         * Get the names of the string columns for which text (trigram and token) indexes are to be created.
+         *
+         * @return  the set of column names
+         */
+        public Set<String> getTextIndexColumns() {
+            return textIndexColumns;
+        }
+
+        public void setTextIndexColumns(Set<String> textIndexColumns) {
+            this.textIndexColumns = textIndexColumns;
+        }
+
+        public boolean isBloomFilters() {
+            return bloomFilters;
+        }
+
+        public void setBloomFilters(boolean bloomFilters) {
+            this.bloomFilters = bloomFilters;
+        }
+
+        /**
+         * Get the number of threads to be used to encode and write the columns.  A value of zero causes the columns
+         * to be written by the thread parsing the input.
+         *
+         * @return  the number of writer threads
+         */
+        public int getWriterThreads() {
+            return writerThreads;
+        }
+
+        public void setWriterThreads(int writerThreads) {
+            if (writerThreads < 0)
+                throw new IllegalArgumentException("Invalid number of writer threads: " + writerThreads);
+            this.writerThreads = writerThreads;
+        }
+
+        /**
+         * Get the number of rows passed to the writer threads in each batch.
+         *
+         * @return  the batch size
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            if (batchSize < 1)
+                throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * Get the number of threads to be used to decompress gzip input in the blocked (BGZF) format.  Other gzip
+         * files are decompressed by a single background thread.
+         *
+         * @return  the number of decompression threads
+         * @see     GzipInput
+         */
+        public int getDecompressionThreads() {
+            return decompressionThreads;
         }
+
+        public void setDecompressionThreads(int decompressionThreads) {
+            if (decompressionThreads < 1)
+                throw new IllegalArgumentException("Invalid number of decompression threads: " +
+                        decompressionThreads);
+            this.decompressionThreads = decompressionThreads;
+        }
+
     }
 
 }
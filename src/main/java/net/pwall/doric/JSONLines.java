@@ -0,0 +1,405 @@
+/*
+ * @(#) JSONLines.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Support for JSON Lines (newline-delimited JSON) input.  Each non-blank line must contain a JSON object, and the
+ * top-level properties of the object are mapped to columns.  The lines are scanned by a lightweight parser that
+ * returns each property value as a string (in the form in which it would appear in a CSV file) without building a
+ * tree of JSON objects: strings are unescaped, numbers and booleans are returned as they appear in the source, and
+ * nested objects and arrays are returned as their JSON text.  A {@code null} value, an empty string and a missing
+ * property are all treated as null.
+ *
+ * <p>Lines are read in chunks, and the chunks are parsed in parallel; the results are delivered to the caller in the
+ * order of the input.  Blank lines are skipped, so line numbers in error messages count non-blank lines only.</p>
+ *
+ * @author  Peter Wall
+ */
+public class JSONLines {
+
+    public static final int chunkLines = 1024;
+
+    /**
+     * Consumer for the properties of a JSON object.
+     */
+    @FunctionalInterface
+    public interface PropertyConsumer {
+        void accept(String name, String value);
+    }
+
+    /**
+     * Function to parse a chunk of lines.
+     *
+     * @param   <T>     the result type
+     */
+    @FunctionalInterface
+    public interface ChunkParser<T> {
+        T parse(String[] lines, int count, long firstLine);
+    }
+
+    /**
+     * Consumer for the results of parsing chunks of lines.
+     *
+     * @param   <T>     the result type
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer<T> {
+        void accept(T result) throws IOException;
+    }
+
+    /**
+     * Read the lines of a JSON Lines input in chunks, parse the chunks (in parallel if more than one thread is
+     * specified) and pass the results to a consumer, in order.
+     *
+     * @param   in          the input
+     * @param   threads     the number of parsing threads
+     * @param   parser      the function to parse a chunk
+     * @param   consumer    the consumer of the parsed chunks
+     * @param   <T>         the result type
+     * @throws  IOException if thrown reading the input or by the consumer
+     */
+    public static <T> void process(InputStream in, int threads, ChunkParser<T> parser, ChunkConsumer<T> consumer)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 65536);
+        if (threads <= 1) {
+            long lineNumber = 1;
+            while (true) {
+                String[] lines = new String[chunkLines];
+                int count = readChunk(reader, lines);
+                if (count == 0)
+                    break;
+                consumer.accept(parser.parse(lines, count, lineNumber));
+                lineNumber += count;
+            }
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "doric-jsonl-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Deque<Future<T>> pending = new ArrayDeque<>();
+            long lineNumber = 1;
+            boolean eof = false;
+            while (true) {
+                while (!eof && pending.size() < threads * 2) {
+                    String[] lines = new String[chunkLines];
+                    int count = readChunk(reader, lines);
+                    if (count == 0) {
+                        eof = true;
+                        break;
+                    }
+                    long firstLine = lineNumber;
+                    pending.addLast(executor.submit(() -> parser.parse(lines, count, firstLine)));
+                    lineNumber += count;
+                }
+                Future<T> future = pending.pollFirst();
+                if (future == null)
+                    break;
+                consumer.accept(getResult(future));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for parser");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new IOException("Error parsing JSON Lines", cause);
+        }
+    }
+
+    private static int readChunk(BufferedReader reader, String[] lines) throws IOException {
+        int count = 0;
+        while (count < lines.length) {
+            String line = reader.readLine();
+            if (line == null)
+                break;
+            if (!line.trim().isEmpty())
+                lines[count++] = line;
+        }
+        return count;
+    }
+
+    /**
+     * Parse a line containing a JSON object, passing each top-level property to a consumer.  A blank line is treated
+     * as an object with no properties.
+     *
+     * @param   line        the line
+     * @param   lineNumber  the line number (for error messages)
+     * @param   consumer    the consumer of the properties
+     * @throws  IllegalArgumentException if the line does not contain a valid JSON object
+     */
+    public static void parseLine(String line, long lineNumber, PropertyConsumer consumer) {
+        Scanner scanner = new Scanner(line, lineNumber);
+        scanner.skipSpaces();
+        if (scanner.atEnd())
+            return;
+        scanner.expect('{');
+        scanner.skipSpaces();
+        if (!scanner.match('}')) {
+            while (true) {
+                scanner.skipSpaces();
+                String name = scanner.readString();
+                scanner.skipSpaces();
+                scanner.expect(':');
+                scanner.skipSpaces();
+                consumer.accept(name, scanner.readValue());
+                scanner.skipSpaces();
+                if (scanner.match('}'))
+                    break;
+                scanner.expect(',');
+            }
+        }
+        scanner.skipSpaces();
+        if (!scanner.atEnd())
+            throw scanner.error("Unexpected characters after object");
+    }
+
+    /**
+     * Parse a chunk of lines into an array of name/value pairs for each line.
+     *
+     * @param   lines       the lines
+     * @param   count       the number of lines
+     * @param   firstLine   the line number of the first line
+     * @return              an array with an entry for each line, containing alternate names and values
+     */
+    public static String[][] parseProperties(String[] lines, int count, long firstLine) {
+        String[][] result = new String[count][];
+        List<String> properties = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            properties.clear();
+            parseLine(lines[i], firstLine + i, (name, value) -> {
+                properties.add(name);
+                properties.add(value);
+            });
+            result[i] = properties.toArray(new String[0]);
+        }
+        return result;
+    }
+
+    private static class Scanner {
+
+        private String text;
+        private long lineNumber;
+        private int index;
+
+        Scanner(String text, long lineNumber) {
+            this.text = text;
+            this.lineNumber = lineNumber;
+            index = 0;
+        }
+
+        boolean atEnd() {
+            return index >= text.length();
+        }
+
+        void skipSpaces() {
+            while (index < text.length()) {
+                char ch = text.charAt(index);
+                if (ch != ' ' && ch != '\t' && ch != '\r' && ch != '\n')
+                    break;
+                index++;
+            }
+        }
+
+        boolean match(char ch) {
+            if (index < text.length() && text.charAt(index) == ch) {
+                index++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char ch) {
+            if (!match(ch))
+                throw error("Expected '" + ch + '\'');
+        }
+
+        String readValue() {
+            if (atEnd())
+                throw error("Missing value");
+            char ch = text.charAt(index);
+            switch (ch) {
+            case '"':
+                String string = readString();
+                return string.isEmpty() ? null : string;
+            case '{':
+            case '[':
+                int start = index;
+                skipNested();
+                return text.substring(start, index);
+            case 't':
+                return readKeyword("true");
+            case 'f':
+                return readKeyword("false");
+            case 'n':
+                readKeyword("null");
+                return null;
+            default:
+                return readNumber();
+            }
+        }
+
+        private String readKeyword(String keyword) {
+            if (!text.startsWith(keyword, index))
+                throw error("Invalid value");
+            index += keyword.length();
+            return keyword;
+        }
+
+        private String readNumber() {
+            int start = index;
+            while (index < text.length()) {
+                char ch = text.charAt(index);
+                if (!(ch >= '0' && ch <= '9' || ch == '-' || ch == '+' || ch == '.' || ch == 'e' || ch == 'E'))
+                    break;
+                index++;
+            }
+            if (index == start)
+                throw error("Invalid value");
+            return text.substring(start, index);
+        }
+
+        String readString() {
+            expect('"');
+            int start = index;
+            // fast path - no escape sequences
+            while (index < text.length()) {
+                char ch = text.charAt(index);
+                if (ch == '"')
+                    return text.substring(start, index++);
+                if (ch == '\\')
+                    break;
+                index++;
+            }
+            StringBuilder sb = new StringBuilder(text.length() - start);
+            sb.append(text, start, index);
+            while (index < text.length()) {
+                char ch = text.charAt(index++);
+                if (ch == '"')
+                    return sb.toString();
+                if (ch != '\\') {
+                    sb.append(ch);
+                    continue;
+                }
+                if (atEnd())
+                    break;
+                ch = text.charAt(index++);
+                switch (ch) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(ch);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (index + 4 > text.length())
+                        throw error("Invalid unicode escape");
+                    try {
+                        sb.append((char)Integer.parseInt(text.substring(index, index + 4), 16));
+                    }
+                    catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    index += 4;
+                    break;
+                default:
+                    throw error("Invalid escape sequence");
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private void skipNested() {
+            int depth = 0;
+            while (index < text.length()) {
+                char ch = text.charAt(index);
+                if (ch == '"') {
+                    readString();
+                    continue;
+                }
+                index++;
+                if (ch == '{' || ch == '[')
+                    depth++;
+                else if (ch == '}' || ch == ']') {
+                    if (--depth == 0)
+                        return;
+                }
+            }
+            throw error("Unterminated object or array");
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid JSON Lines data, line " + lineNumber + ", offset " + index +
+                    ": " + message);
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * @(#) LatencyHistogram.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import net.pwall.json.JSONArray;
+import net.pwall.json.JSONObject;
+
+/**
+ * A histogram of latencies, with buckets on a logarithmic (power of 2) scale of microseconds.  Bucket 0 counts
+ * latencies of less than 1 microsecond, and bucket {@code n} counts latencies from 2<sup>n-1</sup> up to (but not
+ * including) 2<sup>n</sup> microseconds; the last bucket also counts all longer latencies.
+ *
+ * @author  Peter Wall
+ */
+public class LatencyHistogram {
+
+    public static final int numBuckets = 24;
+
+    private long[] counts;
+    private long totalNanos;
+
+    public LatencyHistogram() {
+        counts = new long[numBuckets];
+        totalNanos = 0;
+    }
+
+    public LatencyHistogram(LatencyHistogram other) {
+        counts = other.counts.clone();
+        totalNanos = other.totalNanos;
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param   nanos   the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        counts[Math.min(bucket, numBuckets - 1)]++;
+        totalNanos += nanos;
+    }
+
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    public long getCount() {
+        long result = 0;
+        for (long count : counts)
+            result += count;
+        return result;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0.0 : totalNanos / 1000.0 / count;
+    }
+
+    /**
+     * Get an estimate of a percentile of the latencies, as the upper bound of the bucket containing it.
+     *
+     * @param   percentile  the percentile (0 to 100)
+     * @return              the upper bound of the bucket in microseconds (or 0 if there are no entries)
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+        long target = (long)Math.ceil(count * percentile / 100.0);
+        long cumulative = 0;
+        for (int i = 0; i < numBuckets; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target)
+                return getUpperBoundMicros(i);
+        }
+        return getUpperBoundMicros(numBuckets - 1);
+    }
+
+    /**
+     * Get the upper bound (exclusive) of a bucket.  The last bucket has no upper bound; the value returned for it is
+     * the upper bound it would have had.
+     *
+     * @param   bucket  the bucket number
+     * @return          the upper bound in microseconds
+     */
+    public static long getUpperBoundMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    public void reset() {
+        for (int i = 0; i < numBuckets; i++)
+            counts[i] = 0;
+        totalNanos = 0;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject result = JSONObject.create().putValue("count", getCount()).
+                putValue("meanMicros", getMeanMicros()).putValue("p50Micros", getPercentileMicros(50)).
+                putValue("p99Micros", getPercentileMicros(99));
+        JSONArray buckets = new JSONArray();
+        int last = numBuckets - 1;
+        while (last > 0 && counts[last] == 0)
+            last--;
+        for (int i = 0; i <= last; i++)
+            buckets.addValue(counts[i]);
+        result.put("buckets", buckets);
+        return result;
+    }
+
+}
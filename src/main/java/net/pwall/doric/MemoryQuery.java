@@ -0,0 +1,360 @@
+/*
+ * @(#) MemoryQuery.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import net.pwall.doric.query.Query;
+import net.pwall.util.Strings;
+
+/**
+ * A {@link Query} whose rows are held in memory.  Each column is held as an array of the type used for the column
+ * ({@code long} for integer and date columns, {@code double} for floating-point columns and {@link String} otherwise),
+ * with a bitmap of the null values.  The column descriptions are copies of the descriptions from the source, without
+ * any of the file details, so a {@code MemoryQuery} remains valid after the table from which it was copied has been
+ * closed.
+ *
+ * <p>Rows may only be added before the query is shared between threads; after that the query is read-only.</p>
+ *
+ * @author  Peter Wall
+ */
+public class MemoryQuery implements Query {
+
+    private static final int initialCapacity = 16;
+
+    private List<Column> columns;
+    private long[][] longValues;
+    private double[][] doubleValues;
+    private String[][] stringValues;
+    private BitSet[] nulls;
+    private int numRows;
+    private int capacity;
+
+    public MemoryQuery(List<Column> columns) {
+        int n = columns.size();
+        this.columns = new ArrayList<>(n);
+        longValues = new long[n][];
+        doubleValues = new double[n][];
+        stringValues = new String[n][];
+        nulls = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            Column column = copyColumn(columns.get(i));
+            this.columns.add(column);
+            nulls[i] = new BitSet();
+            switch (column.getType()) {
+            case integer:
+            case date:
+                longValues[i] = new long[initialCapacity];
+                break;
+            case floating:
+                doubleValues[i] = new double[initialCapacity];
+                break;
+            default:
+                stringValues[i] = new String[initialCapacity];
+                break;
+            }
+        }
+        numRows = 0;
+        capacity = initialCapacity;
+    }
+
+    /**
+     * Copy all the rows of a {@link Query} into memory.  The rows are read through the query's spliterator, so the
+     * source need not know its number of rows in advance.
+     *
+     * @param   source  the source {@link Query}
+     * @return          the {@code MemoryQuery}
+     */
+    public static MemoryQuery copy(Query source) {
+        List<Column> columns = new ArrayList<>();
+        for (Column column : source.getColumns())
+            columns.add(column);
+        MemoryQuery result = new MemoryQuery(columns);
+        source.spliterator().forEachRemaining(row -> {
+            try {
+                result.addRow(row);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error executing query", e);
+            }
+        });
+        return result;
+    }
+
+    private static Column copyColumn(Column source) {
+        Column column = new Column(source.getName());
+        column.setType(source.getType());
+        column.setNullable(source.isNullable());
+        column.setMinWidth(source.getMinWidth());
+        column.setMaxWidth(source.getMaxWidth());
+        column.setMinInt(source.getMinInt());
+        column.setMaxInt(source.getMaxInt());
+        column.setMinFloat(source.getMinFloat());
+        column.setMaxFloat(source.getMaxFloat());
+        column.setMaxDecimals(source.getMaxDecimals());
+        column.setDecimalShift(source.getDecimalShift());
+        return column;
+    }
+
+    /**
+     * Create a column description for a column of a {@code MemoryQuery} built row by row.
+     *
+     * @param   name        the column name
+     * @param   type        the column type
+     * @param   nullable    {@code true} if the column may contain nulls
+     * @return              the {@link Column}
+     */
+    public static Column column(String name, Column.Type type, boolean nullable) {
+        Column column = new Column(name);
+        column.setType(type);
+        column.setNullable(nullable);
+        return column;
+    }
+
+    /**
+     * Add a row, copying the values of the columns (matched by position) from a {@link Row} of another query.
+     *
+     * @param   row     the source {@link Row}
+     * @throws  IOException if thrown reading the source
+     */
+    public void addRow(Row row) throws IOException {
+        ensureCapacity();
+        for (int i = 0, n = columns.size(); i < n; i++) {
+            if (row.isNull(i)) {
+                nulls[i].set(numRows);
+                continue;
+            }
+            switch (columns.get(i).getType()) {
+            case integer:
+            case date:
+                longValues[i][numRows] = row.getLong(i);
+                break;
+            case floating:
+                doubleValues[i][numRows] = row.getNumber(i).doubleValue();
+                break;
+            default:
+                stringValues[i][numRows] = row.getString(i);
+                break;
+            }
+        }
+        numRows++;
+    }
+
+    /**
+     * Add a row from an array of values: {@link Number} objects for integer, date (as epoch days) and floating-point
+     * columns, and objects to be converted to {@link String} for other columns.  A {@code null} value is a null.
+     *
+     * @param   values  the values
+     * @throws  IllegalArgumentException if the number of values does not match the number of columns
+     */
+    public void addRow(Object ... values) {
+        if (values.length != columns.size())
+            throw new IllegalArgumentException("Row has " + values.length + " values; expected " + columns.size());
+        ensureCapacity();
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                nulls[i].set(numRows);
+                continue;
+            }
+            switch (columns.get(i).getType()) {
+            case integer:
+            case date:
+                longValues[i][numRows] = ((Number)value).longValue();
+                break;
+            case floating:
+                doubleValues[i][numRows] = ((Number)value).doubleValue();
+                break;
+            default:
+                stringValues[i][numRows] = value.toString();
+                break;
+            }
+        }
+        numRows++;
+    }
+
+    private void ensureCapacity() {
+        if (numRows < capacity)
+            return;
+        if (capacity == Integer.MAX_VALUE)
+            throw new IllegalStateException("Too many rows for an in-memory query");
+        capacity = (int)Math.min((long)capacity * 2, Integer.MAX_VALUE);
+        for (int i = 0, n = columns.size(); i < n; i++) {
+            if (longValues[i] != null)
+                longValues[i] = Arrays.copyOf(longValues[i], capacity);
+            else if (doubleValues[i] != null)
+                doubleValues[i] = Arrays.copyOf(doubleValues[i], capacity);
+            else
+                stringValues[i] = Arrays.copyOf(stringValues[i], capacity);
+        }
+    }
+
+    /**
+     * Get an estimate of the memory used by the values of the query, in bytes.  This counts the values of the rows
+     * (strings are counted at two bytes per character, plus the object overhead), but not the unused capacity of the
+     * arrays.
+     *
+     * @return  the estimated size
+     */
+    public long getSizeEstimate() {
+        long result = 64;
+        for (int i = 0, n = columns.size(); i < n; i++) {
+            result += 64 + numRows / 8;
+            if (stringValues[i] == null)
+                result += numRows * 8L;
+            else {
+                for (int j = 0; j < numRows; j++) {
+                    String value = stringValues[i][j];
+                    result += value == null ? 8 : 48 + value.length() * 2L;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isNumRowsKnown() {
+        return true;
+    }
+
+    @Override
+    public long getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public int getNumColumns() {
+        return columns.size();
+    }
+
+    @Override
+    public Column getColumn(int i) {
+        return columns.get(i);
+    }
+
+    @Override
+    public Row getRow(long rowNumber) {
+        if (rowNumber < 0 || rowNumber >= numRows)
+            throw new IndexOutOfBoundsException("Row number out of range: " + rowNumber);
+        return new MemoryRow(this, (int)rowNumber);
+    }
+
+    private int getColumnIndex(Column column) {
+        for (int i = 0, n = columns.size(); i < n; i++)
+            if (columns.get(i) == column)
+                return i;
+        throw new IllegalArgumentException("Column is not part of this query: " + column.getName());
+    }
+
+    private String format(int columnIndex, int row) {
+        if (nulls[columnIndex].get(row))
+            return "";
+        Column column = columns.get(columnIndex);
+        switch (column.getType()) {
+        case integer:
+            return String.valueOf(longValues[columnIndex][row]);
+        case date:
+            return LocalDate.ofEpochDay(longValues[columnIndex][row]).toString();
+        case floating:
+            double value = doubleValues[columnIndex][row];
+            if (column.getDecimalShift() == 0)
+                return String.valueOf(value);
+            // reproduce the fixed number of decimal places of a decimal-shift column
+            return BigDecimal.valueOf(value).setScale(column.getDecimalShift(), RoundingMode.HALF_EVEN).
+                    toPlainString();
+        default:
+            return stringValues[columnIndex][row];
+        }
+    }
+
+    /**
+     * A {@link Row} of a {@code MemoryQuery}.
+     */
+    private static class MemoryRow extends Row {
+
+        private MemoryQuery query;
+        private int row;
+
+        public MemoryRow(MemoryQuery query, int row) {
+            super(query, row);
+            this.query = query;
+            this.row = row;
+        }
+
+        @Override
+        public boolean isNull(Column column) {
+            return query.nulls[query.getColumnIndex(column)].get(row);
+        }
+
+        @Override
+        public long getLong(Column column) {
+            int i = query.getColumnIndex(column);
+            if (query.longValues[i] == null)
+                throw new IllegalStateException("Column can not return <long>");
+            return query.longValues[i][row];
+        }
+
+        @Override
+        public Number getNumber(Column column) {
+            int i = query.getColumnIndex(column);
+            if (query.nulls[i].get(row))
+                return null;
+            switch (column.getType()) {
+            case integer:
+                return query.longValues[i][row];
+            case floating:
+                return query.doubleValues[i][row];
+            default:
+                throw new IllegalStateException("Column can not return <Number>");
+            }
+        }
+
+        @Override
+        public String getString(Column column) {
+            return query.format(query.getColumnIndex(column), row);
+        }
+
+        @Override
+        public void appendString(Appendable a, Column column) throws IOException {
+            int i = query.getColumnIndex(column);
+            if (column.getType() == Column.Type.integer) {
+                if (!query.nulls[i].get(row))
+                    Strings.appendLong(a, query.longValues[i][row]);
+            }
+            else
+                a.append(query.format(i, row));
+        }
+
+    }
+
+}
@@ -0,0 +1,430 @@
+/*
+ * @(#) PartitionedTable.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.pwall.doric.query.Concatenation;
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+import net.pwall.json.JSON;
+import net.pwall.json.JSONArray;
+import net.pwall.json.JSONObject;
+
+/**
+ * A logical table made up of a number of partitions, each of which is a {@link Table} in its own sub-directory,
+ * keyed by a partition column (for example, a date).  The list of partitions, with the number of rows and the range
+ * of the partition column in each, is held in {@code partitions.json}.
+ *
+ * <p>A query on a partitioned table first excludes the partitions that can not contain matching rows, using the
+ * partition column ranges from {@code partitions.json} and then the column metadata of each remaining partition; no
+ * column files are opened for excluded partitions.  The remaining partitions are queried individually (so that each
+ * may use its own indexes) and the results are concatenated.</p>
+ *
+ * @author  Peter Wall
+ */
+public class PartitionedTable implements Query {
+
+    public static final String manifestFileName = "partitions.json";
+
+    private File directory;
+    private String name;
+    private String partitionColumn;
+    private List<Partition> partitions;
+    private long[] starts;
+    private List<Column> columns;
+
+    private PartitionedTable(File directory, String name, String partitionColumn, List<Partition> partitions) {
+        this.directory = directory;
+        this.name = name;
+        this.partitionColumn = partitionColumn;
+        this.partitions = partitions;
+        int n = partitions.size();
+        starts = new long[n + 1];
+        for (int i = 0; i < n; i++)
+            starts[i + 1] = Math.addExact(starts[i], partitions.get(i).getNumRows());
+        columns = null;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPartitionColumn() {
+        return partitionColumn;
+    }
+
+    public List<Partition> getPartitions() {
+        return Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * Select the partitions that may contain rows satisfying a {@link Condition}.  Partitions are excluded first on
+     * the range of the partition column recorded in {@code partitions.json} (without opening the partition), and then
+     * on the column metadata of the partition.
+     *
+     * @param   condition   the {@link Condition}
+     * @return              the list of partitions
+     * @throws  IOException if thrown opening a partition
+     */
+    public List<Partition> prune(Condition condition) throws IOException {
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : partitions) {
+            Column keyColumn = partition.getKeyColumn();
+            if (!condition.mayMatch(columnName -> columnName.equals(partitionColumn) ? keyColumn : null))
+                continue;
+            Table table = partition.getTable(); // a segmented table excludes its own segments in where()
+            if (table instanceof SegmentedTable || condition.mayMatch(columnName -> findColumn(table, columnName)))
+                result.add(partition);
+        }
+        return result;
+    }
+
+    private static Column findColumn(Table table, String columnName) {
+        try {
+            return table.getColumn(columnName);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Query where(Condition condition) {
+        try {
+            List<Query> results = new ArrayList<>();
+            for (Partition partition : prune(condition))
+                results.add(partition.getTable().where(condition));
+            return new Concatenation(this, results);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error opening partition", e);
+        }
+    }
+
+    @Override
+    public boolean isNumRowsKnown() {
+        return true;
+    }
+
+    @Override
+    public long getNumRows() {
+        return starts[starts.length - 1];
+    }
+
+    @Override
+    public int getNumColumns() {
+        return getColumnList().size();
+    }
+
+    /**
+     * Get a column of the partitioned table.  The {@link Column} describes the values of all the partitions (see
+     * {@link Column#merge(List)}); the values themselves are read through the rows of the individual partitions.
+     *
+     * @param   i       the column number
+     * @return          the {@link Column}
+     */
+    @Override
+    public Column getColumn(int i) {
+        return getColumnList().get(i);
+    }
+
+    @Override
+    public Column getColumn(String columnName) {
+        for (Column column : getColumnList())
+            if (column.getName().equals(columnName))
+                return column;
+        throw new IllegalArgumentException("Can't locate column: " + columnName);
+    }
+
+    /**
+     * Get a {@link Row} of the partitioned table.  The row is a row of the partition that holds it, so column values
+     * are read from that partition; the partitions are numbered in the order of the partition column.
+     *
+     * @param   rowNumber   the row number
+     * @return              the {@link Row}
+     */
+    @Override
+    public Row getRow(long rowNumber) {
+        if (rowNumber < 0 || rowNumber >= getNumRows())
+            throw new IndexOutOfBoundsException("Row number out of range: " + rowNumber);
+        int lo = 0;
+        int hi = partitions.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= rowNumber)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        try {
+            return partitions.get(lo).getTable().getRow(rowNumber - starts[lo]);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error opening partition", e);
+        }
+    }
+
+    /**
+     * Get the column descriptions for the partitioned table, merged from the columns of all the partitions (opening
+     * each partition on first use).
+     *
+     * @return  the list of columns
+     */
+    private synchronized List<Column> getColumnList() {
+        if (partitions.isEmpty())
+            throw new IllegalStateException("Partitioned table has no partitions");
+        if (columns == null) {
+            try {
+                List<Table> tables = new ArrayList<>();
+                for (Partition partition : partitions)
+                    tables.add(partition.getTable());
+                List<Column> result = new ArrayList<>();
+                for (int i = 0, n = tables.get(0).getNumColumns(); i < n; i++) {
+                    List<Column> partitionColumns = new ArrayList<>(tables.size());
+                    for (Table table : tables)
+                        partitionColumns.add(table.getColumn(i));
+                    result.add(Column.merge(partitionColumns));
+                }
+                columns = result;
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error opening partition", e);
+            }
+        }
+        return columns;
+    }
+
+    public void close() throws Exception {
+        for (Partition partition : partitions)
+            partition.close();
+    }
+
+    /**
+     * Open a partitioned table.
+     *
+     * @param   directory   the table directory
+     * @return              the {@code PartitionedTable}
+     * @throws  IOException if the partition list can not be read
+     */
+    public static PartitionedTable open(File directory) throws IOException {
+        File manifest = new File(directory, manifestFileName);
+        if (!manifest.isFile())
+            throw new IOException("Not a partitioned table: " + directory);
+        try {
+            JSONObject json = JSON.parseObject(manifest);
+            String partitionColumn = json.getString("partitionColumn");
+            JSONArray jsonPartitions = json.getArray("partitions");
+            int numPartitions = jsonPartitions.size();
+            List<Partition> partitions = new ArrayList<>(numPartitions);
+            for (int i = 0; i < numPartitions; i++)
+                partitions.add(Partition.fromJSON(directory, jsonPartitions.getObject(i)));
+            return new PartitionedTable(directory, json.getString("name"), partitionColumn, partitions);
+        }
+        catch (IOException ioe) {
+            throw ioe;
+        }
+        catch (Exception e) {
+            throw new IOException("Error reading partitions", e);
+        }
+    }
+
+    /**
+     * Add a partition (already written to a sub-directory of the partitioned table directory) to the list of
+     * partitions, creating the list if it does not exist.  An existing partition of the same name is replaced.  The
+     * list is written to a temporary file and then renamed, so that readers see either the old or the new list.
+     *
+     * @param   directory       the table directory
+     * @param   name            the table name
+     * @param   partitionColumn the partition column name
+     * @param   partitionName   the partition name (the name of the sub-directory)
+     * @throws  IOException if thrown reading or writing the partition list, or opening the new partition
+     * @throws  IllegalArgumentException if the partition does not match the existing partitions
+     */
+    public static synchronized void addPartition(File directory, String name, String partitionColumn,
+            String partitionName) throws IOException {
+        List<Partition> partitions = new ArrayList<>();
+        if (new File(directory, manifestFileName).isFile()) {
+            PartitionedTable existing = open(directory);
+            if (!existing.getPartitionColumn().equals(partitionColumn))
+                throw new IllegalArgumentException("Partition column does not match: " + partitionColumn);
+            for (Partition partition : existing.partitions)
+                if (!partition.getName().equals(partitionName))
+                    partitions.add(partition);
+        }
+        Table table = Table.open(new File(directory, partitionName));
+        try {
+            Column keyColumn = table.getColumn(partitionColumn);
+            if (keyColumn.getType() != Column.Type.integer && keyColumn.getType() != Column.Type.date)
+                throw new IllegalArgumentException("Partition column must be integer or date: " + partitionColumn);
+            if (!partitions.isEmpty())
+                checkColumns(partitions.get(0).getTable(), table);
+            long min = keyColumn.getMinInt();
+            long max = keyColumn.getMaxInt();
+            if (table instanceof SegmentedTable) {
+                for (Table segment : ((SegmentedTable)table).getSegments()) {
+                    Column segmentKeyColumn = segment.getColumn(partitionColumn);
+                    if (segmentKeyColumn.getStorageType() != Column.StorageType.none) {
+                        min = Math.min(min, segmentKeyColumn.getMinInt());
+                        max = Math.max(max, segmentKeyColumn.getMaxInt());
+                    }
+                }
+            }
+            partitions.add(new Partition(directory, partitionName, table.getNumRows(), keyColumn.getType(),
+                    min, max));
+        }
+        finally {
+            try {
+                table.close();
+                for (Partition partition : partitions)
+                    partition.close();
+            }
+            catch (Exception e) {
+                throw new IOException("Error closing partition", e);
+            }
+        }
+        partitions.sort(Comparator.comparingLong(Partition::getMin).thenComparing(Partition::getName));
+        JSONArray array = new JSONArray();
+        for (Partition partition : partitions)
+            array.add(partition.toJSON());
+        JSONObject json = JSONObject.create().putValue("name", name).putValue("partitionColumn", partitionColumn);
+        json.put("partitions", array);
+        File temp = new File(directory, manifestFileName + ".tmp");
+        try (FileWriter writer = new FileWriter(temp)) {
+            json.appendJSON(writer);
+        }
+        Files.move(temp.toPath(), new File(directory, manifestFileName).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void checkColumns(Table existing, Table table) {
+        int numColumns = existing.getNumColumns();
+        if (table.getNumColumns() != numColumns)
+            throw new IllegalArgumentException("Partition has " + table.getNumColumns() + " columns; expected " +
+                    numColumns);
+        for (int i = 0; i < numColumns; i++) {
+            String columnName = existing.getColumn(i).getName();
+            if (!table.getColumn(i).getName().equals(columnName))
+                throw new IllegalArgumentException("Partition column " + i + " is " + table.getColumn(i).getName() +
+                        "; expected " + columnName);
+        }
+    }
+
+    /**
+     * A partition of a {@link PartitionedTable}.  The partition {@link Table} is opened when first used.
+     */
+    public static class Partition {
+
+        private File directory;
+        private String name;
+        private long numRows;
+        private Column keyColumn;
+        private Table table;
+
+        Partition(File tableDirectory, String name, long numRows, Column.Type keyType, long min, long max) {
+            directory = new File(tableDirectory, name);
+            this.name = name;
+            this.numRows = numRows;
+            keyColumn = new Column(name);
+            keyColumn.setType(keyType);
+            keyColumn.setMinInt(min);
+            keyColumn.setMaxInt(max);
+            table = null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        public long getNumRows() {
+            return numRows;
+        }
+
+        public long getMin() {
+            return keyColumn.getMinInt();
+        }
+
+        public long getMax() {
+            return keyColumn.getMaxInt();
+        }
+
+        /**
+         * Get a {@link Column} holding the range of the partition column in this partition, for use in excluding
+         * partitions without opening them.
+         *
+         * @return  the {@link Column}
+         */
+        Column getKeyColumn() {
+            return keyColumn;
+        }
+
+        public synchronized boolean isOpen() {
+            return table != null;
+        }
+
+        public synchronized Table getTable() throws IOException {
+            if (table == null)
+                table = Table.open(directory);
+            return table;
+        }
+
+        public synchronized void close() throws Exception {
+            if (table != null) {
+                table.close();
+                table = null;
+            }
+        }
+
+        public JSONObject toJSON() {
+            return JSONObject.create().putValue("name", name).putValue("rows", numRows).
+                    putValue("type", keyColumn.getType().toString()).putValue("min", getMin()).
+                    putValue("max", getMax());
+        }
+
+        public static Partition fromJSON(File tableDirectory, JSONObject json) {
+            return new Partition(tableDirectory, json.getString("name"), json.getLong("rows"),
+                    Column.Type.valueOf(json.getString("type")), json.getLong("min"), json.getLong("max"));
+        }
+
+    }
+
+}
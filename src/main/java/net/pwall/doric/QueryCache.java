@@ -0,0 +1,585 @@
+/*
+ * @(#) QueryCache.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.pwall.doric.query.Aggregate;
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+/**
+ * A cache of query results.  Each result is identified by the table directory and a normalised description of the
+ * query {@link Plan}, and is held as a {@link MemoryQuery}, so a cached result can be used without reading the table.
+ *
+ * <p>Each entry records the data version of the table at the time the query was executed.  The data version is a
+ * digest of the table metadata and the segment and partition lists (see {@link #getDataVersion(File)}), all of which
+ * are rewritten when the table is re-ingested, appended to, compacted or re-partitioned, so an entry is discarded
+ * (along with all the other entries for the table) as soon as the table changes.  The version is checked on every
+ * request, but the digest is only recomputed when the modification time or length of one of the files has changed
+ * since it was last computed, or when a file was modified too recently for its modification time to be relied on (see
+ * {@link #racyMillis}), so a request for an unchanged table costs only the file status checks.</p>
+ *
+ * <p>The memory used by the cached results is limited to a nominated number of bytes (using the estimate from
+ * {@link MemoryQuery#getSizeEstimate()}).  When the limit is reached, entries are evicted either in least recently
+ * used order or, with {@link EvictionPolicy#cost}, by the GreedyDual-Size method: each entry is given a priority of the
+ * time taken to execute the query divided by the size of the result, plus an inflation value that is raised to the
+ * priority of each evicted entry, so that results that are expensive to compute and small to hold are kept longest
+ * while entries that are no longer used still age out.</p>
+ *
+ * <p>If two threads request the same uncached result at the same time, both will execute the query.</p>
+ *
+ * @author  Peter Wall
+ */
+public class QueryCache {
+
+    public static final long defaultMaxBytes = 64L * 1024 * 1024;
+
+    /**
+     * The interval within which a modification time is not relied on to detect a change.  A file rewritten twice
+     * within the granularity of the file system timestamps, with the same length, would have the same modification
+     * time and length both times, so the digest is recomputed until the newest file is older than this.
+     */
+    public static final long racyMillis = 2000;
+
+    private static final String[] versionFiles = { "metadata.json", Catalog.fileName,
+            SegmentedTable.manifestFileName, PartitionedTable.manifestFileName };
+
+    private long maxBytes;
+    private EvictionPolicy evictionPolicy;
+    private LinkedHashMap<String, Entry> entries;
+    private Map<String, Long> versions;
+    private Map<String, Stamp> stamps;
+    private long size;
+    private double inflation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private long versionReads;
+
+    public QueryCache(long maxBytes, EvictionPolicy evictionPolicy) {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("Maximum cache size must be at least 1");
+        this.maxBytes = maxBytes;
+        this.evictionPolicy = evictionPolicy;
+        entries = new LinkedHashMap<>(16, 0.75F, true);
+        versions = new HashMap<>();
+        stamps = new HashMap<>();
+        size = 0;
+        inflation = 0.0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        invalidations = 0;
+        versionReads = 0;
+    }
+
+    public QueryCache(long maxBytes) {
+        this(maxBytes, EvictionPolicy.leastRecentlyUsed);
+    }
+
+    public QueryCache() {
+        this(defaultMaxBytes);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Get the estimated memory used by the cached results, in bytes.
+     *
+     * @return  the size
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getNumEntries() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests that required the query to be executed (including requests for plans that can not
+     * be cached).
+     *
+     * @return  the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of entries removed to make way for others.
+     *
+     * @return  the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of entries removed because the table changed (or because {@link #invalidate(File)} was called).
+     *
+     * @return  the number of invalidations
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Get the number of times the data version of a table was computed by reading the metadata files (rather than
+     * taken from the previous request because the files had not changed).
+     *
+     * @return  the number of version reads
+     */
+    public synchronized long getVersionReads() {
+        return versionReads;
+    }
+
+    /**
+     * Get the result of a query on a table, from the cache if the table has not changed since the result was cached,
+     * or otherwise by opening the table and executing the query.  If the plan has no key (because it uses a
+     * {@link Condition} with no key), the query is executed every time.
+     *
+     * @param   directory   the table directory (of a simple, segmented or partitioned table)
+     * @param   plan        the query {@link Plan}
+     * @return              the result
+     * @throws  IOException if thrown reading the table
+     */
+    public Query get(File directory, Plan plan) throws IOException {
+        String path = directory.getCanonicalPath();
+        long version = getVersion(directory, path);
+        String planKey = plan.getKey();
+        String key = planKey == null ? null : path + '\n' + planKey;
+        synchronized (this) {
+            checkVersion(path, version);
+            Entry entry = key == null ? null : entries.get(key);
+            if (entry != null && entry.version == version) {
+                hits++;
+                entry.priority = inflation + entry.cost / entry.size;
+                return entry.result;
+            }
+            misses++;
+        }
+        long start = System.nanoTime();
+        MemoryQuery result = execute(directory, plan);
+        if (key != null)
+            store(path, key, version, result, System.nanoTime() - start);
+        return result;
+    }
+
+    private static MemoryQuery execute(File directory, Plan plan) throws IOException {
+        boolean partitioned = new File(directory, PartitionedTable.manifestFileName).isFile();
+        Query table = partitioned ? PartitionedTable.open(directory) : Table.open(directory);
+        try {
+            return plan.execute(table);
+        }
+        finally {
+            try {
+                if (partitioned)
+                    ((PartitionedTable)table).close();
+                else
+                    ((Table)table).close();
+            }
+            catch (Exception ignore) {
+                // the result has already been copied to memory
+            }
+        }
+    }
+
+    /**
+     * Get the data version of a table, using the version from the previous request if the modification times and
+     * lengths of the files are unchanged.  The file status is taken before the files are read, so that a change made
+     * while the digest is being computed can not be recorded against the status from after the change.
+     *
+     * @param   directory   the table directory
+     * @param   path        the canonical path of the table directory
+     * @return              the data version
+     * @throws  IOException if thrown reading the files
+     */
+    private long getVersion(File directory, String path) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        long newest = addStamp(sb, directory);
+        String files = sb.toString();
+        synchronized (this) {
+            Stamp stamp = stamps.get(path);
+            if (stamp != null && stamp.reliable && stamp.files.equals(files))
+                return stamp.version;
+            versionReads++;
+        }
+        long version = getDataVersion(directory);
+        boolean reliable = newest < System.currentTimeMillis() - racyMillis;
+        synchronized (this) {
+            stamps.put(path, new Stamp(files, version, reliable));
+        }
+        return version;
+    }
+
+    /**
+     * Append the name, modification time and length of each of the files included in the data version to a
+     * {@link StringBuilder}.
+     *
+     * @return  the newest modification time
+     */
+    private static long addStamp(StringBuilder sb, File directory) {
+        long newest = 0;
+        for (String name : versionFiles) {
+            File file = new File(directory, name);
+            if (!file.isFile())
+                continue;
+            long lastModified = file.lastModified();
+            sb.append(name).append(':').append(lastModified).append(':').append(file.length()).append('\n');
+            newest = Math.max(newest, lastModified);
+        }
+        if (new File(directory, PartitionedTable.manifestFileName).isFile()) {
+            File[] partitions = directory.listFiles(File::isDirectory);
+            if (partitions != null) {
+                Arrays.sort(partitions);
+                for (File partition : partitions) {
+                    sb.append(partition.getName()).append('/').append('\n');
+                    newest = Math.max(newest, addStamp(sb, partition));
+                }
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Record the current data version of a table, discarding any entries for an earlier version.
+     *
+     * @param   path        the canonical path of the table directory
+     * @param   version     the data version
+     */
+    private void checkVersion(String path, long version) {
+        Long previous = versions.put(path, version);
+        if (previous != null && previous != version)
+            removeEntries(path);
+    }
+
+    private void removeEntries(String path) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.path.equals(path)) {
+                iterator.remove();
+                size -= entry.size;
+                invalidations++;
+            }
+        }
+    }
+
+    private synchronized void store(String path, String key, long version, MemoryQuery result, long cost) {
+        Long current = versions.get(path);
+        if (current == null || current != version)
+            return; // the table changed while the query was executing
+        long entrySize = result.getSizeEstimate() + key.length() * 2L + 64;
+        if (entrySize > maxBytes)
+            return;
+        Entry previous = entries.remove(key);
+        if (previous != null)
+            size -= previous.size;
+        while (size + entrySize > maxBytes)
+            evict();
+        Entry entry = new Entry(path, version, result, entrySize, Math.max(cost, 1));
+        entry.priority = inflation + entry.cost / entry.size;
+        entries.put(key, entry);
+        size += entrySize;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        Entry victim = iterator.next(); // least recently used
+        if (evictionPolicy == EvictionPolicy.cost) {
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.priority < victim.priority)
+                    victim = entry;
+            }
+            inflation = victim.priority;
+            iterator = entries.values().iterator();
+            while (iterator.next() != victim)
+                ;
+        }
+        iterator.remove();
+        size -= victim.size;
+        evictions++;
+    }
+
+    /**
+     * Discard all the entries for a table.
+     *
+     * @param   directory   the table directory
+     * @throws  IOException if the canonical path of the directory can not be determined
+     */
+    public synchronized void invalidate(File directory) throws IOException {
+        String path = directory.getCanonicalPath();
+        versions.remove(path);
+        stamps.remove(path);
+        removeEntries(path);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        versions.clear();
+        stamps.clear();
+        size = 0;
+        inflation = 0.0;
+    }
+
+    /**
+     * Get the data version of a table.  This is a digest of the name, modification time, length and content of each
+     * of the metadata files ({@code metadata.json} and {@code catalog.bin}), the segment list and the partition list
+     * in the table directory, and for a partitioned table, of the same files in each partition directory.  Segment
+     * directories are not included, because a segment is never modified after it has been added to the segment list.
+     *
+     * @param   directory   the table directory
+     * @return              the data version
+     * @throws  IOException if thrown reading the files
+     */
+    public static long getDataVersion(File directory) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        addVersion(digest, directory);
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    private static void addVersion(MessageDigest digest, File directory) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (String name : versionFiles) {
+            File file = new File(directory, name);
+            if (!file.isFile())
+                continue;
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            buffer.clear();
+            buffer.putLong(file.lastModified()).putLong(file.length());
+            digest.update(buffer.array());
+            digest.update(Files.readAllBytes(file.toPath()));
+        }
+        if (new File(directory, PartitionedTable.manifestFileName).isFile()) {
+            File[] partitions = directory.listFiles(File::isDirectory);
+            if (partitions != null) {
+                Arrays.sort(partitions);
+                for (File partition : partitions) {
+                    digest.update(partition.getName().getBytes(StandardCharsets.UTF_8));
+                    addVersion(digest, partition);
+                }
+            }
+        }
+    }
+
+    private static String quote(String s) {
+        return '"' + s.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    public enum EvictionPolicy {
+        leastRecentlyUsed,
+        cost
+    }
+
+    /**
+     * A query to be executed against a table.  The key is a normalised description of the query, so two plans with
+     * the same key must produce the same result from the same data.
+     */
+    public abstract static class Plan {
+
+        /**
+         * Get the key for the plan.
+         *
+         * @return  the key, or {@code null} if the plan can not be cached
+         */
+        public abstract String getKey();
+
+        /**
+         * Execute the plan, copying the result to memory.
+         *
+         * @param   table   the table
+         * @return          the result
+         * @throws  IOException if thrown reading the table
+         */
+        public abstract MemoryQuery execute(Query table) throws IOException;
+
+        /**
+         * Create a plan to select the rows of a table that satisfy a {@link Condition}.
+         *
+         * @param   condition   the {@link Condition}
+         * @return              the plan
+         */
+        public static Plan where(Condition condition) {
+            return new Plan() {
+                @Override
+                public String getKey() {
+                    String conditionKey = condition.getKey();
+                    return conditionKey == null ? null : "where(" + conditionKey + ')';
+                }
+                @Override
+                public MemoryQuery execute(Query table) {
+                    return MemoryQuery.copy(table.where(condition));
+                }
+            };
+        }
+
+        /**
+         * Create a plan to aggregate the nominated columns of the rows of a table that satisfy a {@link Condition}.
+         * The result has a row for each column, with the columns {@code column}, {@code count}, {@code sum},
+         * {@code minimum}, {@code maximum} and {@code average} (see {@link Aggregate}).
+         *
+         * @param   condition   the {@link Condition}, or {@code null} to aggregate all rows
+         * @param   columnNames the names of the columns to aggregate
+         * @return              the plan
+         */
+        public static Plan aggregate(Condition condition, String ... columnNames) {
+            if (columnNames.length == 0)
+                throw new IllegalArgumentException("No columns");
+            return new Plan() {
+                @Override
+                public String getKey() {
+                    String conditionKey = condition == null ? "*" : condition.getKey();
+                    if (conditionKey == null)
+                        return null;
+                    StringBuilder sb = new StringBuilder("aggregate(").append(conditionKey);
+                    for (String columnName : columnNames)
+                        sb.append(',').append(quote(columnName));
+                    return sb.append(')').toString();
+                }
+                @Override
+                public MemoryQuery execute(Query table) {
+                    // column readers do not support concurrent reads, so the aggregation is not parallel
+                    Aggregate[] aggregates = Aggregate.compute(condition == null ? table : table.where(condition),
+                            false, columnNames);
+                    List<Column> columns = new ArrayList<>();
+                    columns.add(MemoryQuery.column("column", Column.Type.undetermined, false));
+                    columns.add(MemoryQuery.column("count", Column.Type.integer, false));
+                    columns.add(MemoryQuery.column("sum", Column.Type.floating, false));
+                    columns.add(MemoryQuery.column("minimum", Column.Type.floating, true));
+                    columns.add(MemoryQuery.column("maximum", Column.Type.floating, true));
+                    columns.add(MemoryQuery.column("average", Column.Type.floating, true));
+                    MemoryQuery result = new MemoryQuery(columns);
+                    for (Aggregate aggregate : aggregates)
+                        result.addRow(aggregate.getColumnName(), aggregate.getCount(), aggregate.getSum(),
+                                nullIfNaN(aggregate.getMinimum()), nullIfNaN(aggregate.getMaximum()),
+                                nullIfNaN(aggregate.getAverage()));
+                    return result;
+                }
+            };
+        }
+
+        /**
+         * Create a plan to count the rows of a table that satisfy a {@link Condition}.  The result has a single row,
+         * with a single column {@code count}.
+         *
+         * @param   condition   the {@link Condition}
+         * @return              the plan
+         */
+        public static Plan count(Condition condition) {
+            return new Plan() {
+                @Override
+                public String getKey() {
+                    String conditionKey = condition.getKey();
+                    return conditionKey == null ? null : "count(" + conditionKey + ')';
+                }
+                @Override
+                public MemoryQuery execute(Query table) {
+                    List<Column> columns = new ArrayList<>();
+                    columns.add(MemoryQuery.column("count", Column.Type.integer, false));
+                    MemoryQuery result = new MemoryQuery(columns);
+                    result.addRow(Aggregate.count(table.where(condition), false));
+                    return result;
+                }
+            };
+        }
+
+        private static Double nullIfNaN(double value) {
+            return Double.isNaN(value) ? null : value;
+        }
+
+    }
+
+    /**
+     * The status of the files of a table when its data version was last computed.
+     */
+    private static class Stamp {
+
+        private String files;
+        private long version;
+        private boolean reliable;
+
+        public Stamp(String files, long version, boolean reliable) {
+            this.files = files;
+            this.version = version;
+            this.reliable = reliable;
+        }
+
+    }
+
+    private static class Entry {
+
+        private String path;
+        private long version;
+        private MemoryQuery result;
+        private long size;
+        private double cost;
+        private double priority;
+
+        public Entry(String path, long version, MemoryQuery result, long size, long cost) {
+            this.path = path;
+            this.version = version;
+            this.result = result;
+            this.size = size;
+            this.cost = cost;
+            priority = 0.0;
+        }
+
+    }
+
+}
@@ -32,13 +32,29 @@ import net.pwall.doric.query.Query;
 public class Row {
 
     private Query query;
-    private int rowNumber;
+    private long rowNumber;
 
-    public Row(Query query, int rowNumber) {
+    public Row(Query query, long rowNumber) {
         this.query = query;
         this.rowNumber = rowNumber;
     }
 
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    public boolean isNull(String columnName) throws IOException {
+        return isNull(query.getColumn(columnName));
+    }
+
+    public boolean isNull(int columnNumber) throws IOException {
+        return isNull(query.getColumn(columnNumber));
+    }
+
+    public boolean isNull(Column column) throws IOException {
+        return column.getColumnInput().isNull(rowNumber);
+    }
+
     public long getLong(String columnName) throws IOException {
         return getLong(query.getColumn(columnName));
     }
@@ -51,6 +67,18 @@ public class Row {
         return column.getColumnInput().getLong(rowNumber);
     }
 
+    public Number getNumber(String columnName) throws IOException {
+        return getNumber(query.getColumn(columnName));
+    }
+
+    public Number getNumber(int columnNumber) throws IOException {
+        return getNumber(query.getColumn(columnNumber));
+    }
+
+    public Number getNumber(Column column) throws IOException {
+        return column.getColumnInput().getNumber(rowNumber);
+    }
+
     public String getString(String columnName) throws IOException {
         return getString(query.getColumn(columnName));
     }
@@ -63,4 +91,20 @@ public class Row {
         return column.getColumnInput().getString(rowNumber);
     }
 
+    public void appendString(Appendable a, int columnNumber) throws IOException {
+        appendString(a, query.getColumn(columnNumber));
+    }
+
+    /**
+     * Append the value of a column to an {@link Appendable}, without creating an intermediate {@link String} where the
+     * column input allows.
+     *
+     * @param   a       the {@link Appendable}
+     * @param   column  the {@link Column}
+     * @throws  IOException if thrown by the column input or by the {@link Appendable}
+     */
+    public void appendString(Appendable a, Column column) throws IOException {
+        column.getColumnInput().appendString(a, rowNumber);
+    }
+
 }
@@ -0,0 +1,112 @@
+/*
+ * @(#) RowRange.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+/**
+ * A contiguous range of row numbers, from {@code start} (inclusive) to {@code end} (exclusive).
+ *
+ * @author  Peter Wall
+ */
+public class RowRange {
+
+    private long start;
+    private long end;
+
+    public RowRange(long start, long end) {
+        if (start < 0 || end < start)
+            throw new IllegalArgumentException("Invalid row range: " + start + ".." + end);
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getSize() {
+        return end - start;
+    }
+
+    public boolean isEmpty() {
+        return end == start;
+    }
+
+    public boolean contains(long rowNumber) {
+        return rowNumber >= start && rowNumber < end;
+    }
+
+    /**
+     * Create a {@code RowRange} containing only the rows present in both this range and another.
+     *
+     * @param   other   the other {@code RowRange}
+     * @return          the intersection of the two ranges
+     */
+    public RowRange intersect(RowRange other) {
+        long newStart = Math.max(start, other.start);
+        long newEnd = Math.min(end, other.end);
+        return newEnd <= newStart ? new RowRange(newStart, newStart) : new RowRange(newStart, newEnd);
+    }
+
+    /**
+     * Create a {@code RowRange} spanning this range and another.  The result will include any rows between the two
+     * ranges if they do not overlap.
+     *
+     * @param   other   the other {@code RowRange}
+     * @return          the smallest range including both ranges
+     */
+    public RowRange span(RowRange other) {
+        if (isEmpty())
+            return other;
+        if (other.isEmpty())
+            return this;
+        return new RowRange(Math.min(start, other.start), Math.max(end, other.end));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof RowRange))
+            return false;
+        RowRange otherRange = (RowRange)other;
+        return start == otherRange.start && end == otherRange.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(start) * 31 + Long.hashCode(end);
+    }
+
+    @Override
+    public String toString() {
+        return start + ".." + end;
+    }
+
+}
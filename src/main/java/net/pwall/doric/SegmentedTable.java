@@ -0,0 +1,603 @@
+/*
+ * @(#) SegmentedTable.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.pwall.doric.query.Concatenation;
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+import net.pwall.json.JSON;
+import net.pwall.json.JSONArray;
+import net.pwall.json.JSONObject;
+
+/**
+ * A {@link Table} to which data has been appended.  The original data and each batch of appended data are held as
+ * separate segments, each a {@link Table} with its own column files (the appended segments are in sub-directories of
+ * the table directory); the appended segments are listed in {@code segments.json}.  Segments may later be merged
+ * by the {@link Compactor}.  Changes to the segment list are made while holding a lock on {@code segments.lock}, so
+ * that appends and compactions in different processes do not overwrite each other's changes.  Reads span the
+ * segments: rows are numbered across all the segments in the order they were added, and a query is applied to each
+ * segment in turn (using the indexes of each segment) with the results concatenated.
+ *
+ * <p>Each segment may use different storage types for its columns, so appended data need not fit the storage chosen
+ * for the original data.</p>
+ *
+ * @author  Peter Wall
+ */
+public class SegmentedTable extends Table {
+
+    public static final String manifestFileName = "segments.json";
+    public static final String lockFileName = "segments.lock";
+    public static final String segmentPrefix = "segment-";
+
+    private List<Table> segments;
+    private long[] starts;
+    private List<Column> columns;
+
+    private SegmentedTable(Table base, List<Table> segments) {
+        super(base.getName());
+        setSource(base.getSource());
+        this.segments = segments;
+        int n = segments.size();
+        starts = new long[n + 1];
+        for (int i = 0; i < n; i++)
+            starts[i + 1] = Math.addExact(starts[i], segments.get(i).getNumRows());
+        columns = new ArrayList<>();
+        for (int i = 0, m = base.getNumColumns(); i < m; i++) {
+            List<Column> segmentColumns = new ArrayList<>(n);
+            for (Table segment : segments)
+                segmentColumns.add(segment.getColumn(i));
+            columns.add(Column.merge(segmentColumns));
+        }
+    }
+
+    /**
+     * Get the segments of the table, the first of which is the original data.
+     *
+     * @return  the list of segments
+     */
+    public List<Table> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    @Override
+    public boolean isNumRowsKnown() {
+        return true;
+    }
+
+    @Override
+    public long getNumRows() {
+        return starts[starts.length - 1];
+    }
+
+    @Override
+    public int getNumColumns() {
+        return columns.size();
+    }
+
+    /**
+     * Get a column of the table.  The {@link Column} describes the values of all the segments (see
+     * {@link Column#merge(List)}); the values themselves are read through the rows of the individual segments.
+     *
+     * @param   columnNumber    the column number
+     * @return                  the {@link Column}
+     */
+    @Override
+    public Column getColumn(int columnNumber) {
+        return columns.get(columnNumber);
+    }
+
+    @Override
+    public Column getColumn(String columnName) {
+        for (Column column : columns)
+            if (column.getName().equals(columnName))
+                return column;
+        throw new IllegalArgumentException("Can't locate column: " + columnName);
+    }
+
+    /**
+     * Get the number of distinct non-null values in the nominated column across all the segments.  The
+     * {@link HyperLogLog} sketches of the segments are merged, so values that occur in more than one segment are
+     * counted only once.
+     *
+     * @param   columnName  the column name
+     * @return              the estimated number of distinct values
+     * @throws  IOException if thrown reading a sketch file
+     */
+    @Override
+    public long getCardinality(String columnName) throws IOException {
+        HyperLogLog merged = new HyperLogLog();
+        long minimum = 0;
+        for (Table segment : segments) {
+            Column column = segment.getColumn(columnName);
+            // a segment written without a sketch still gives a lower bound
+            minimum = Math.max(minimum, column.getCardinality());
+            HyperLogLog sketch = column.getSketch();
+            if (sketch != null)
+                merged.merge(sketch);
+            else if (column.getStorageType() == Column.StorageType.constant)
+                merged.add(getConstantValue(column));
+        }
+        return Math.max(minimum, merged.estimate());
+    }
+
+    private static String getConstantValue(Column column) {
+        if (column.getType() == Column.Type.integer)
+            return String.valueOf(column.getConstantValueInt());
+        if (column.getType() == Column.Type.floating)
+            return String.valueOf(column.getConstantValueFloat());
+        return column.getConstantValue();
+    }
+
+    @Override
+    public void setColumnName(int index, String name) {
+        for (Table segment : segments)
+            segment.setColumnName(index, name);
+        columns.get(index).setName(name);
+    }
+
+    @Override
+    public Row getRow(long rowNumber) {
+        if (rowNumber < 0 || rowNumber >= getNumRows())
+            throw new IndexOutOfBoundsException("Row number out of range: " + rowNumber);
+        int lo = 0;
+        int hi = segments.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= rowNumber)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return segments.get(lo).getRow(rowNumber - starts[lo]);
+    }
+
+    /**
+     * Apply a {@link Condition} to each segment that may contain matching rows (judged from the column metadata of
+     * the segment), and concatenate the results.
+     *
+     * @param   condition   the {@link Condition}
+     * @return              the result {@link Query}
+     */
+    @Override
+    public Query where(Condition condition) {
+        List<Query> results = new ArrayList<>();
+        for (Table segment : segments)
+            if (condition.mayMatch(columnName -> findColumn(segment, columnName)))
+                results.add(segment.where(condition));
+        return new Concatenation(this, results);
+    }
+
+    private static Column findColumn(Table table, String columnName) {
+        try {
+            return table.getColumn(columnName);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find the range of rows for which the value in the nominated column is between the low and high values
+     * (inclusive).  The range is found in each segment by binary search, and the ranges are combined; the column must
+     * be sorted within each segment, and the matching rows must be contiguous across the segments (as they will be if
+     * the data has been appended in order).
+     *
+     * @param   columnName  the column name
+     * @param   low         the low value
+     * @param   high        the high value
+     * @return              the {@link RowRange} (possibly empty)
+     * @throws  IOException if thrown by the column input
+     * @throws  IllegalStateException if the column is not sorted in a segment, or the matching rows are not
+     *                      contiguous
+     */
+    @Override
+    public RowRange findRange(String columnName, long low, long high) throws IOException {
+        return combineRanges(columnName, segment -> segment.findRange(columnName, low, high));
+    }
+
+    /**
+     * Find the range of rows for which the value in the nominated floating-point column is between the low and high
+     * values (inclusive).  As with {@link #findRange(String, long, long)}, the matching rows must be contiguous across
+     * the segments.
+     *
+     * @param   columnName  the column name
+     * @param   low         the low value
+     * @param   high        the high value
+     * @return              the {@link RowRange} (possibly empty)
+     * @throws  IOException if thrown by the column input
+     * @throws  IllegalStateException if the column is not sorted in a segment, or the matching rows are not
+     *                      contiguous
+     */
+    @Override
+    public RowRange findRange(String columnName, double low, double high) throws IOException {
+        return combineRanges(columnName, segment -> segment.findRange(columnName, low, high));
+    }
+
+    /**
+     * Find the range of rows for which the value in the nominated string column is between the low and high values
+     * (inclusive).  As with {@link #findRange(String, long, long)}, the matching rows must be contiguous across the
+     * segments.
+     *
+     * @param   columnName  the column name
+     * @param   low         the low value
+     * @param   high        the high value
+     * @return              the {@link RowRange} (possibly empty)
+     * @throws  IOException if thrown by the column input
+     * @throws  IllegalStateException if the column is not sorted in a segment, or the matching rows are not
+     *                      contiguous
+     */
+    @Override
+    public RowRange findRange(String columnName, String low, String high) throws IOException {
+        return combineRanges(columnName, segment -> segment.findRange(columnName, low, high));
+    }
+
+    /**
+     * Find the range of rows for which the value in the nominated string column starts with the nominated prefix.  As
+     * with {@link #findRange(String, long, long)}, the matching rows must be contiguous across the segments.
+     *
+     * @param   columnName  the column name
+     * @param   prefix      the prefix
+     * @return              the {@link RowRange} (possibly empty)
+     * @throws  IOException if thrown by the column input
+     * @throws  IllegalStateException if the column is not sorted in a segment, or the matching rows are not
+     *                      contiguous
+     */
+    @Override
+    public RowRange findPrefixRange(String columnName, String prefix) throws IOException {
+        return combineRanges(columnName, segment -> segment.findPrefixRange(columnName, prefix));
+    }
+
+    private RowRange combineRanges(String columnName, RangeFinder finder) throws IOException {
+        long start = -1;
+        long end = -1;
+        for (int i = 0, n = segments.size(); i < n; i++) {
+            RowRange range = finder.find(segments.get(i));
+            if (range.isEmpty())
+                continue;
+            if (start < 0)
+                start = starts[i] + range.getStart();
+            else if (starts[i] + range.getStart() != end)
+                throw new IllegalStateException("Column is not sorted across segments: " + columnName);
+            end = starts[i] + range.getEnd();
+        }
+        return start < 0 ? new RowRange(0, 0) : new RowRange(start, end);
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (Table segment : segments)
+            segment.close();
+    }
+
+    /**
+     * Test whether the nominated table directory has appended segments.
+     *
+     * @param   directory   the table directory
+     * @return              {@code true} if the table has appended segments
+     */
+    public static boolean exists(File directory) {
+        return new File(directory, manifestFileName).isFile();
+    }
+
+    /**
+     * Open a table with appended segments.
+     *
+     * @param   directory   the table directory
+     * @return              the {@code SegmentedTable}
+     * @throws  IOException if the segment list can not be read or a segment can not be opened
+     */
+    static SegmentedTable openSegments(File directory) throws IOException {
+        Manifest manifest = Manifest.read(directory);
+        List<Table> segments = new ArrayList<>();
+        if (manifest.isBase())
+            segments.add(Table.openSingle(directory));
+        for (Manifest.Entry entry : manifest.getSegments())
+            segments.add(Table.openSingle(new File(directory, entry.getName())));
+        if (segments.isEmpty())
+            throw new IOException("Table has no segments: " + directory);
+        return new SegmentedTable(segments.get(0), segments);
+    }
+
+    /**
+     * Allocate a name for a new segment of a table, and create the segment directory.  The name is allocated while
+     * holding the table lock, and the directory is created before the lock is released, so that concurrent appends and
+     * compactions (in this process or another) are given different names.
+     *
+     * @param   directory   the table directory
+     * @return              the segment name
+     * @throws  IOException if the segment list can not be read or the directory can not be created
+     */
+    static String createSegmentDirectory(File directory) throws IOException {
+        try (TableLock ignored = lock(directory)) {
+            int highest = 0;
+            for (Manifest.Entry entry : Manifest.read(directory).getSegments()) {
+                try {
+                    highest = Math.max(highest, Integer.parseInt(entry.getName().substring(segmentPrefix.length())));
+                }
+                catch (RuntimeException ignore) {
+                }
+            }
+            int next = highest + 1;
+            while (new File(directory, segmentName(next)).exists()) // left over from a failed append or compaction
+                next++;
+            String segmentName = segmentName(next);
+            File segmentDirectory = new File(directory, segmentName);
+            if (!segmentDirectory.mkdirs())
+                throw new IOException("Error creating segment directory: " + segmentDirectory);
+            return segmentName;
+        }
+    }
+
+    private static String segmentName(int number) {
+        return String.format("%s%06d", segmentPrefix, number);
+    }
+
+    /**
+     * Add a segment (already written to a sub-directory of the table directory) to the list of segments.
+     *
+     * @param   directory   the table directory
+     * @param   segmentName the segment name
+     * @param   numRows     the number of rows in the segment
+     * @throws  IOException if thrown reading or writing the segment list
+     */
+    static void addSegment(File directory, String segmentName, long numRows) throws IOException {
+        try (TableLock ignored = lock(directory)) {
+            Manifest manifest = Manifest.read(directory);
+            manifest.getSegments().add(new Manifest.Entry(segmentName, numRows));
+            manifest.write(directory);
+        }
+    }
+
+    /**
+     * Lock the segment list of a table, for the duration of a read, modify and write of the list (or an allocation of
+     * a segment name).  The lock must be closed when the update is complete.
+     *
+     * @param   directory   the table directory
+     * @return              the {@link TableLock}
+     * @throws  IOException if thrown creating or locking the lock file
+     */
+    static TableLock lock(File directory) throws IOException {
+        return new TableLock(directory);
+    }
+
+    @FunctionalInterface
+    private interface RangeFinder {
+        RowRange find(Table segment) throws IOException;
+    }
+
+    /**
+     * A lock on the segment list of a table.  The lock is a {@link FileLock} on {@code segments.lock} in the table
+     * directory, so that it excludes other processes; a {@link FileLock} is held on behalf of the whole process, so
+     * threads within the process are first serialised on a {@link ReentrantLock} for the directory.  A thread that
+     * already holds the lock may lock the table again without blocking.
+     */
+    static class TableLock implements Closeable {
+
+        private static final Map<File, ReentrantLock> threadLocks = new HashMap<>();
+
+        private ReentrantLock threadLock;
+        private FileChannel channel;
+        private FileLock fileLock;
+
+        TableLock(File directory) throws IOException {
+            threadLock = getThreadLock(directory.getCanonicalFile());
+            threadLock.lock();
+            if (threadLock.getHoldCount() > 1)
+                return; // the file is already locked by this thread
+            try {
+                channel = FileChannel.open(new File(directory, lockFileName).toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+                fileLock = channel.lock();
+            }
+            catch (IOException | RuntimeException e) {
+                if (channel != null)
+                    channel.close();
+                threadLock.unlock();
+                throw e;
+            }
+        }
+
+        private static ReentrantLock getThreadLock(File directory) {
+            synchronized (threadLocks) {
+                return threadLocks.computeIfAbsent(directory, k -> new ReentrantLock());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (threadLock.getHoldCount() == 1 && channel != null) {
+                    try {
+                        fileLock.release();
+                    }
+                    finally {
+                        channel.close();
+                    }
+                }
+            }
+            finally {
+                threadLock.unlock();
+            }
+        }
+
+    }
+
+    /**
+     * The list of segments of a table, as held in {@code segments.json}.  The original data in the table directory is
+     * the first segment unless it has been replaced by compaction; files and directories replaced by compaction are
+     * recorded (with the time they were replaced) until they are deleted.
+     */
+    static class Manifest {
+
+        private boolean base;
+        private List<Entry> segments;
+        private List<Obsolete> obsolete;
+
+        Manifest() {
+            base = true;
+            segments = new ArrayList<>();
+            obsolete = new ArrayList<>();
+        }
+
+        public boolean isBase() {
+            return base;
+        }
+
+        public void setBase(boolean base) {
+            this.base = base;
+        }
+
+        public List<Entry> getSegments() {
+            return segments;
+        }
+
+        public List<Obsolete> getObsolete() {
+            return obsolete;
+        }
+
+        /**
+         * Read the segment list from a table directory (if the table has no segment list, the result contains only
+         * the original data).
+         *
+         * @param   directory   the table directory
+         * @return              the {@code Manifest}
+         * @throws  IOException if the segment list can not be read
+         */
+        static Manifest read(File directory) throws IOException {
+            Manifest result = new Manifest();
+            if (!exists(directory))
+                return result;
+            try {
+                JSONObject json = JSON.parseObject(new File(directory, manifestFileName));
+                if (json.containsKey("base"))
+                    result.base = json.getBoolean("base");
+                JSONArray array = json.getArray("segments");
+                for (int i = 0, n = array.size(); i < n; i++) {
+                    JSONObject entry = array.getObject(i);
+                    result.segments.add(new Entry(entry.getString("name"), entry.getLong("rows")));
+                }
+                if (json.containsKey("obsolete")) {
+                    array = json.getArray("obsolete");
+                    for (int i = 0, n = array.size(); i < n; i++) {
+                        JSONObject entry = array.getObject(i);
+                        result.obsolete.add(new Obsolete(entry.getString("path"), entry.getLong("time")));
+                    }
+                }
+                return result;
+            }
+            catch (Exception e) {
+                throw new IOException("Error reading segments", e);
+            }
+        }
+
+        /**
+         * Write the segment list to a table directory.  The list is written to a temporary file and then renamed,
+         * so that readers see either the old or the new list.
+         *
+         * @param   directory   the table directory
+         * @throws  IOException if thrown writing the segment list
+         */
+        void write(File directory) throws IOException {
+            JSONObject json = new JSONObject();
+            if (!base)
+                json.putValue("base", false);
+            JSONArray array = new JSONArray();
+            for (Entry entry : segments)
+                array.add(JSONObject.create().putValue("name", entry.getName()).putValue("rows", entry.getNumRows()));
+            json.put("segments", array);
+            if (!obsolete.isEmpty()) {
+                array = new JSONArray();
+                for (Obsolete entry : obsolete)
+                    array.add(JSONObject.create().putValue("path", entry.getPath()).putValue("time", entry.getTime()));
+                json.put("obsolete", array);
+            }
+            File temp = new File(directory, manifestFileName + ".tmp");
+            try (FileWriter writer = new FileWriter(temp)) {
+                json.appendJSON(writer);
+            }
+            Files.move(temp.toPath(), new File(directory, manifestFileName).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        static class Entry {
+
+            private String name;
+            private long numRows;
+
+            Entry(String name, long numRows) {
+                this.name = name;
+                this.numRows = numRows;
+            }
+
+            public String getName() {
+                return name;
+            }
+
+            public long getNumRows() {
+                return numRows;
+            }
+
+        }
+
+        static class Obsolete {
+
+            private String path;
+            private long time;
+
+            Obsolete(String path, long time) {
+                this.path = path;
+                this.time = time;
+            }
+
+            public String getPath() {
+                return path;
+            }
+
+            public long getTime() {
+                return time;
+            }
+
+        }
+
+    }
+
+}
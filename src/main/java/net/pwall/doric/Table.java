@@ -27,12 +27,21 @@ package net.pwall.doric;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
+import net.pwall.doric.arrow.ArrowReader;
 import net.pwall.doric.columninput.ColumnInput;
+import net.pwall.doric.index.BitmapIndex;
+import net.pwall.doric.index.BloomFilter;
+import net.pwall.doric.index.SortedIndex;
+import net.pwall.doric.index.TextIndex;
 import net.pwall.doric.query.Query;
 import net.pwall.json.JSON;
 import net.pwall.json.JSONArray;
@@ -54,7 +63,8 @@ public class Table implements Query {
     private String source;
     private List<Column> columns;
     private int maxUniqueValues;
-    private int numRows;
+    private long numRows;
+    private Catalog catalog;
 
     /**
      * Construct a table.
@@ -65,6 +75,7 @@ public class Table implements Query {
         maxUniqueValues = defaultMaxUniqueValues;
         columns = null;
         numRows = 0;
+        catalog = null;
     }
 
     @Override
@@ -78,7 +89,13 @@ public class Table implements Query {
 
     public void close() throws Exception {
         for (int i = 0; i < columns.size(); i++) {
-            getColumn(i).getColumnInput().close();
+            Column column = columns instanceof CatalogColumns ? ((CatalogColumns)columns).getIfLoaded(i) :
+                    columns.get(i);
+            if (column == null)
+                continue;
+            column.closeColumnInput();
+            if (column.getSortedIndex() != null)
+                column.getSortedIndex().close();
         }
     }
 
@@ -95,19 +112,44 @@ public class Table implements Query {
     }
 
     public void analyse(CSV csv, boolean readHeader) {
+        analyse(csv, readHeader, null);
+    }
+
+    /**
+     * Analyse CSV data to be appended to an existing table.  The data must have the same columns as the existing
+     * table (if the data has a header line, the names must match), and the type of each column is widened to the type
+     * of the existing column where possible (for example, integer data for a floating-point column is stored as
+     * floating-point).
+     *
+     * @param   csv         the CSV data
+     * @param   readHeader  {@code true} if the data has a header line
+     * @param   schema      the existing table, or {@code null} if the data is not to be appended
+     * @throws  IllegalArgumentException if the data does not match the existing table
+     */
+    public void analyse(CSV csv, boolean readHeader, Query schema) {
         List<ColumnAnalysis> analyses = new ArrayList<>();
         if (readHeader) {
             if (!csv.hasNext())
                 throw new IllegalArgumentException("CSV Header line missing");
             CSV.Record header = csv.next();
-            for (int i = 0, n = header.getWidth(); i < n; i++)
-                analyses.add(new ColumnAnalysis(header.getField(i), maxUniqueValues));
+            if (schema != null)
+                checkWidth(header.getWidth(), schema);
+            for (int i = 0, n = header.getWidth(); i < n; i++) {
+                String columnName = header.getField(i);
+                if (schema != null && !schema.getColumn(i).getName().equals(columnName))
+                    throw new IllegalArgumentException("CSV column " + i + " is " + columnName + "; expected " +
+                            schema.getColumn(i).getName());
+                analyses.add(new ColumnAnalysis(columnName, maxUniqueValues));
+            }
         }
         while (csv.hasNext()) {
             CSV.Record record = csv.next();
             if (!readHeader && numRows == 0) {
+                if (schema != null)
+                    checkWidth(record.getWidth(), schema);
                 for (int i = 0, n = record.getWidth(); i < n; i++)
-                    analyses.add(new ColumnAnalysis("col" + i, maxUniqueValues));
+                    analyses.add(new ColumnAnalysis(schema != null ? schema.getColumn(i).getName() : "col" + i,
+                            maxUniqueValues));
             }
 
             int width = record.getWidth();
@@ -121,13 +163,90 @@ public class Table implements Query {
             numRows++;
         }
         columns = new ArrayList<>();
-        for (ColumnAnalysis analysis : analyses) {
+        for (int i = 0, n = analyses.size(); i < n; i++) {
+            Column existing = schema == null ? null : schema.getColumn(i);
+            columns.add(existing == null || existing.getStorageType() == Column.StorageType.none ?
+                    analyses.get(i).resolve() : analyses.get(i).resolve(existing.getType()));
+        }
+    }
+
+    /**
+     * Analyse JSON Lines data.  The columns are the top-level properties of the objects, in the order in which they
+     * are first encountered; a property that is missing from an object (including the objects before the property is
+     * first seen) is treated as null.  The lines are parsed in parallel, but the values are analysed in order.
+     *
+     * @param   in          the input
+     * @param   threads     the number of parsing threads
+     * @throws  IOException if thrown reading the input
+     * @throws  IllegalArgumentException if the data is not valid JSON Lines
+     * @see     JSONLines
+     */
+    public void analyseJSONLines(InputStream in, int threads) throws IOException {
+        List<ColumnAnalysis> analyses = new ArrayList<>();
+        Map<String, Integer> columnNumbers = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        JSONLines.process(in, threads, JSONLines::parseProperties, lines -> {
+            for (String[] properties : lines) {
+                for (int i = 0; i < properties.length; i += 2) {
+                    String name = properties[i];
+                    Integer columnNumber = columnNumbers.get(name);
+                    if (columnNumber == null) {
+                        columnNumber = analyses.size();
+                        columnNumbers.put(name, columnNumber);
+                        ColumnAnalysis analysis = new ColumnAnalysis(name, maxUniqueValues);
+                        for (long j = 0; j < numRows; j++)
+                            analysis.analyse("");
+                        analyses.add(analysis);
+                        values.add(null);
+                    }
+                    values.set(columnNumber, properties[i + 1]);
+                }
+                for (int i = 0, n = analyses.size(); i < n; i++) {
+                    String value = values.get(i);
+                    analyses.get(i).analyse(value == null ? "" : value);
+                    values.set(i, null);
+                }
+                numRows++;
+            }
+        });
+        columns = new ArrayList<>();
+        for (ColumnAnalysis analysis : analyses)
             columns.add(analysis.resolve());
+    }
+
+    /**
+     * Analyse Arrow IPC data.  The columns are the fields of the Arrow schema, and the values are analysed in the
+     * string form returned by the reader, so the Doric types are inferred in the same way as for CSV data.
+     *
+     * @param   reader      the Arrow reader
+     * @throws  IOException if thrown reading the input
+     * @throws  IllegalArgumentException if the data uses unsupported Arrow features
+     * @see     ArrowReader
+     */
+    public void analyseArrow(ArrowReader reader) throws IOException {
+        int width = reader.getNumFields();
+        ColumnAnalysis[] analyses = new ColumnAnalysis[width];
+        for (int i = 0; i < width; i++)
+            analyses[i] = new ColumnAnalysis(reader.getFieldName(i), maxUniqueValues);
+        while (reader.nextBatch()) {
+            for (int row = 0, n = reader.getBatchLength(); row < n; row++) {
+                for (int i = 0; i < width; i++)
+                    analyses[i].analyse(reader.getString(i, row));
+                numRows++;
+            }
         }
+        columns = new ArrayList<>();
+        for (ColumnAnalysis analysis : analyses)
+            columns.add(analysis.resolve());
+    }
+
+    private static void checkWidth(int width, Query schema) {
+        if (width != schema.getNumColumns())
+            throw new IllegalArgumentException("CSV has " + width + " columns; expected " + schema.getNumColumns());
     }
 
     @Override
-    public int getNumRows() {
+    public long getNumRows() {
         return numRows;
     }
 
@@ -141,6 +260,28 @@ public class Table implements Query {
         return columns.get(columnNumber);
     }
 
+    @Override
+    public Column getColumn(String columnName) {
+        if (catalog == null)
+            return Query.super.getColumn(columnName);
+        int columnNumber = catalog.findColumn(columnName);
+        if (columnNumber < 0)
+            throw new IllegalArgumentException("Can't locate column: " + columnName);
+        return columns.get(columnNumber);
+    }
+
+    /**
+     * Get the number of distinct non-null values in the nominated column, as determined when the data was analysed.
+     *
+     * @param   columnName  the column name
+     * @return              the number of distinct values (possibly an estimate)
+     * @throws  IOException if thrown reading the column metadata
+     * @see     Column#getCardinality()
+     */
+    public long getCardinality(String columnName) throws IOException {
+        return getColumn(columnName).getCardinality();
+    }
+
     public void setColumnName(int index, String name) {
         if (columns == null)
             throw new IllegalStateException("Columns not initialised");
@@ -151,6 +292,7 @@ public class Table implements Query {
                 throw new IllegalArgumentException("Duplicate name");
         }
         columns.get(index).setName(name);
+        catalog = null; // the catalog name lookup no longer applies
     }
 
     public void setColumnName(String oldName, String newName) {
@@ -165,6 +307,153 @@ public class Table implements Query {
         throw new IllegalArgumentException("Column not found: " + oldName);
     }
 
+    /**
+     * Find the range of rows for which the value in the nominated column is between the low and high values
+     * (inclusive).  The column must be an integer or date column (dates are specified as epoch days), and must be
+     * sorted (ascending or descending); the range is located by binary search rather than by scanning the column.
+     *
+     * @param   columnName  the column name
+     * @param   low         the low value
+     * @param   high        the high value
+     * @return              the {@link RowRange} (possibly empty)
+     * @throws  IOException if thrown by the column input
+     * @throws  IllegalStateException if the column is not sorted or not an integer or date column
+     */
+    public RowRange findRange(String columnName, long low, long high) throws IOException {
+        Column column = getSortedColumn(columnName);
+        if (column.getType() != Column.Type.integer && column.getType() != Column.Type.date)
+            throw new IllegalStateException("Column is not integer or date: " + columnName);
+        if (low > high)
+            return new RowRange(0, 0);
+        ColumnInput columnInput = column.getColumnInput();
+        return findRange(column, row -> Long.compare(columnInput.getLong(row), low),
+                row -> Long.compare(columnInput.getLong(row), high));
+    }
+
+    /**
+     * Find the range of rows for which the value in the nominated floating-point column is between the low and high
+     * values (inclusive).  The column must be sorted (ascending or descending).
+     *
+     * @param   columnName  the column name
+     * @param   low         the low value
+     * @param   high        the high value
+     * @return              the {@link RowRange} (possibly empty)
+     * @throws  IOException if thrown by the column input
+     * @throws  IllegalStateException if the column is not sorted or not a floating-point column
+     */
+    public RowRange findRange(String columnName, double low, double high) throws IOException {
+        Column column = getSortedColumn(columnName);
+        if (column.getType() != Column.Type.floating)
+            throw new IllegalStateException("Column is not floating: " + columnName);
+        if (low > high)
+            return new RowRange(0, 0);
+        ColumnInput columnInput = column.getColumnInput();
+        return findRange(column, row -> Double.compare(columnInput.getNumber(row).doubleValue(), low),
+                row -> Double.compare(columnInput.getNumber(row).doubleValue(), high));
+    }
+
+    /**
+     * Find the range of rows for which the value in the nominated string column is between the low and high values
+     * (inclusive).  The column must be sorted (ascending or descending).
+     *
+     * @param   columnName  the column name
+     * @param   low         the low value
+     * @param   high        the high value
+     * @return              the {@link RowRange} (possibly empty)
+     * @throws  IOException if thrown by the column input
+     * @throws  IllegalStateException if the column is not sorted or not a string column
+     */
+    public RowRange findRange(String columnName, String low, String high) throws IOException {
+        Column column = getSortedColumn(columnName);
+        if (column.getType() != Column.Type.undetermined)
+            throw new IllegalStateException("Column is not string: " + columnName);
+        if (low.compareTo(high) > 0)
+            return new RowRange(0, 0);
+        ColumnInput columnInput = column.getColumnInput();
+        return findRange(column, row -> columnInput.getString(row).compareTo(low),
+                row -> columnInput.getString(row).compareTo(high));
+    }
+
+    /**
+     * Find the range of rows for which the value in the nominated string column starts with the nominated prefix.  The
+     * column must be sorted (ascending or descending); the values starting with the prefix are then contiguous, with
+     * the values that are less than the prefix on one side and the remaining values on the other.
+     *
+     * @param   columnName  the column name
+     * @param   prefix      the prefix
+     * @return              the {@link RowRange} (possibly empty)
+     * @throws  IOException if thrown by the column input
+     * @throws  IllegalStateException if the column is not sorted or not a string column
+     */
+    public RowRange findPrefixRange(String columnName, String prefix) throws IOException {
+        Column column = getSortedColumn(columnName);
+        if (column.getType() != Column.Type.undetermined)
+            throw new IllegalStateException("Column is not string: " + columnName);
+        ColumnInput columnInput = column.getColumnInput();
+        RowComparison comparison = row -> comparePrefix(columnInput.getString(row), prefix);
+        return findRange(column, comparison, comparison);
+    }
+
+    private static int comparePrefix(String value, String prefix) {
+        return value.startsWith(prefix) ? 0 : value.compareTo(prefix);
+    }
+
+    /**
+     * Test whether the nominated column may be searched by {@link #findRange(String, long, long)} (or one of its
+     * variants).  The column must be sorted, and it must not contain nulls, since nulls are not taken into account
+     * when determining whether a column is sorted.
+     *
+     * @param   column  the {@link Column}
+     * @return          {@code true} if the column may be searched
+     */
+    public static boolean isSearchable(Column column) {
+        return (column.isAscending() || column.isDescending()) && !column.isNullable() &&
+                column.getStorageType() != Column.StorageType.none;
+    }
+
+    private Column getSortedColumn(String columnName) {
+        Column column = getColumn(columnName);
+        if (!isSearchable(column))
+            throw new IllegalStateException("Column is not sorted: " + columnName);
+        return column;
+    }
+
+    private RowRange findRange(Column column, RowComparison lowComparison, RowComparison highComparison)
+            throws IOException {
+        long start;
+        long end;
+        if (column.isAscending()) {
+            start = search(row -> lowComparison.compare(row) >= 0);
+            end = search(row -> highComparison.compare(row) > 0);
+        }
+        else {
+            start = search(row -> highComparison.compare(row) <= 0);
+            end = search(row -> lowComparison.compare(row) < 0);
+        }
+        return end <= start ? new RowRange(start, start) : new RowRange(start, end);
+    }
+
+    /**
+     * Binary search for the first row for which the test returns {@code true}.  The test must return {@code false}
+     * for all rows up to some point, and {@code true} for all rows after that point.
+     *
+     * @param   test    the test
+     * @return          the first row number for which the test is {@code true}, or the number of rows if none
+     * @throws  IOException if thrown by the test
+     */
+    private long search(RowTest test) throws IOException {
+        long lo = 0;
+        long hi = numRows;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (test.test(mid))
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return lo;
+    }
+
     /**
      * Create a JSON representation of the {@code Table}.
      *
@@ -176,7 +465,7 @@ public class Table implements Query {
             json.putValue("name", name);
         if (source != null)
             json.putValue("source", source);
-        json.putValue("rows", numRows);
+        json.putValue("rows", getNumRows());
         JSONArray array = new JSONArray();
         for (Column column : getColumns())
             array.add(column.toJSON());
@@ -188,11 +477,11 @@ public class Table implements Query {
         this.source = source;
     }
 
-    private void setNumRows(int numRows) {
+    void setNumRows(long numRows) {
         this.numRows = numRows;
     }
 
-    private void setColumns(List<Column> columns) {
+    void setColumns(List<Column> columns) {
         this.columns = columns;
     }
 
@@ -200,9 +489,33 @@ public class Table implements Query {
         return open(new File(filename));
     }
 
+    /**
+     * Open a table.  If the table directory contains a binary catalog ({@code catalog.bin}), the catalog is
+     * memory-mapped and each column is decoded from it when first used; otherwise the table is read from
+     * {@code metadata.json}.  If data has been appended to the table, the result is a {@link SegmentedTable}.
+     *
+     * @param   file    the table directory
+     * @return          the {@code Table}
+     * @throws  IOException if the table can not be opened
+     */
     public static Table open(File file) throws IOException {
         if (!(file.exists() && file.isDirectory()))
             throw new IOException("Not found or not a directory: " + file);
+        return SegmentedTable.exists(file) ? SegmentedTable.openSegments(file) : openSingle(file);
+    }
+
+    /**
+     * Open a single table directory (or segment), ignoring any appended segments.
+     *
+     * @param   file    the directory
+     * @return          the {@code Table}
+     * @throws  IOException if the table can not be opened
+     */
+    static Table openSingle(File file) throws IOException {
+        return Catalog.exists(file) ? openCatalog(file) : openMetadata(file);
+    }
+
+    private static Table openMetadata(File file) throws IOException {
         try {
             JSONObject json = JSON.parseObject(new File(file, "metadata.json"));
             String name = json.getString("name");
@@ -212,14 +525,14 @@ public class Table implements Query {
             if (json.containsKey("source"))
                 table.setSource(json.getString("source"));
             if (json.containsKey("rows"))
-                table.setNumRows(json.getInt("rows"));
+                table.setNumRows(json.getLong("rows"));
             JSONArray jsonColumns = json.getArray("columns");
             int numColumns = jsonColumns.size();
             List<Column> columns = new ArrayList<>(numColumns);
             for (int i = 0; i < numColumns; i++) {
                 Column column = Column.fromJSON(jsonColumns.getObject(i));
+                openColumn(column, file);
                 columns.add(column);
-                column.setColumnInput(ColumnInput.getExtendedColumnInputObject(file, column));
             }
             table.setColumns(columns);
             return table;
@@ -232,4 +545,79 @@ public class Table implements Query {
         }
     }
 
+    private static Table openCatalog(File file) throws IOException {
+        Catalog catalog = Catalog.open(file);
+        String name = catalog.getName();
+        Table table = new Table(name != null ? name : "table");
+        table.setSource(catalog.getSource());
+        table.setNumRows(catalog.getNumRows());
+        table.catalog = catalog;
+        table.setColumns(new CatalogColumns(catalog, file));
+        return table;
+    }
+
+    private static void openColumn(Column column, File file) {
+        column.setDirectory(file);
+        Column.FileData fileData = column.getFileData();
+        if (fileData != null && fileData.getBitmapIndex() != null)
+            column.setBitmapIndex(new BitmapIndex(new File(file, fileData.getBitmapIndex().getName()),
+                    column.getType()));
+        if (fileData != null && fileData.getSortedIndex() != null)
+            column.setSortedIndex(new SortedIndex(new File(file, fileData.getSortedIndex().getName()),
+                    fileData.getSortedIndex().getSize()));
+        if (fileData != null && fileData.getTextIndex() != null)
+            column.setTextIndex(new TextIndex(new File(file, fileData.getTextIndex().getName())));
+        if (fileData != null && fileData.getBloomFilter() != null)
+            column.setBloomFilter(new BloomFilter(new File(file, fileData.getBloomFilter().getName()),
+                    column.getType()));
+    }
+
+    /**
+     * The list of columns for a table opened from a {@link Catalog}.  Each column is decoded from the catalog when it
+     * is first requested.
+     */
+    private static class CatalogColumns extends AbstractList<Column> {
+
+        private Catalog catalog;
+        private File directory;
+        private Column[] columns;
+
+        public CatalogColumns(Catalog catalog, File directory) {
+            this.catalog = catalog;
+            this.directory = directory;
+            columns = new Column[catalog.getNumColumns()];
+        }
+
+        @Override
+        public synchronized Column get(int index) {
+            Column column = columns[index];
+            if (column == null) {
+                column = catalog.readColumn(index);
+                openColumn(column, directory);
+                columns[index] = column;
+            }
+            return column;
+        }
+
+        public synchronized Column getIfLoaded(int index) {
+            return columns[index];
+        }
+
+        @Override
+        public int size() {
+            return columns.length;
+        }
+
+    }
+
+    @FunctionalInterface
+    private interface RowComparison {
+        int compare(long rowNumber) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RowTest {
+        boolean test(long rowNumber) throws IOException;
+    }
+
 }
@@ -0,0 +1,216 @@
+/*
+ * @(#) ValueParser.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.time.LocalDate;
+
+/**
+ * Non-throwing parsers for the value types recognised by {@link ColumnAnalysis}.  Each {@code parse} method returns
+ * {@code false} if the string is not of the required form, instead of throwing an exception, and on success leaves the
+ * result in the parser object, so that a single instance may be reused for every value in a column without
+ * allocation.
+ *
+ * <p>The forms accepted are deliberately narrower than those of {@link Long#parseLong(String)},
+ * {@link Double#parseDouble(String)} and {@link LocalDate#parse(CharSequence)}: no surrounding whitespace, no
+ * {@code NaN}, {@code Infinity}, hexadecimal or type suffixes, and dates only in the form {@code yyyy-MM-dd}.</p>
+ *
+ * @author  Peter Wall
+ */
+public class ValueParser {
+
+    private static final double[] powersOfTen = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19,
+        1e20, 1e21, 1e22
+    };
+
+    private static final long maxExactMantissa = 1L << 53;
+
+    private long longValue;
+    private double doubleValue;
+    private int decimals;
+
+    public long getLong() {
+        return longValue;
+    }
+
+    public double getDouble() {
+        return doubleValue;
+    }
+
+    /**
+     * Get the number of digits following the decimal point in the last value parsed by {@link #parseDouble(String)}.
+     *
+     * @return  the number of decimal places
+     */
+    public int getDecimals() {
+        return decimals;
+    }
+
+    /**
+     * Parse an integer, consisting of an optional sign followed by one or more decimal digits, which must fit in a
+     * {@code long}.
+     *
+     * @param   s       the string
+     * @return          {@code true} if the string is a valid integer (the value is available from {@link #getLong()})
+     */
+    public boolean parseLong(String s) {
+        int n = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (n > 0) {
+            char ch = s.charAt(0);
+            if (ch == '-' || ch == '+') {
+                negative = ch == '-';
+                i++;
+            }
+        }
+        if (i == n)
+            return false;
+        // accumulate as a negative number so that Long.MIN_VALUE can be represented
+        long result = 0;
+        for (; i < n; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                return false;
+            if (result < Long.MIN_VALUE / 10)
+                return false;
+            result *= 10;
+            if (result < Long.MIN_VALUE + digit)
+                return false;
+            result -= digit;
+        }
+        if (!negative) {
+            if (result == Long.MIN_VALUE)
+                return false;
+            result = -result;
+        }
+        longValue = result;
+        return true;
+    }
+
+    /**
+     * Parse a floating-point number, consisting of an optional sign, digits with an optional decimal point (there must
+     * be at least one digit), and an optional exponent.  Values with no exponent and a small enough number of digits
+     * are converted directly; others are converted by {@link Double#parseDouble(String)} once the form has been
+     * checked.
+     *
+     * @param   s       the string
+     * @return          {@code true} if the string is a valid number (the value is available from
+     *                  {@link #getDouble()} and the number of decimal places from {@link #getDecimals()})
+     */
+    public boolean parseDouble(String s) {
+        int n = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (n > 0) {
+            char ch = s.charAt(0);
+            if (ch == '-' || ch == '+') {
+                negative = ch == '-';
+                i++;
+            }
+        }
+        long mantissa = 0;
+        boolean exact = true;
+        int digits = 0;
+        int numDecimals = 0;
+        boolean point = false;
+        for (; i < n; i++) {
+            char ch = s.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                digits++;
+                if (point)
+                    numDecimals++;
+                if (mantissa < maxExactMantissa / 10)
+                    mantissa = mantissa * 10 + (ch - '0');
+                else
+                    exact = false;
+            }
+            else if (ch == '.' && !point)
+                point = true;
+            else
+                break;
+        }
+        if (digits == 0)
+            return false;
+        if (i < n) {
+            char ch = s.charAt(i);
+            if (ch != 'e' && ch != 'E')
+                return false;
+            if (++i < n && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+                i++;
+            if (i == n)
+                return false;
+            for (; i < n; i++) {
+                ch = s.charAt(i);
+                if (ch < '0' || ch > '9')
+                    return false;
+            }
+            exact = false;
+        }
+        if (exact && numDecimals < powersOfTen.length) {
+            // both operands are exactly representable, so a single division gives the correctly rounded result
+            double result = mantissa / powersOfTen[numDecimals];
+            doubleValue = negative ? -result : result;
+        }
+        else
+            doubleValue = Double.parseDouble(s);
+        decimals = numDecimals;
+        return true;
+    }
+
+    /**
+     * Parse a date in the form {@code yyyy-MM-dd}.
+     *
+     * @param   s       the string
+     * @return          {@code true} if the string is a valid date (the epoch day is available from
+     *                  {@link #getLong()})
+     */
+    public boolean parseDate(String s) {
+        if (s.length() != 10 || s.charAt(4) != '-' || s.charAt(7) != '-')
+            return false;
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 7);
+        int day = digits(s, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31)
+            return false;
+        if (day > 28 && day > LocalDate.of(year, month, 1).lengthOfMonth())
+            return false;
+        longValue = LocalDate.of(year, month, day).toEpochDay();
+        return true;
+    }
+
+    private static int digits(String s, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+}
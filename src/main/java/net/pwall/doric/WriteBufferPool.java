@@ -0,0 +1,124 @@
+/*
+ * @(#) WriteBufferPool.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of direct buffers for use by {@link ColumnWriter}.  Each writer accumulates data in a small number of
+ * buffers taken from the pool and writes them to the file in a single gathering write when they are all full, so the
+ * number of system calls is governed by the total size of a writer's buffers rather than the size of a single buffer.
+ * Buffers are returned to the pool when the writer is closed, so that a sequence of ingests (or the columns of a wide
+ * table written one after another) re-use the same native memory.
+ *
+ * @author  Peter Wall
+ */
+public class WriteBufferPool {
+
+    public static final int defaultBufferSize = 32 * 1024;
+    public static final int defaultBuffersPerWriter = 4;
+    public static final int defaultMaxPooled = 256;
+
+    private int bufferSize;
+    private int buffersPerWriter;
+    private int maxPooled;
+    private Deque<ByteBuffer> freeBuffers;
+    private long allocations;
+
+    /**
+     * Create a {@code WriteBufferPool}.
+     *
+     * @param   bufferSize          the size of each buffer
+     * @param   buffersPerWriter    the number of buffers a writer fills before writing them to the file
+     * @param   maxPooled           the maximum number of free buffers retained in the pool
+     */
+    public WriteBufferPool(int bufferSize, int buffersPerWriter, int maxPooled) {
+        if (bufferSize < 64)
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        if (buffersPerWriter < 1)
+            throw new IllegalArgumentException("Invalid buffers per writer: " + buffersPerWriter);
+        this.bufferSize = bufferSize;
+        this.buffersPerWriter = buffersPerWriter;
+        this.maxPooled = maxPooled;
+        freeBuffers = new ArrayDeque<>();
+        allocations = 0;
+    }
+
+    public WriteBufferPool() {
+        this(defaultBufferSize, defaultBuffersPerWriter, defaultMaxPooled);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getBuffersPerWriter() {
+        return buffersPerWriter;
+    }
+
+    public int getMaxPooled() {
+        return maxPooled;
+    }
+
+    /**
+     * Get the number of buffers allocated by the pool (as opposed to being re-used from the pool).
+     *
+     * @return  the number of allocations
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Get a buffer from the pool, allocating a new one if none is available.  The buffer is cleared before being
+     * returned.
+     *
+     * @return  the buffer
+     */
+    public synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = freeBuffers.pollFirst();
+        if (buffer == null) {
+            allocations++;
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool.  If the pool already holds the maximum number of free buffers, the buffer is
+     * discarded.
+     *
+     * @param   buffer  the buffer
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (freeBuffers.size() < maxPooled && buffer.capacity() == bufferSize)
+            freeBuffers.addFirst(buffer);
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * @(#) WriterPipeline.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.pwall.doric.columnoutput.ColumnOutput;
+
+/**
+ * A pipeline to write rows to a set of {@link ColumnOutput} objects using multiple threads.  Rows are collected into
+ * batches by the calling thread (typically the thread parsing the input), and each complete batch is handed to a set
+ * of worker threads, each of which owns a group of columns and encodes and writes the values for those columns.  The
+ * calling thread can then go on to parse the next batch while the previous ones are being written.
+ *
+ * <p>The number of batches in circulation is fixed, so if the workers fall behind, the calling thread waits for a
+ * batch to become free; this bounds the memory used by the pipeline.</p>
+ *
+ * @author  Peter Wall
+ */
+class WriterPipeline implements AutoCloseable {
+
+    public static final int defaultBatchSize = 1024;
+    public static final int numBatches = 4;
+
+    private final ColumnOutput[] columnOutputs;
+    private final int batchSize;
+    private final Worker[] workers;
+    private final Thread[] threads;
+    private final BlockingQueue<Batch> freeBatches;
+    private final AtomicReference<Exception> failure;
+    private final Batch endBatch;
+    private Batch currentBatch;
+    private boolean finished;
+
+    /**
+     * Create a {@code WriterPipeline} and start its worker threads.
+     *
+     * @param   columnOutputs   the {@link ColumnOutput} objects, one for each column
+     * @param   numThreads      the number of worker threads (limited to the number of columns)
+     * @param   batchSize       the number of rows in a batch
+     */
+    WriterPipeline(ColumnOutput[] columnOutputs, int numThreads, int batchSize) {
+        this.columnOutputs = columnOutputs;
+        this.batchSize = batchSize;
+        int numColumns = columnOutputs.length;
+        int numWorkers = Math.max(Math.min(numThreads, numColumns), 1);
+        freeBatches = new ArrayBlockingQueue<>(numBatches);
+        for (int i = 0; i < numBatches; i++)
+            freeBatches.add(new Batch(numColumns, batchSize));
+        failure = new AtomicReference<>();
+        endBatch = new Batch(0, 0);
+        workers = new Worker[numWorkers];
+        threads = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            // columns are allocated round-robin, so that adjacent (often similar) columns are spread across workers
+            int[] columns = new int[(numColumns - i + numWorkers - 1) / numWorkers];
+            for (int j = 0; j < columns.length; j++)
+                columns[j] = i + j * numWorkers;
+            workers[i] = new Worker(columns);
+            threads[i] = new Thread(workers[i], "doric-writer-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        currentBatch = null;
+        finished = false;
+    }
+
+    /**
+     * Add a row to the pipeline.  The array may be re-used by the caller once this method returns.
+     *
+     * @param   values  the values for the row, one for each column
+     * @throws  IOException if a worker has failed, or if the calling thread is interrupted
+     */
+    void put(String[] values) throws IOException {
+        if (currentBatch == null) {
+            checkFailure();
+            try {
+                currentBatch = freeBatches.take();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted waiting for writer");
+            }
+        }
+        int row = currentBatch.count++;
+        for (int i = 0, n = values.length; i < n; i++)
+            currentBatch.values[i][row] = values[i];
+        if (currentBatch.count == batchSize)
+            dispatch();
+    }
+
+    /**
+     * Write any remaining rows and wait for the workers to complete.
+     *
+     * @throws  IOException if thrown by any of the {@link ColumnOutput} objects, or if the calling thread is
+     *                      interrupted
+     */
+    void finish() throws IOException {
+        if (currentBatch != null && currentBatch.count > 0)
+            dispatch();
+        stop();
+        checkFailure();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished)
+            stop();
+    }
+
+    private void dispatch() throws IOException {
+        Batch batch = currentBatch;
+        currentBatch = null;
+        batch.pending.set(workers.length);
+        try {
+            for (Worker worker : workers)
+                worker.queue.put(batch);
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for writer");
+        }
+    }
+
+    private void stop() throws IOException {
+        finished = true;
+        try {
+            for (Worker worker : workers)
+                worker.queue.put(endBatch);
+            for (Thread thread : threads)
+                thread.join();
+        }
+        catch (InterruptedException e) {
+            for (Thread thread : threads)
+                thread.interrupt();
+            throw new InterruptedIOException("Interrupted waiting for writer");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Exception e = failure.get();
+        if (e instanceof IOException)
+            throw new IOException("Error writing column", e);
+        if (e instanceof RuntimeException)
+            throw (RuntimeException)e;
+    }
+
+    private static class Batch {
+
+        private final String[][] values;
+        private final AtomicInteger pending;
+        private int count;
+
+        Batch(int numColumns, int batchSize) {
+            values = new String[numColumns][batchSize];
+            pending = new AtomicInteger();
+            count = 0;
+        }
+
+    }
+
+    private class Worker implements Runnable {
+
+        private final int[] columns;
+        private final BlockingQueue<Batch> queue;
+
+        Worker(int[] columns) {
+            this.columns = columns;
+            queue = new ArrayBlockingQueue<>(numBatches + 1);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Batch batch = queue.take();
+                    if (batch == endBatch)
+                        break;
+                    // after a failure, batches are still taken from the queue so that the producer is not blocked
+                    if (failure.get() == null) {
+                        try {
+                            for (int column : columns) {
+                                ColumnOutput columnOutput = columnOutputs[column];
+                                String[] values = batch.values[column];
+                                for (int i = 0, n = batch.count; i < n; i++)
+                                    columnOutput.putString(values[i]);
+                            }
+                        }
+                        catch (IOException | RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                    if (batch.pending.decrementAndGet() == 0) {
+                        batch.count = 0;
+                        freeBatches.add(batch);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                failure.compareAndSet(null, new InterruptedIOException("Writer interrupted"));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * @(#) ArrowFormat.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.arrow;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants for the Arrow IPC format, taken from the Arrow FlatBuffers schemas ({@code Schema.fbs},
+ * {@code Message.fbs} and {@code File.fbs}).  Slot numbers are the indices of the fields within each table.
+ *
+ * @author  Peter Wall
+ */
+final class ArrowFormat {
+
+    private ArrowFormat() {
+    }
+
+    public static final byte[] magic = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+    public static final int continuation = 0xFFFFFFFF;
+    public static final int alignment = 8;
+
+    public static final short metadataVersionV5 = 4;
+
+    // MessageHeader union
+    public static final int headerSchema = 1;
+    public static final int headerDictionaryBatch = 2;
+    public static final int headerRecordBatch = 3;
+
+    // Type union
+    public static final int typeInt = 2;
+    public static final int typeFloatingPoint = 3;
+    public static final int typeUtf8 = 5;
+    public static final int typeBool = 6;
+    public static final int typeDate = 8;
+    public static final int typeLargeUtf8 = 20;
+
+    public static final int precisionSingle = 1;
+    public static final int precisionDouble = 2;
+
+    public static final int dateUnitDay = 0;
+    public static final int dateUnitMillisecond = 1;
+
+    // Message
+    public static final int messageVersion = 0;
+    public static final int messageHeaderType = 1;
+    public static final int messageHeader = 2;
+    public static final int messageBodyLength = 3;
+
+    // Schema
+    public static final int schemaEndianness = 0;
+    public static final int schemaFields = 1;
+
+    public static final int endiannessLittle = 0;
+
+    // Field
+    public static final int fieldName = 0;
+    public static final int fieldNullable = 1;
+    public static final int fieldTypeType = 2;
+    public static final int fieldType = 3;
+    public static final int fieldDictionary = 4;
+    public static final int fieldChildren = 5;
+
+    // Int
+    public static final int intBitWidth = 0;
+    public static final int intIsSigned = 1;
+
+    // FloatingPoint
+    public static final int floatingPointPrecision = 0;
+
+    // Date
+    public static final int dateUnit = 0;
+
+    // RecordBatch
+    public static final int recordBatchLength = 0;
+    public static final int recordBatchNodes = 1;
+    public static final int recordBatchBuffers = 2;
+    public static final int recordBatchCompression = 3;
+
+    // Footer
+    public static final int footerVersion = 0;
+    public static final int footerSchema = 1;
+    public static final int footerDictionaries = 2;
+    public static final int footerRecordBatches = 3;
+
+    // struct sizes
+    public static final int fieldNodeSize = 16;
+    public static final int bufferSize = 16;
+    public static final int blockSize = 24;
+
+}
@@ -0,0 +1,375 @@
+/*
+ * @(#) ArrowReader.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.arrow;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reader for the Arrow IPC file and stream formats (the format is detected from the content of the file).  The record
+ * batches are read one at a time, and the body of each batch is memory-mapped from the file; the values are returned
+ * in the string form used by the ingest process, so that an Arrow file may be ingested in the same way as a CSV file.
+ *
+ * <p>The supported types are {@code Int} (all widths, signed and unsigned), {@code FloatingPoint} (single and double
+ * precision), {@code Date}, {@code Bool}, {@code Utf8} and {@code LargeUtf8}.  Nested types, dictionary-encoded fields
+ * and compressed record batches are not supported.</p>
+ *
+ * @author  Peter Wall
+ */
+public class ArrowReader implements AutoCloseable {
+
+    private static final long millisPerDay = 24 * 60 * 60 * 1000L;
+
+    private FileChannel channel;
+    private boolean fileFormat;
+    private List<Field> fields;
+    private long[] blockOffsets;
+    private int nextBlock;
+    private long nextPosition;
+    private boolean atEnd;
+    private ByteBuffer body;
+    private int batchLength;
+
+    public ArrowReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer start = read(0, Math.min((int)size, ArrowFormat.magic.length));
+            fileFormat = start.remaining() == ArrowFormat.magic.length && Arrays.equals(toBytes(start),
+                    ArrowFormat.magic);
+            if (fileFormat) {
+                int trailerLength = 4 + ArrowFormat.magic.length;
+                ByteBuffer trailer = read(size - trailerLength, trailerLength);
+                trailer.position(4);
+                if (!Arrays.equals(toBytes(trailer), ArrowFormat.magic))
+                    throw new IllegalArgumentException("Arrow file trailer missing");
+                int footerLength = trailer.getInt(0);
+                ByteBuffer footerBuffer = read(size - trailerLength - footerLength, footerLength);
+                FlatBufferTable footer = FlatBufferTable.getRoot(footerBuffer, 0);
+                readSchema(footer.getTable(ArrowFormat.footerSchema));
+                int n = footer.getVectorLength(ArrowFormat.footerRecordBatches);
+                blockOffsets = new long[n];
+                for (int i = 0; i < n; i++)
+                    blockOffsets[i] = footerBuffer.getLong(footer.getVectorStruct(ArrowFormat.footerRecordBatches, i,
+                            ArrowFormat.blockSize));
+                nextBlock = 0;
+            }
+            else {
+                Message message = readMessage(0);
+                if (message == null || message.headerType != ArrowFormat.headerSchema)
+                    throw new IllegalArgumentException("Arrow stream does not start with a schema");
+                readSchema(message.header);
+                nextPosition = message.bodyPosition + message.bodyLength;
+            }
+            atEnd = false;
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public boolean isFileFormat() {
+        return fileFormat;
+    }
+
+    public int getNumFields() {
+        return fields.size();
+    }
+
+    public String getFieldName(int index) {
+        return fields.get(index).name;
+    }
+
+    public boolean isFieldNullable(int index) {
+        return fields.get(index).nullable;
+    }
+
+    /**
+     * Get the number of rows in the current record batch.
+     *
+     * @return  the number of rows
+     */
+    public int getBatchLength() {
+        return batchLength;
+    }
+
+    private void readSchema(FlatBufferTable schema) {
+        if (schema.getShort(ArrowFormat.schemaEndianness, ArrowFormat.endiannessLittle) !=
+                ArrowFormat.endiannessLittle)
+            throw new IllegalArgumentException("Big-endian Arrow data is not supported");
+        fields = new ArrayList<>();
+        for (int i = 0, n = schema.getVectorLength(ArrowFormat.schemaFields); i < n; i++)
+            fields.add(new Field(schema.getVectorTable(ArrowFormat.schemaFields, i)));
+    }
+
+    /**
+     * Move to the next record batch.
+     *
+     * @return  {@code true} if there is another batch, {@code false} at the end of the data
+     * @throws  IOException if thrown reading the file
+     */
+    public boolean nextBatch() throws IOException {
+        if (atEnd)
+            return false;
+        Message message;
+        if (fileFormat) {
+            message = nextBlock < blockOffsets.length ? readMessage(blockOffsets[nextBlock++]) : null;
+        }
+        else {
+            message = nextPosition < channel.size() ? readMessage(nextPosition) : null;
+            if (message != null)
+                nextPosition = message.bodyPosition + message.bodyLength;
+        }
+        if (message == null) {
+            atEnd = true;
+            body = null;
+            batchLength = 0;
+            return false;
+        }
+        if (message.headerType == ArrowFormat.headerDictionaryBatch)
+            throw new IllegalArgumentException("Dictionary-encoded Arrow data is not supported");
+        if (message.headerType != ArrowFormat.headerRecordBatch)
+            throw new IllegalArgumentException("Unexpected Arrow message type: " + message.headerType);
+        FlatBufferTable recordBatch = message.header;
+        if (recordBatch.hasField(ArrowFormat.recordBatchCompression))
+            throw new IllegalArgumentException("Compressed Arrow data is not supported");
+        batchLength = Math.toIntExact(recordBatch.getLong(ArrowFormat.recordBatchLength, 0));
+        body = channel.map(FileChannel.MapMode.READ_ONLY, message.bodyPosition, message.bodyLength).
+                order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer metadata = recordBatch.getBuffer();
+        int bufferIndex = 0;
+        for (int i = 0, n = fields.size(); i < n; i++) {
+            Field field = fields.get(i);
+            int node = recordBatch.getVectorStruct(ArrowFormat.recordBatchNodes, i, ArrowFormat.fieldNodeSize);
+            long nullCount = metadata.getLong(node + 8);
+            int[] offsets = new int[field.numBuffers];
+            for (int j = 0; j < field.numBuffers; j++) {
+                int buffer = recordBatch.getVectorStruct(ArrowFormat.recordBatchBuffers, bufferIndex++,
+                        ArrowFormat.bufferSize);
+                long offset = metadata.getLong(buffer);
+                long length = metadata.getLong(buffer + 8);
+                offsets[j] = length == 0 ? -1 : Math.toIntExact(offset);
+            }
+            field.validityOffset = nullCount == 0 ? -1 : offsets[0];
+            field.valuesOffset = offsets.length > 1 ? offsets[1] : -1;
+            field.dataOffset = offsets.length > 2 ? offsets[2] : -1;
+        }
+        return true;
+    }
+
+    /**
+     * Test whether a value in the current batch is null.
+     *
+     * @param   index   the field index
+     * @param   row     the row within the batch
+     * @return          {@code true} if the value is null
+     */
+    public boolean isNull(int index, int row) {
+        int validityOffset = fields.get(index).validityOffset;
+        return validityOffset >= 0 && (body.get(validityOffset + (row >> 3)) & (1 << (row & 7))) == 0;
+    }
+
+    /**
+     * Get a value from the current batch in string form, as it would appear in a CSV file (an empty string for
+     * null).
+     *
+     * @param   index   the field index
+     * @param   row     the row within the batch
+     * @return          the value
+     */
+    public String getString(int index, int row) {
+        if (isNull(index, row))
+            return "";
+        Field field = fields.get(index);
+        int values = field.valuesOffset;
+        switch (field.typeId) {
+        case ArrowFormat.typeInt:
+            switch (field.bitWidth) {
+            case 8:
+                return String.valueOf(field.signed ? body.get(values + row) : body.get(values + row) & 0xFF);
+            case 16:
+                return String.valueOf(field.signed ? body.getShort(values + row * 2) :
+                        body.getShort(values + row * 2) & 0xFFFF);
+            case 32:
+                return String.valueOf(field.signed ? body.getInt(values + row * 4) :
+                        body.getInt(values + row * 4) & 0xFFFFFFFFL);
+            default:
+                return field.signed ? String.valueOf(body.getLong(values + row * 8)) :
+                        Long.toUnsignedString(body.getLong(values + row * 8));
+            }
+        case ArrowFormat.typeFloatingPoint:
+            return field.precision == ArrowFormat.precisionSingle ? String.valueOf(body.getFloat(values + row * 4)) :
+                    String.valueOf(body.getDouble(values + row * 8));
+        case ArrowFormat.typeDate:
+            return (field.dateUnit == ArrowFormat.dateUnitDay ? LocalDate.ofEpochDay(body.getInt(values + row * 4)) :
+                    LocalDate.ofEpochDay(Math.floorDiv(body.getLong(values + row * 8), millisPerDay))).toString();
+        case ArrowFormat.typeBool:
+            return (body.get(values + (row >> 3)) & (1 << (row & 7))) != 0 ? "true" : "false";
+        case ArrowFormat.typeUtf8:
+            return getUtf8(field, body.getInt(values + row * 4), body.getInt(values + row * 4 + 4));
+        default: // LargeUtf8
+            return getUtf8(field, Math.toIntExact(body.getLong(values + row * 8)),
+                    Math.toIntExact(body.getLong(values + row * 8 + 8)));
+        }
+    }
+
+    private String getUtf8(Field field, int start, int end) {
+        if (start == end)
+            return "";
+        byte[] bytes = new byte[end - start];
+        ByteBuffer data = body.duplicate();
+        data.position(field.dataOffset + start);
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read an encapsulated message (either with the continuation marker, or in the pre-1.0 form without it).
+     *
+     * @param   position    the file position of the message
+     * @return              the message, or {@code null} at the end-of-stream marker
+     * @throws  IOException if thrown reading the file
+     */
+    private Message readMessage(long position) throws IOException {
+        ByteBuffer prefix = read(position, 4);
+        int metadataLength = prefix.getInt(0);
+        int prefixLength = 4;
+        if (metadataLength == ArrowFormat.continuation) {
+            metadataLength = read(position + 4, 4).getInt(0);
+            prefixLength = 8;
+        }
+        if (metadataLength == 0)
+            return null;
+        ByteBuffer metadata = read(position + prefixLength, metadataLength);
+        FlatBufferTable message = FlatBufferTable.getRoot(metadata, 0);
+        return new Message(message.getByte(ArrowFormat.messageHeaderType, 0),
+                message.getTable(ArrowFormat.messageHeader), position + prefixLength + metadataLength,
+                message.getLong(ArrowFormat.messageBodyLength, 0));
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of Arrow data");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        body = null;
+        channel.close();
+    }
+
+    private static class Message {
+
+        private int headerType;
+        private FlatBufferTable header;
+        private long bodyPosition;
+        private long bodyLength;
+
+        public Message(int headerType, FlatBufferTable header, long bodyPosition, long bodyLength) {
+            this.headerType = headerType;
+            this.header = header;
+            this.bodyPosition = bodyPosition;
+            this.bodyLength = bodyLength;
+        }
+
+    }
+
+    private static class Field {
+
+        private String name;
+        private boolean nullable;
+        private int typeId;
+        private int bitWidth;
+        private boolean signed;
+        private int precision;
+        private int dateUnit;
+        private int numBuffers;
+        private int validityOffset;
+        private int valuesOffset;
+        private int dataOffset;
+
+        public Field(FlatBufferTable field) {
+            name = field.getString(ArrowFormat.fieldName);
+            nullable = field.getBoolean(ArrowFormat.fieldNullable, false);
+            if (field.hasField(ArrowFormat.fieldDictionary))
+                throw new IllegalArgumentException("Dictionary-encoded Arrow field is not supported: " + name);
+            if (field.getVectorLength(ArrowFormat.fieldChildren) != 0)
+                throw new IllegalArgumentException("Nested Arrow field is not supported: " + name);
+            typeId = field.getByte(ArrowFormat.fieldTypeType, 0);
+            FlatBufferTable type = field.getTable(ArrowFormat.fieldType);
+            switch (typeId) {
+            case ArrowFormat.typeInt:
+                bitWidth = type.getInt(ArrowFormat.intBitWidth, 0);
+                signed = type.getBoolean(ArrowFormat.intIsSigned, false);
+                numBuffers = 2;
+                break;
+            case ArrowFormat.typeFloatingPoint:
+                precision = type.getShort(ArrowFormat.floatingPointPrecision, 0);
+                if (precision != ArrowFormat.precisionSingle && precision != ArrowFormat.precisionDouble)
+                    throw new IllegalArgumentException("Half-precision Arrow field is not supported: " + name);
+                numBuffers = 2;
+                break;
+            case ArrowFormat.typeDate:
+                dateUnit = type.getShort(ArrowFormat.dateUnit, ArrowFormat.dateUnitMillisecond);
+                numBuffers = 2;
+                break;
+            case ArrowFormat.typeBool:
+                numBuffers = 2;
+                break;
+            case ArrowFormat.typeUtf8:
+            case ArrowFormat.typeLargeUtf8:
+                numBuffers = 3;
+                break;
+            default:
+                throw new IllegalArgumentException("Arrow type " + typeId + " is not supported: " + name);
+            }
+        }
+
+    }
+
+}
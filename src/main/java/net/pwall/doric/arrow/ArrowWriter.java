@@ -0,0 +1,489 @@
+/*
+ * @(#) ArrowWriter.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.arrow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.Row;
+import net.pwall.doric.Table;
+import net.pwall.doric.query.Query;
+import net.pwall.util.Strings;
+
+/**
+ * Writer for the Arrow IPC file and stream formats.  The rows of a {@link Query} are written as a series of record
+ * batches, with each column mapped to the nearest Arrow type:
+ *
+ * <ul>
+ *   <li>integer columns to {@code Int} of the width and signedness of the storage type ({@code Int64} for constant
+ *   columns)</li>
+ *   <li>floating-point columns (including decimal shift columns) to {@code FloatingPoint(DOUBLE)}</li>
+ *   <li>date columns to {@code Date(DAY)}</li>
+ *   <li>all other columns to {@code Utf8}</li>
+ * </ul>
+ *
+ * <p>Doric column files are big-endian, and nullable integer columns are stored shifted to make room for the null
+ * flag, so in most cases the values must be converted to the little-endian Arrow layout as they are read.  The
+ * exception is a non-nullable 8-bit integer column of a table (not a segmented or partitioned table), for which the
+ * layouts are identical: the Arrow buffer is then a memory-mapped slice of the column file, written to the output
+ * without copying.</p>
+ *
+ * <p>The FlatBuffers metadata is produced by a minimal serializer included here, so no dependency on the Arrow or
+ * FlatBuffers libraries is required.</p>
+ *
+ * @author  Peter Wall
+ */
+public class ArrowWriter implements AutoCloseable {
+
+    public static final int defaultBatchRows = 64 * 1024;
+
+    private static final byte[] padding = new byte[ArrowFormat.alignment];
+
+    private WritableByteChannel channel;
+    private boolean fileFormat;
+    private Query query;
+    private ArrowType[] types;
+    private FileChannel[] mappedColumns;
+    private int batchRows;
+    private long position;
+    private boolean started;
+    private boolean closed;
+    private List<long[]> blocks;
+
+    /**
+     * Construct an {@code ArrowWriter}.
+     *
+     * @param   channel     the output channel
+     * @param   query       the {@link Query} to be written
+     * @param   fileFormat  {@code true} for the IPC file format, {@code false} for the stream format
+     */
+    public ArrowWriter(WritableByteChannel channel, Query query, boolean fileFormat) {
+        this.channel = channel;
+        this.query = query;
+        this.fileFormat = fileFormat;
+        int numColumns = query.getNumColumns();
+        types = new ArrowType[numColumns];
+        for (int i = 0; i < numColumns; i++)
+            types[i] = ArrowType.of(query.getColumn(i));
+        mappedColumns = new FileChannel[numColumns];
+        batchRows = defaultBatchRows;
+        position = 0;
+        started = false;
+        closed = false;
+        blocks = new ArrayList<>();
+    }
+
+    public int getBatchRows() {
+        return batchRows;
+    }
+
+    public void setBatchRows(int batchRows) {
+        if (batchRows < 1)
+            throw new IllegalArgumentException("Batch rows must be at least 1");
+        this.batchRows = batchRows;
+    }
+
+    /**
+     * Write a {@link Query} to a file.
+     *
+     * @param   query       the {@link Query}
+     * @param   file        the output file
+     * @param   fileFormat  {@code true} for the IPC file format, {@code false} for the stream format
+     * @return              the number of rows written
+     * @throws  IOException if thrown reading the query or writing the file
+     */
+    public static long write(Query query, File file, boolean fileFormat) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file);
+                ArrowWriter writer = new ArrowWriter(out.getChannel(), query, fileFormat)) {
+            return writer.writeRows();
+        }
+    }
+
+    /**
+     * Write the rows of the query (after the schema, if it has not already been written).
+     *
+     * @return              the number of rows written
+     * @throws  IOException if thrown reading the query or writing the output
+     */
+    public long writeRows() throws IOException {
+        start();
+        Iterator<Row> iterator = query.iterator();
+        Row[] rows = new Row[batchRows];
+        long count = 0;
+        while (true) {
+            int n = 0;
+            while (n < batchRows && iterator.hasNext())
+                rows[n++] = iterator.next();
+            if (n == 0)
+                break;
+            writeBatch(rows, n);
+            Arrays.fill(rows, 0, n, null);
+            count += n;
+        }
+        return count;
+    }
+
+    private void start() throws IOException {
+        if (started)
+            return;
+        started = true;
+        if (fileFormat)
+            write(ByteBuffer.wrap(Arrays.copyOf(ArrowFormat.magic, ArrowFormat.alignment)));
+        FlatBufferBuilder.TableNode message = new FlatBufferBuilder.TableNode().
+                addShort(ArrowFormat.messageVersion, ArrowFormat.metadataVersionV5).
+                addByte(ArrowFormat.messageHeaderType, ArrowFormat.headerSchema).
+                addNode(ArrowFormat.messageHeader, createSchema()).
+                addLong(ArrowFormat.messageBodyLength, 0);
+        writeMessage(message, new ArrayList<>());
+    }
+
+    private FlatBufferBuilder.TableNode createSchema() {
+        List<FlatBufferBuilder.TableNode> fields = new ArrayList<>();
+        for (int i = 0; i < types.length; i++) {
+            Column column = query.getColumn(i);
+            fields.add(new FlatBufferBuilder.TableNode().
+                    addString(ArrowFormat.fieldName, column.getName()).
+                    addBoolean(ArrowFormat.fieldNullable, column.isNullable()).
+                    addByte(ArrowFormat.fieldTypeType, types[i].typeId).
+                    addNode(ArrowFormat.fieldType, types[i].createTypeNode()).
+                    addNode(ArrowFormat.fieldChildren, new FlatBufferBuilder.TableVectorNode(new ArrayList<>())));
+        }
+        return new FlatBufferBuilder.TableNode().
+                addShort(ArrowFormat.schemaEndianness, ArrowFormat.endiannessLittle).
+                addNode(ArrowFormat.schemaFields, new FlatBufferBuilder.TableVectorNode(fields));
+    }
+
+    private void writeBatch(Row[] rows, int n) throws IOException {
+        List<ByteBuffer> body = new ArrayList<>();
+        ByteBuffer nodes = ByteBuffer.allocate(types.length * ArrowFormat.fieldNodeSize).
+                order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer buffers = ByteBuffer.allocate(types.length * 3 * ArrowFormat.bufferSize).
+                order(ByteOrder.LITTLE_ENDIAN);
+        long bodyOffset = 0;
+        int numBuffers = 0;
+        for (int i = 0; i < types.length; i++) {
+            ArrowType type = types[i];
+            Column column = query.getColumn(i);
+            // validity bitmap
+            int nullCount = 0;
+            ByteBuffer validity = null;
+            if (column.isNullable()) {
+                byte[] bits = new byte[(n + 7) >> 3];
+                for (int j = 0; j < n; j++) {
+                    if (rows[j].isNull(i))
+                        nullCount++;
+                    else
+                        bits[j >> 3] |= 1 << (j & 7);
+                }
+                if (nullCount > 0)
+                    validity = ByteBuffer.wrap(bits);
+            }
+            nodes.putLong(n).putLong(nullCount);
+            bodyOffset = addBuffer(body, buffers, validity, bodyOffset);
+            numBuffers++;
+            if (type == ArrowType.utf8) {
+                ByteBuffer offsets = ByteBuffer.allocate((n + 1) * 4).order(ByteOrder.LITTLE_ENDIAN);
+                ByteArray data = new ByteArray();
+                offsets.putInt(0);
+                for (int j = 0; j < n; j++) {
+                    data.append(Strings.toUTF8(rows[j].getString(i)));
+                    if (data.length < 0)
+                        throw new IllegalStateException("Arrow batch too large; reduce the batch size");
+                    offsets.putInt(data.length);
+                }
+                offsets.flip();
+                bodyOffset = addBuffer(body, buffers, offsets, bodyOffset);
+                bodyOffset = addBuffer(body, buffers, ByteBuffer.wrap(data.bytes, 0, data.length), bodyOffset);
+                numBuffers += 2;
+            }
+            else {
+                ByteBuffer values = mapColumn(column, i, rows, n);
+                if (values == null) {
+                    values = ByteBuffer.allocate(n * type.byteWidth).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int j = 0; j < n; j++)
+                        type.put(values, rows[j], i);
+                    values.flip();
+                }
+                bodyOffset = addBuffer(body, buffers, values, bodyOffset);
+                numBuffers++;
+            }
+        }
+        nodes.flip();
+        buffers.flip();
+        byte[] nodeBytes = new byte[nodes.remaining()];
+        nodes.get(nodeBytes);
+        byte[] bufferBytes = new byte[buffers.remaining()];
+        buffers.get(bufferBytes);
+        FlatBufferBuilder.TableNode recordBatch = new FlatBufferBuilder.TableNode().
+                addLong(ArrowFormat.recordBatchLength, n).
+                addNode(ArrowFormat.recordBatchNodes, new FlatBufferBuilder.StructVectorNode(nodeBytes, types.length)).
+                addNode(ArrowFormat.recordBatchBuffers, new FlatBufferBuilder.StructVectorNode(bufferBytes,
+                        numBuffers));
+        FlatBufferBuilder.TableNode message = new FlatBufferBuilder.TableNode().
+                addShort(ArrowFormat.messageVersion, ArrowFormat.metadataVersionV5).
+                addByte(ArrowFormat.messageHeaderType, ArrowFormat.headerRecordBatch).
+                addNode(ArrowFormat.messageHeader, recordBatch).
+                addLong(ArrowFormat.messageBodyLength, bodyOffset);
+        long messageStart = position;
+        long metadataLength = writeMessage(message, body);
+        blocks.add(new long[] { messageStart, metadataLength, bodyOffset });
+    }
+
+    /**
+     * Get the values buffer for a column as a memory-mapped slice of the column file, if the layouts are identical (a
+     * non-nullable 8-bit integer column of a simple table, for a contiguous range of rows).
+     */
+    private ByteBuffer mapColumn(Column column, int columnNumber, Row[] rows, int n) throws IOException {
+        if (query.getClass() != Table.class || column.isNullable() || column.getType() != Column.Type.integer ||
+                column.getStorageType() != Column.StorageType.int8 &&
+                column.getStorageType() != Column.StorageType.uint8)
+            return null;
+        long first = rows[0].getRowNumber();
+        if (rows[n - 1].getRowNumber() - first != n - 1 || column.getDirectory() == null)
+            return null;
+        FileChannel fileChannel = mappedColumns[columnNumber];
+        if (fileChannel == null) {
+            File file = new File(column.getDirectory(), column.getFileData().getRowData().getName());
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            mappedColumns[columnNumber] = fileChannel;
+        }
+        return fileChannel.map(FileChannel.MapMode.READ_ONLY, first, n);
+    }
+
+    private long addBuffer(List<ByteBuffer> body, ByteBuffer buffers, ByteBuffer buffer, long bodyOffset) {
+        int length = buffer == null ? 0 : buffer.remaining();
+        buffers.putLong(bodyOffset).putLong(length);
+        if (length == 0)
+            return bodyOffset;
+        body.add(buffer);
+        int paddingLength = padding(length);
+        if (paddingLength > 0)
+            body.add(ByteBuffer.wrap(padding, 0, paddingLength));
+        return bodyOffset + length + paddingLength;
+    }
+
+    /**
+     * Write an encapsulated message: the continuation marker, the metadata length, the metadata (padded to a multiple
+     * of 8 bytes), and the body.
+     *
+     * @return  the total length of the message prefix and metadata
+     */
+    private long writeMessage(FlatBufferBuilder.TableNode message, List<ByteBuffer> body) throws IOException {
+        byte[] metadata = new FlatBufferBuilder().finish(message);
+        int paddedLength = metadata.length + padding(8 + metadata.length);
+        ByteBuffer prefix = ByteBuffer.allocate(8 + paddedLength).order(ByteOrder.LITTLE_ENDIAN);
+        prefix.putInt(ArrowFormat.continuation).putInt(paddedLength).put(metadata);
+        prefix.clear();
+        write(prefix);
+        for (ByteBuffer buffer : body)
+            write(buffer);
+        return 8 + paddedLength;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        position += length;
+    }
+
+    private static int padding(long length) {
+        return (int)(-length & (ArrowFormat.alignment - 1));
+    }
+
+    /**
+     * Finish the output: write the end-of-stream marker and, for the file format, the footer and trailing magic
+     * number.  The channel itself is not closed.
+     *
+     * @throws  IOException if thrown writing the output
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            start();
+            ByteBuffer eos = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            eos.putInt(ArrowFormat.continuation).putInt(0).flip();
+            write(eos);
+            if (fileFormat) {
+                ByteBuffer blockBuffer = ByteBuffer.allocate(blocks.size() * ArrowFormat.blockSize).
+                        order(ByteOrder.LITTLE_ENDIAN);
+                for (long[] block : blocks)
+                    blockBuffer.putLong(block[0]).putInt((int)block[1]).putInt(0).putLong(block[2]);
+                FlatBufferBuilder.TableNode footer = new FlatBufferBuilder.TableNode().
+                        addShort(ArrowFormat.footerVersion, ArrowFormat.metadataVersionV5).
+                        addNode(ArrowFormat.footerSchema, createSchema()).
+                        addNode(ArrowFormat.footerDictionaries, new FlatBufferBuilder.StructVectorNode(new byte[0], 0)).
+                        addNode(ArrowFormat.footerRecordBatches, new FlatBufferBuilder.StructVectorNode(
+                                blockBuffer.array(), blocks.size()));
+                byte[] footerBytes = new FlatBufferBuilder().finish(footer);
+                ByteBuffer trailer = ByteBuffer.allocate(footerBytes.length + 4 + ArrowFormat.magic.length).
+                        order(ByteOrder.LITTLE_ENDIAN);
+                trailer.put(footerBytes).putInt(footerBytes.length).put(ArrowFormat.magic).flip();
+                write(trailer);
+            }
+        }
+        finally {
+            for (FileChannel fileChannel : mappedColumns)
+                if (fileChannel != null)
+                    fileChannel.close();
+        }
+    }
+
+    /**
+     * A growable byte array, for the data buffer of a {@code Utf8} column.
+     */
+    private static class ByteArray {
+
+        private byte[] bytes = new byte[4096];
+        private int length = 0;
+
+        public void append(byte[] data) {
+            if (length + data.length > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + data.length));
+            System.arraycopy(data, 0, bytes, length, data.length);
+            length += data.length;
+        }
+
+    }
+
+    /**
+     * The Arrow types to which Doric columns are mapped.
+     */
+    enum ArrowType {
+
+        int8(ArrowFormat.typeInt, 1, true),
+        uint8(ArrowFormat.typeInt, 1, false),
+        int16(ArrowFormat.typeInt, 2, true),
+        uint16(ArrowFormat.typeInt, 2, false),
+        int32(ArrowFormat.typeInt, 4, true),
+        uint32(ArrowFormat.typeInt, 4, false),
+        int64(ArrowFormat.typeInt, 8, true),
+        float64(ArrowFormat.typeFloatingPoint, 8, true),
+        date(ArrowFormat.typeDate, 4, true),
+        utf8(ArrowFormat.typeUtf8, 0, false);
+
+        private final int typeId;
+        private final int byteWidth;
+        private final boolean signed;
+
+        ArrowType(int typeId, int byteWidth, boolean signed) {
+            this.typeId = typeId;
+            this.byteWidth = byteWidth;
+            this.signed = signed;
+        }
+
+        public static ArrowType of(Column column) {
+            switch (column.getType()) {
+            case integer:
+                switch (column.getStorageType()) {
+                case int8:
+                    return int8;
+                case uint8:
+                    return uint8;
+                case int16:
+                    return int16;
+                case uint16:
+                    return uint16;
+                case int32:
+                    return int32;
+                case uint32:
+                    return uint32;
+                default:
+                    return int64;
+                }
+            case floating:
+                return float64;
+            case date:
+                return date;
+            default:
+                return utf8;
+            }
+        }
+
+        public FlatBufferBuilder.TableNode createTypeNode() {
+            FlatBufferBuilder.TableNode node = new FlatBufferBuilder.TableNode();
+            switch (typeId) {
+            case ArrowFormat.typeInt:
+                node.addInt(ArrowFormat.intBitWidth, byteWidth * 8).addBoolean(ArrowFormat.intIsSigned, signed);
+                break;
+            case ArrowFormat.typeFloatingPoint:
+                node.addShort(ArrowFormat.floatingPointPrecision, ArrowFormat.precisionDouble);
+                break;
+            case ArrowFormat.typeDate:
+                node.addShort(ArrowFormat.dateUnit, ArrowFormat.dateUnitDay);
+                break;
+            }
+            return node;
+        }
+
+        /**
+         * Put a value to the values buffer of a fixed-width column (the value for a null row is zero).
+         *
+         * @param   values          the values buffer
+         * @param   row             the {@link Row}
+         * @param   columnNumber    the column number
+         * @throws  IOException if thrown by the column input
+         */
+        public void put(ByteBuffer values, Row row, int columnNumber) throws IOException {
+            boolean isNull = row.isNull(columnNumber);
+            if (this == float64) {
+                values.putDouble(isNull ? 0.0 : row.getNumber(columnNumber).doubleValue());
+                return;
+            }
+            long value = isNull ? 0 : row.getLong(columnNumber);
+            switch (byteWidth) {
+            case 1:
+                values.put((byte)value);
+                break;
+            case 2:
+                values.putShort((short)value);
+                break;
+            case 4:
+                values.putInt((int)value);
+                break;
+            default:
+                values.putLong(value);
+                break;
+            }
+        }
+
+    }
+
+}
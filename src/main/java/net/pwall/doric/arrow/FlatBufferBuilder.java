@@ -0,0 +1,289 @@
+/*
+ * @(#) FlatBufferBuilder.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.arrow;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A minimal FlatBuffers serializer, sufficient for the Arrow IPC metadata (tables, strings, vectors of tables and
+ * vectors of structs).  The objects are first assembled as a tree of nodes, and the tree is then serialized from the
+ * front of the buffer to the back: each object is written before the objects it refers to, so that every
+ * {@code uoffset} points forward, as the format requires, and the vtable of each table immediately precedes the table.
+ * Scalars are aligned to their size and vectors of structs to 8 bytes, so that the result passes the alignment checks
+ * of FlatBuffers verifiers.  Vtables are not shared between tables; the metadata is small, and the simplicity is
+ * worth more than the few bytes saved.
+ *
+ * @author  Peter Wall
+ */
+class FlatBufferBuilder {
+
+    private ByteBuffer buffer;
+
+    /**
+     * Serialize a tree of nodes with the nominated root table.
+     *
+     * @param   root    the root table
+     * @return          the serialized bytes
+     */
+    public byte[] finish(TableNode root) {
+        buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(4);
+        int rootPosition = write(root);
+        buffer.putInt(0, rootPosition);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private int write(Node node) {
+        if (node instanceof TableNode)
+            return writeTable((TableNode)node);
+        if (node instanceof StringNode)
+            return writeString((StringNode)node);
+        if (node instanceof TableVectorNode)
+            return writeTableVector((TableVectorNode)node);
+        return writeStructVector((StructVectorNode)node);
+    }
+
+    private int writeTable(TableNode table) {
+        List<FieldEntry> fields = new ArrayList<>(table.fields);
+        fields.sort(Comparator.comparingInt((FieldEntry f) -> f.size).reversed());
+        int numSlots = 0;
+        for (FieldEntry field : fields)
+            numSlots = Math.max(numSlots, field.slot + 1);
+        // lay out the table: the soffset to the vtable, followed by the fields in descending order of size
+        int tableSize = 4;
+        for (FieldEntry field : fields) {
+            tableSize = align(tableSize, field.size);
+            field.offset = tableSize;
+            tableSize += field.size;
+        }
+        // the vtable immediately precedes the table, which is aligned to 8 so that all fields are naturally aligned
+        int vtableSize = 4 + numSlots * 2;
+        int vtablePosition = align(buffer.position(), 2);
+        int tablePosition = align(vtablePosition + vtableSize, 8);
+        vtablePosition = tablePosition - vtableSize; // move the vtable up against the table (still 2-aligned)
+        reserve(tablePosition + tableSize - buffer.position());
+        buffer.putShort(vtablePosition, (short)vtableSize);
+        buffer.putShort(vtablePosition + 2, (short)tableSize);
+        for (FieldEntry field : fields)
+            buffer.putShort(vtablePosition + 4 + field.slot * 2, (short)field.offset);
+        buffer.putInt(tablePosition, tablePosition - vtablePosition);
+        for (FieldEntry field : fields) {
+            int position = tablePosition + field.offset;
+            switch (field.size) {
+            case 1:
+                buffer.put(position, (byte)field.value);
+                break;
+            case 2:
+                buffer.putShort(position, (short)field.value);
+                break;
+            case 4:
+                if (field.node == null)
+                    buffer.putInt(position, (int)field.value);
+                break;
+            default:
+                buffer.putLong(position, field.value);
+                break;
+            }
+        }
+        buffer.position(tablePosition + tableSize);
+        for (FieldEntry field : fields) {
+            if (field.node != null) {
+                int position = tablePosition + field.offset;
+                int target = write(field.node); // before the buffer is referenced, because the write may replace it
+                buffer.putInt(position, target - position);
+            }
+        }
+        return tablePosition;
+    }
+
+    private int writeString(StringNode string) {
+        byte[] bytes = string.value.getBytes(StandardCharsets.UTF_8);
+        int position = align(buffer.position(), 4);
+        reserve(position + 4 + bytes.length + 1 - buffer.position());
+        buffer.putInt(position, bytes.length);
+        buffer.position(position + 4);
+        buffer.put(bytes);
+        buffer.put((byte)0);
+        return position;
+    }
+
+    private int writeTableVector(TableVectorNode vector) {
+        int n = vector.tables.size();
+        int position = align(buffer.position(), 4);
+        reserve(position + 4 + n * 4 - buffer.position());
+        buffer.putInt(position, n);
+        buffer.position(position + 4 + n * 4);
+        for (int i = 0; i < n; i++) {
+            int elementPosition = position + 4 + i * 4;
+            int target = write(vector.tables.get(i));
+            buffer.putInt(elementPosition, target - elementPosition);
+        }
+        return position;
+    }
+
+    private int writeStructVector(StructVectorNode vector) {
+        // the elements (which follow the 4-byte length) must be aligned to 8
+        int position = align(buffer.position() + 4, 8) - 4;
+        reserve(position + 4 + vector.data.length - buffer.position());
+        buffer.putInt(position, vector.count);
+        buffer.position(position + 4);
+        buffer.put(vector.data);
+        return position;
+    }
+
+    /**
+     * Ensure that the buffer has room for a number of bytes beyond the current position (the gap between the current
+     * position and any new object is zero-filled, because the buffer is only ever extended with new zeroed storage).
+     *
+     * @param   n       the number of bytes
+     */
+    private void reserve(int n) {
+        int required = buffer.position() + Math.max(n, 0);
+        if (required > buffer.capacity()) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, required)).
+                    order(ByteOrder.LITTLE_ENDIAN);
+            int position = buffer.position();
+            buffer.flip();
+            newBuffer.put(buffer);
+            newBuffer.position(position);
+            buffer = newBuffer;
+        }
+        buffer.limit(buffer.capacity());
+    }
+
+    private static int align(int position, int alignment) {
+        return (position + alignment - 1) & -alignment;
+    }
+
+    /**
+     * Base class for the nodes of the tree.
+     */
+    abstract static class Node {
+    }
+
+    /**
+     * A table.  Fields are identified by slot number (the index of the field in the schema); fields left at their
+     * default values may simply be omitted.
+     */
+    static class TableNode extends Node {
+
+        private List<FieldEntry> fields = new ArrayList<>();
+
+        public TableNode addByte(int slot, int value) {
+            fields.add(new FieldEntry(slot, 1, value, null));
+            return this;
+        }
+
+        public TableNode addBoolean(int slot, boolean value) {
+            return addByte(slot, value ? 1 : 0);
+        }
+
+        public TableNode addShort(int slot, int value) {
+            fields.add(new FieldEntry(slot, 2, value, null));
+            return this;
+        }
+
+        public TableNode addInt(int slot, int value) {
+            fields.add(new FieldEntry(slot, 4, value, null));
+            return this;
+        }
+
+        public TableNode addLong(int slot, long value) {
+            fields.add(new FieldEntry(slot, 8, value, null));
+            return this;
+        }
+
+        public TableNode addNode(int slot, Node node) {
+            fields.add(new FieldEntry(slot, 4, 0, node));
+            return this;
+        }
+
+        public TableNode addString(int slot, String value) {
+            return addNode(slot, new StringNode(value));
+        }
+
+    }
+
+    static class StringNode extends Node {
+
+        private String value;
+
+        public StringNode(String value) {
+            this.value = value;
+        }
+
+    }
+
+    static class TableVectorNode extends Node {
+
+        private List<TableNode> tables;
+
+        public TableVectorNode(List<TableNode> tables) {
+            this.tables = tables;
+        }
+
+    }
+
+    /**
+     * A vector of structs, supplied as the little-endian bytes of the structs.  All the structs used by Arrow have
+     * 8-byte alignment.
+     */
+    static class StructVectorNode extends Node {
+
+        private byte[] data;
+        private int count;
+
+        public StructVectorNode(byte[] data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+
+    }
+
+    private static class FieldEntry {
+
+        private int slot;
+        private int size;
+        private long value;
+        private Node node;
+        private int offset;
+
+        public FieldEntry(int slot, int size, long value, Node node) {
+            this.slot = slot;
+            this.size = size;
+            this.value = value;
+            this.node = node;
+        }
+
+    }
+
+}
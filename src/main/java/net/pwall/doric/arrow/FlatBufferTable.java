@@ -0,0 +1,153 @@
+/*
+ * @(#) FlatBufferTable.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.arrow;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Accessor for a table within a FlatBuffers buffer (the buffer must be set to little-endian byte order).  Fields are
+ * identified by slot number, and a field that is absent from the table returns the default value supplied by the
+ * caller.
+ *
+ * @author  Peter Wall
+ */
+class FlatBufferTable {
+
+    private ByteBuffer buffer;
+    private int position;
+    private int vtable;
+    private int vtableSize;
+
+    public FlatBufferTable(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+        vtable = position - buffer.getInt(position);
+        vtableSize = buffer.getShort(vtable) & 0xFFFF;
+    }
+
+    /**
+     * Get the root table of a FlatBuffers buffer.
+     *
+     * @param   buffer  the buffer
+     * @param   start   the offset of the start of the FlatBuffers data within the buffer
+     * @return          the root table
+     */
+    public static FlatBufferTable getRoot(ByteBuffer buffer, int start) {
+        return new FlatBufferTable(buffer, start + buffer.getInt(start));
+    }
+
+    private int fieldOffset(int slot) {
+        int vtableOffset = 4 + slot * 2;
+        return vtableOffset < vtableSize ? buffer.getShort(vtable + vtableOffset) & 0xFFFF : 0;
+    }
+
+    public boolean hasField(int slot) {
+        return fieldOffset(slot) != 0;
+    }
+
+    public int getByte(int slot, int defaultValue) {
+        int offset = fieldOffset(slot);
+        return offset == 0 ? defaultValue : buffer.get(position + offset) & 0xFF;
+    }
+
+    public boolean getBoolean(int slot, boolean defaultValue) {
+        int offset = fieldOffset(slot);
+        return offset == 0 ? defaultValue : buffer.get(position + offset) != 0;
+    }
+
+    public int getShort(int slot, int defaultValue) {
+        int offset = fieldOffset(slot);
+        return offset == 0 ? defaultValue : buffer.getShort(position + offset);
+    }
+
+    public int getInt(int slot, int defaultValue) {
+        int offset = fieldOffset(slot);
+        return offset == 0 ? defaultValue : buffer.getInt(position + offset);
+    }
+
+    public long getLong(int slot, long defaultValue) {
+        int offset = fieldOffset(slot);
+        return offset == 0 ? defaultValue : buffer.getLong(position + offset);
+    }
+
+    private int indirect(int slot) {
+        int offset = fieldOffset(slot);
+        if (offset == 0)
+            return -1;
+        int fieldPosition = position + offset;
+        return fieldPosition + buffer.getInt(fieldPosition);
+    }
+
+    public FlatBufferTable getTable(int slot) {
+        int target = indirect(slot);
+        return target < 0 ? null : new FlatBufferTable(buffer, target);
+    }
+
+    public String getString(int slot) {
+        int target = indirect(slot);
+        if (target < 0)
+            return null;
+        byte[] bytes = new byte[buffer.getInt(target)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(target + 4 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getVectorLength(int slot) {
+        int target = indirect(slot);
+        return target < 0 ? 0 : buffer.getInt(target);
+    }
+
+    /**
+     * Get an entry from a vector of tables.
+     *
+     * @param   slot    the slot number of the vector
+     * @param   index   the index within the vector
+     * @return          the table
+     */
+    public FlatBufferTable getVectorTable(int slot, int index) {
+        int elementPosition = indirect(slot) + 4 + index * 4;
+        return new FlatBufferTable(buffer, elementPosition + buffer.getInt(elementPosition));
+    }
+
+    /**
+     * Get the position within the buffer of an entry in a vector of structs.
+     *
+     * @param   slot        the slot number of the vector
+     * @param   index       the index within the vector
+     * @param   structSize  the size of the struct
+     * @return              the position of the struct
+     */
+    public int getVectorStruct(int slot, int index, int structSize) {
+        return indirect(slot) + 4 + index * structSize;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+}
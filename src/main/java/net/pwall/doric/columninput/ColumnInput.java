@@ -28,6 +28,7 @@ package net.pwall.doric.columninput;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.time.LocalDate;
 
 import net.pwall.doric.Column;
 
@@ -38,13 +39,13 @@ import net.pwall.doric.Column;
  */
 public interface ColumnInput extends AutoCloseable {
 
-    boolean isNull(int rowNumber) throws IOException;
+    boolean isNull(long rowNumber) throws IOException;
 
-    Number getNumber(int rowNumber) throws IOException;
+    Number getNumber(long rowNumber) throws IOException;
 
-    long getLong(int rowNumber) throws IOException;
+    long getLong(long rowNumber) throws IOException;
 
-    String getString(int rowNumber) throws IOException;
+    String getString(long rowNumber) throws IOException;
 
     /**
      * Append the value to an {@link Appendable} (e.g. {@link StringBuilder}, {@link PrintWriter}.  This is a default
@@ -53,17 +54,21 @@ public interface ColumnInput extends AutoCloseable {
      *
      * @param   a           the {@link Appendable}
      * @param   rowNumber   the row number
-     * @throws  IOException if thrown by the {@link Appendable} or by {@link #getString(int)}
+     * @throws  IOException if thrown by the {@link Appendable} or by {@link #getString(long)}
      */
-    default void appendString(Appendable a, int rowNumber) throws IOException {
+    default void appendString(Appendable a, long rowNumber) throws IOException {
         a.append(getString(rowNumber));
     }
 
     static ColumnInput getExtendedColumnInputObject(File file, Column column) throws IOException {
-        // the only extension so far is date (and decimal shift)
+        // the only extension so far is date (and decimal shift); a constant float is held as a double, so it needs no
+        // decimal shift
+        Column.StorageType storageType = column.getStorageType();
+        if (storageType == Column.StorageType.none)
+            return getColumnInputObject(file, column);
         if (column.getType() == Column.Type.date)
             return new ColumnInputDate(getColumnInputObject(file, column));
-        if (column.getDecimalShift() != 0)
+        if (column.getDecimalShift() != 0 && storageType != Column.StorageType.constant)
             return new ColumnInputDecimalShift(getColumnInputObject(file, column), column.getDecimalShift());
         return getColumnInputObject(file, column);
     }
@@ -78,31 +83,32 @@ public interface ColumnInput extends AutoCloseable {
      * @throws  IOException if thrown by the file open functions
      */
     static ColumnInput getColumnInputObject(File file, Column column) throws IOException {
-        // TODO allow nullable columns
         Column.StorageType storageType = column.getStorageType();
         if (storageType == Column.StorageType.none)
             return new ColumnInputNone();
         if (storageType == Column.StorageType.constant) {
             if (column.getType() == Column.Type.integer)
                 return new ColumnInputConstantInt(column.getConstantValueInt());
+            if (column.getType() == Column.Type.date) // the epoch day, to be converted by ColumnInputDate
+                return new ColumnInputConstantInt(LocalDate.parse(column.getConstantValue()).toEpochDay());
             if (column.getType() == Column.Type.floating)
                 return new ColumnInputConstantFloat(column.getConstantValueFloat());
             return new ColumnInputConstantString(column.getConstantValue());
         }
         if (storageType == Column.StorageType.int8)
-            return new ColumnInputInt8(file, column.getFileData());
+            return nullable(column, new ColumnInputInt8(file, column.getFileData()));
         if (storageType == Column.StorageType.uint8)
-            return new ColumnInputUint8(file, column.getFileData());
+            return nullable(column, new ColumnInputUint8(file, column.getFileData()));
         if (storageType == Column.StorageType.int16)
-            return new ColumnInputInt16(file, column.getFileData());
+            return nullable(column, new ColumnInputInt16(file, column.getFileData()));
         if (storageType == Column.StorageType.uint16)
-            return new ColumnInputUint16(file, column.getFileData());
+            return nullable(column, new ColumnInputUint16(file, column.getFileData()));
         if (storageType == Column.StorageType.int32)
-            return new ColumnInputInt32(file, column.getFileData());
+            return nullable(column, new ColumnInputInt32(file, column.getFileData()));
         if (storageType == Column.StorageType.uint32)
-            return new ColumnInputUint32(file, column.getFileData());
+            return nullable(column, new ColumnInputUint32(file, column.getFileData()));
         if (storageType == Column.StorageType.int64)
-            return new ColumnInputInt64(file, column.getFileData());
+            return nullable(column, new ColumnInputInt64(file, column.getFileData()));
         if (storageType == Column.StorageType.float64)
             return new ColumnInputFloat64(file, column.getFileData());
         if (storageType == Column.StorageType.bytes) {
@@ -127,4 +133,16 @@ public interface ColumnInput extends AutoCloseable {
         throw new IllegalStateException("Can't handle storage type " + storageType);
     }
 
+    /**
+     * Wrap an integer {@code ColumnInput} in a {@link ColumnInputNullable} if the column is nullable.  This must match
+     * the equivalent function for output columns.
+     *
+     * @param   column      the {@link Column}
+     * @param   columnInput the integer {@code ColumnInput}
+     * @return              the {@code ColumnInput}, wrapped if necessary
+     */
+    static ColumnInput nullable(Column column, ColumnInput columnInput) {
+        return column.isNullable() ? new ColumnInputNullable(columnInput) : columnInput;
+    }
+
 }
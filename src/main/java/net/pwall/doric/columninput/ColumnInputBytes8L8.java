@@ -47,28 +47,36 @@ class ColumnInputBytes8L8 implements ColumnInput {
     }
 
     @Override
-    public boolean isNull(int rowNumber) {
+    public boolean isNull(long rowNumber) {
         return false;
     }
 
     @Override
-    public Number getNumber(int rowNumber) {
+    public Number getNumber(long rowNumber) {
         throw new IllegalStateException("Column can not return <Number>");
     }
 
     @Override
-    public long getLong(int rowNumber) {
+    public long getLong(long rowNumber) {
         throw new IllegalStateException("Column can not return <long>");
     }
 
     @Override
-    public String getString(int rowNumber) throws IOException {
+    public String getString(long rowNumber) throws IOException {
         long offset = rowNumber * (1 + 1); // offset length + length length
         long dataOffset = columnReader.readInt8(offset) & 0xFF;
         int dataLength = columnReader.readInt8(offset + 1) & 0xFF;
         return dataReader.readBytes(dataOffset, dataLength);
     }
 
+    @Override
+    public void appendString(Appendable a, long rowNumber) throws IOException {
+        long offset = rowNumber * (1 + 1); // offset length + length length
+        long dataOffset = columnReader.readInt8(offset) & 0xFF;
+        int dataLength = columnReader.readInt8(offset + 1) & 0xFF;
+        dataReader.appendBytes(a, dataOffset, dataLength);
+    }
+
     @Override
     public void close() throws Exception {
         columnReader.close();
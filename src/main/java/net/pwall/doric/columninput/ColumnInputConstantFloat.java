@@ -30,29 +30,36 @@ import java.io.IOException;
 class ColumnInputConstantFloat implements ColumnInput {
 
     private double value;
+    private String string;
 
     public ColumnInputConstantFloat(double value) {
         this.value = value;
+        string = String.valueOf(value);
     }
 
     @Override
-    public boolean isNull(int rowNumber) {
+    public boolean isNull(long rowNumber) {
         return false;
     }
 
     @Override
-    public Number getNumber(int rowNumber) {
+    public Number getNumber(long rowNumber) {
         return value;
     }
 
     @Override
-    public long getLong(int rowNumber) {
+    public long getLong(long rowNumber) {
         throw new IllegalStateException("Column can not return <long>");
     }
 
     @Override
-    public String getString(int rowNumber) throws IOException {
-        return String.valueOf(value);
+    public String getString(long rowNumber) throws IOException {
+        return string;
+    }
+
+    @Override
+    public void appendString(Appendable a, long rowNumber) throws IOException {
+        a.append(string);
     }
 
     @Override
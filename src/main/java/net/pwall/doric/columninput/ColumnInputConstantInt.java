@@ -38,29 +38,29 @@ class ColumnInputConstantInt implements ColumnInput {
     }
 
     @Override
-    public boolean isNull(int rowNumber) {
+    public boolean isNull(long rowNumber) {
         return false;
     }
 
     @Override
-    public Number getNumber(int rowNumber) {
+    public Number getNumber(long rowNumber) {
         return value;
     }
 
     @Override
-    public long getLong(int rowNumber) {
+    public long getLong(long rowNumber) {
         return value;
     }
 
     @Override
-    public String getString(int rowNumber) throws IOException {
+    public String getString(long rowNumber) throws IOException {
         StringBuilder sb = new StringBuilder();
         Strings.appendLong(sb, value);
         return sb.toString();
     }
 
     @Override
-    public void appendString(Appendable a, int rowNumber) throws IOException {
+    public void appendString(Appendable a, long rowNumber) throws IOException {
         Strings.appendLong(a, value);
     }
 
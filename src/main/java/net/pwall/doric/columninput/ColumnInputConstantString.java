@@ -25,6 +25,8 @@
 
 package net.pwall.doric.columninput;
 
+import java.io.IOException;
+
 class ColumnInputConstantString implements ColumnInput {
 
     private String value;
@@ -34,25 +36,30 @@ class ColumnInputConstantString implements ColumnInput {
     }
 
     @Override
-    public boolean isNull(int rowNumber) {
+    public boolean isNull(long rowNumber) {
         return false;
     }
 
     @Override
-    public Number getNumber(int rowNumber) {
+    public Number getNumber(long rowNumber) {
         throw new IllegalStateException("Column can not return <Number>");
     }
 
     @Override
-    public long getLong(int rowNumber) {
+    public long getLong(long rowNumber) {
         throw new IllegalStateException("Column can not return <long>");
     }
 
     @Override
-    public String getString(int rowNumber) {
+    public String getString(long rowNumber) {
         return value;
     }
 
+    @Override
+    public void appendString(Appendable a, long rowNumber) throws IOException {
+        a.append(value);
+    }
+
     @Override
     public void close() {
     }
@@ -28,6 +28,8 @@ package net.pwall.doric.columninput;
 import java.io.IOException;
 import java.time.LocalDate;
 
+import net.pwall.util.Strings;
+
 class ColumnInputDate implements ColumnInput {
 
     private ColumnInput intColumnInput;
@@ -37,25 +39,44 @@ class ColumnInputDate implements ColumnInput {
     }
 
     @Override
-    public boolean isNull(int rowNumber) throws IOException {
+    public boolean isNull(long rowNumber) throws IOException {
         return intColumnInput.isNull(rowNumber);
     }
 
     @Override
-    public Number getNumber(int rowNumber) {
+    public Number getNumber(long rowNumber) {
         throw new IllegalStateException("Column can not return <Number>");
     }
 
     @Override
-    public long getLong(int rowNumber) {
-        throw new IllegalStateException("Column can not return <long>");
+    public long getLong(long rowNumber) throws IOException {
+        return intColumnInput.getLong(rowNumber); // epoch day
     }
 
     @Override
-    public String getString(int rowNumber) throws IOException {
+    public String getString(long rowNumber) throws IOException {
+        if (intColumnInput.isNull(rowNumber))
+            return "";
         return LocalDate.ofEpochDay(intColumnInput.getLong(rowNumber)).toString();
     }
 
+    @Override
+    public void appendString(Appendable a, long rowNumber) throws IOException {
+        if (intColumnInput.isNull(rowNumber))
+            return;
+        LocalDate date = LocalDate.ofEpochDay(intColumnInput.getLong(rowNumber));
+        int year = date.getYear();
+        if (year < 1000 || year > 9999) {
+            a.append(date.toString());
+            return;
+        }
+        Strings.appendPositiveInt(a, year);
+        a.append('-');
+        Strings.append2Digits(a, date.getMonthValue());
+        a.append('-');
+        Strings.append2Digits(a, date.getDayOfMonth());
+    }
+
     @Override
     public void close() throws Exception {
         intColumnInput.close();
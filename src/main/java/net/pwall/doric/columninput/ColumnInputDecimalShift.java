@@ -31,7 +31,7 @@ import net.pwall.util.Strings;
 
 class ColumnInputDecimalShift implements ColumnInput {
 
-    private static final double[] shift = { 1.0, 0.1, 0.01, 0.001, 0.0001 };
+    private static final long[] divisors = { 1, 10, 100, 1000, 10000 };
 
     private ColumnInput intColumnInput;
     private int decimalShift;
@@ -44,36 +44,49 @@ class ColumnInputDecimalShift implements ColumnInput {
     }
 
     @Override
-    public boolean isNull(int rowNumber) throws IOException {
+    public boolean isNull(long rowNumber) throws IOException {
         return intColumnInput.isNull(rowNumber);
     }
 
     @Override
-    public Number getNumber(int rowNumber) throws IOException {
-        return (double)intColumnInput.getLong(rowNumber) * shift[decimalShift];
+    public Number getNumber(long rowNumber) throws IOException {
+        if (intColumnInput.isNull(rowNumber))
+            return null;
+        return (double)intColumnInput.getLong(rowNumber) / divisors[decimalShift];
     }
 
     @Override
-    public long getLong(int rowNumber) {
+    public long getLong(long rowNumber) {
         throw new IllegalStateException("Column can not return <long>");
     }
 
     @Override
-    public String getString(int rowNumber) throws IOException {
+    public String getString(long rowNumber) throws IOException {
+        if (intColumnInput.isNull(rowNumber))
+            return "";
         StringBuilder sb = new StringBuilder();
-        Strings.appendLong(sb, intColumnInput.getLong(rowNumber));
-        if (sb.charAt(0) == '-') {
-            while (sb.length() < decimalShift + 2)
-                sb.insert(1, '0');
-        }
-        else {
-            while (sb.length() < decimalShift + 1)
-                sb.insert(0, '0');
-        }
-        sb.insert(sb.length() - decimalShift, '.');
+        appendString(sb, rowNumber);
         return sb.toString();
     }
 
+    @Override
+    public void appendString(Appendable a, long rowNumber) throws IOException {
+        if (intColumnInput.isNull(rowNumber))
+            return;
+        long value = intColumnInput.getLong(rowNumber);
+        if (value < 0) {
+            a.append('-');
+            value = -value;
+        }
+        long divisor = divisors[decimalShift];
+        Strings.appendPositiveLong(a, value / divisor);
+        a.append('.');
+        long fraction = value % divisor;
+        for (long d = divisor / 10; d > fraction && d > 1; d /= 10)
+            a.append('0');
+        Strings.appendPositiveLong(a, fraction);
+    }
+
     @Override
     public void close() throws Exception {
         intColumnInput.close();
@@ -43,23 +43,32 @@ class ColumnInputFloat64 implements ColumnInput {
     }
 
     @Override
-    public boolean isNull(int rowNumber) {
-        return false;
+    public boolean isNull(long rowNumber) throws IOException {
+        return Double.isNaN(columnReader.readFloat64(rowNumber << 3));
     }
 
     @Override
-    public Number getNumber(int rowNumber) throws IOException {
-        return columnReader.readInt64(rowNumber << 3);
+    public Number getNumber(long rowNumber) throws IOException {
+        double value = columnReader.readFloat64(rowNumber << 3);
+        return Double.isNaN(value) ? null : value;
     }
 
     @Override
-    public long getLong(int rowNumber) {
+    public long getLong(long rowNumber) {
         throw new IllegalStateException("Column can not return <long>");
     }
 
     @Override
-    public String getString(int rowNumber) throws IOException {
-        return String.valueOf(columnReader.readFloat64(rowNumber << 3));
+    public String getString(long rowNumber) throws IOException {
+        double value = columnReader.readFloat64(rowNumber << 3);
+        return Double.isNaN(value) ? "" : String.valueOf(value);
+    }
+
+    @Override
+    public void appendString(Appendable a, long rowNumber) throws IOException {
+        double value = columnReader.readFloat64(rowNumber << 3);
+        if (!Double.isNaN(value))
+            a.append(String.valueOf(value));
     }
 
     @Override
@@ -44,29 +44,29 @@ class ColumnInputInt32 implements ColumnInput {
     }
 
     @Override
-    public boolean isNull(int rowNumber) {
+    public boolean isNull(long rowNumber) {
         return false;
     }
 
     @Override
-    public Number getNumber(int rowNumber) throws IOException {
+    public Number getNumber(long rowNumber) throws IOException {
         return columnReader.readInt32(rowNumber << 2);
     }
 
     @Override
-    public long getLong(int rowNumber) throws IOException {
+    public long getLong(long rowNumber) throws IOException {
         return columnReader.readInt32(rowNumber << 2);
     }
 
     @Override
-    public String getString(int rowNumber) throws IOException {
+    public String getString(long rowNumber) throws IOException {
         StringBuilder sb = new StringBuilder(11);
         appendString(sb, rowNumber);
         return sb.toString();
     }
 
     @Override
-    public void appendString(Appendable a, int rowNumber) throws IOException {
+    public void appendString(Appendable a, long rowNumber) throws IOException {
         Strings.appendInt(a, columnReader.readInt32(rowNumber << 2));
     }
 
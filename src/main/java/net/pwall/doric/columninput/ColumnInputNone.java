@@ -28,25 +28,29 @@ package net.pwall.doric.columninput;
 class ColumnInputNone implements ColumnInput {
 
     @Override
-    public boolean isNull(int rowNumber) {
+    public boolean isNull(long rowNumber) {
         return false;
     }
 
     @Override
-    public Number getNumber(int rowNumber) {
+    public Number getNumber(long rowNumber) {
         throw new IllegalStateException("Column can not return <Number>");
     }
 
     @Override
-    public long getLong(int rowNumber) {
+    public long getLong(long rowNumber) {
         throw new IllegalStateException("Column can not return <long>");
     }
 
     @Override
-    public String getString(int rowNumber) {
+    public String getString(long rowNumber) {
         return "";
     }
 
+    @Override
+    public void appendString(Appendable a, long rowNumber) {
+    }
+
     @Override
     public void close() {
     }
@@ -0,0 +1,88 @@
+/*
+ * @(#) ColumnInputNullable.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.columninput;
+
+import java.io.IOException;
+
+import net.pwall.util.Strings;
+
+/**
+ * Wrapper for the integer {@link ColumnInput} of a nullable column, reversing the mapping applied by
+ * {@code ColumnOutputNullable}: values are stored shifted left by one bit, and null is stored as 1.
+ *
+ * @author  Peter Wall
+ */
+class ColumnInputNullable implements ColumnInput {
+
+    private ColumnInput intColumnInput;
+
+    public ColumnInputNullable(ColumnInput intColumnInput) {
+        this.intColumnInput = intColumnInput;
+    }
+
+    @Override
+    public boolean isNull(long rowNumber) throws IOException {
+        return (intColumnInput.getLong(rowNumber) & 1) != 0;
+    }
+
+    @Override
+    public Number getNumber(long rowNumber) throws IOException {
+        long value = intColumnInput.getLong(rowNumber);
+        return (value & 1) != 0 ? null : value >> 1;
+    }
+
+    /**
+     * Get the value as a {@code long}.  A null value is returned as zero; the caller must use {@link #isNull(long)} to
+     * distinguish null from zero.
+     *
+     * @param   rowNumber   the row number
+     * @return              the value
+     * @throws  IOException if thrown reading the column
+     */
+    @Override
+    public long getLong(long rowNumber) throws IOException {
+        return intColumnInput.getLong(rowNumber) >> 1;
+    }
+
+    @Override
+    public String getString(long rowNumber) throws IOException {
+        long value = intColumnInput.getLong(rowNumber);
+        return (value & 1) != 0 ? "" : String.valueOf(value >> 1);
+    }
+
+    @Override
+    public void appendString(Appendable a, long rowNumber) throws IOException {
+        long value = intColumnInput.getLong(rowNumber);
+        if ((value & 1) == 0)
+            Strings.appendLong(a, value >> 1);
+    }
+
+    @Override
+    public void close() throws Exception {
+        intColumnInput.close();
+    }
+
+}
@@ -44,30 +44,30 @@ class ColumnInputUint32 implements ColumnInput {
     }
 
     @Override
-    public boolean isNull(int rowNumber) {
+    public boolean isNull(long rowNumber) {
         return false;
     }
 
     @Override
-    public Number getNumber(int rowNumber) throws IOException {
-        return (long)columnReader.readInt32(rowNumber) & 0xFFFFFFFFL;
+    public Number getNumber(long rowNumber) throws IOException {
+        return (long)columnReader.readInt32(rowNumber << 2) & 0xFFFFFFFFL;
     }
 
     @Override
-    public long getLong(int rowNumber) throws IOException {
-        return (long)columnReader.readInt32(rowNumber) & 0xFFFFFFFFL;
+    public long getLong(long rowNumber) throws IOException {
+        return (long)columnReader.readInt32(rowNumber << 2) & 0xFFFFFFFFL;
     }
 
     @Override
-    public String getString(int rowNumber) throws IOException {
+    public String getString(long rowNumber) throws IOException {
         StringBuilder sb = new StringBuilder(10);
         appendString(sb, rowNumber);
         return sb.toString();
     }
 
     @Override
-    public void appendString(Appendable a, int rowNumber) throws IOException {
-        Strings.appendPositiveLong(a, (long)columnReader.readInt32(rowNumber) & 0xFFFFFFFFL);
+    public void appendString(Appendable a, long rowNumber) throws IOException {
+        Strings.appendPositiveLong(a, (long)columnReader.readInt32(rowNumber << 2) & 0xFFFFFFFFL);
     }
 
     @Override
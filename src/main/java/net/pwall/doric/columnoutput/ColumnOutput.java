@@ -40,7 +40,10 @@ public interface ColumnOutput {
     // TODO to be completed
 
     static ColumnOutput getExtendedColumnOutputObject(File file, Column column, int columnNumber) throws IOException {
-        // the only extension so far is date (and decimal shift)
+        // the only extension so far is date (and decimal shift); a constant column has no data to convert
+        Column.StorageType storageType = column.getStorageType();
+        if (storageType == Column.StorageType.none || storageType == Column.StorageType.constant)
+            return getColumnOutputObject(file, column, columnNumber);
         if (column.getType() == Column.Type.date)
             return new ColumnOutputDate(getColumnOutputObject(file, column, columnNumber));
         if (column.getDecimalShift() != 0)
@@ -54,13 +57,13 @@ public interface ColumnOutput {
         if (storageType == Column.StorageType.none || storageType == Column.StorageType.constant)
             return new ColumnOutputNone();
         if (storageType == Column.StorageType.int8 || storageType == Column.StorageType.uint8)
-            return new ColumnOutputInt8(file, columnNumber);
+            return nullable(column, new ColumnOutputInt8(file, columnNumber));
         if (storageType == Column.StorageType.int16 || storageType == Column.StorageType.uint16)
-            return new ColumnOutputInt16(file, columnNumber);
+            return nullable(column, new ColumnOutputInt16(file, columnNumber));
         if (storageType == Column.StorageType.int32 || storageType == Column.StorageType.uint32)
-            return new ColumnOutputInt32(file, columnNumber);
+            return nullable(column, new ColumnOutputInt32(file, columnNumber));
         if (storageType == Column.StorageType.int64)
-            return new ColumnOutputInt64(file, columnNumber);
+            return nullable(column, new ColumnOutputInt64(file, columnNumber));
         if (storageType == Column.StorageType.float64)
             return new ColumnOutputFloat64(file, columnNumber);
         if (storageType == Column.StorageType.bytes) {
@@ -85,6 +88,17 @@ public interface ColumnOutput {
         throw new IllegalStateException("Can't handle storage type " + storageType);
     }
 
+    /**
+     * Wrap an integer {@code ColumnOutput} in a {@link ColumnOutputNullable} if the column is nullable.
+     *
+     * @param   column          the {@link Column}
+     * @param   columnOutput    the integer {@code ColumnOutput}
+     * @return                  the {@code ColumnOutput}, wrapped if necessary
+     */
+    static ColumnOutput nullable(Column column, ColumnOutput columnOutput) {
+        return column.isNullable() ? new ColumnOutputNullable(columnOutput) : columnOutput;
+    }
+
     default void putNull() throws IOException {
         throw new IllegalStateException("Column can not take <null>");
     }
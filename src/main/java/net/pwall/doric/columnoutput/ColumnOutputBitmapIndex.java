@@ -0,0 +1,103 @@
+/*
+ * @(#) ColumnOutputBitmapIndex.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.columnoutput;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.index.BitmapIndex;
+import net.pwall.util.Strings;
+
+/**
+ * A {@link ColumnOutput} that builds a {@link BitmapIndex} for the column as the values are output, delegating the
+ * output itself to another {@link ColumnOutput}.
+ *
+ * @author  Peter Wall
+ */
+public class ColumnOutputBitmapIndex implements ColumnOutput {
+
+    private ColumnOutput columnOutput;
+    private File file;
+    private String filename;
+    private BitmapIndex.Builder builder;
+    private int rowNumber;
+
+    public ColumnOutputBitmapIndex(ColumnOutput columnOutput, File file, Column column, int columnNumber) {
+        this.columnOutput = columnOutput;
+        this.file = file;
+        StringBuilder sb = new StringBuilder(11);
+        Strings.append3Digits(sb, columnNumber);
+        sb.append(".bitmaps");
+        filename = sb.toString();
+        builder = new BitmapIndex.Builder(column.getType());
+        rowNumber = 0;
+    }
+
+    @Override
+    public void putNull() throws IOException {
+        columnOutput.putNull();
+        rowNumber++;
+    }
+
+    @Override
+    public void putLong(long value) throws IOException {
+        columnOutput.putLong(value);
+        builder.add(value, rowNumber++);
+    }
+
+    @Override
+    public void putDouble(double value) throws IOException {
+        columnOutput.putDouble(value);
+        builder.add(value, rowNumber++);
+    }
+
+    @Override
+    public void putNumber(Number value) throws IOException {
+        columnOutput.putNumber(value);
+        if (value instanceof Double || value instanceof Float)
+            builder.add(value.doubleValue(), rowNumber++);
+        else
+            builder.add(value.longValue(), rowNumber++);
+    }
+
+    @Override
+    public void putString(String value) throws IOException {
+        columnOutput.putString(value);
+        builder.add(value, rowNumber++);
+    }
+
+    @Override
+    public Column.FileData summariseAndClose() throws IOException {
+        Column.FileData fileData = columnOutput.summariseAndClose();
+        if (fileData == null)
+            fileData = new Column.FileData();
+        long size = builder.write(new File(file, filename));
+        fileData.setBitmapIndex(new Column.FileDetails(filename, size));
+        return fileData;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * @(#) ColumnOutputBloomFilter.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.columnoutput;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.index.BloomFilter;
+import net.pwall.util.Strings;
+
+/**
+ * A {@link ColumnOutput} that builds the per-block {@link BloomFilter}s for the column as the values are output,
+ * delegating the output itself to another {@link ColumnOutput}.
+ *
+ * @author  Peter Wall
+ */
+public class ColumnOutputBloomFilter implements ColumnOutput {
+
+    private ColumnOutput columnOutput;
+    private String filename;
+    private BloomFilter.Builder builder;
+
+    public ColumnOutputBloomFilter(ColumnOutput columnOutput, File file, Column column, int columnNumber) {
+        this.columnOutput = columnOutput;
+        StringBuilder sb = new StringBuilder(9);
+        Strings.append3Digits(sb, columnNumber);
+        sb.append(".bloom");
+        filename = sb.toString();
+        builder = new BloomFilter.Builder(column.getType(), new File(file, filename));
+    }
+
+    @Override
+    public void putNull() throws IOException {
+        columnOutput.putNull();
+        builder.addNull();
+    }
+
+    @Override
+    public void putLong(long value) throws IOException {
+        columnOutput.putLong(value);
+        builder.add(value);
+    }
+
+    @Override
+    public void putDouble(double value) throws IOException {
+        columnOutput.putDouble(value);
+        builder.add(value);
+    }
+
+    @Override
+    public void putNumber(Number value) throws IOException {
+        columnOutput.putNumber(value);
+        if (value instanceof Double || value instanceof Float)
+            builder.add(value.doubleValue());
+        else
+            builder.add(value.longValue());
+    }
+
+    @Override
+    public void putString(String value) throws IOException {
+        columnOutput.putString(value);
+        builder.add(value);
+    }
+
+    @Override
+    public Column.FileData summariseAndClose() throws IOException {
+        Column.FileData fileData = columnOutput.summariseAndClose();
+        if (fileData == null)
+            fileData = new Column.FileData();
+        try {
+            long size = builder.finish();
+            fileData.setBloomFilter(new Column.FileDetails(filename, size));
+        }
+        finally {
+            builder.close();
+        }
+        return fileData;
+    }
+
+}
@@ -50,12 +50,18 @@ public class ColumnOutputDate implements ColumnOutput {
 
     @Override
     public void putNumber(Number value) throws IOException {
-        intColumnOutput.putLong(value.longValue());
+        if (value == null)
+            intColumnOutput.putNull();
+        else
+            intColumnOutput.putLong(value.longValue());
     }
 
     @Override
     public void putString(String value) throws IOException {
-        intColumnOutput.putLong(LocalDate.parse(value).toEpochDay());
+        if (value.isEmpty())
+            intColumnOutput.putNull();
+        else
+            intColumnOutput.putLong(LocalDate.parse(value).toEpochDay());
     }
 
     @Override
@@ -61,12 +61,20 @@ public class ColumnOutputDecimalShift implements ColumnOutput {
 
     @Override
     public void putNumber(Number value) throws IOException {
+        if (value == null) {
+            intColumnOutput.putNull();
+            return;
+        }
         long longValue = Math.round(value.doubleValue() * doubleShift[decimalShift]); // round???
         intColumnOutput.putLong(longValue);
     }
 
     @Override
     public void putString(String value) throws IOException {
+        if (value.isEmpty()) {
+            intColumnOutput.putNull();
+            return;
+        }
         try {
             putDouble(Double.valueOf(value));
         }
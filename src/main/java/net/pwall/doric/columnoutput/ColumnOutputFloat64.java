@@ -45,6 +45,11 @@ public class ColumnOutputFloat64 implements ColumnOutput {
         columnWriter = new ColumnWriter(file, filename);
     }
 
+    @Override
+    public void putNull() throws IOException {
+        putDouble(Double.NaN);
+    }
+
     @Override
     public void putLong(long value) throws IOException {
         putDouble(value);
@@ -57,11 +62,15 @@ public class ColumnOutputFloat64 implements ColumnOutput {
 
     @Override
     public void putNumber(Number value) throws IOException {
-        putDouble(value.doubleValue());
+        putDouble(value == null ? Double.NaN : value.doubleValue());
     }
 
     @Override
     public void putString(String value) throws IOException {
+        if (value.isEmpty()) {
+            putNull();
+            return;
+        }
         try {
             putDouble(Double.valueOf(value));
         }
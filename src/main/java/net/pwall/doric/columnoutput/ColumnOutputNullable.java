@@ -0,0 +1,84 @@
+/*
+ * @(#) ColumnOutputNullable.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.columnoutput;
+
+import java.io.IOException;
+
+import net.pwall.doric.Column;
+
+/**
+ * Wrapper for the integer {@link ColumnOutput} of a nullable column.  Values are stored shifted left by one bit, and
+ * null is stored as 1 (the storage type selected by the analysis allows for the extra bit).  Any other wrappers (date,
+ * decimal shift) must be applied outside this one, so that the shift is applied to the value as stored.
+ *
+ * @author  Peter Wall
+ */
+public class ColumnOutputNullable implements ColumnOutput {
+
+    private ColumnOutput intColumnOutput;
+
+    public ColumnOutputNullable(ColumnOutput intColumnOutput) {
+        this.intColumnOutput = intColumnOutput;
+    }
+
+    @Override
+    public void putNull() throws IOException {
+        intColumnOutput.putLong(1);
+    }
+
+    @Override
+    public void putLong(long value) throws IOException {
+        intColumnOutput.putLong(value << 1);
+    }
+
+    @Override
+    public void putNumber(Number value) throws IOException {
+        if (value == null)
+            putNull();
+        else
+            putLong(value.longValue());
+    }
+
+    @Override
+    public void putString(String value) throws IOException {
+        if (value.isEmpty()) {
+            putNull();
+            return;
+        }
+        try {
+            putLong(Long.parseLong(value));
+        }
+        catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Can't convert value to decimal: " + value);
+        }
+    }
+
+    @Override
+    public Column.FileData summariseAndClose() throws IOException {
+        return intColumnOutput.summariseAndClose();
+    }
+
+}
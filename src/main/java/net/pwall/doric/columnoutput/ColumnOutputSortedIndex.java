@@ -0,0 +1,104 @@
+/*
+ * @(#) ColumnOutputSortedIndex.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.columnoutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.index.SortedIndex;
+import net.pwall.util.Strings;
+
+/**
+ * A {@link ColumnOutput} that builds a {@link SortedIndex} for an integer or date column as the values are output,
+ * delegating the output itself to another {@link ColumnOutput}.
+ *
+ * @author  Peter Wall
+ */
+public class ColumnOutputSortedIndex implements ColumnOutput {
+
+    private ColumnOutput columnOutput;
+    private File file;
+    private String filename;
+    private boolean date;
+    private SortedIndex.Builder builder;
+    private int rowNumber;
+
+    public ColumnOutputSortedIndex(ColumnOutput columnOutput, File file, Column column, int columnNumber) {
+        this.columnOutput = columnOutput;
+        this.file = file;
+        StringBuilder sb = new StringBuilder(10);
+        Strings.append3Digits(sb, columnNumber);
+        sb.append(".sorted");
+        filename = sb.toString();
+        date = column.getType() == Column.Type.date;
+        builder = new SortedIndex.Builder(file);
+        rowNumber = 0;
+    }
+
+    @Override
+    public void putNull() throws IOException {
+        columnOutput.putNull();
+        rowNumber++;
+    }
+
+    @Override
+    public void putLong(long value) throws IOException {
+        columnOutput.putLong(value);
+        builder.add(value, rowNumber++);
+    }
+
+    @Override
+    public void putNumber(Number value) throws IOException {
+        columnOutput.putNumber(value);
+        builder.add(value.longValue(), rowNumber++);
+    }
+
+    @Override
+    public void putString(String value) throws IOException {
+        columnOutput.putString(value);
+        if (value.length() > 0)
+            builder.add(date ? LocalDate.parse(value).toEpochDay() : Long.parseLong(value), rowNumber);
+        rowNumber++;
+    }
+
+    @Override
+    public Column.FileData summariseAndClose() throws IOException {
+        Column.FileData fileData = columnOutput.summariseAndClose();
+        if (fileData == null)
+            fileData = new Column.FileData();
+        try {
+            long size = builder.write(new File(file, filename));
+            fileData.setSortedIndex(new Column.FileDetails(filename, size));
+        }
+        finally {
+            builder.close();
+        }
+        return fileData;
+    }
+
+}
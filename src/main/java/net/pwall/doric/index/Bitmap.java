@@ -0,0 +1,658 @@
+/*
+ * @(#) Bitmap.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import net.pwall.doric.RowRange;
+
+/**
+ * A compressed bitmap of row numbers, using a scheme similar to that of Roaring bitmaps.  The row number space is
+ * divided into chunks of 65536 rows keyed by the high 16 bits of the row number; each chunk is held in a container
+ * which is either a sorted array of the low 16 bits (for sparse chunks) or a bitmap of 65536 bits (for dense chunks).
+ *
+ * <p>Row numbers in a bitmap are {@code int} values, so a bitmap (and so any index) can address at most
+ * {@link #maxRows} rows.  The ingest process will not build indexes for a larger table, and a query on a larger table
+ * does not use indexes; such a table should be split into segments or partitions, each of which may be indexed.</p>
+ *
+ * @author  Peter Wall
+ */
+public class Bitmap implements Iterable<Integer> {
+
+    public static final long maxRows = Integer.MAX_VALUE;
+
+    private static final int maxArrayCardinality = 4096;
+    private static final int bitmapWords = 1024;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    public Bitmap() {
+        keys = new char[4];
+        containers = new Container[4];
+        size = 0;
+    }
+
+    /**
+     * Create a {@code Bitmap} containing all the rows in a range.
+     *
+     * @param   start   the first row (inclusive)
+     * @param   end     the last row (exclusive)
+     * @return          the {@code Bitmap}
+     */
+    public static Bitmap ofRange(int start, int end) {
+        Bitmap result = new Bitmap();
+        result.addRange(start, end);
+        return result;
+    }
+
+    /**
+     * Create a {@code Bitmap} containing all the rows in a {@link RowRange}.
+     *
+     * @param   range   the {@link RowRange}
+     * @return          the {@code Bitmap}
+     * @throws  IllegalArgumentException if the range extends beyond {@link #maxRows}
+     */
+    public static Bitmap ofRange(RowRange range) {
+        if (range.getStart() < 0 || range.getEnd() > maxRows)
+            throw new IllegalArgumentException("Row range out of bitmap limits: " + range);
+        return ofRange((int)range.getStart(), (int)range.getEnd());
+    }
+
+    public void add(int value) {
+        char key = (char)(value >>> 16);
+        int index = size > 0 && keys[size - 1] == key ? size - 1 : findContainer(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new ArrayContainer());
+        }
+        containers[index] = containers[index].add((char)value);
+    }
+
+    /**
+     * Add a range of values to the bitmap.
+     *
+     * @param   start   the first value (inclusive)
+     * @param   end     the last value (exclusive)
+     */
+    public void addRange(int start, int end) {
+        if (start < 0 || end < start)
+            throw new IllegalArgumentException("Invalid range: " + start + ".." + end);
+        while (start < end) {
+            char key = (char)(start >>> 16);
+            int chunkEnd = Math.min(end, ((start >>> 16) + 1) << 16);
+            if (chunkEnd <= 0) // overflow on the last chunk
+                chunkEnd = end;
+            int index = findContainer(key);
+            if (index < 0) {
+                index = -index - 1;
+                insertContainer(index, key, new ArrayContainer());
+            }
+            containers[index] = containers[index].addRange(start & 0xFFFF, chunkEnd - (start & ~0xFFFF));
+            start = chunkEnd;
+        }
+    }
+
+    public boolean contains(int value) {
+        int index = findContainer((char)(value >>> 16));
+        return index >= 0 && containers[index].contains((char)value);
+    }
+
+    public int getCardinality() {
+        int result = 0;
+        for (int i = 0; i < size; i++)
+            result += containers[i].getCardinality();
+        return result;
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i < size; i++)
+            if (containers[i].getCardinality() > 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Create a new {@code Bitmap} containing the values present in both this bitmap and another.
+     *
+     * @param   other   the other {@code Bitmap}
+     * @return          the intersection
+     */
+    public Bitmap and(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            char key = keys[i];
+            char otherKey = other.keys[j];
+            if (key < otherKey)
+                i++;
+            else if (key > otherKey)
+                j++;
+            else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.getCardinality() > 0)
+                    result.appendContainer(key, container);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create a new {@code Bitmap} containing the values present in either this bitmap or another.
+     *
+     * @param   other   the other {@code Bitmap}
+     * @return          the union
+     */
+    public Bitmap or(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || i < size && keys[i] < other.keys[j]) {
+                result.appendContainer(keys[i], containers[i].copy());
+                i++;
+            }
+            else if (i >= size || keys[i] > other.keys[j]) {
+                result.appendContainer(other.keys[j], other.containers[j].copy());
+                j++;
+            }
+            else {
+                result.appendContainer(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create a new {@code Bitmap} containing only the values of this bitmap that fall within a {@link RowRange}.  The
+     * containers wholly within the range are copied, and only those at the ends of the range are intersected, so the
+     * cost depends on the size of this bitmap rather than the size of the range.
+     *
+     * @param   range   the {@link RowRange}
+     * @return          the restricted bitmap
+     */
+    public Bitmap and(RowRange range) {
+        long start = Math.max(range.getStart(), 0);
+        long end = Math.min(range.getEnd(), maxRows);
+        Bitmap result = new Bitmap();
+        for (int i = 0; i < size; i++) {
+            long containerStart = (long)keys[i] << 16;
+            long containerEnd = containerStart + 0x10000;
+            if (containerEnd <= start || containerStart >= end)
+                continue;
+            if (containerStart >= start && containerEnd <= end)
+                result.appendContainer(keys[i], containers[i].copy());
+            else {
+                // only the containers at the ends of the range need to be clipped
+                Container clip = new ArrayContainer().addRange((int)(Math.max(start, containerStart) - containerStart),
+                        (int)(Math.min(end, containerEnd) - containerStart));
+                Container container = containers[i].and(clip);
+                if (container.getCardinality() > 0)
+                    result.appendContainer(keys[i], container);
+            }
+        }
+        return result;
+    }
+
+    public int[] toArray() {
+        int[] result = new int[getCardinality()];
+        int offset = 0;
+        for (int i = 0; i < size; i++)
+            offset = containers[i].fill(result, offset, keys[i] << 16);
+        return result;
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new BitmapIterator();
+    }
+
+    public int getSerializedSize() {
+        int result = 4;
+        for (int i = 0; i < size; i++)
+            result += 2 + 1 + 4 + containers[i].getSerializedSize();
+        return result;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            Container container = containers[i];
+            out.writeChar(keys[i]);
+            out.writeByte(container instanceof BitmapContainer ? 1 : 0);
+            out.writeInt(container.getCardinality());
+            container.writeTo(out);
+        }
+    }
+
+    public static Bitmap readFrom(DataInput in) throws IOException {
+        Bitmap result = new Bitmap();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            char key = in.readChar();
+            boolean isBitmap = in.readByte() != 0;
+            int cardinality = in.readInt();
+            result.appendContainer(key, isBitmap ? BitmapContainer.readFrom(in, cardinality) :
+                    ArrayContainer.readFrom(in, cardinality));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof Bitmap))
+            return false;
+        return Arrays.equals(toArray(), ((Bitmap)other).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    private int findContainer(char key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            char midKey = keys[mid];
+            if (midKey == key)
+                return mid;
+            if (midKey < key)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return -lo - 1;
+    }
+
+    private void insertContainer(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void appendContainer(char key, Container container) {
+        insertContainer(size, key, container);
+    }
+
+    private class BitmapIterator implements PrimitiveIterator.OfInt {
+
+        private int containerIndex = 0;
+        private int[] values = new int[0];
+        private int valueIndex = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (valueIndex >= values.length) {
+                if (containerIndex >= size)
+                    return false;
+                Container container = containers[containerIndex];
+                values = new int[container.getCardinality()];
+                container.fill(values, 0, keys[containerIndex] << 16);
+                containerIndex++;
+                valueIndex = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return values[valueIndex++];
+        }
+
+    }
+
+    private abstract static class Container {
+
+        abstract Container add(char value);
+
+        abstract Container addRange(int start, int end);
+
+        abstract boolean contains(char value);
+
+        abstract int getCardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        abstract int fill(int[] dest, int offset, int high);
+
+        abstract int getSerializedSize();
+
+        abstract void writeTo(DataOutput out) throws IOException;
+
+    }
+
+    private static class ArrayContainer extends Container {
+
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index;
+            if (cardinality == 0 || values[cardinality - 1] < value)
+                index = cardinality;
+            else {
+                index = Arrays.binarySearch(values, 0, cardinality, value);
+                if (index >= 0)
+                    return this;
+                index = -index - 1;
+            }
+            if (cardinality >= maxArrayCardinality)
+                return toBitmapContainer().add(value);
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(cardinality * 2, maxArrayCardinality));
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container addRange(int start, int end) {
+            if (cardinality + end - start > maxArrayCardinality)
+                return toBitmapContainer().addRange(start, end);
+            Container result = this;
+            for (int i = start; i < end; i++)
+                result = result.add((char)i);
+            return result;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int getCardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof BitmapContainer)
+                return other.and(this);
+            ArrayContainer otherArray = (ArrayContainer)other;
+            char[] result = new char[Math.min(cardinality, otherArray.cardinality)];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality && j < otherArray.cardinality) {
+                char a = values[i];
+                char b = otherArray.values[j];
+                if (a < b)
+                    i++;
+                else if (a > b)
+                    j++;
+                else {
+                    result[n++] = a;
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer)
+                return other.or(this);
+            ArrayContainer otherArray = (ArrayContainer)other;
+            char[] result = new char[cardinality + otherArray.cardinality];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < otherArray.cardinality) {
+                if (j >= otherArray.cardinality || i < cardinality && values[i] < otherArray.values[j])
+                    result[n++] = values[i++];
+                else if (i >= cardinality || values[i] > otherArray.values[j])
+                    result[n++] = otherArray.values[j++];
+                else {
+                    result[n++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer container = new ArrayContainer(result, n);
+            return n > maxArrayCardinality ? container.toBitmapContainer() : container;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 4)), cardinality);
+        }
+
+        @Override
+        int fill(int[] dest, int offset, int high) {
+            for (int i = 0; i < cardinality; i++)
+                dest[offset++] = high | values[i];
+            return offset;
+        }
+
+        @Override
+        int getSerializedSize() {
+            return cardinality * 2;
+        }
+
+        @Override
+        void writeTo(DataOutput out) throws IOException {
+            for (int i = 0; i < cardinality; i++)
+                out.writeChar(values[i]);
+        }
+
+        static ArrayContainer readFrom(DataInput in, int cardinality) throws IOException {
+            char[] values = new char[Math.max(cardinality, 4)];
+            for (int i = 0; i < cardinality; i++)
+                values[i] = in.readChar();
+            return new ArrayContainer(values, cardinality);
+        }
+
+        private BitmapContainer toBitmapContainer() {
+            BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++)
+                result.add(values[i]);
+            return result;
+        }
+
+    }
+
+    private static class BitmapContainer extends Container {
+
+        private long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[bitmapWords], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = value >>> 6;
+            long mask = 1L << value;
+            if ((words[index] & mask) == 0) {
+                words[index] |= mask;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container addRange(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if ((i & 63) == 0 && i + 64 <= end) {
+                    cardinality += 64 - Long.bitCount(words[i >>> 6]);
+                    words[i >>> 6] = -1L;
+                    i += 63;
+                }
+                else
+                    add((char)i);
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int getCardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                ArrayContainer otherArray = (ArrayContainer)other;
+                char[] result = new char[otherArray.cardinality];
+                int n = 0;
+                for (int i = 0; i < otherArray.cardinality; i++) {
+                    char value = otherArray.values[i];
+                    if (contains(value))
+                        result[n++] = value;
+                }
+                return new ArrayContainer(result, n);
+            }
+            BitmapContainer otherBitmap = (BitmapContainer)other;
+            long[] result = new long[bitmapWords];
+            int n = 0;
+            for (int i = 0; i < bitmapWords; i++) {
+                result[i] = words[i] & otherBitmap.words[i];
+                n += Long.bitCount(result[i]);
+            }
+            BitmapContainer container = new BitmapContainer(result, n);
+            return n <= maxArrayCardinality ? container.toArrayContainer() : container;
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer)copy();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer otherArray = (ArrayContainer)other;
+                for (int i = 0; i < otherArray.cardinality; i++)
+                    result.add(otherArray.values[i]);
+                return result;
+            }
+            BitmapContainer otherBitmap = (BitmapContainer)other;
+            int n = 0;
+            for (int i = 0; i < bitmapWords; i++) {
+                result.words[i] |= otherBitmap.words[i];
+                n += Long.bitCount(result.words[i]);
+            }
+            result.cardinality = n;
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(Arrays.copyOf(words, bitmapWords), cardinality);
+        }
+
+        @Override
+        int fill(int[] dest, int offset, int high) {
+            for (int i = 0; i < bitmapWords; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    dest[offset++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        @Override
+        int getSerializedSize() {
+            return bitmapWords * 8;
+        }
+
+        @Override
+        void writeTo(DataOutput out) throws IOException {
+            for (int i = 0; i < bitmapWords; i++)
+                out.writeLong(words[i]);
+        }
+
+        static BitmapContainer readFrom(DataInput in, int cardinality) throws IOException {
+            long[] words = new long[bitmapWords];
+            for (int i = 0; i < bitmapWords; i++)
+                words[i] = in.readLong();
+            return new BitmapContainer(words, cardinality);
+        }
+
+        private ArrayContainer toArrayContainer() {
+            char[] values = new char[Math.max(cardinality, 4)];
+            int n = 0;
+            for (int i = 0; i < bitmapWords; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[n++] = (char)((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+
+    }
+
+}
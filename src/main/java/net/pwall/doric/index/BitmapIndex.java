@@ -0,0 +1,403 @@
+/*
+ * @(#) BitmapIndex.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.pwall.doric.Column;
+
+/**
+ * A bitmap index for a low-cardinality column.  The index holds one {@link Bitmap} for each distinct value in the
+ * column, identifying the rows containing that value.  The index file is read lazily: the list of distinct values is
+ * read on first use, and the individual bitmaps are read as required.  String keys (which may be numerous when the
+ * index is used by a {@link TextIndex}) are not all held in memory; only every {@value #sampleInterval}th key is
+ * retained, and a lookup reads the block of the key list between two samples.
+ *
+ * <p>The file format is:</p>
+ * <pre>
+ *   int     key type (0 = long, 1 = double, 2 = string)
+ *   int     number of keys
+ *   for each key (in ascending order):
+ *     key     (long, double or int length followed by UTF-8 bytes)
+ *     long    offset of bitmap in file
+ *     int     length of bitmap
+ *   bitmaps
+ * </pre>
+ *
+ * @author  Peter Wall
+ */
+public class BitmapIndex {
+
+    public static final int sampleInterval = 64;
+
+    static final int keyTypeLong = 0;
+    static final int keyTypeDouble = 1;
+    static final int keyTypeString = 2;
+
+    private File file;
+    private int keyType;
+    private boolean loaded;
+    private int numKeys;
+    private long[] longKeys;
+    private double[] doubleKeys;
+    private String[] sampleKeys;
+    private long[] samplePositions;
+    private long[] offsets;
+    private int[] lengths;
+    private Bitmap[] bitmaps;
+
+    public BitmapIndex(File file, Column.Type type) {
+        this.file = file;
+        keyType = getKeyType(type);
+        loaded = false;
+    }
+
+    /**
+     * Test whether a bitmap index may be created for the nominated {@link Column}.  The column must have a small
+     * number of unique values (as determined by the analysis), but must not be constant.
+     *
+     * @param   column  the {@link Column}
+     * @return          {@code true} if the column may be indexed
+     */
+    public static boolean isIndexable(Column column) {
+        Column.StorageType storageType = column.getStorageType();
+        return column.getNumUniqueValues() > 1 && storageType != Column.StorageType.none &&
+                storageType != Column.StorageType.constant;
+    }
+
+    public synchronized int getNumKeys() throws IOException {
+        load();
+        return numKeys;
+    }
+
+    /**
+     * Get the rows for which the value is between the low and high values (inclusive), for an integer or date column
+     * (dates are specified as epoch days).
+     *
+     * @param   low     the low value
+     * @param   high    the high value
+     * @return          a {@link Bitmap} of the matching rows
+     * @throws  IOException if thrown reading the index file
+     */
+    public synchronized Bitmap getRows(long low, long high) throws IOException {
+        checkKeyType(keyTypeLong);
+        load();
+        int from = lowerBound(longKeys, low);
+        int to = low > high ? from : upperBound(longKeys, high);
+        return union(from, to);
+    }
+
+    /**
+     * Get the rows for which the value is between the low and high values (inclusive), for a floating-point column.
+     *
+     * @param   low     the low value
+     * @param   high    the high value
+     * @return          a {@link Bitmap} of the matching rows
+     * @throws  IOException if thrown reading the index file
+     */
+    public synchronized Bitmap getRows(double low, double high) throws IOException {
+        checkKeyType(keyTypeDouble);
+        load();
+        int from = lowerBound(doubleKeys, low);
+        int to = low > high ? from : upperBound(doubleKeys, high);
+        return union(from, to);
+    }
+
+    /**
+     * Get the rows for which the value is between the low and high values (inclusive), for a string column.
+     *
+     * @param   low     the low value
+     * @param   high    the high value
+     * @return          a {@link Bitmap} of the matching rows
+     * @throws  IOException if thrown reading the index file
+     */
+    public synchronized Bitmap getRows(String low, String high) throws IOException {
+        checkKeyType(keyTypeString);
+        load();
+        Bitmap result = new Bitmap();
+        if (numKeys == 0 || low.compareTo(high) > 0)
+            return result;
+        int block = Arrays.binarySearch(sampleKeys, low);
+        if (block < 0)
+            block = Math.max(-block - 2, 0);
+        List<long[]> locations = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            blocks:
+            for (; block < sampleKeys.length && sampleKeys[block].compareTo(high) <= 0; block++) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBytes(raf,
+                        samplePositions[block], (int)(samplePositions[block + 1] - samplePositions[block]))));
+                for (int i = 0, n = Math.min(sampleInterval, numKeys - block * sampleInterval); i < n; i++) {
+                    String key = readString(in);
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (key.compareTo(high) > 0)
+                        break blocks;
+                    if (key.compareTo(low) >= 0)
+                        locations.add(new long[] { offset, length });
+                }
+            }
+            for (long[] location : locations) {
+                result = result.or(Bitmap.readFrom(new DataInputStream(new ByteArrayInputStream(readBytes(raf,
+                        location[0], (int)location[1])))));
+            }
+        }
+        return result;
+    }
+
+    private static byte[] readBytes(RandomAccessFile raf, long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        raf.seek(position);
+        raf.readFully(bytes);
+        return bytes;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Bitmap union(int from, int to) throws IOException {
+        Bitmap result = new Bitmap();
+        for (int i = from; i < to; i++)
+            result = result.or(getBitmap(i));
+        return result;
+    }
+
+    private Bitmap getBitmap(int index) throws IOException {
+        Bitmap bitmap = bitmaps[index];
+        if (bitmap == null) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.seek(offsets[index]);
+                bitmap = Bitmap.readFrom(raf);
+            }
+            bitmaps[index] = bitmap;
+        }
+        return bitmap;
+    }
+
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            int fileKeyType = in.readInt();
+            if (fileKeyType != keyType)
+                throw new IOException("Bitmap index key type mismatch: " + file);
+            int n = in.readInt();
+            numKeys = n;
+            if (keyType == keyTypeString) {
+                int numSamples = (n + sampleInterval - 1) / sampleInterval;
+                sampleKeys = new String[numSamples];
+                samplePositions = new long[numSamples + 1];
+                long position = 8;
+                for (int i = 0; i < n; i++) {
+                    if (i % sampleInterval == 0)
+                        samplePositions[i / sampleInterval] = position;
+                    String key = readString(in);
+                    if (i % sampleInterval == 0)
+                        sampleKeys[i / sampleInterval] = key;
+                    in.readLong();
+                    in.readInt();
+                    position += 4 + key.getBytes(StandardCharsets.UTF_8).length + 8 + 4;
+                }
+                samplePositions[numSamples] = position;
+            }
+            else {
+                offsets = new long[n];
+                lengths = new int[n];
+                bitmaps = new Bitmap[n];
+                if (keyType == keyTypeLong)
+                    longKeys = new long[n];
+                else
+                    doubleKeys = new double[n];
+                for (int i = 0; i < n; i++) {
+                    if (keyType == keyTypeLong)
+                        longKeys[i] = in.readLong();
+                    else
+                        doubleKeys[i] = in.readDouble();
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    private void checkKeyType(int requiredKeyType) {
+        if (keyType != requiredKeyType)
+            throw new IllegalArgumentException("Bitmap index key type mismatch");
+    }
+
+    private static int getKeyType(Column.Type type) {
+        switch (type) {
+        case integer:
+        case date:
+            return keyTypeLong;
+        case floating:
+            return keyTypeDouble;
+        default:
+            return keyTypeString;
+        }
+    }
+
+    private static int lowerBound(long[] keys, long value) {
+        int index = Arrays.binarySearch(keys, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static int upperBound(long[] keys, long value) {
+        int index = Arrays.binarySearch(keys, value);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private static int lowerBound(double[] keys, double value) {
+        int index = Arrays.binarySearch(keys, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static int upperBound(double[] keys, double value) {
+        int index = Arrays.binarySearch(keys, value);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Write an index file from a map of keys to bitmaps, the keys being in ascending order.
+     *
+     * @param   file    the {@link File}
+     * @param   keyType the key type
+     * @param   map     the map of keys to bitmaps
+     * @return          the size of the file
+     * @throws  IOException if thrown writing the file
+     */
+    static long write(File file, int keyType, Map<?, Bitmap> map) throws IOException {
+        long offset = 8;
+        for (Object key : map.keySet())
+            offset += (key instanceof String ? 4 + ((String)key).getBytes(StandardCharsets.UTF_8).length : 8) + 8 + 4;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(keyType);
+            out.writeInt(map.size());
+            for (Map.Entry<?, Bitmap> entry : map.entrySet()) {
+                Object key = entry.getKey();
+                if (key instanceof Long)
+                    out.writeLong((Long)key);
+                else if (key instanceof Double)
+                    out.writeDouble((Double)key);
+                else {
+                    byte[] bytes = ((String)key).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                int length = entry.getValue().getSerializedSize();
+                out.writeLong(offset);
+                out.writeInt(length);
+                offset += length;
+            }
+            for (Bitmap bitmap : map.values())
+                bitmap.writeTo(out);
+        }
+        return offset;
+    }
+
+    /**
+     * Builder class to accumulate the bitmaps for a column during ingest, and to write the index file.
+     */
+    public static class Builder {
+
+        private int keyType;
+        private boolean date;
+        private Map<Long, Bitmap> longMap;
+        private Map<Double, Bitmap> doubleMap;
+        private Map<String, Bitmap> stringMap;
+
+        public Builder(Column.Type type) {
+            keyType = getKeyType(type);
+            date = type == Column.Type.date;
+            longMap = new TreeMap<>();
+            doubleMap = new TreeMap<>();
+            stringMap = new TreeMap<>();
+        }
+
+        /**
+         * Add a value to the index.  Null (empty) values in numeric or date columns are not indexed.
+         *
+         * @param   value       the value, in the form supplied to the column output
+         * @param   rowNumber   the row number
+         */
+        public void add(String value, int rowNumber) {
+            if (keyType == keyTypeString)
+                stringMap.computeIfAbsent(value, k -> new Bitmap()).add(rowNumber);
+            else if (value.length() > 0) {
+                if (keyType == keyTypeDouble)
+                    add(Double.parseDouble(value), rowNumber);
+                else if (date)
+                    add(LocalDate.parse(value).toEpochDay(), rowNumber);
+                else
+                    add(Long.parseLong(value), rowNumber);
+            }
+        }
+
+        public void add(long value, int rowNumber) {
+            if (keyType == keyTypeDouble)
+                add((double)value, rowNumber);
+            else
+                longMap.computeIfAbsent(value, k -> new Bitmap()).add(rowNumber);
+        }
+
+        public void add(double value, int rowNumber) {
+            doubleMap.computeIfAbsent(value, k -> new Bitmap()).add(rowNumber);
+        }
+
+        /**
+         * Write the index file.
+         *
+         * @param   file    the {@link File}
+         * @return          the size of the file
+         * @throws  IOException if thrown writing the file
+         */
+        public long write(File file) throws IOException {
+            return BitmapIndex.write(file, keyType, keyType == keyTypeLong ? longMap :
+                    keyType == keyTypeDouble ? doubleMap : stringMap);
+        }
+
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * @(#) BloomFilter.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.Table;
+
+/**
+ * A set of Bloom filters for a column, one for each block of rows.  An equality lookup on a column with a large
+ * number of distinct values can not make use of a {@link BitmapIndex}, but the Bloom filters allow the lookup to skip
+ * every block that is guaranteed not to contain the value, so that only a small number of blocks need to be read.
+ *
+ * <p>Each filter is sized according to the number of distinct values in its block.  The filters are written as each
+ * block is completed, and the directory of blocks is written at the end of the file:</p>
+ * <pre>
+ *   long[]  filter bits for each block
+ *   for each block:
+ *     long    offset of filter in file
+ *     int     number of words (longs) in filter
+ *   int     block size (number of rows)
+ *   int     number of hash functions
+ *   int     number of blocks
+ *   int     number of rows
+ * </pre>
+ *
+ * <p>The file is memory-mapped on first use, so only the parts of the filters actually tested are read.</p>
+ *
+ * @author  Peter Wall
+ */
+public class BloomFilter {
+
+    public static final int defaultBlockSize = 65536;
+    public static final int defaultBitsPerValue = 10;
+    public static final int defaultNumHashes = 7;
+
+    private static final int trailerSize = 16;
+    private static final int directoryEntrySize = 12;
+
+    private File file;
+    private boolean floating;
+    private boolean loaded;
+    private int blockSize;
+    private int numHashes;
+    private int numRows;
+    private long[] offsets;
+    private int[] numWords;
+    private LongBuffer words;
+
+    public BloomFilter(File file, Column.Type type) {
+        this.file = file;
+        floating = type == Column.Type.floating;
+        loaded = false;
+    }
+
+    /**
+     * Test whether Bloom filters may be created for the nominated {@link Column}.  The column must not be constant,
+     * and must not be one that can already be searched by binary search.
+     *
+     * @param   column  the {@link Column}
+     * @return          {@code true} if the column may be indexed
+     */
+    public static boolean isIndexable(Column column) {
+        Column.StorageType storageType = column.getStorageType();
+        return storageType != Column.StorageType.none && storageType != Column.StorageType.constant &&
+                !Table.isSearchable(column);
+    }
+
+    /**
+     * Get the candidate rows that may contain the given value, for an integer or date column (dates are specified as
+     * epoch days).  The result is the union of the blocks whose filters do not exclude the value, so the rows must
+     * still be tested.
+     *
+     * @param   value   the value
+     * @return          a {@link Bitmap} of the candidate rows
+     * @throws  IOException if thrown reading the filter file
+     */
+    public Bitmap getCandidateRows(long value) throws IOException {
+        return getCandidateRowsForHash(floating ? hash((double)value) : hash(value));
+    }
+
+    /**
+     * Get the candidate rows that may contain the given value, for a floating-point column.
+     *
+     * @param   value   the value
+     * @return          a {@link Bitmap} of the candidate rows
+     * @throws  IOException if thrown reading the filter file
+     */
+    public Bitmap getCandidateRows(double value) throws IOException {
+        return getCandidateRowsForHash(hash(value));
+    }
+
+    /**
+     * Get the candidate rows that may contain the given value, for a string column.
+     *
+     * @param   value   the value
+     * @return          a {@link Bitmap} of the candidate rows
+     * @throws  IOException if thrown reading the filter file
+     */
+    public Bitmap getCandidateRows(String value) throws IOException {
+        return getCandidateRowsForHash(hash(value));
+    }
+
+    private synchronized Bitmap getCandidateRowsForHash(long hash) throws IOException {
+        load();
+        Bitmap result = new Bitmap();
+        for (int i = 0, n = offsets.length; i < n; i++) {
+            if (mayContain(i, hash)) {
+                int start = i * blockSize;
+                result.addRange(start, Math.min(start + blockSize, numRows));
+            }
+        }
+        return result;
+    }
+
+    private boolean mayContain(int block, long hash) {
+        long numBits = (long)numWords[block] << 6;
+        if (numBits == 0)
+            return false;
+        int base = (int)(offsets[block] >>> 3);
+        long h2 = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((hash + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((words.get(base + (int)(bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            raf.seek(length - trailerSize);
+            blockSize = raf.readInt();
+            numHashes = raf.readInt();
+            int numBlocks = raf.readInt();
+            numRows = raf.readInt();
+            offsets = new long[numBlocks];
+            numWords = new int[numBlocks];
+            long directoryOffset = length - trailerSize - (long)numBlocks * directoryEntrySize;
+            raf.seek(directoryOffset);
+            for (int i = 0; i < numBlocks; i++) {
+                offsets[i] = raf.readLong();
+                numWords[i] = raf.readInt();
+            }
+            words = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, directoryOffset).asLongBuffer();
+        }
+        loaded = true;
+    }
+
+    private static long hash(long value) {
+        return mix(value);
+    }
+
+    private static long hash(double value) {
+        // treat -0.0 as equal to 0.0, as the == operator does
+        return mix(value == 0.0 ? 0L : Double.doubleToLongBits(value));
+    }
+
+    private static long hash(String value) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0, n = value.length(); i < n; i++)
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        return mix(h);
+    }
+
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Builder class to create the filters for a column during ingest.  The hashes of the values in the current block
+     * are accumulated, and when the block is complete the filter is sized according to the number of distinct values
+     * and written to the file.
+     */
+    public static class Builder implements AutoCloseable {
+
+        private File file;
+        private boolean integer;
+        private boolean floating;
+        private boolean date;
+        private int blockSize;
+        private int bitsPerValue;
+        private int numHashes;
+        private long[] hashes;
+        private int numHashed;
+        private int rowNumber;
+        private long offset;
+        private long[] offsets;
+        private int[] numWords;
+        private int numBlocks;
+        private DataOutputStream out;
+
+        public Builder(Column.Type type, File file, int blockSize, int bitsPerValue, int numHashes) {
+            this.file = file;
+            integer = type == Column.Type.integer;
+            floating = type == Column.Type.floating;
+            date = type == Column.Type.date;
+            this.blockSize = blockSize;
+            this.bitsPerValue = bitsPerValue;
+            this.numHashes = numHashes;
+            hashes = new long[blockSize];
+            numHashed = 0;
+            rowNumber = 0;
+            offset = 0;
+            offsets = new long[16];
+            numWords = new int[16];
+            numBlocks = 0;
+            out = null;
+        }
+
+        public Builder(Column.Type type, File file) {
+            this(type, file, defaultBlockSize, defaultBitsPerValue, defaultNumHashes);
+        }
+
+        /**
+         * Add a value to the filter for the current block.  Null (empty) values in numeric or date columns are not
+         * added.
+         *
+         * @param   value   the value, in the form supplied to the column output
+         * @throws  IOException if thrown writing the file
+         */
+        public void add(String value) throws IOException {
+            if (integer) {
+                if (value.length() > 0)
+                    addHash(hash(Long.parseLong(value)));
+                else
+                    addNull();
+            }
+            else if (floating) {
+                if (value.length() > 0)
+                    addHash(hash(Double.parseDouble(value)));
+                else
+                    addNull();
+            }
+            else if (date) {
+                if (value.length() > 0)
+                    addHash(hash(LocalDate.parse(value).toEpochDay()));
+                else
+                    addNull();
+            }
+            else
+                addHash(hash(value));
+        }
+
+        public void add(long value) throws IOException {
+            addHash(floating ? hash((double)value) : hash(value));
+        }
+
+        public void add(double value) throws IOException {
+            addHash(hash(value));
+        }
+
+        public void addNull() throws IOException {
+            if (++rowNumber % blockSize == 0)
+                writeBlock();
+        }
+
+        private void addHash(long hash) throws IOException {
+            hashes[numHashed++] = hash;
+            addNull();
+        }
+
+        private void writeBlock() throws IOException {
+            if (out == null)
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            Arrays.sort(hashes, 0, numHashed);
+            int distinct = 0;
+            for (int i = 0; i < numHashed; i++)
+                if (i == 0 || hashes[i] != hashes[i - 1])
+                    hashes[distinct++] = hashes[i];
+            int n = distinct == 0 ? 0 : (int)(((long)distinct * bitsPerValue + 63) >>> 6);
+            long[] bits = new long[n];
+            long numBits = (long)n << 6;
+            for (int i = 0; i < distinct; i++) {
+                long hash = hashes[i];
+                long h2 = Long.rotateLeft(hash, 32) | 1;
+                for (int j = 0; j < numHashes; j++) {
+                    long bit = ((hash + j * h2) & Long.MAX_VALUE) % numBits;
+                    bits[(int)(bit >>> 6)] |= 1L << bit;
+                }
+            }
+            for (long word : bits)
+                out.writeLong(word);
+            if (numBlocks == offsets.length) {
+                offsets = Arrays.copyOf(offsets, numBlocks * 2);
+                numWords = Arrays.copyOf(numWords, numBlocks * 2);
+            }
+            offsets[numBlocks] = offset;
+            numWords[numBlocks++] = n;
+            offset += (long)n * 8;
+            numHashed = 0;
+        }
+
+        /**
+         * Complete the file, writing the filter for the last (partial) block, and the directory.
+         *
+         * @return          the size of the file
+         * @throws  IOException if thrown writing the file
+         */
+        public long finish() throws IOException {
+            if (rowNumber % blockSize != 0 || out == null)
+                writeBlock();
+            for (int i = 0; i < numBlocks; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(numWords[i]);
+            }
+            out.writeInt(blockSize);
+            out.writeInt(numHashes);
+            out.writeInt(numBlocks);
+            out.writeInt(rowNumber);
+            close();
+            return offset + (long)numBlocks * directoryEntrySize + trailerSize;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+
+    }
+
+}
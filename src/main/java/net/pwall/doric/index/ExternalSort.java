@@ -0,0 +1,254 @@
+/*
+ * @(#) ExternalSort.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External sort of (value, row number) pairs.  Pairs are accumulated in memory in chunks of a fixed size; each chunk
+ * is sorted and, if there is more than one chunk, written to a temporary file.  The sorted chunks are then merged to
+ * produce the complete sorted sequence.  Pairs are sorted by value and then by row number, so the order of rows with
+ * equal values is preserved.
+ *
+ * @author  Peter Wall
+ */
+public class ExternalSort implements AutoCloseable {
+
+    public static final int defaultChunkSize = 1 << 20;
+
+    private int chunkSize;
+    private File tempDirectory;
+    private long[] values;
+    private int[] rowNumbers;
+    private int count;
+    private long total;
+    private List<File> chunkFiles;
+
+    public ExternalSort(int chunkSize, File tempDirectory) {
+        if (chunkSize < 2)
+            throw new IllegalArgumentException("Chunk size must be >= 2");
+        this.chunkSize = chunkSize;
+        this.tempDirectory = tempDirectory;
+        values = new long[Math.min(chunkSize, 1024)];
+        rowNumbers = new int[values.length];
+        count = 0;
+        total = 0;
+        chunkFiles = new ArrayList<>();
+    }
+
+    public ExternalSort(File tempDirectory) {
+        this(defaultChunkSize, tempDirectory);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public void add(long value, int rowNumber) throws IOException {
+        if (count == values.length) {
+            if (count == chunkSize)
+                spill();
+            else {
+                int newLength = Math.min(count * 2, chunkSize);
+                long[] newValues = new long[newLength];
+                System.arraycopy(values, 0, newValues, 0, count);
+                values = newValues;
+                int[] newRowNumbers = new int[newLength];
+                System.arraycopy(rowNumbers, 0, newRowNumbers, 0, count);
+                rowNumbers = newRowNumbers;
+            }
+        }
+        values[count] = value;
+        rowNumbers[count] = rowNumber;
+        count++;
+        total++;
+    }
+
+    /**
+     * Complete the sort, passing the sorted pairs to the nominated {@link Output}.
+     *
+     * @param   output  the {@link Output}
+     * @throws  IOException if thrown reading or writing the temporary files, or by the {@link Output}
+     */
+    public void sort(Output output) throws IOException {
+        if (chunkFiles.isEmpty()) {
+            sortChunk();
+            for (int i = 0; i < count; i++)
+                output.accept(values[i], rowNumbers[i]);
+            return;
+        }
+        if (count > 0)
+            spill();
+        values = null;
+        rowNumbers = null;
+        PriorityQueue<ChunkReader> queue = new PriorityQueue<>(chunkFiles.size());
+        try {
+            for (File chunkFile : chunkFiles) {
+                ChunkReader reader = new ChunkReader(chunkFile);
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            while (!queue.isEmpty()) {
+                ChunkReader reader = queue.poll();
+                output.accept(reader.value, reader.rowNumber);
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+        }
+        finally {
+            for (ChunkReader reader : queue)
+                reader.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (File chunkFile : chunkFiles)
+            chunkFile.delete();
+        chunkFiles.clear();
+    }
+
+    private void spill() throws IOException {
+        sortChunk();
+        File chunkFile = File.createTempFile("sort", ".tmp", tempDirectory);
+        chunkFiles.add(chunkFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(chunkFile),
+                65536))) {
+            for (int i = 0; i < count; i++) {
+                out.writeLong(values[i]);
+                out.writeInt(rowNumbers[i]);
+            }
+        }
+        count = 0;
+    }
+
+    /**
+     * Sort the current chunk, using a bottom-up merge sort (which is stable, so row numbers remain in ascending order
+     * within equal values).
+     */
+    private void sortChunk() {
+        long[] srcValues = values;
+        int[] srcRows = rowNumbers;
+        long[] dstValues = new long[count];
+        int[] dstRows = new int[count];
+        boolean swapped = false;
+        for (int width = 1; width < count; width <<= 1) {
+            for (int lo = 0; lo < count; lo += width << 1) {
+                int mid = Math.min(lo + width, count);
+                int hi = Math.min(lo + (width << 1), count);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    if (srcValues[j] < srcValues[i]) {
+                        dstValues[k] = srcValues[j];
+                        dstRows[k++] = srcRows[j++];
+                    }
+                    else {
+                        dstValues[k] = srcValues[i];
+                        dstRows[k++] = srcRows[i++];
+                    }
+                }
+                while (i < mid) {
+                    dstValues[k] = srcValues[i];
+                    dstRows[k++] = srcRows[i++];
+                }
+                while (j < hi) {
+                    dstValues[k] = srcValues[j];
+                    dstRows[k++] = srcRows[j++];
+                }
+            }
+            long[] tempValues = srcValues;
+            srcValues = dstValues;
+            dstValues = tempValues;
+            int[] tempRows = srcRows;
+            srcRows = dstRows;
+            dstRows = tempRows;
+            swapped = !swapped;
+        }
+        if (swapped) {
+            System.arraycopy(srcValues, 0, values, 0, count);
+            System.arraycopy(srcRows, 0, rowNumbers, 0, count);
+        }
+    }
+
+    /**
+     * Interface to receive the sorted output.
+     */
+    @FunctionalInterface
+    public interface Output {
+        void accept(long value, int rowNumber) throws IOException;
+    }
+
+    private static class ChunkReader implements Comparable<ChunkReader> {
+
+        private DataInputStream in;
+        private long value;
+        private int rowNumber;
+
+        ChunkReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        }
+
+        boolean next() throws IOException {
+            try {
+                value = in.readLong();
+            }
+            catch (EOFException e) {
+                return false;
+            }
+            rowNumber = in.readInt();
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public int compareTo(ChunkReader other) {
+            int result = Long.compare(value, other.value);
+            return result != 0 ? result : Integer.compare(rowNumber, other.rowNumber);
+        }
+
+    }
+
+}
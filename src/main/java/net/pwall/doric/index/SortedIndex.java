@@ -0,0 +1,250 @@
+/*
+ * @(#) SortedIndex.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.ColumnReader;
+import net.pwall.doric.Doric;
+
+/**
+ * A secondary index for an integer or date column that is not itself sorted.  The index holds the values of the
+ * column in sorted order, each with the row number from which it came, together with a sparse array of "fence"
+ * values (the value at every n'th entry) which is held in memory to locate the entries for a given value.
+ *
+ * <p>The file format is:</p>
+ * <pre>
+ *   int     fence interval
+ *   int     number of entries
+ *   long[]  values, in ascending order
+ *   int[]   row numbers, in the same order as the values
+ *   long[]  fence values
+ * </pre>
+ *
+ * @author  Peter Wall
+ */
+public class SortedIndex implements AutoCloseable {
+
+    public static final int defaultFenceInterval = 1024;
+
+    private File file;
+    private long fileSize;
+    private boolean loaded;
+    private int fenceInterval;
+    private int numEntries;
+    private long[] fences;
+    private ColumnReader columnReader;
+
+    public SortedIndex(File file, long fileSize) {
+        this.file = file;
+        this.fileSize = fileSize;
+        loaded = false;
+    }
+
+    /**
+     * Test whether a sorted index may be created for the nominated {@link Column}.  The column must be an integer or
+     * date column which is not already sorted.
+     *
+     * @param   column  the {@link Column}
+     * @return          {@code true} if the column may be indexed
+     */
+    public static boolean isIndexable(Column column) {
+        Column.StorageType storageType = column.getStorageType();
+        return (column.getType() == Column.Type.integer || column.getType() == Column.Type.date) &&
+                !column.isAscending() && !column.isDescending() && storageType != Column.StorageType.none &&
+                storageType != Column.StorageType.constant;
+    }
+
+    /**
+     * Get the rows for which the value is between the low and high values (inclusive).  Dates are specified as epoch
+     * days.
+     *
+     * @param   low     the low value
+     * @param   high    the high value
+     * @return          a {@link Bitmap} of the matching rows
+     * @throws  IOException if thrown reading the index file
+     */
+    public synchronized Bitmap getRows(long low, long high) throws IOException {
+        load();
+        Bitmap result = new Bitmap();
+        if (low > high)
+            return result;
+        int start = firstIndex(low, false);
+        int end = firstIndex(high, true);
+        if (end <= start)
+            return result;
+        int[] rows = new int[end - start];
+        long rowsOffset = 8 + (long)numEntries * 8;
+        for (int i = start; i < end; i++)
+            rows[i - start] = columnReader.readInt32(rowsOffset + (long)i * 4);
+        Arrays.sort(rows);
+        for (int row : rows)
+            result.add(row);
+        return result;
+    }
+
+    /**
+     * Find the index of the first entry whose value is greater than or equal to (or, if {@code greater} is set,
+     * strictly greater than) the given value.  The fences are searched first to find the block containing the entry,
+     * and then the block is searched.
+     *
+     * @param   value   the value
+     * @param   greater if {@code true}, search for the first entry strictly greater than the value
+     * @return          the index of the entry, or the number of entries if none
+     * @throws  IOException if thrown reading the index file
+     */
+    private int firstIndex(long value, boolean greater) throws IOException {
+        int lo = 0;
+        int hi = fences.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (greater ? fences[mid] > value : fences[mid] >= value)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        if (lo == 0)
+            return 0;
+        int from = (lo - 1) * fenceInterval;
+        int to = (int)Math.min((long)lo * fenceInterval, numEntries);
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            long midValue = columnReader.readInt64(8 + (long)mid * 8);
+            if (greater ? midValue > value : midValue >= value)
+                to = mid;
+            else
+                from = mid + 1;
+        }
+        return from;
+    }
+
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            fenceInterval = raf.readInt();
+            numEntries = raf.readInt();
+            int numFences = (int)(((long)numEntries + fenceInterval - 1) / fenceInterval);
+            fences = new long[numFences];
+            raf.seek(8 + (long)numEntries * 12);
+            byte[] bytes = new byte[numFences * 8];
+            raf.readFully(bytes);
+            ByteBuffer.wrap(bytes).asLongBuffer().get(fences);
+        }
+        columnReader = new ColumnReader(Doric.getBufferPool(), file, fileSize);
+        loaded = true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (columnReader != null) {
+            columnReader.close();
+            columnReader = null;
+        }
+        loaded = false;
+    }
+
+    /**
+     * Builder class to accumulate the values for a column during ingest, and to write the index file.
+     */
+    public static class Builder implements AutoCloseable {
+
+        private ExternalSort sort;
+        private int fenceInterval;
+
+        public Builder(File tempDirectory, int fenceInterval) {
+            sort = new ExternalSort(tempDirectory);
+            this.fenceInterval = fenceInterval;
+        }
+
+        public Builder(File tempDirectory) {
+            this(tempDirectory, defaultFenceInterval);
+        }
+
+        public void add(long value, int rowNumber) throws IOException {
+            sort.add(value, rowNumber);
+        }
+
+        /**
+         * Sort the accumulated values and write the index file.
+         *
+         * @param   file    the {@link File}
+         * @return          the size of the file
+         * @throws  IOException if thrown writing the file
+         */
+        public long write(File file) throws IOException {
+            int numEntries = (int)sort.getCount();
+            long[] fences = new long[(int)(((long)numEntries + fenceInterval - 1) / fenceInterval)];
+            File rowsFile = File.createTempFile("rows", ".tmp", file.getParentFile());
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file), 65536))) {
+                    out.writeInt(fenceInterval);
+                    out.writeInt(numEntries);
+                    try (DataOutputStream rowsOut = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(rowsFile), 65536))) {
+                        int[] index = new int[1];
+                        sort.sort((value, rowNumber) -> {
+                            int i = index[0]++;
+                            if (i % fenceInterval == 0)
+                                fences[i / fenceInterval] = value;
+                            out.writeLong(value);
+                            rowsOut.writeInt(rowNumber);
+                        });
+                    }
+                    try (FileInputStream rowsIn = new FileInputStream(rowsFile)) {
+                        byte[] buffer = new byte[65536];
+                        int n;
+                        while ((n = rowsIn.read(buffer)) > 0)
+                            out.write(buffer, 0, n);
+                    }
+                    for (long fence : fences)
+                        out.writeLong(fence);
+                }
+            }
+            finally {
+                rowsFile.delete();
+            }
+            return 8 + (long)numEntries * 12 + (long)fences.length * 8;
+        }
+
+        @Override
+        public void close() {
+            sort.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * @(#) TextIndex.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.pwall.doric.Column;
+
+/**
+ * An inverted index for a string column, allowing substring, prefix and token searches to be performed without
+ * reading every value in the column.  The index maps each 3-character sequence ("trigram") and each token (a sequence
+ * of letters and digits) to a posting list of the rows containing it; the posting lists are held as {@link Bitmap}s,
+ * using the same file format as a {@link BitmapIndex}, with the keys distinguished by a prefix character.
+ *
+ * <p>Before the trigrams are extracted, each value is bracketed by start and end marker characters, so that a prefix
+ * search can use the trigrams that include the start marker.</p>
+ *
+ * @author  Peter Wall
+ */
+public class TextIndex {
+
+    public static final int gramLength = 3;
+
+    private static final char gramPrefix = 'g';
+    private static final char tokenPrefix = 't';
+    private static final char startMarker = '\u0002';
+    private static final char endMarker = '\u0003';
+
+    private BitmapIndex bitmapIndex;
+
+    public TextIndex(File file) {
+        bitmapIndex = new BitmapIndex(file, Column.Type.undetermined);
+    }
+
+    /**
+     * Test whether a text index may be created for the nominated {@link Column}.  The column must be a string column.
+     *
+     * @param   column  the {@link Column}
+     * @return          {@code true} if the column may be indexed
+     */
+    public static boolean isIndexable(Column column) {
+        return column.getType() == Column.Type.undetermined && column.getStorageType() == Column.StorageType.bytes;
+    }
+
+    /**
+     * Get the candidate rows that may contain the given substring.  The result includes all rows containing the
+     * substring, but may also include rows that contain all the trigrams of the substring without containing the
+     * substring itself, so the rows must still be tested.
+     *
+     * @param   substring   the substring
+     * @return              a {@link Bitmap} of the candidate rows, or {@code null} if the substring is too short to
+     *                      use the index
+     * @throws  IOException if thrown reading the index file
+     */
+    public Bitmap getCandidatesContaining(String substring) throws IOException {
+        if (substring.length() < gramLength)
+            return null;
+        return intersectGrams(substring);
+    }
+
+    /**
+     * Get the candidate rows that may start with the given prefix.  As with
+     * {@link #getCandidatesContaining(String)}, the rows must still be tested.
+     *
+     * @param   prefix  the prefix
+     * @return          a {@link Bitmap} of the candidate rows, or {@code null} if the prefix is too short to use the
+     *                  index
+     * @throws  IOException if thrown reading the index file
+     */
+    public Bitmap getCandidatesStartingWith(String prefix) throws IOException {
+        if (prefix.length() < gramLength - 1)
+            return null;
+        return intersectGrams(startMarker + prefix);
+    }
+
+    /**
+     * Get the rows containing the given token.  The result is exact.
+     *
+     * @param   token   the token
+     * @return          a {@link Bitmap} of the matching rows
+     * @throws  IOException if thrown reading the index file
+     */
+    public Bitmap getRowsWithToken(String token) throws IOException {
+        String key = tokenPrefix + token;
+        return bitmapIndex.getRows(key, key);
+    }
+
+    private Bitmap intersectGrams(String text) throws IOException {
+        Bitmap result = null;
+        for (String gram : grams(text)) {
+            String key = gramPrefix + gram;
+            Bitmap rows = bitmapIndex.getRows(key, key);
+            result = result == null ? rows : result.and(rows);
+            if (result.isEmpty())
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Get the distinct trigrams of a string.
+     *
+     * @param   text    the string
+     * @return          the trigrams
+     */
+    public static Set<String> grams(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (int i = 0, n = text.length() - gramLength; i <= n; i++)
+            result.add(text.substring(i, i + gramLength));
+        return result;
+    }
+
+    /**
+     * Split a string into tokens, each consisting of a sequence of letters and digits.
+     *
+     * @param   text    the string
+     * @return          the tokens
+     */
+    public static List<String> tokens(String text) {
+        List<String> result = new ArrayList<>();
+        int start = -1;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            if (Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0)
+                    start = i;
+            }
+            else if (start >= 0) {
+                result.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        if (start >= 0)
+            result.add(text.substring(start));
+        return result;
+    }
+
+    /**
+     * Builder class to accumulate the posting lists for a column during ingest, and to write the index file.  The
+     * posting lists are accumulated in memory until the number of postings reaches a threshold; they are then written
+     * to a temporary file as a sorted run, and the runs are merged when the index file is written (as in
+     * {@link ExternalSort}).  The runs are created in row number order, so the posting lists for a key may be merged
+     * by simple union.
+     */
+    public static class Builder implements AutoCloseable {
+
+        public static final int defaultSpillThreshold = 1 << 22;
+
+        private File tempDirectory;
+        private int spillThreshold;
+        private Map<String, Bitmap> postings;
+        private int numPostings;
+        private List<File> runFiles;
+
+        public Builder(File tempDirectory, int spillThreshold) {
+            if (spillThreshold < 1)
+                throw new IllegalArgumentException("Spill threshold must be >= 1");
+            this.tempDirectory = tempDirectory;
+            this.spillThreshold = spillThreshold;
+            postings = new TreeMap<>();
+            numPostings = 0;
+            runFiles = new ArrayList<>();
+        }
+
+        public Builder(File tempDirectory) {
+            this(tempDirectory, defaultSpillThreshold);
+        }
+
+        public int getNumRuns() {
+            return runFiles.size();
+        }
+
+        public void add(String value, int rowNumber) throws IOException {
+            for (String gram : grams(startMarker + value + endMarker))
+                addPosting(gramPrefix + gram, rowNumber);
+            for (String token : tokens(value))
+                addPosting(tokenPrefix + token, rowNumber);
+            if (numPostings >= spillThreshold)
+                spill();
+        }
+
+        private void addPosting(String key, int rowNumber) {
+            postings.computeIfAbsent(key, k -> new Bitmap()).add(rowNumber);
+            numPostings++;
+        }
+
+        /**
+         * Write the index file, merging any runs written to temporary files.
+         *
+         * @param   file    the {@link File}
+         * @return          the size of the file
+         * @throws  IOException if thrown reading the temporary files or writing the index file
+         */
+        public long write(File file) throws IOException {
+            if (runFiles.isEmpty())
+                return BitmapIndex.write(file, BitmapIndex.keyTypeString, postings);
+            if (!postings.isEmpty())
+                spill();
+            File keysFile = File.createTempFile("keys", ".tmp", tempDirectory);
+            File bitmapsFile = File.createTempFile("bitmaps", ".tmp", tempDirectory);
+            try {
+                int numKeys = 0;
+                long keysSize = 0;
+                PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size());
+                try (DataOutputStream keysOut = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(keysFile), 65536));
+                        DataOutputStream bitmapsOut = new DataOutputStream(new BufferedOutputStream(
+                                new FileOutputStream(bitmapsFile), 65536))) {
+                    for (File runFile : runFiles) {
+                        RunReader reader = new RunReader(runFile);
+                        if (reader.next())
+                            queue.add(reader);
+                        else
+                            reader.close();
+                    }
+                    while (!queue.isEmpty()) {
+                        RunReader reader = queue.poll();
+                        String key = reader.key;
+                        Bitmap bitmap = reader.bitmap;
+                        nextRun(queue, reader);
+                        while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+                            reader = queue.poll();
+                            bitmap = bitmap.or(reader.bitmap);
+                            nextRun(queue, reader);
+                        }
+                        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                        keysOut.writeInt(bytes.length);
+                        keysOut.write(bytes);
+                        keysOut.writeInt(bitmap.getSerializedSize());
+                        bitmap.writeTo(bitmapsOut);
+                        numKeys++;
+                        keysSize += 4 + bytes.length + 8 + 4;
+                    }
+                }
+                finally {
+                    for (RunReader reader : queue)
+                        reader.close();
+                }
+                long offset = 8 + keysSize;
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file), 65536))) {
+                    out.writeInt(BitmapIndex.keyTypeString);
+                    out.writeInt(numKeys);
+                    try (DataInputStream keysIn = new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(keysFile), 65536))) {
+                        for (int i = 0; i < numKeys; i++) {
+                            byte[] bytes = new byte[keysIn.readInt()];
+                            keysIn.readFully(bytes);
+                            int length = keysIn.readInt();
+                            out.writeInt(bytes.length);
+                            out.write(bytes);
+                            out.writeLong(offset);
+                            out.writeInt(length);
+                            offset += length;
+                        }
+                    }
+                    try (FileInputStream bitmapsIn = new FileInputStream(bitmapsFile)) {
+                        byte[] buffer = new byte[65536];
+                        int n;
+                        while ((n = bitmapsIn.read(buffer)) > 0)
+                            out.write(buffer, 0, n);
+                    }
+                }
+                return offset;
+            }
+            finally {
+                keysFile.delete();
+                bitmapsFile.delete();
+            }
+        }
+
+        @Override
+        public void close() {
+            for (File runFile : runFiles)
+                runFile.delete();
+            runFiles.clear();
+            postings.clear();
+        }
+
+        private void spill() throws IOException {
+            File runFile = File.createTempFile("text", ".tmp", tempDirectory);
+            runFiles.add(runFile);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile),
+                    65536))) {
+                for (Map.Entry<String, Bitmap> entry : postings.entrySet()) {
+                    byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    entry.getValue().writeTo(out);
+                }
+            }
+            postings.clear();
+            numPostings = 0;
+        }
+
+        private static void nextRun(PriorityQueue<RunReader> queue, RunReader reader) throws IOException {
+            if (reader.next())
+                queue.add(reader);
+            else
+                reader.close();
+        }
+
+    }
+
+    private static class RunReader implements Comparable<RunReader> {
+
+        private DataInputStream in;
+        private String key;
+        private Bitmap bitmap;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        }
+
+        boolean next() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            }
+            catch (EOFException e) {
+                return false;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            key = new String(bytes, StandardCharsets.UTF_8);
+            bitmap = Bitmap.readFrom(in);
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            return key.compareTo(other.key);
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * @(#) Aggregate.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.query;
+
+import java.io.IOException;
+import java.util.stream.StreamSupport;
+
+import net.pwall.doric.Row;
+
+/**
+ * An aggregation of the values of a numeric column: the count, sum, minimum, maximum and average of the non-null
+ * values.  The static functions compute aggregates for any number of columns in a single pass over the rows of a
+ * {@link Query}, reading the rows through the query's spliterator, so that a query that can be split (for example, a
+ * {@link CSVQuery} on a file, or a {@link Filter} applied to one) may be aggregated in parallel.
+ *
+ * @author  Peter Wall
+ */
+public class Aggregate {
+
+    private String columnName;
+    private long count;
+    private double sum;
+    private double minimum;
+    private double maximum;
+
+    public Aggregate(String columnName) {
+        this.columnName = columnName;
+        count = 0;
+        sum = 0.0;
+        minimum = Double.POSITIVE_INFINITY;
+        maximum = Double.NEGATIVE_INFINITY;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Get the number of non-null values.
+     *
+     * @return  the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMinimum() {
+        return count == 0 ? Double.NaN : minimum;
+    }
+
+    public double getMaximum() {
+        return count == 0 ? Double.NaN : maximum;
+    }
+
+    public double getAverage() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Add the value of the column from a {@link Row} to the aggregate.
+     *
+     * @param   row     the {@link Row}
+     * @throws  IOException if thrown by the column input
+     */
+    public void accept(Row row) throws IOException {
+        if (row.isNull(columnName))
+            return;
+        double value = row.getNumber(columnName).doubleValue();
+        count++;
+        sum += value;
+        if (value < minimum)
+            minimum = value;
+        if (value > maximum)
+            maximum = value;
+    }
+
+    /**
+     * Combine another aggregate (for the same column, but a different set of rows) into this one.
+     *
+     * @param   other   the other {@code Aggregate}
+     */
+    public void combine(Aggregate other) {
+        count += other.count;
+        sum += other.sum;
+        if (other.minimum < minimum)
+            minimum = other.minimum;
+        if (other.maximum > maximum)
+            maximum = other.maximum;
+    }
+
+    @Override
+    public String toString() {
+        return columnName + ": count=" + count + ", sum=" + sum + ", min=" + getMinimum() + ", max=" +
+                getMaximum() + ", avg=" + getAverage();
+    }
+
+    /**
+     * Compute aggregates for the nominated columns in a single pass over the rows of a {@link Query}.
+     *
+     * @param   query       the {@link Query}
+     * @param   parallel    {@code true} if the rows are to be processed by a parallel stream
+     * @param   columnNames the names of the columns
+     * @return              an array of aggregates, one for each column
+     */
+    public static Aggregate[] compute(Query query, boolean parallel, String ... columnNames) {
+        for (String columnName : columnNames)
+            query.getColumn(columnName); // fail early if any column does not exist
+        return StreamSupport.stream(query.spliterator(), parallel).collect(() -> create(columnNames),
+                Aggregate::acceptAll, Aggregate::combineAll);
+    }
+
+    /**
+     * Count the rows of a {@link Query} (for example, the rows selected by a {@link Filter}) in a single pass.
+     *
+     * @param   query       the {@link Query}
+     * @param   parallel    {@code true} if the rows are to be processed by a parallel stream
+     * @return              the number of rows
+     */
+    public static long count(Query query, boolean parallel) {
+        if (query.isNumRowsKnown())
+            return query.getNumRows();
+        return StreamSupport.stream(query.spliterator(), parallel).count();
+    }
+
+    private static Aggregate[] create(String[] columnNames) {
+        Aggregate[] aggregates = new Aggregate[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++)
+            aggregates[i] = new Aggregate(columnNames[i]);
+        return aggregates;
+    }
+
+    private static void acceptAll(Aggregate[] aggregates, Row row) {
+        try {
+            for (Aggregate aggregate : aggregates)
+                aggregate.accept(row);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error executing query", e);
+        }
+    }
+
+    private static void combineAll(Aggregate[] aggregates, Aggregate[] others) {
+        for (int i = 0; i < aggregates.length; i++)
+            aggregates[i].combine(others[i]);
+    }
+
+}
@@ -26,31 +26,87 @@
 package net.pwall.doric.query;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Consumer;
 
 import net.pwall.doric.Column;
+import net.pwall.doric.ColumnAnalysis;
 import net.pwall.doric.Row;
-
+import net.pwall.doric.ValueParser;
+import net.pwall.util.CSV;
+
+/**
+ * A {@link Query} that reads CSV data directly, without ingesting it into a table.  The types of the columns are
+ * inferred from a sample of the leading rows (1000 by default), and the values of each row are converted to the
+ * inferred type as they are accessed; a value later in the data that does not match the type inferred from the sample
+ * causes an {@link IllegalArgumentException}.
+ *
+ * <p>The rows can be read only in sequence, using the iterator or the spliterator, so random access by row number is
+ * not supported, and {@link #where(Condition)} returns a {@link Filter} that tests the rows as they are read.  When
+ * the query reads a {@link File}, the spliterator splits the file into byte ranges, so the rows may be processed by a
+ * parallel stream; the file must use a character set in which a newline, the delimiter and the quote character are
+ * single bytes (for example, UTF-8 or ISO-8859-1).  A query on a stream may be read only once.</p>
+ *
+ * <p>A quoted value may contain newlines, so a row may span several lines (a carriage return before a newline within
+ * a quoted value is not preserved).  For this reason the byte ranges can not simply start at the next newline.  To
+ * split a range, the bytes within {@link #splitWindow} of its mid-point are read, starting at a newline, and the quotes
+ * are tracked from there twice: once assuming that the newline ends a row, and once assuming that it is within a
+ * quoted value.  The first newline after the mid-point at which both agree that the data is not quoted is a row
+ * boundary.  If there is no such newline within the window (for example, if there are no quotes to tell the two
+ * apart), the first newline that ends a row on the first assumption is used, unless the data has quoted newlines (as
+ * seen in the sample rows, or as specified by {@link #setQuotedNewlines(boolean)}); in that case the whole file is
+ * scanned once to find row boundaries at intervals of at least {@link #minimumSplitSize} bytes, and the ranges are
+ * split only at those boundaries.</p>
+ *
+ * <p>For a file, the row number of each row is the byte offset of the start of the row within the file, so that rows
+ * read by parallel splits can be identified without counting the rows that precede them; for a stream, the rows are
+ * numbered from zero.</p>
+ *
+ * @author  Peter Wall
+ */
 public class CSVQuery implements Query, AutoCloseable {
 
+    public static final int defaultSampleSize = 1000;
+    public static final long minimumSplitSize = 1 << 20;
+    public static final int splitWindow = 64 * 1024;
+
+    private File file;
+    private Charset charset;
     private BufferedReader brdr;
-    private String line;
     private boolean started;
-    private boolean atEnd;
+    private boolean streamRead;
     private char delimiter;
     private char quote;
-    private List<Column> columns;
+    private boolean headerPresent;
+    private int sampleSize;
+    private boolean quotedNewlines;
+    private volatile List<Column> columns;
+    private Deque<String> sampleLines;
+    private long dataStart;
+    private long sampleBytes;
+    private int sampleRows;
+    private volatile long[] splitPoints;
 
     /**
      * Construct a {@code CSVQuery} from an {@link Reader}.
@@ -58,13 +114,7 @@ public class CSVQuery implements Query, AutoCloseable {
      * @param   rdr     the  {@link Reader}
      */
     public CSVQuery(Reader rdr) {
-        brdr = rdr instanceof BufferedReader ? (BufferedReader)rdr : new BufferedReader(rdr);
-        line = null;
-        started = false;
-        atEnd = false;
-        delimiter = ',';
-        quote = '"';
-        columns = new ArrayList<>();
+        this(null, null, rdr instanceof BufferedReader ? (BufferedReader)rdr : new BufferedReader(rdr));
     }
 
     /**
@@ -91,13 +141,49 @@ public class CSVQuery implements Query, AutoCloseable {
         this(new InputStreamReader(is, cs));
     }
 
+    /**
+     * Construct a {@code CSVQuery} from a {@link File}, using UTF-8.  The spliterator for a query on a file may be
+     * split into byte ranges for parallel processing.
+     *
+     * @param   file    the {@link File}
+     */
+    public CSVQuery(File file) {
+        this(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Construct a {@code CSVQuery} from a {@link File}, specifying the character set.  The character set must be one
+     * in which a newline is represented by a single byte.
+     *
+     * @param   file    the {@link File}
+     * @param   cs      the character set
+     */
+    public CSVQuery(File file, Charset cs) {
+        this(Objects.requireNonNull(file), Objects.requireNonNull(cs), null);
+    }
+
+    private CSVQuery(File file, Charset charset, BufferedReader brdr) {
+        this.file = file;
+        this.charset = charset;
+        this.brdr = brdr;
+        started = false;
+        streamRead = false;
+        delimiter = ',';
+        quote = '"';
+        headerPresent = true;
+        sampleSize = defaultSampleSize;
+        quotedNewlines = false;
+        columns = null;
+        sampleLines = null;
+        splitPoints = null;
+    }
+
     public char getDelimiter() {
         return delimiter;
     }
 
     public void setDelimiter(char delimiter) {
-        if (started)
-            throw new RuntimeException("Attempt to modify after reading started");
+        checkNotStarted();
         this.delimiter = delimiter;
     }
 
@@ -106,18 +192,265 @@ public class CSVQuery implements Query, AutoCloseable {
     }
 
     public void setQuote(char quote) {
+        checkNotStarted();
+        this.quote = quote;
+    }
+
+    public boolean isHeaderPresent() {
+        return headerPresent;
+    }
+
+    /**
+     * Specify whether the first line of the data is a header line containing the column names.  If it is not, the
+     * columns are named {@code col0}, {@code col1} etc.  The default is {@code true}.
+     *
+     * @param   headerPresent   {@code true} if the data has a header line
+     */
+    public void setHeaderPresent(boolean headerPresent) {
+        checkNotStarted();
+        this.headerPresent = headerPresent;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Set the number of rows to be read to infer the column types.
+     *
+     * @param   sampleSize  the number of rows
+     */
+    public void setSampleSize(int sampleSize) {
+        checkNotStarted();
+        if (sampleSize < 1)
+            throw new IllegalArgumentException("Sample size must be at least 1");
+        this.sampleSize = sampleSize;
+    }
+
+    public boolean isQuotedNewlines() {
+        return quotedNewlines;
+    }
+
+    /**
+     * Specify whether quoted values in the data may contain newlines.  If they may, a file is split for parallel
+     * processing only at row boundaries found by tracking the quotes from a known row boundary, which may require the
+     * whole file to be scanned; otherwise, any newline that is not shown to be quoted is taken as a row boundary.  The
+     * default is {@code false}, but the setting is changed to {@code true} if a quoted newline is found in the sample
+     * rows.
+     *
+     * @param   quotedNewlines  {@code true} if quoted values may contain newlines
+     */
+    public void setQuotedNewlines(boolean quotedNewlines) {
+        checkNotStarted();
+        this.quotedNewlines = quotedNewlines;
+    }
+
+    private void checkNotStarted() {
         if (started)
             throw new RuntimeException("Attempt to modify after reading started");
-        this.quote = quote;
+    }
+
+    /**
+     * Read the header line (if present) and the sample rows, and create the columns.  This is called automatically on
+     * first access to the columns or rows.
+     */
+    private synchronized void initialise() {
+        if (started)
+            return;
+        started = true;
+        List<ColumnAnalysis> analyses = new ArrayList<>();
+        try {
+            if (file != null) {
+                try (LineReader reader = new LineReader(file, charset, 0)) {
+                    String line = headerPresent ? readRecord(reader::readLine) : null;
+                    if (line != null)
+                        addColumns(analyses, CSV.splitLine(line, delimiter, quote), true);
+                    dataStart = reader.getPosition();
+                    while (sampleRows < sampleSize && (line = readRecord(reader::readLine)) != null) {
+                        analyse(analyses, line);
+                        if (line.indexOf('\n') >= 0)
+                            quotedNewlines = true;
+                    }
+                    sampleBytes = reader.getPosition() - dataStart;
+                }
+            }
+            else {
+                sampleLines = new ArrayDeque<>();
+                String line = headerPresent ? readRecord(brdr::readLine) : null;
+                if (line != null)
+                    addColumns(analyses, CSV.splitLine(line, delimiter, quote), true);
+                while (sampleRows < sampleSize && (line = readRecord(brdr::readLine)) != null) {
+                    analyse(analyses, line);
+                    sampleLines.add(line);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error reading CSV", e);
+        }
+        List<Column> resolved = new ArrayList<>();
+        for (ColumnAnalysis analysis : analyses)
+            resolved.add(analysis.resolve());
+        columns = resolved;
+    }
+
+    /**
+     * Read a row of CSV data: a line, followed by further lines while the quotes in a value remain open (the lines are
+     * joined with a newline).  A row with unclosed quotes at the end of the data is returned as read, and the error is
+     * reported when it is split into fields.
+     */
+    private String readRecord(LineSource source) throws IOException {
+        String line = source.readLine();
+        if (line == null || line.indexOf(quote) < 0) // the common case - no quotes, so no continuation lines
+            return line;
+        QuoteTracker tracker = new QuoteTracker(delimiter, quote, false);
+        tracker.accept(line);
+        if (!tracker.isQuoted())
+            return line;
+        StringBuilder sb = new StringBuilder(line);
+        while (tracker.isQuoted() && (line = source.readLine()) != null) {
+            sb.append('\n').append(line);
+            tracker.accept(line);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Find a row boundary near the mid-point of a byte range of the file (see the class description).
+     *
+     * @param   start   the start of the range (the start of a row)
+     * @param   end     the end of the range
+     * @return          the byte offset of the boundary, or -1 if no boundary was found
+     * @throws  IOException if thrown reading the file
+     */
+    private long findSplitPoint(long start, long end) throws IOException {
+        long mid = start + ((end - start) >>> 1);
+        long windowStart = Math.max(start, mid - splitWindow);
+        ByteBuffer buffer = ByteBuffer.allocate((int)(Math.min(end, mid + splitWindow) - windowStart));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, windowStart + buffer.position()) <= 0)
+                    break;
+            }
+        }
+        byte[] bytes = buffer.array();
+        int length = buffer.position();
+        int i = 0;
+        boolean known = windowStart == start; // the window starts at a row boundary, so the first assumption holds
+        if (!known) {
+            while (i < length && bytes[i] != '\n')
+                i++;
+            i++;
+        }
+        QuoteTracker unquoted = new QuoteTracker(delimiter, quote, false);
+        QuoteTracker quoted = new QuoteTracker(delimiter, quote, true);
+        long fallback = -1;
+        for (long midIndex = mid - windowStart; i < length; i++) {
+            int b = bytes[i] & 0xFF;
+            unquoted.accept(b);
+            quoted.accept(b);
+            if (b == '\n' && i >= midIndex && windowStart + i + 1 < end && !unquoted.isQuoted()) {
+                if (known || !quoted.isQuoted())
+                    return windowStart + i + 1;
+                if (fallback < 0)
+                    fallback = windowStart + i + 1;
+            }
+        }
+        if (!quotedNewlines)
+            return fallback;
+        long[] points = getSplitPoints();
+        int index = Arrays.binarySearch(points, mid);
+        if (index < 0)
+            index = -index - 1; // the first boundary after the mid-point
+        if (index >= points.length || points[index] >= end) {
+            index--; // or failing that, the last boundary before it
+            if (index < 0 || points[index] <= start)
+                return -1;
+        }
+        return points[index];
+    }
+
+    /**
+     * Get the row boundaries at which a file may be split, scanning the file on the first call.  Each boundary is the
+     * byte offset of the start of a row, and the boundaries are at least {@link #minimumSplitSize} bytes apart.
+     */
+    private long[] getSplitPoints() throws IOException {
+        long[] result = splitPoints;
+        if (result == null) {
+            synchronized (this) {
+                result = splitPoints;
+                if (result == null) {
+                    result = findSplitPoints();
+                    splitPoints = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private long[] findSplitPoints() throws IOException {
+        List<Long> points = new ArrayList<>();
+        QuoteTracker tracker = new QuoteTracker(delimiter, quote, false);
+        long next = dataStart + minimumSplitSize;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(LineReader.bufferSize);
+            byte[] bytes = buffer.array();
+            long position = dataStart;
+            int n;
+            while ((n = channel.read(buffer, position)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    int b = bytes[i] & 0xFF;
+                    tracker.accept(b);
+                    if (b == '\n' && !tracker.isQuoted() && position + i + 1 >= next) {
+                        points.add(position + i + 1);
+                        next = position + i + 1 + minimumSplitSize;
+                    }
+                }
+                position += n;
+                buffer.clear();
+            }
+        }
+        long[] result = new long[points.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = points.get(i);
+        return result;
+    }
+
+    private void addColumns(List<ColumnAnalysis> analyses, List<String> fields, boolean header) {
+        for (int i = 0, n = fields.size(); i < n; i++)
+            analyses.add(new ColumnAnalysis(header ? fields.get(i) : "col" + i));
+    }
+
+    private void analyse(List<ColumnAnalysis> analyses, String line) {
+        List<String> fields = CSV.splitLine(line, delimiter, quote);
+        if (!headerPresent && sampleRows == 0)
+            addColumns(analyses, fields, false);
+        int width = fields.size();
+        if (width != analyses.size())
+            throw new IllegalArgumentException("CSV number of fields inconsistent, row " + sampleRows +
+                    "; expected " + analyses.size() + ", was " + width);
+        for (int i = 0; i < width; i++)
+            analyses.get(i).analyse(fields.get(i));
+        sampleRows++;
+    }
+
+    private List<Column> getColumnList() {
+        List<Column> result = columns;
+        if (result == null) {
+            initialise();
+            result = columns;
+        }
+        return result;
     }
 
     @Override
     public Column getColumn(int columnNumber) {
-        return columns.get(columnNumber);
+        return getColumnList().get(columnNumber);
     }
 
     @Override
     public Column getColumn(String columnName) {
+        List<Column> columns = getColumnList();
         for (int i = 0, n = columns.size(); i < n; i++) {
             Column column = columns.get(i);
             if (column.getName().equals(columnName))
@@ -126,77 +459,285 @@ public class CSVQuery implements Query, AutoCloseable {
         throw new IllegalArgumentException("Can't locate column: " + columnName);
     }
 
+    private int getColumnIndex(Column column) {
+        for (int i = 0, n = columns.size(); i < n; i++)
+            if (columns.get(i) == column)
+                return i;
+        throw new IllegalArgumentException("Column is not part of this query: " + column.getName());
+    }
+
     @Override
     public boolean isNumRowsKnown() {
         return false;
     }
 
     @Override
-    public int getNumRows() {
-        return 0;
+    public long getNumRows() {
+        throw new UnsupportedOperationException("Number of rows not known");
     }
 
     @Override
     public int getNumColumns() {
-        return columns.size();
+        return getColumnList().size();
+    }
+
+    @Override
+    public Row getRow(long rowNumber) {
+        throw new UnsupportedOperationException("CSVQuery does not support access by row number");
+    }
+
+    @Override
+    public Query where(Condition condition) {
+        return new Filter(this, condition);
     }
 
     @Override
     public Iterator<Row> iterator() {
-        return new CSVIterator();
+        return Spliterators.iterator(spliterator());
     }
 
     @Override
     public Spliterator<Row> spliterator() {
-        return new CSVSpliterator();
+        initialise();
+        if (file != null)
+            return new CSVSpliterator(dataStart, file.length());
+        synchronized (this) {
+            if (streamRead)
+                throw new IllegalStateException("CSV stream can only be read once");
+            streamRead = true;
+        }
+        return new CSVStreamSpliterator();
     }
 
     @Override
     public void close() throws IOException {
-        brdr.close();
+        if (brdr != null)
+            brdr.close();
+    }
+
+    private Row createRow(long rowNumber, String line) {
+        List<String> fields = CSV.splitLine(line, delimiter, quote);
+        if (fields.size() != columns.size())
+            throw new IllegalArgumentException("CSV number of fields inconsistent, row " + rowNumber +
+                    "; expected " + columns.size() + ", was " + fields.size());
+        return new CSVRow(this, rowNumber, fields.toArray(new String[0]));
+    }
+
+    private static IllegalArgumentException typeMismatch(Column column, String value) {
+        return new IllegalArgumentException("Value does not match type of column " + column.getName() + ": " + value);
+    }
+
+    private static long toLong(Column column, String value) {
+        if (column.getType() == Column.Type.integer) {
+            if (value.isEmpty())
+                return 0;
+            ValueParser parser = new ValueParser();
+            if (parser.parseLong(value))
+                return parser.getLong();
+            try {
+                return Long.parseLong(value);
+            }
+            catch (NumberFormatException nfe) {
+                throw typeMismatch(column, value);
+            }
+        }
+        if (column.getType() == Column.Type.date) {
+            if (value.isEmpty())
+                return 0;
+            ValueParser parser = new ValueParser();
+            if (parser.parseDate(value))
+                return parser.getLong(); // epoch day
+            try {
+                return LocalDate.parse(value).toEpochDay();
+            }
+            catch (DateTimeParseException e) {
+                throw typeMismatch(column, value);
+            }
+        }
+        throw new IllegalStateException("Column can not return <long>");
     }
 
-    public class CSVIterator implements Iterator<Row> {
+    private static Number toNumber(Column column, String value) {
+        if (column.getType() == Column.Type.integer)
+            return value.isEmpty() ? null : toLong(column, value);
+        if (column.getType() == Column.Type.floating) {
+            if (value.isEmpty())
+                return null;
+            ValueParser parser = new ValueParser();
+            if (parser.parseDouble(value))
+                return parser.getDouble();
+            try {
+                return Double.valueOf(value);
+            }
+            catch (NumberFormatException nfe) {
+                throw typeMismatch(column, value);
+            }
+        }
+        throw new IllegalStateException("Column can not return <Number>");
+    }
+
+    /**
+     * A {@link Row} holding the values from a line of CSV data.  The values are converted to the types of the columns
+     * as they are accessed.
+     */
+    public static class CSVRow extends Row {
+
+        private CSVQuery query;
+        private String[] values;
+
+        public CSVRow(CSVQuery query, long rowNumber, String[] values) {
+            super(query, rowNumber);
+            this.query = query;
+            this.values = values;
+        }
+
+        @Override
+        public boolean isNull(Column column) {
+            return values[query.getColumnIndex(column)].isEmpty();
+        }
+
+        @Override
+        public long getLong(Column column) {
+            return toLong(column, values[query.getColumnIndex(column)]);
+        }
 
         @Override
-        public boolean hasNext() {
-            started = true;
-            if (atEnd)
+        public Number getNumber(Column column) {
+            return toNumber(column, values[query.getColumnIndex(column)]);
+        }
+
+        @Override
+        public String getString(Column column) {
+            return values[query.getColumnIndex(column)];
+        }
+
+        @Override
+        public void appendString(Appendable a, Column column) throws IOException {
+            a.append(values[query.getColumnIndex(column)]);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(values);
+        }
+
+    }
+
+    /**
+     * A {@link Spliterator} for a byte range of a file.  The range starts at the start of a row, and covers the rows
+     * that start within it; the file is opened on the first call to {@link #tryAdvance(Consumer)}, and until then the
+     * range may be split in two at a row boundary near its mid-point.
+     */
+    public class CSVSpliterator implements Spliterator<Row> {
+
+        private long start;
+        private long end;
+        private LineReader reader;
+        private boolean finished;
+
+        public CSVSpliterator(long start, long end) {
+            this.start = start;
+            this.end = end;
+            reader = null;
+            finished = start >= end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Row> action) {
+            Objects.requireNonNull(action);
+            if (finished)
                 return false;
-            if (line != null)
-                return true;
             try {
-                line = brdr.readLine();
+                if (reader == null)
+                    reader = new LineReader(file, charset, start);
+                long rowNumber = reader.getPosition();
+                String line = rowNumber < end ? readRecord(reader::readLine) : null;
+                if (line == null) {
+                    finish();
+                    return false;
+                }
+                action.accept(createRow(rowNumber, line));
+                return true;
             }
             catch (IOException e) {
+                finish();
                 throw new RuntimeException("Error reading CSV", e);
             }
-            if (line == null) {
-                atEnd = true;
-                return false;
+            catch (RuntimeException e) {
+                finish();
+                throw e;
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException ignore) {
+                }
+                reader = null;
             }
-            return true;
         }
 
         @Override
-        public Row next() {
-            return null; // TODO split line into columns
+        public Spliterator<Row> trySplit() {
+            if (reader != null || finished || end - start < minimumSplitSize * 2)
+                return null;
+            long mid;
+            try {
+                mid = findSplitPoint(start, end);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error reading CSV", e);
+            }
+            if (mid < 0)
+                return null;
+            Spliterator<Row> prefix = new CSVSpliterator(start, mid);
+            start = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            if (finished)
+                return 0;
+            long remaining = end - (reader == null ? start : reader.getPosition());
+            return sampleRows == 0 ? remaining : Math.max(remaining * sampleRows / Math.max(sampleBytes, 1), 1);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | IMMUTABLE | NONNULL;
         }
 
     }
 
-    public class CSVSpliterator implements Spliterator<Row> {
+    /**
+     * A {@link Spliterator} for a stream; the lines read for the sample are returned first.  A stream can not be
+     * split.
+     */
+    public class CSVStreamSpliterator implements Spliterator<Row> {
 
-        private CSVIterator iterator = new CSVIterator();
+        private long rowNumber = 0;
 
         @Override
         public boolean tryAdvance(Consumer<? super Row> action) {
             Objects.requireNonNull(action);
-            if (iterator.hasNext()) {
-                action.accept(iterator.next());
-                return true;
+            String line = sampleLines.poll();
+            if (line == null) {
+                try {
+                    line = readRecord(brdr::readLine);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException("Error reading CSV", e);
+                }
+                if (line == null)
+                    return false;
             }
-            return false;
+            action.accept(createRow(rowNumber++, line));
+            return true;
         }
 
         @Override
@@ -206,21 +747,163 @@ public class CSVQuery implements Query, AutoCloseable {
 
         @Override
         public long estimateSize() {
-            return 1000; // arbitrary - is this useful?
+            return Long.MAX_VALUE; // unknown
         }
 
         @Override
         public int characteristics() {
-            return ORDERED | IMMUTABLE;
+            return ORDERED | IMMUTABLE | NONNULL;
         }
 
     }
 
-    public class Options {
+    /**
+     * A source of lines: a {@link BufferedReader} or a {@link LineReader}.
+     */
+    @FunctionalInterface
+    private interface LineSource {
+        String readLine() throws IOException;
+    }
+
+    /**
+     * Tracks whether a position in CSV data is within a quoted value, following the rules of
+     * {@link CSV#splitLine(String, char, char)}: a quote opens a quoted value only at the start of a field, and within
+     * a quoted value a doubled quote stands for a single quote character.
+     */
+    private static class QuoteTracker {
+
+        private int delimiter;
+        private int quote;
+        private boolean quoted;
+        private boolean quoteAllowed;
+
+        public QuoteTracker(int delimiter, int quote, boolean quoted) {
+            this.delimiter = delimiter;
+            this.quote = quote;
+            this.quoted = quoted;
+            quoteAllowed = true;
+        }
 
-        private char separator;
-        private char quote;
-        private boolean headerPresent;
+        public boolean isQuoted() {
+            return quoted;
+        }
+
+        public void accept(int ch) {
+            if (quoted) {
+                if (ch == quote) {
+                    quoted = false;
+                    quoteAllowed = true; // a following quote is a doubled quote, re-opening the value
+                }
+            }
+            else if (ch == quote && quoteAllowed)
+                quoted = true;
+            else
+                quoteAllowed = ch == delimiter || ch == '\n';
+        }
+
+        public void accept(String line) {
+            for (int i = 0, n = line.length(); i < n; i++)
+                accept(line.charAt(i));
+            accept('\n');
+        }
+
+    }
+
+    /**
+     * Line reader for a file, reading through a {@link FileChannel} from a nominated position and keeping track of
+     * the file position of each line.  A line ends with a newline, and a preceding carriage return is removed.
+     */
+    private static class LineReader implements AutoCloseable {
+
+        private static final int bufferSize = 64 * 1024;
+
+        private FileChannel channel;
+        private Charset charset;
+        private ByteBuffer buffer;
+        private byte[] bytes;
+        private int index;
+        private int limit;
+        private long filePosition;
+        private long position;
+        private byte[] lineBytes;
+
+        public LineReader(File file, Charset charset, long position) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.charset = charset;
+            bytes = new byte[bufferSize];
+            buffer = ByteBuffer.wrap(bytes);
+            index = 0;
+            limit = 0;
+            filePosition = position;
+            this.position = position;
+            lineBytes = null;
+        }
+
+        /**
+         * Get the file position of the start of the next line.
+         *
+         * @return  the position
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        public String readLine() throws IOException {
+            int length = 0;
+            for (;;) {
+                if (index == limit && !fill()) {
+                    if (length == 0)
+                        return null;
+                    break;
+                }
+                int start = index;
+                while (index < limit && bytes[index] != '\n')
+                    index++;
+                int n = index - start;
+                position += n;
+                if (index < limit) {
+                    index++;
+                    position++;
+                    if (length == 0) // the common case - the line is entirely within the buffer
+                        return decode(bytes, start, n);
+                    append(start, n, length);
+                    length += n;
+                    break;
+                }
+                append(start, n, length);
+                length += n;
+            }
+            return decode(lineBytes, 0, length);
+        }
+
+        private void append(int start, int n, int length) {
+            if (lineBytes == null || lineBytes.length < length + n)
+                lineBytes = lineBytes == null ? new byte[Math.max(n * 2, 256)] :
+                        Arrays.copyOf(lineBytes, Math.max(lineBytes.length * 2, length + n));
+            System.arraycopy(bytes, start, lineBytes, length, n);
+        }
+
+        private String decode(byte[] array, int start, int n) {
+            if (n > 0 && array[start + n - 1] == '\r')
+                n--;
+            return new String(array, start, n, charset);
+        }
+
+        private boolean fill() throws IOException {
+            buffer.clear();
+            int n = channel.read(buffer, filePosition);
+            if (n <= 0)
+                return false;
+            filePosition += n;
+            index = 0;
+            limit = n;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
 
     }
 
@@ -0,0 +1,147 @@
+/*
+ * @(#) Concatenation.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.Row;
+
+/**
+ * A {@link Query} that presents the rows of a list of queries with the same columns, one query after another.  The
+ * {@link Row} objects returned are those of the individual queries, so column values are always read from the query
+ * that holds the row; the {@link Column} objects describe the values of all the queries (see
+ * {@link Column#merge(List)}), or the columns of a nominated schema if there are no queries.
+ *
+ * @author  Peter Wall
+ */
+public class Concatenation implements Query {
+
+    private Query schema;
+    private List<? extends Query> queries;
+    private long[] starts;
+    private List<Column> columns;
+
+    /**
+     * Create a {@code Concatenation} of a list of queries.
+     *
+     * @param   schema      a {@link Query} supplying the columns if the list is empty (for example, the table from which
+     *                      the queries were derived), or {@code null}
+     * @param   queries     the list of queries
+     */
+    public Concatenation(Query schema, List<? extends Query> queries) {
+        this.schema = schema;
+        this.queries = queries;
+        starts = null;
+        columns = null;
+    }
+
+    public Concatenation(List<? extends Query> queries) {
+        this(null, queries);
+    }
+
+    public List<? extends Query> getQueries() {
+        return queries;
+    }
+
+    private synchronized long[] getStarts() {
+        if (starts == null) {
+            int n = queries.size();
+            long[] result = new long[n + 1];
+            for (int i = 0; i < n; i++)
+                result[i + 1] = Math.addExact(result[i], queries.get(i).getNumRows());
+            starts = result;
+        }
+        return starts;
+    }
+
+    @Override
+    public boolean isNumRowsKnown() {
+        for (Query query : queries)
+            if (!query.isNumRowsKnown())
+                return false;
+        return true;
+    }
+
+    @Override
+    public long getNumRows() {
+        long[] starts = getStarts();
+        return starts[starts.length - 1];
+    }
+
+    private synchronized List<Column> getColumnList() {
+        if (columns == null) {
+            List<Column> result = new ArrayList<>();
+            if (queries.isEmpty()) {
+                if (schema != null)
+                    for (Column column : schema.getColumns())
+                        result.add(column);
+            }
+            else {
+                for (int i = 0, n = queries.get(0).getNumColumns(); i < n; i++) {
+                    List<Column> queryColumns = new ArrayList<>(queries.size());
+                    for (Query query : queries)
+                        queryColumns.add(query.getColumn(i));
+                    result.add(Column.merge(queryColumns));
+                }
+            }
+            columns = result;
+        }
+        return columns;
+    }
+
+    @Override
+    public int getNumColumns() {
+        return getColumnList().size();
+    }
+
+    @Override
+    public Column getColumn(int i) {
+        List<Column> columns = getColumnList();
+        if (i < 0 || i >= columns.size())
+            throw new IndexOutOfBoundsException("Column number out of range: " + i);
+        return columns.get(i);
+    }
+
+    @Override
+    public Row getRow(long rowNumber) {
+        long[] starts = getStarts();
+        if (rowNumber < 0 || rowNumber >= starts[starts.length - 1])
+            throw new IndexOutOfBoundsException("Row number out of range: " + rowNumber);
+        int lo = 0;
+        int hi = starts.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= rowNumber)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return queries.get(lo).getRow(rowNumber - starts[lo]);
+    }
+
+}
@@ -0,0 +1,928 @@
+/*
+ * @(#) Condition.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.Row;
+import net.pwall.doric.RowRange;
+import net.pwall.doric.Table;
+import net.pwall.doric.index.Bitmap;
+import net.pwall.doric.index.BitmapIndex;
+import net.pwall.doric.index.BloomFilter;
+import net.pwall.doric.index.SortedIndex;
+import net.pwall.doric.index.TextIndex;
+
+/**
+ * A condition to be applied to the rows of a {@link Query}.  As well as testing individual rows, a condition may be
+ * able to restrict the rows to be tested, for example by using a binary search on a sorted column, or to identify the
+ * matching rows directly from an index.
+ *
+ * @author  Peter Wall
+ */
+public abstract class Condition {
+
+    /**
+     * Test whether a row satisfies the condition.  A null value does not satisfy any condition on the column.
+     *
+     * @param   row     the {@link Row}
+     * @return          {@code true} if the row satisfies the condition
+     * @throws  IOException if thrown by the column input
+     */
+    public abstract boolean test(Row row) throws IOException;
+
+    /**
+     * Get the range of rows within a {@link Table} that may satisfy the condition.  Rows outside this range are
+     * guaranteed not to satisfy the condition; rows inside it must still be tested.  The default implementation
+     * returns all rows in the table.
+     *
+     * @param   table   the {@link Table}
+     * @return          the {@link RowRange}
+     * @throws  IOException if thrown by the column input
+     */
+    public RowRange getRowRange(Table table) throws IOException {
+        return new RowRange(0, table.getNumRows());
+    }
+
+    /**
+     * Get the exact set of rows within a {@link Table} that satisfy the condition, if that can be determined from
+     * indexes without testing the individual rows.  The default implementation returns {@code null}.
+     *
+     * @param   table   the {@link Table}
+     * @return          a {@link Bitmap} of the matching rows, or {@code null} if not available
+     * @throws  IOException if thrown reading the index
+     */
+    public Bitmap getRows(Table table) throws IOException {
+        return null;
+    }
+
+    /**
+     * Get a set of rows within a {@link Table} that includes all the rows that may satisfy the condition.  Rows not in
+     * this set are guaranteed not to satisfy the condition; rows in it must still be tested.  The default
+     * implementation returns the result of {@link #getRows(Table)}.
+     *
+     * @param   table   the {@link Table}
+     * @return          a {@link Bitmap} of the candidate rows, or {@code null} if not available
+     * @throws  IOException if thrown reading the index
+     */
+    public Bitmap getCandidateRows(Table table) throws IOException {
+        return getRows(table);
+    }
+
+    /**
+     * Test whether any row could satisfy the condition, judged only from column metadata (the minimum and maximum
+     * values recorded for each column).  This is used to exclude partitions of a partitioned table without reading any
+     * column data.  The default implementation returns {@code true}.
+     *
+     * @param   columns a function to locate the metadata {@link Column} for a column name, returning {@code null} if
+     *                  no metadata is available for the column
+     * @return          {@code false} if no row can satisfy the condition
+     */
+    public boolean mayMatch(Function<String, Column> columns) {
+        return true;
+    }
+
+    /**
+     * Get a normalised description of the condition, for use as a cache key.  Conditions that are logically the same
+     * produce the same key: the order of the conditions in an {@code and} or {@code or} is ignored, lists of values
+     * are sorted with duplicates removed, and a list of one value is treated as an equality test.  The default
+     * implementation returns {@code null}, meaning that the condition has no key (and results using it will not be
+     * cached).
+     *
+     * @return  the key, or {@code null}
+     * @see     net.pwall.doric.QueryCache
+     */
+    public String getKey() {
+        return null;
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\')
+                sb.append('\\');
+            sb.append(ch);
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    private static String rangeKey(String kind, String columnName, String low, String high) {
+        if (low.equals(high))
+            return "eq(" + kind + ',' + quote(columnName) + ',' + low + ')';
+        return "between(" + kind + ',' + quote(columnName) + ',' + low + ',' + high + ')';
+    }
+
+    private static String inKey(String kind, String columnName, List<String> values) {
+        if (values.size() == 1)
+            return "eq(" + kind + ',' + quote(columnName) + ',' + values.get(0) + ')';
+        return "in(" + kind + ',' + quote(columnName) + ',' + String.join(",", values) + ')';
+    }
+
+    private static String combinedKey(String operator, Class<? extends Condition> type, Condition[] conditions) {
+        TreeSet<String> keys = new TreeSet<>();
+        if (!addKeys(keys, type, conditions))
+            return null;
+        return keys.size() == 1 ? keys.first() : operator + '(' + String.join(",", keys) + ')';
+    }
+
+    private static boolean addKeys(TreeSet<String> keys, Class<? extends Condition> type, Condition[] conditions) {
+        for (Condition condition : conditions) {
+            if (condition.getClass() == type) { // and(a, and(b, c)) is the same as and(a, b, c)
+                Condition[] nested = condition instanceof And ? ((And)condition).conditions :
+                        ((Or)condition).conditions;
+                if (!addKeys(keys, type, nested))
+                    return false;
+            }
+            else {
+                String key = condition.getKey();
+                if (key == null)
+                    return false;
+                keys.add(key);
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLongColumn(Column column) {
+        return column != null && (column.getType() == Column.Type.integer || column.getType() == Column.Type.date);
+    }
+
+    public static Condition equal(String columnName, long value) {
+        return new LongRange(columnName, value, value);
+    }
+
+    public static Condition equal(String columnName, double value) {
+        return new DoubleRange(columnName, value, value);
+    }
+
+    public static Condition equal(String columnName, String value) {
+        return new StringRange(columnName, value, value);
+    }
+
+    public static Condition between(String columnName, long low, long high) {
+        return new LongRange(columnName, low, high);
+    }
+
+    public static Condition between(String columnName, double low, double high) {
+        return new DoubleRange(columnName, low, high);
+    }
+
+    public static Condition between(String columnName, String low, String high) {
+        return new StringRange(columnName, low, high);
+    }
+
+    public static Condition in(String columnName, long ... values) {
+        return new LongIn(columnName, values);
+    }
+
+    public static Condition in(String columnName, String ... values) {
+        return new StringIn(columnName, values);
+    }
+
+    public static Condition contains(String columnName, String substring) {
+        return new Contains(columnName, substring);
+    }
+
+    public static Condition startsWith(String columnName, String prefix) {
+        return new StartsWith(columnName, prefix);
+    }
+
+    public static Condition containsToken(String columnName, String token) {
+        return new ContainsToken(columnName, token);
+    }
+
+    public static Condition and(Condition ... conditions) {
+        return new And(conditions);
+    }
+
+    public static Condition or(Condition ... conditions) {
+        return new Or(conditions);
+    }
+
+    /**
+     * A range condition on an integer or date column (dates are specified as epoch days).
+     */
+    public static class LongRange extends Condition {
+
+        private String columnName;
+        private long low;
+        private long high;
+
+        public LongRange(String columnName, long low, long high) {
+            this.columnName = columnName;
+            this.low = low;
+            this.high = high;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public long getLow() {
+            return low;
+        }
+
+        public long getHigh() {
+            return high;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            if (row.isNull(columnName))
+                return false;
+            long value = row.getLong(columnName);
+            return value >= low && value <= high;
+        }
+
+        @Override
+        public RowRange getRowRange(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            if (Table.isSearchable(column) &&
+                    (column.getType() == Column.Type.integer || column.getType() == Column.Type.date))
+                return table.findRange(columnName, low, high);
+            return super.getRowRange(table);
+        }
+
+        @Override
+        public Bitmap getRows(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            if (column.getType() != Column.Type.integer && column.getType() != Column.Type.date)
+                return null;
+            BitmapIndex bitmapIndex = column.getBitmapIndex();
+            if (bitmapIndex != null)
+                return bitmapIndex.getRows(low, high);
+            SortedIndex sortedIndex = column.getSortedIndex();
+            if (sortedIndex != null)
+                return sortedIndex.getRows(low, high);
+            return null;
+        }
+
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            Bitmap rows = getRows(table);
+            if (rows != null || low != high)
+                return rows;
+            Column column = table.getColumn(columnName);
+            BloomFilter bloomFilter = column.getBloomFilter();
+            return bloomFilter == null || column.getType() != Column.Type.integer &&
+                    column.getType() != Column.Type.date ? null : bloomFilter.getCandidateRows(low);
+        }
+
+        @Override
+        public boolean mayMatch(Function<String, Column> columns) {
+            Column column = columns.apply(columnName);
+            return !isLongColumn(column) || low <= column.getMaxInt() && high >= column.getMinInt();
+        }
+
+        @Override
+        public String getKey() {
+            return rangeKey("long", columnName, String.valueOf(low), String.valueOf(high));
+        }
+
+    }
+
+    /**
+     * A range condition on a floating-point column.
+     */
+    public static class DoubleRange extends Condition {
+
+        private String columnName;
+        private double low;
+        private double high;
+
+        public DoubleRange(String columnName, double low, double high) {
+            this.columnName = columnName;
+            this.low = low;
+            this.high = high;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public double getLow() {
+            return low;
+        }
+
+        public double getHigh() {
+            return high;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            if (row.isNull(columnName))
+                return false;
+            double value = row.getNumber(columnName).doubleValue();
+            return value >= low && value <= high;
+        }
+
+        @Override
+        public RowRange getRowRange(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            if (Table.isSearchable(column) && column.getType() == Column.Type.floating)
+                return table.findRange(columnName, low, high);
+            return super.getRowRange(table);
+        }
+
+        @Override
+        public Bitmap getRows(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            BitmapIndex bitmapIndex = column.getBitmapIndex();
+            return bitmapIndex == null || column.getType() != Column.Type.floating ? null :
+                    bitmapIndex.getRows(low, high);
+        }
+
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            Bitmap rows = getRows(table);
+            if (rows != null || low != high)
+                return rows;
+            Column column = table.getColumn(columnName);
+            BloomFilter bloomFilter = column.getBloomFilter();
+            return bloomFilter == null || column.getType() != Column.Type.floating ? null :
+                    bloomFilter.getCandidateRows(low);
+        }
+
+        @Override
+        public boolean mayMatch(Function<String, Column> columns) {
+            Column column = columns.apply(columnName);
+            if (column == null)
+                return true;
+            if (column.getType() == Column.Type.floating)
+                return low <= column.getMaxFloat() && high >= column.getMinFloat();
+            if (column.getType() == Column.Type.integer)
+                return low <= column.getMaxInt() && high >= column.getMinInt();
+            return true;
+        }
+
+        @Override
+        public String getKey() {
+            return rangeKey("double", columnName, String.valueOf(low + 0.0), String.valueOf(high + 0.0));
+        }
+
+    }
+
+    /**
+     * A range condition on a string column.
+     */
+    public static class StringRange extends Condition {
+
+        private String columnName;
+        private String low;
+        private String high;
+
+        public StringRange(String columnName, String low, String high) {
+            this.columnName = columnName;
+            this.low = low;
+            this.high = high;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public String getLow() {
+            return low;
+        }
+
+        public String getHigh() {
+            return high;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            if (row.isNull(columnName))
+                return false;
+            String value = row.getString(columnName);
+            return value.compareTo(low) >= 0 && value.compareTo(high) <= 0;
+        }
+
+        @Override
+        public RowRange getRowRange(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            if (Table.isSearchable(column) && column.getType() == Column.Type.undetermined)
+                return table.findRange(columnName, low, high);
+            return super.getRowRange(table);
+        }
+
+        @Override
+        public Bitmap getRows(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            BitmapIndex bitmapIndex = column.getBitmapIndex();
+            return bitmapIndex == null || column.getType() != Column.Type.undetermined ? null :
+                    bitmapIndex.getRows(low, high);
+        }
+
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            Bitmap rows = getRows(table);
+            if (rows != null || !low.equals(high))
+                return rows;
+            Column column = table.getColumn(columnName);
+            BloomFilter bloomFilter = column.getBloomFilter();
+            return bloomFilter == null || column.getType() != Column.Type.undetermined ? null :
+                    bloomFilter.getCandidateRows(low);
+        }
+
+        @Override
+        public String getKey() {
+            return rangeKey("string", columnName, quote(low), quote(high));
+        }
+
+    }
+
+    /**
+     * A condition on an integer or date column, satisfied if the value is one of a list of values.
+     */
+    public static class LongIn extends Condition {
+
+        private String columnName;
+        private long[] values;
+
+        public LongIn(String columnName, long ... values) {
+            if (values.length == 0)
+                throw new IllegalArgumentException("No values");
+            this.columnName = columnName;
+            this.values = values;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public long[] getValues() {
+            return values;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            if (row.isNull(columnName))
+                return false;
+            long value = row.getLong(columnName);
+            for (long v : values)
+                if (v == value)
+                    return true;
+            return false;
+        }
+
+        @Override
+        public RowRange getRowRange(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            if (!Table.isSearchable(column) ||
+                    column.getType() != Column.Type.integer && column.getType() != Column.Type.date)
+                return super.getRowRange(table);
+            RowRange result = table.findRange(columnName, values[0], values[0]);
+            for (int i = 1, n = values.length; i < n; i++)
+                result = result.span(table.findRange(columnName, values[i], values[i]));
+            return result;
+        }
+
+        @Override
+        public Bitmap getRows(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            if (column.getType() != Column.Type.integer && column.getType() != Column.Type.date)
+                return null;
+            BitmapIndex bitmapIndex = column.getBitmapIndex();
+            SortedIndex sortedIndex = column.getSortedIndex();
+            if (bitmapIndex == null && sortedIndex == null)
+                return null;
+            Bitmap result = new Bitmap();
+            for (long value : values)
+                result = result.or(bitmapIndex != null ? bitmapIndex.getRows(value, value) :
+                        sortedIndex.getRows(value, value));
+            return result;
+        }
+
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            Bitmap rows = getRows(table);
+            if (rows != null)
+                return rows;
+            Column column = table.getColumn(columnName);
+            BloomFilter bloomFilter = column.getBloomFilter();
+            if (bloomFilter == null || column.getType() != Column.Type.integer && column.getType() != Column.Type.date)
+                return null;
+            Bitmap result = new Bitmap();
+            for (long value : values)
+                result = result.or(bloomFilter.getCandidateRows(value));
+            return result;
+        }
+
+        @Override
+        public boolean mayMatch(Function<String, Column> columns) {
+            Column column = columns.apply(columnName);
+            if (!isLongColumn(column))
+                return true;
+            for (long value : values)
+                if (value >= column.getMinInt() && value <= column.getMaxInt())
+                    return true;
+            return false;
+        }
+
+        @Override
+        public String getKey() {
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < sorted.length; i++)
+                if (i == 0 || sorted[i] != sorted[i - 1])
+                    keys.add(String.valueOf(sorted[i]));
+            return inKey("long", columnName, keys);
+        }
+
+    }
+
+    /**
+     * A condition on a string column, satisfied if the value is one of a list of values.
+     */
+    public static class StringIn extends Condition {
+
+        private String columnName;
+        private String[] values;
+
+        public StringIn(String columnName, String ... values) {
+            if (values.length == 0)
+                throw new IllegalArgumentException("No values");
+            this.columnName = columnName;
+            this.values = values;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public String[] getValues() {
+            return values;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            if (row.isNull(columnName))
+                return false;
+            String value = row.getString(columnName);
+            for (String v : values)
+                if (v.equals(value))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public RowRange getRowRange(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            if (!Table.isSearchable(column) || column.getType() != Column.Type.undetermined)
+                return super.getRowRange(table);
+            RowRange result = table.findRange(columnName, values[0], values[0]);
+            for (int i = 1, n = values.length; i < n; i++)
+                result = result.span(table.findRange(columnName, values[i], values[i]));
+            return result;
+        }
+
+        @Override
+        public Bitmap getRows(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            BitmapIndex bitmapIndex = column.getBitmapIndex();
+            if (bitmapIndex == null || column.getType() != Column.Type.undetermined)
+                return null;
+            Bitmap result = new Bitmap();
+            for (String value : values)
+                result = result.or(bitmapIndex.getRows(value, value));
+            return result;
+        }
+
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            Bitmap rows = getRows(table);
+            if (rows != null)
+                return rows;
+            Column column = table.getColumn(columnName);
+            BloomFilter bloomFilter = column.getBloomFilter();
+            if (bloomFilter == null || column.getType() != Column.Type.undetermined)
+                return null;
+            Bitmap result = new Bitmap();
+            for (String value : values)
+                result = result.or(bloomFilter.getCandidateRows(value));
+            return result;
+        }
+
+        @Override
+        public String getKey() {
+            List<String> keys = new ArrayList<>();
+            for (String value : new TreeSet<>(Arrays.asList(values)))
+                keys.add(quote(value));
+            return inKey("string", columnName, keys);
+        }
+
+    }
+
+    /**
+     * A condition on a string column, satisfied if the value contains the nominated substring (the equivalent of SQL
+     * {@code LIKE '%substring%'}).
+     */
+    public static class Contains extends Condition {
+
+        private String columnName;
+        private String substring;
+
+        public Contains(String columnName, String substring) {
+            this.columnName = columnName;
+            this.substring = substring;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public String getSubstring() {
+            return substring;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            return !row.isNull(columnName) && row.getString(columnName).contains(substring);
+        }
+
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            TextIndex textIndex = table.getColumn(columnName).getTextIndex();
+            return textIndex == null ? null : textIndex.getCandidatesContaining(substring);
+        }
+
+        @Override
+        public String getKey() {
+            return "contains(" + quote(columnName) + ',' + quote(substring) + ')';
+        }
+
+    }
+
+    /**
+     * A condition on a string column, satisfied if the value starts with the nominated prefix.
+     */
+    public static class StartsWith extends Condition {
+
+        private String columnName;
+        private String prefix;
+
+        public StartsWith(String columnName, String prefix) {
+            this.columnName = columnName;
+            this.prefix = prefix;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            return !row.isNull(columnName) && row.getString(columnName).startsWith(prefix);
+        }
+
+        /**
+         * Get the range of rows that start with the prefix.  If the column is sorted, the rows starting with the
+         * prefix will be contiguous, and the range is found by binary search on the prefix itself.
+         *
+         * @param   table   the {@link Table}
+         * @return          the {@link RowRange}
+         * @throws  IOException if thrown by the column input
+         */
+        @Override
+        public RowRange getRowRange(Table table) throws IOException {
+            Column column = table.getColumn(columnName);
+            if (Table.isSearchable(column) && column.getType() == Column.Type.undetermined)
+                return table.findPrefixRange(columnName, prefix);
+            return super.getRowRange(table);
+        }
+
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            TextIndex textIndex = table.getColumn(columnName).getTextIndex();
+            return textIndex == null ? null : textIndex.getCandidatesStartingWith(prefix);
+        }
+
+        @Override
+        public String getKey() {
+            return "startsWith(" + quote(columnName) + ',' + quote(prefix) + ')';
+        }
+
+    }
+
+    /**
+     * A condition on a string column, satisfied if the value contains the nominated token, where the value is split
+     * into tokens consisting of letters and digits.
+     */
+    public static class ContainsToken extends Condition {
+
+        private String columnName;
+        private String token;
+
+        public ContainsToken(String columnName, String token) {
+            this.columnName = columnName;
+            this.token = token;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            return !row.isNull(columnName) && TextIndex.tokens(row.getString(columnName)).contains(token);
+        }
+
+        @Override
+        public Bitmap getRows(Table table) throws IOException {
+            TextIndex textIndex = table.getColumn(columnName).getTextIndex();
+            return textIndex == null ? null : textIndex.getRowsWithToken(token);
+        }
+
+        @Override
+        public String getKey() {
+            return "containsToken(" + quote(columnName) + ',' + quote(token) + ')';
+        }
+
+    }
+
+    /**
+     * A condition that is satisfied only if all of the nominated conditions are satisfied.
+     */
+    public static class And extends Condition {
+
+        private Condition[] conditions;
+
+        public And(Condition ... conditions) {
+            if (conditions.length == 0)
+                throw new IllegalArgumentException("No conditions");
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            for (Condition condition : conditions)
+                if (!condition.test(row))
+                    return false;
+            return true;
+        }
+
+        @Override
+        public RowRange getRowRange(Table table) throws IOException {
+            RowRange result = conditions[0].getRowRange(table);
+            for (int i = 1, n = conditions.length; i < n && !result.isEmpty(); i++)
+                result = result.intersect(conditions[i].getRowRange(table));
+            return result;
+        }
+
+        @Override
+        public Bitmap getRows(Table table) throws IOException {
+            Bitmap result = null;
+            for (Condition condition : conditions) {
+                Bitmap rows = condition.getRows(table);
+                if (rows == null)
+                    return null;
+                result = result == null ? rows : result.and(rows);
+            }
+            return result;
+        }
+
+        /**
+         * Get the candidate rows for the combined condition.  Conditions that can not supply candidate rows are
+         * ignored, so that (for example) an indexed condition combined with a non-indexed condition will restrict the
+         * rows to be tested to those selected by the index.
+         *
+         * @param   table   the {@link Table}
+         * @return          a {@link Bitmap} of the candidate rows, or {@code null} if not available
+         * @throws  IOException if thrown reading the index
+         */
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            Bitmap result = null;
+            for (Condition condition : conditions) {
+                Bitmap rows = condition.getCandidateRows(table);
+                if (rows != null)
+                    result = result == null ? rows : result.and(rows);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean mayMatch(Function<String, Column> columns) {
+            for (Condition condition : conditions)
+                if (!condition.mayMatch(columns))
+                    return false;
+            return true;
+        }
+
+        @Override
+        public String getKey() {
+            return combinedKey("and", And.class, conditions);
+        }
+
+    }
+
+    /**
+     * A condition that is satisfied if any of the nominated conditions is satisfied.
+     */
+    public static class Or extends Condition {
+
+        private Condition[] conditions;
+
+        public Or(Condition ... conditions) {
+            if (conditions.length == 0)
+                throw new IllegalArgumentException("No conditions");
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean test(Row row) throws IOException {
+            for (Condition condition : conditions)
+                if (condition.test(row))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public RowRange getRowRange(Table table) throws IOException {
+            RowRange result = conditions[0].getRowRange(table);
+            for (int i = 1, n = conditions.length; i < n; i++)
+                result = result.span(conditions[i].getRowRange(table));
+            return result;
+        }
+
+        @Override
+        public Bitmap getRows(Table table) throws IOException {
+            Bitmap result = new Bitmap();
+            for (Condition condition : conditions) {
+                Bitmap rows = condition.getRows(table);
+                if (rows == null)
+                    return null;
+                result = result.or(rows);
+            }
+            return result;
+        }
+
+        @Override
+        public Bitmap getCandidateRows(Table table) throws IOException {
+            Bitmap result = new Bitmap();
+            for (Condition condition : conditions) {
+                Bitmap rows = condition.getCandidateRows(table);
+                if (rows == null)
+                    return null;
+                result = result.or(rows);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean mayMatch(Function<String, Column> columns) {
+            for (Condition condition : conditions)
+                if (condition.mayMatch(columns))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public String getKey() {
+            return combinedKey("or", Or.class, conditions);
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * @(#) Filter.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.query;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.Row;
+
+/**
+ * A {@link Query} that selects the rows of a source {@link Query} that satisfy a {@link Condition}, testing the rows as
+ * they are read from the source.  This is the streaming counterpart of {@link Where}, for sources (such as
+ * {@link CSVQuery}) that can only be read in sequence; the rows can be read only through the iterator or the
+ * spliterator, and the spliterator splits whenever the source spliterator splits.
+ *
+ * @author  Peter Wall
+ */
+public class Filter implements Query {
+
+    private Query source;
+    private Condition condition;
+
+    public Filter(Query source, Condition condition) {
+        this.source = source;
+        this.condition = condition;
+    }
+
+    public Query getSource() {
+        return source;
+    }
+
+    public Condition getCondition() {
+        return condition;
+    }
+
+    @Override
+    public boolean isNumRowsKnown() {
+        return false;
+    }
+
+    @Override
+    public long getNumRows() {
+        throw new UnsupportedOperationException("Number of rows not known");
+    }
+
+    @Override
+    public int getNumColumns() {
+        return source.getNumColumns();
+    }
+
+    @Override
+    public Column getColumn(int i) {
+        return source.getColumn(i);
+    }
+
+    @Override
+    public Column getColumn(String columnName) {
+        return source.getColumn(columnName);
+    }
+
+    @Override
+    public Row getRow(long rowNumber) {
+        throw new UnsupportedOperationException("Filter does not support access by row number");
+    }
+
+    @Override
+    public Query where(Condition condition) {
+        return new Filter(source, Condition.and(this.condition, condition));
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    @Override
+    public Spliterator<Row> spliterator() {
+        return new FilterSpliterator(source.spliterator());
+    }
+
+    public class FilterSpliterator implements Spliterator<Row>, Consumer<Row> {
+
+        private Spliterator<Row> sourceSpliterator;
+        private Row matched;
+
+        public FilterSpliterator(Spliterator<Row> sourceSpliterator) {
+            this.sourceSpliterator = sourceSpliterator;
+            matched = null;
+        }
+
+        @Override
+        public void accept(Row row) {
+            try {
+                if (condition.test(row))
+                    matched = row;
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error executing query", e);
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Row> action) {
+            Objects.requireNonNull(action);
+            while (sourceSpliterator.tryAdvance(this)) {
+                if (matched != null) {
+                    Row row = matched;
+                    matched = null;
+                    action.accept(row);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Row> action) {
+            Objects.requireNonNull(action);
+            sourceSpliterator.forEachRemaining(row -> {
+                try {
+                    if (condition.test(row))
+                        action.accept(row);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException("Error executing query", e);
+                }
+            });
+        }
+
+        @Override
+        public Spliterator<Row> trySplit() {
+            Spliterator<Row> prefix = sourceSpliterator.trySplit();
+            return prefix == null ? null : new FilterSpliterator(prefix);
+        }
+
+        @Override
+        public long estimateSize() {
+            return sourceSpliterator.estimateSize(); // an upper bound
+        }
+
+        @Override
+        public int characteristics() {
+            return sourceSpliterator.characteristics() & ~(SIZED | SUBSIZED);
+        }
+
+    }
+
+}
@@ -36,7 +36,7 @@ public interface Query extends Iterable<Row> {
 
     boolean isNumRowsKnown();
 
-    int getNumRows();
+    long getNumRows();
 
     int getNumColumns();
 
@@ -51,10 +51,14 @@ public interface Query extends Iterable<Row> {
         throw new IllegalArgumentException("Can't locate column: " + columnName);
     }
 
-    default Row getRow(int rowNumber) {
+    default Row getRow(long rowNumber) {
         return new Row(this, rowNumber);
     }
 
+    default Query where(Condition condition) {
+        return new Where(this, condition);
+    }
+
     default Iterable<Column> getColumns() {
         return () -> new Iterator<Column>() {
             private int index = 0;
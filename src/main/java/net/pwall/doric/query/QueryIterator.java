@@ -33,7 +33,7 @@ import net.pwall.doric.Row;
 public class QueryIterator implements Iterator<Row> {
 
     private Query query;
-    private int rowIndex;
+    private long rowIndex;
 
     public QueryIterator(Query query) {
         this.query = query;
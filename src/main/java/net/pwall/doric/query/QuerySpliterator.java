@@ -34,10 +34,10 @@ import net.pwall.doric.Row;
 public class QuerySpliterator implements Spliterator<Row> {
 
     private Query query;
-    private int index;
-    private int limit;
+    private long index;
+    private long limit;
 
-    public QuerySpliterator(Query query, int index, int limit) {
+    public QuerySpliterator(Query query, long index, long limit) {
         this.query = query;
         this.index = index;
         this.limit = limit;
@@ -57,10 +57,10 @@ public class QuerySpliterator implements Spliterator<Row> {
     public Spliterator<Row> trySplit() {
         if (!query.isNumRowsKnown())
             return null; // TODO review this
-        int size = limit - index;
+        long size = limit - index;
         if (size < 2)
             return null;
-        int oldIndex = index;
+        long oldIndex = index;
         index += size >>> 1;
         return new QuerySpliterator(query, oldIndex, index);
     }
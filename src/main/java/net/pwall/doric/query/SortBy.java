@@ -59,7 +59,7 @@ public class SortBy implements Query {
     }
 
     @Override
-    public int getNumRows() {
+    public long getNumRows() {
         return source.getNumRows();
     }
 
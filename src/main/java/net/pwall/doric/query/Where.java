@@ -0,0 +1,178 @@
+/*
+ * @(#) Where.java
+ *
+ * doric Column-oriented database system
+ * Copyright (c) 2019 Peter Wall
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.pwall.doric.query;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.Row;
+import net.pwall.doric.RowRange;
+import net.pwall.doric.SegmentedTable;
+import net.pwall.doric.Table;
+import net.pwall.doric.index.Bitmap;
+
+/**
+ * A {@link Query} that selects the rows of a source {@link Query} that satisfy a {@link Condition}.  When the source
+ * is a {@link Table}, the condition is first used to restrict the range of rows to be tested (for example, by binary
+ * search on a sorted column), so that only the rows within that range are read.  If the condition can be answered
+ * from indexes the matching rows are taken from the index without reading the column data; otherwise, any candidate
+ * rows identified by the indexes are tested individually.
+ *
+ * @author  Peter Wall
+ */
+public class Where implements Query {
+
+    private Query source;
+    private Condition condition;
+    private long[] rowNumbers;
+    private int numRows;
+
+    public Where(Query source, Condition condition) {
+        this.source = source;
+        this.condition = condition;
+        rowNumbers = null;
+        numRows = 0;
+    }
+
+    public Query getSource() {
+        return source;
+    }
+
+    public Condition getCondition() {
+        return condition;
+    }
+
+    /**
+     * Apply the condition to the source, selecting the matching rows.  This is called automatically on first access
+     * if it has not been called explicitly.
+     *
+     * @throws  IOException if thrown by the column input
+     */
+    public void execute() throws IOException {
+        if (source instanceof Table && !(source instanceof SegmentedTable)) {
+            Table table = (Table)source;
+            RowRange range = condition.getRowRange(table);
+            if (table.getNumRows() <= Bitmap.maxRows) {
+                // indexes address rows with int values, so they are only used for tables within the bitmap limit
+                boolean wholeTable = range.getStart() == 0 && range.getEnd() >= table.getNumRows();
+                Bitmap rows = condition.getRows(table);
+                if (rows != null) {
+                    int[] selected = (wholeTable ? rows : rows.and(range)).toArray();
+                    numRows = selected.length;
+                    rowNumbers = new long[numRows];
+                    for (int i = 0; i < numRows; i++)
+                        rowNumbers[i] = selected[i];
+                    return;
+                }
+                Bitmap candidates = condition.getCandidateRows(table);
+                if (candidates != null) {
+                    select((wholeTable ? candidates : candidates.and(range)).iterator());
+                    return;
+                }
+            }
+            select(range);
+        }
+        else
+            select(new RowRange(0, source.getNumRows()));
+    }
+
+    private void select(RowRange range) throws IOException {
+        long[] selected = new long[(int)Math.max(Math.min(range.getSize(), 1024), 1)];
+        int count = 0;
+        for (long i = range.getStart(), n = range.getEnd(); i < n; i++) {
+            if (condition.test(source.getRow(i))) {
+                if (count == selected.length)
+                    selected = Arrays.copyOf(selected, count * 2);
+                selected[count++] = i;
+            }
+        }
+        rowNumbers = selected;
+        numRows = count;
+    }
+
+    private void select(PrimitiveIterator.OfInt candidates) throws IOException {
+        long[] selected = new long[1024];
+        int count = 0;
+        while (candidates.hasNext()) {
+            int i = candidates.nextInt();
+            if (condition.test(source.getRow(i))) {
+                if (count == selected.length)
+                    selected = Arrays.copyOf(selected, count * 2);
+                selected[count++] = i;
+            }
+        }
+        rowNumbers = selected;
+        numRows = count;
+    }
+
+    private void checkExecuted() {
+        if (rowNumbers == null) {
+            try {
+                execute();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error executing query", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isNumRowsKnown() {
+        return true;
+    }
+
+    @Override
+    public long getNumRows() {
+        checkExecuted();
+        return numRows;
+    }
+
+    @Override
+    public int getNumColumns() {
+        return source.getNumColumns();
+    }
+
+    @Override
+    public Column getColumn(int i) {
+        return source.getColumn(i);
+    }
+
+    @Override
+    public Column getColumn(String columnName) {
+        return source.getColumn(columnName);
+    }
+
+    @Override
+    public Row getRow(long rowNumber) {
+        checkExecuted();
+        if (rowNumber < 0 || rowNumber >= numRows)
+            throw new IndexOutOfBoundsException("Row number out of range: " + rowNumber);
+        return source.getRow(rowNumbers[(int)rowNumber]);
+    }
+
+}
@@ -134,7 +134,26 @@ public class CSV implements AutoCloseable, Iterator<CSV.Record>, Iterable<CSV.Re
         if (!hasNext())
             throw new NoSuchElementException();
         Record record = new Record();
-        // process line into Record
+        splitLine(line, delimiter, quote, record.fields);
+        line = null;
+        return record;
+    }
+
+    /**
+     * Split a line into fields, using the nominated delimiter and quote characters.
+     *
+     * @param   line        the line
+     * @param   delimiter   the delimiter character
+     * @param   quote       the quote character
+     * @return              the fields
+     */
+    public static List<String> splitLine(String line, char delimiter, char quote) {
+        List<String> fields = new ArrayList<>();
+        splitLine(line, delimiter, quote, fields);
+        return fields;
+    }
+
+    private static void splitLine(String line, char delimiter, char quote, List<String> fields) {
         ParseText pt = new ParseText(line);
         for (;;) {
             if (pt.match(quote)) {
@@ -156,18 +175,16 @@ public class CSV implements AutoCloseable, Iterator<CSV.Record>, Iterable<CSV.Re
                         throw new RuntimeException("Invalid quotes");
                     sb.append(quote);
                 }
-                record.addField(sb.toString());
+                fields.add(sb.toString());
             }
             else {
                 pt.skipTo(delimiter);
-                record.addField(pt.getResultString());
+                fields.add(pt.getResultString());
             }
             if (pt.isExhausted())
                 break;
             pt.skip(1);
         }
-        line = null;
-        return record;
     }
 
     @Override
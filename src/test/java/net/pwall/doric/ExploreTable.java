@@ -20,14 +20,14 @@ public class ExploreTable {
             System.out.println("... and the last 10");
             System.out.println();
             System.out.println();
-            for (int i = table.getNumRows() - 19; i < table.getNumRows(); i++)
+            for (long i = table.getNumRows() - 19; i < table.getNumRows(); i++)
                 System.out.println(getRow(table, i));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private static String getRow(Table table, int rowNumber) throws IOException {
+    private static String getRow(Table table, long rowNumber) throws IOException {
         Row row = table.getRow(rowNumber);
         int n = table.getNumColumns();
         String[] cols = new String[table.getNumColumns()];
@@ -0,0 +1,61 @@
+/*
+ * @(#) TableFixture.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+/**
+ * Helper functions for tests that need a table on disk.  The CSV files are written in the default character set,
+ * because that is what the ingest process reads.
+ */
+class TableFixture {
+
+    static File createDirectory() throws IOException {
+        return Files.createTempDirectory("doric-test").toFile();
+    }
+
+    static File writeFile(File directory, String name, String ... lines) throws IOException {
+        File file = new File(directory, name);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file))) {
+            for (String line : lines)
+                writer.append(line).append('\n');
+        }
+        return file;
+    }
+
+    static Ingestor.Options options() {
+        Ingestor.Options options = new Ingestor.Options();
+        options.setHeaders(true);
+        options.setWriterThreads(0);
+        return options;
+    }
+
+    static File ingest(File directory, String name, Ingestor.Options options, String ... lines) throws IOException {
+        File csvFile = writeFile(directory, name + ".csv", lines);
+        File tableDirectory = new File(directory, name);
+        if (!tableDirectory.mkdirs())
+            throw new IOException("Can't create " + tableDirectory);
+        Ingestor.ingest(name, csvFile, tableDirectory, options);
+        return tableDirectory;
+    }
+
+    static File ingest(File directory, String name, String ... lines) throws IOException {
+        return ingest(directory, name, options(), lines);
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * @(#) TestArrow.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.arrow.ArrowReader;
+import net.pwall.doric.arrow.ArrowWriter;
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestArrow {
+
+    private static final String[] names = { "u8", "i8", "u16", "i16", "u32", "i32", "i64", "n8", "n64", "dec", "f64",
+            "day", "name", "kint", "kfloat", "kday", "kstr", "none" };
+    private static final int numRows = 1000;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            String[][] values = values();
+            Table table = Table.open(TableFixture.ingest(directory, "t", lines(values)));
+            Set<Column.StorageType> storageTypes = EnumSet.noneOf(Column.StorageType.class);
+            for (int i = 0; i < names.length; i++)
+                storageTypes.add(table.getColumn(i).getStorageType());
+            assertEquals(EnumSet.complementOf(EnumSet.of(Column.StorageType.undetermined)), storageTypes);
+            assertTrue(table.getColumn("dec").getDecimalShift() > 0);
+            // the constant float and date columns are read without the decimal shift and date conversions
+            assertEquals(1, table.getColumn("kfloat").getDecimalShift());
+            assertEquals(Column.Type.date, table.getColumn("kday").getType());
+            assertEquals(LocalDate.of(2020, 2, 29).toEpochDay(), table.getRow(5).getLong("kday"));
+            assertEquals(2.5, table.getRow(5).getNumber("kfloat").doubleValue(), 0.0);
+
+            for (boolean fileFormat : new boolean[] { true, false }) {
+                // several batches, the last one partial; the 8-bit columns are mapped from the column files
+                File arrowFile = new File(directory, "t" + fileFormat + ".arrow");
+                assertEquals(numRows, write(table, arrowFile, fileFormat, 64));
+                int[] expectedRows = new int[numRows];
+                for (int i = 0; i < numRows; i++)
+                    expectedRows[i] = i;
+                assertEquals(16, check(arrowFile, fileFormat, table, values, expectedRows));
+
+                // the ingested table has the same columns and values as the original
+                File tableDirectory = new File(directory, "a" + fileFormat);
+                assertTrue(tableDirectory.mkdir());
+                Ingestor.ingestArrow("a", arrowFile, tableDirectory, TableFixture.options());
+                Table copy = Table.open(tableDirectory);
+                assertEquals(numRows, copy.getNumRows());
+                for (int i = 0; i < names.length; i++) {
+                    Column column = table.getColumn(i);
+                    Column copyColumn = copy.getColumn(i);
+                    assertEquals(column.getName(), copyColumn.getName());
+                    assertEquals(column.getType(), copyColumn.getType(), column.getName());
+                    assertEquals(column.getStorageType(), copyColumn.getStorageType(), column.getName());
+                    assertEquals(column.isNullable(), copyColumn.isNullable(), column.getName());
+                }
+                for (int j = 0; j < numRows; j++) {
+                    Row row = table.getRow(j);
+                    Row copyRow = copy.getRow(j);
+                    for (int i = 0; i < names.length; i++) {
+                        assertEquals(row.isNull(i), copyRow.isNull(i), names[i] + " " + j);
+                        assertEquals(row.getString(i), copyRow.getString(i), names[i] + " " + j);
+                    }
+                }
+                copy.close();
+
+                // a selection of rows that are not contiguous, so the values are converted, in a single batch
+                Query query = table.where(Condition.between("u8", 10L, 12L));
+                File selectedFile = new File(directory, "s" + fileFormat + ".arrow");
+                assertEquals(15, write(query, selectedFile, fileFormat, ArrowWriter.defaultBatchRows));
+                int[] selectedRows = new int[15];
+                for (int i = 0, k = 0; i < numRows; i++)
+                    if (i % 201 >= 10 && i % 201 <= 12)
+                        selectedRows[k++] = i;
+                assertEquals(1, check(selectedFile, fileFormat, table, values, selectedRows));
+            }
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            String[][] values = values();
+            Table table = Table.open(TableFixture.ingest(directory, "t", lines(values)));
+            for (boolean fileFormat : new boolean[] { true, false }) {
+                // the schema is written with no record batches
+                File arrowFile = new File(directory, "e" + fileFormat + ".arrow");
+                assertEquals(0, ArrowWriter.write(table.where(Condition.equal("u8", 999L)), arrowFile, fileFormat));
+                assertEquals(0, check(arrowFile, fileFormat, table, values, new int[0]));
+                File closedFile = new File(directory, "c" + fileFormat + ".arrow");
+                try (FileOutputStream out = new FileOutputStream(closedFile)) {
+                    new ArrowWriter(out.getChannel(), table, fileFormat).close(); // closed without writing rows
+                }
+                assertEquals(0, check(closedFile, fileFormat, table, values, new int[0]));
+            }
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testMemoryQuery() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            MemoryQuery query = new MemoryQuery(Arrays.asList(MemoryQuery.column("id", Column.Type.integer, true),
+                    MemoryQuery.column("amount", Column.Type.floating, true),
+                    MemoryQuery.column("day", Column.Type.date, true),
+                    MemoryQuery.column("text", Column.Type.undetermined, false)));
+            query.addRow(Long.MIN_VALUE, -0.5, -1, "é😀");
+            query.addRow(null, null, null, "");
+            query.addRow(0, 0.0, 0, "a\nb");
+            query.addRow(Long.MAX_VALUE, 1e300, 2932896, "x");
+            for (boolean fileFormat : new boolean[] { true, false }) {
+                File arrowFile = new File(directory, "m" + fileFormat + ".arrow");
+                assertEquals(4, write(query, arrowFile, fileFormat, 3));
+                List<String> result = new ArrayList<>();
+                try (ArrowReader reader = new ArrowReader(arrowFile)) {
+                    assertEquals(fileFormat, reader.isFileFormat());
+                    assertTrue(reader.isFieldNullable(1));
+                    assertFalse(reader.isFieldNullable(3));
+                    while (reader.nextBatch()) {
+                        for (int row = 0; row < reader.getBatchLength(); row++) {
+                            for (int i = 0; i < 4; i++) {
+                                assertEquals(query.getRow(result.size() / 4).isNull(i), reader.isNull(i, row));
+                                result.add(reader.getString(i, row));
+                            }
+                        }
+                    }
+                }
+                assertEquals(Arrays.asList(String.valueOf(Long.MIN_VALUE), "-0.5", "1969-12-31", "é😀",
+                        "", "", "", "",
+                        "0", "0.0", "1970-01-01", "a\nb",
+                        String.valueOf(Long.MAX_VALUE), "1.0E300", "9999-12-31", "x"), result);
+            }
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testAppendedTable() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", "id,amount,name", "1,1.5,a", "2,2.5,b");
+            File csvFile = TableFixture.writeFile(directory, "append.csv", "id,amount,name", "100000,1.2345,c",
+                    "3,,d");
+            Ingestor.append(csvFile, tableDirectory, TableFixture.options());
+            Table table = Table.open(tableDirectory);
+            // the columns describe all the segments, not just the first
+            assertEquals(Column.StorageType.uint32, table.getColumn("id").getStorageType());
+            assertEquals(100000, table.getColumn("id").getMaxInt());
+            assertTrue(table.getColumn("amount").isNullable());
+            assertEquals(Column.StorageType.float64, table.getColumn("amount").getStorageType());
+            assertEquals(0, table.getColumn("amount").getDecimalShift());
+            assertEquals(1.2345, table.getColumn("amount").getMinFloat(), 0.0);
+            for (boolean fileFormat : new boolean[] { true, false }) {
+                File arrowFile = new File(directory, "t" + fileFormat + ".arrow");
+                assertEquals(4, write(table, arrowFile, fileFormat, 3));
+                List<String> result = new ArrayList<>();
+                try (ArrowReader reader = new ArrowReader(arrowFile)) {
+                    assertFalse(reader.isFieldNullable(0));
+                    assertTrue(reader.isFieldNullable(1));
+                    while (reader.nextBatch()) {
+                        for (int row = 0; row < reader.getBatchLength(); row++) {
+                            assertEquals(result.size() == 9, reader.isNull(1, row));
+                            for (int i = 0; i < 3; i++)
+                                result.add(reader.getString(i, row));
+                        }
+                    }
+                }
+                assertEquals(Arrays.asList("1", "1.5", "a", "2", "2.5", "b", "100000", "1.2345", "c", "3", "", "d"),
+                        result);
+            }
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    /**
+     * Read an Arrow file, and check its schema and values against the table and source values.
+     *
+     * @return  the number of record batches
+     */
+    private static int check(File arrowFile, boolean fileFormat, Table table, String[][] values, int[] rows)
+            throws IOException {
+        int batches = 0;
+        int k = 0;
+        try (ArrowReader reader = new ArrowReader(arrowFile)) {
+            assertEquals(fileFormat, reader.isFileFormat());
+            assertEquals(names.length, reader.getNumFields());
+            for (int i = 0; i < names.length; i++) {
+                assertEquals(names[i], reader.getFieldName(i));
+                assertEquals(table.getColumn(i).isNullable(), reader.isFieldNullable(i), names[i]);
+            }
+            while (reader.nextBatch()) {
+                batches++;
+                for (int row = 0; row < reader.getBatchLength(); row++) {
+                    int rowNumber = rows[k++];
+                    Row tableRow = table.getRow(rowNumber);
+                    for (int i = 0; i < names.length; i++) {
+                        String message = names[i] + " " + rowNumber;
+                        String expected = values[rowNumber][i];
+                        assertEquals(tableRow.isNull(i), reader.isNull(i, row), message);
+                        String actual = reader.getString(i, row);
+                        if (names[i].equals("dec") || names[i].equals("f64") || names[i].equals("kfloat"))
+                            assertEquals(expected.isEmpty() ? "" : String.valueOf(Double.parseDouble(expected)),
+                                    actual, message);
+                        else
+                            assertEquals(expected, actual, message);
+                    }
+                }
+            }
+            assertFalse(reader.nextBatch());
+        }
+        assertEquals(rows.length, k);
+        return batches;
+    }
+
+    private static long write(Query query, File file, boolean fileFormat, int batchRows) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file);
+                ArrowWriter writer = new ArrowWriter(out.getChannel(), query, fileFormat)) {
+            writer.setBatchRows(batchRows);
+            return writer.writeRows();
+        }
+    }
+
+    /**
+     * Create the source values, with a column for each storage type (the nullable integer columns are stored shifted,
+     * and the float columns include a decimal shift column), and nulls in each of the nullable columns.
+     */
+    private static String[][] values() {
+        String[][] result = new String[numRows][];
+        for (int i = 0; i < numRows; i++) {
+            result[i] = new String[] {
+                    String.valueOf(i % 201),
+                    String.valueOf(i % 201 - 100),
+                    String.valueOf(i * 60),
+                    String.valueOf(i * 30 - 15000),
+                    String.valueOf(3000000000L + i),
+                    String.valueOf(i * 2000000 - 1000000000),
+                    String.valueOf(i * 10000000000L - 5),
+                    i % 3 == 0 ? "" : String.valueOf(i % 50),
+                    i % 4 == 0 ? "" : String.valueOf(i * -10000000000L),
+                    i % 5 == 0 ? "" : String.valueOf((i - 500) / 4.0),
+                    i % 6 == 0 ? "" : String.valueOf(i / 7.0),
+                    i % 7 == 0 ? "" : LocalDate.ofEpochDay(i * 13 - 5000).toString(),
+                    i % 8 == 0 ? "" : "né" + i,
+                    "7",
+                    "2.5",
+                    "2020-02-29",
+                    "abc",
+                    ""
+            };
+        }
+        return result;
+    }
+
+    private static String[] lines(String[][] values) {
+        String[] result = new String[numRows + 1];
+        result[0] = String.join(",", names);
+        for (int i = 0; i < numRows; i++)
+            result[i + 1] = String.join(",", values[i]);
+        return result;
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * @(#) TestBitmapIndexQuery.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.index.BitmapIndex;
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestBitmapIndexQuery {
+
+    private static final String[] colours = { "red", "green", "blue", "yellow" };
+
+    @Test
+    public void testIndexedQueryMatchesScan() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            String[] lines = new String[20001];
+            lines[0] = "id,colour,size";
+            for (int i = 0; i < 20000; i++)
+                lines[i + 1] = i + "," + colours[i % 7 % 4] + ',' + (i % 5);
+            File plain = TableFixture.ingest(directory, "plain", lines);
+            Ingestor.Options options = TableFixture.options();
+            options.setBitmapIndexes(true);
+            File indexed = TableFixture.ingest(directory, "indexed", options, lines);
+            Table plainTable = Table.open(plain);
+            Table indexedTable = Table.open(indexed);
+            BitmapIndex index = indexedTable.getColumn("colour").getBitmapIndex();
+            assertNotNull(index);
+            assertEquals(4, index.getNumKeys());
+            assertNull(plainTable.getColumn("colour").getBitmapIndex());
+            Condition[] conditions = {
+                Condition.equal("colour", "blue"),
+                Condition.in("size", 1L, 3L),
+                Condition.and(Condition.equal("colour", "red"), Condition.between("id", 1000L, 1999L)),
+                Condition.or(Condition.equal("colour", "yellow"), Condition.equal("size", 0L)),
+                Condition.equal("colour", "purple")
+            };
+            for (Condition condition : conditions)
+                assertSameRows(plainTable.where(condition), indexedTable.where(condition));
+            plainTable.close();
+            indexedTable.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static void assertSameRows(Query expected, Query actual) throws Exception {
+        assertEquals(expected.getNumRows(), actual.getNumRows());
+        for (long i = 0; i < expected.getNumRows(); i++)
+            assertEquals(expected.getRow(i).getLong("id"), actual.getRow(i).getLong("id"));
+    }
+
+}
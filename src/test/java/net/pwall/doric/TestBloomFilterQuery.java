@@ -0,0 +1,69 @@
+/*
+ * @(#) TestBloomFilterQuery.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestBloomFilterQuery {
+
+    @Test
+    public void testFilteredQueryMatchesScan() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            // the ids are unique and unsorted, so the filters are the only help for an equality lookup
+            String[] lines = new String[20001];
+            lines[0] = "id,day,name,count";
+            for (int i = 0; i < 20000; i++) {
+                int id = i * 7919 % 20000;
+                lines[i + 1] = id + "," + LocalDate.ofEpochDay(18000 + id % 3000) + ",n" + id + ',' +
+                        (i % 11 == 0 ? "" : String.valueOf(id));
+            }
+            File plain = TableFixture.ingest(directory, "plain", lines);
+            Ingestor.Options options = TableFixture.options();
+            options.setBloomFilters(true);
+            File filtered = TableFixture.ingest(directory, "filtered", options, lines);
+            Table plainTable = Table.open(plain);
+            Table filteredTable = Table.open(filtered);
+            assertNotNull(filteredTable.getColumn("id").getBloomFilter());
+            assertNotNull(filteredTable.getColumn("count").getBloomFilter());
+            assertNull(plainTable.getColumn("id").getBloomFilter());
+            Condition[] conditions = {
+                Condition.equal("id", 12345L),
+                Condition.equal("id", 0L),
+                Condition.equal("id", 19999L),
+                Condition.in("id", 7L, 15000L, 30000L),
+                Condition.equal("count", 7919L), // the row with this value has a null count
+                Condition.equal("count", 1234L),
+                Condition.in("count", 0L, 5L),
+                Condition.equal("day", LocalDate.ofEpochDay(18005).toEpochDay()),
+                Condition.equal("name", "n4321"),
+                Condition.equal("id", 20000L)
+            };
+            for (Condition condition : conditions)
+                assertSameRows(plainTable.where(condition), filteredTable.where(condition));
+            assertEquals(1, filteredTable.where(Condition.equal("id", 12345L)).getNumRows());
+            assertEquals(2, filteredTable.where(Condition.in("id", 7L, 15000L, 30000L)).getNumRows());
+            plainTable.close();
+            filteredTable.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static void assertSameRows(Query expected, Query actual) throws Exception {
+        assertEquals(expected.getNumRows(), actual.getNumRows());
+        for (long i = 0; i < expected.getNumRows(); i++)
+            assertEquals(expected.getRow(i).getLong("id"), actual.getRow(i).getLong("id"));
+    }
+
+}
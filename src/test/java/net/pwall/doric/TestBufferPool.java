@@ -0,0 +1,222 @@
+/*
+ * @(#) TestBufferPool.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestBufferPool {
+
+    @Test
+    public void testHitsMissesAndEvictions() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            File file = createFile(directory, "data", 1000);
+            FileHandleCache cache = new FileHandleCache();
+            FileHandle handle = cache.getHandle(file);
+            BufferPool pool = new BufferPool(2, 256, false, 0, 0);
+            ByteBuffer buffer = pool.findBuffer(handle, 1000, 10);
+            assertEquals(10, buffer.position());
+            assertEquals(10, buffer.get());
+            pool.findBuffer(handle, 1000, 20); // hit
+            pool.findBuffer(handle, 1000, 300); // miss
+            pool.findBuffer(handle, 1000, 600); // miss, evicts block 0
+            buffer = pool.findBuffer(handle, 1000, 999); // miss (short block), evicts block 256
+            assertEquals(1000 - 768, buffer.limit());
+            assertEquals((byte)999, buffer.get());
+            pool.findBuffer(handle, 1000, 700); // hit
+            BufferPoolStats stats = pool.getStats();
+            assertEquals(2, stats.getHits());
+            assertEquals(4, stats.getMisses());
+            assertEquals(2, stats.getEvictions());
+            assertEquals(2, stats.getEntriesInUse());
+            assertEquals(256 * 3 + 232, stats.getBytesRead());
+            assertEquals(2.0 / 6.0, stats.getHitRatio(), 1e-9);
+            assertEquals(4, stats.getReadLatency().getCount());
+            assertEquals(1, stats.getChannels().size());
+            BufferPoolStats.ChannelStats channel = stats.getChannels().get(0);
+            assertEquals(file.getPath(), channel.getName());
+            assertEquals(2, channel.getHits());
+            assertEquals(4, channel.getMisses());
+            assertEquals(2L, pool.getHits());
+            assertEquals(4L, pool.getMisses());
+            assertEquals(2L, pool.getEvictions());
+            assertEquals(4, stats.toJSON().getArray("channels").getObject(0).getInt("misses"));
+            pool.resetStats();
+            stats = pool.getStats();
+            assertEquals(0, stats.getHits());
+            assertEquals(0, stats.getMisses());
+            assertEquals(0, stats.getEvictions());
+            assertEquals(2, stats.getEntriesInUse());
+            assertEquals(0, stats.getChannels().get(0).getMisses());
+            handle.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testMetricsCombinedByPathname() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            File file1 = createFile(directory, "data1", 512);
+            File file2 = createFile(directory, "data2", 512);
+            FileHandleCache cache = new FileHandleCache();
+            BufferPool pool = new BufferPool(8, 256, true, 0, 0);
+            FileHandle handle = cache.getHandle(file1);
+            pool.findBuffer(handle, 512, 0);
+            pool.purge(handle);
+            handle.close();
+            handle = cache.getHandle(file1);
+            pool.findBuffer(handle, 512, 0); // purged, so a miss
+            pool.findBuffer(cache.getHandle(file2), 512, 256);
+            BufferPoolStats stats = pool.getStats();
+            assertEquals(3, stats.getMisses());
+            assertEquals(2, stats.getChannels().size());
+            for (BufferPoolStats.ChannelStats channel : stats.getChannels())
+                assertEquals(channel.getName().equals(file1.getPath()) ? 2 : 1, channel.getMisses());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testReadAheadOnSequentialScan() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            File file = createFile(directory, "data", 64 * 256);
+            FileHandle handle = new SlowFileHandleCache().getHandle(file);
+            BufferPool pool = new BufferPool(4, 256, false, 8, 2);
+            for (int offset = 0; offset < 64 * 256; offset += 16) {
+                ByteBuffer buffer = pool.findBuffer(handle, 64 * 256, offset);
+                assertEquals((byte)offset, buffer.get(buffer.position()));
+            }
+            BufferPoolStats stats = pool.getStats();
+            assertEquals(64, stats.getMisses() + stats.getReadAheadHits());
+            assertEquals(64 * 16 - 64, stats.getHits());
+            assertTrue(stats.getReadAheadHits() > 32);
+            assertEquals(64 * 256, stats.getBytesRead());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testDiscardedReadAheadsReturnBuffers() throws IOException, InterruptedException {
+        File directory = TableFixture.createDirectory();
+        try {
+            File file = createFile(directory, "data", 64 * 256);
+            FileHandle handle = new SlowFileHandleCache().getHandle(file);
+            BufferPool pool = new BufferPool(4, 256, false, 8, 1);
+            for (int block = 0; block < 8; block++)
+                pool.findBuffer(handle, 64 * 256, block * 256);
+            int freeBefore = pool.getNumFreeBuffers();
+            long wastedBefore = pool.getReadAheadsWasted();
+            pool.purge(handle);
+            long wasted = pool.getReadAheadsWasted() - wastedBefore;
+            assertTrue(wasted > 0);
+            // the discarded reads return their buffers as they finish
+            for (int i = 0; i < 500 && pool.getNumFreeBuffers() - freeBefore < wasted; i++)
+                Thread.sleep(10);
+            assertEquals(wasted, pool.getNumFreeBuffers() - freeBefore);
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testWaitForReadAheadDoesNotBlockPool() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File file1 = createFile(directory, "data1", 64 * 256);
+            File file2 = createFile(directory, "data2", 256);
+            SlowFileHandleCache slowCache = new SlowFileHandleCache();
+            FileHandle handle1 = slowCache.getHandle(file1);
+            FileHandle handle2 = new FileHandleCache().getHandle(file2);
+            BufferPool pool = new BufferPool(16, 256, false, 8, 2);
+            for (int block = 0; block < 3; block++)
+                pool.findBuffer(handle1, 64 * 256, block * 256);
+            slowCache.gate = new CountDownLatch(1);
+            Throwable[] failure = new Throwable[1];
+            Thread scan = new Thread(() -> {
+                try {
+                    for (int block = 3; block < 64; block++)
+                        pool.findBuffer(handle1, 64 * 256, block * 256);
+                }
+                catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            scan.start();
+            for (int i = 0; i < 500 && scan.getState() != Thread.State.WAITING; i++)
+                Thread.sleep(10);
+            assertEquals(Thread.State.WAITING, scan.getState()); // waiting for a read-ahead
+            Thread other = new Thread(() -> {
+                try {
+                    pool.findBuffer(handle2, 256, 0);
+                }
+                catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            other.start();
+            other.join(5000);
+            assertFalse(other.isAlive());
+            slowCache.gate.countDown();
+            scan.join(10000);
+            assertFalse(scan.isAlive());
+            assertNull(failure[0]);
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    static File createFile(File directory, String name, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte)i;
+        File file = new File(directory, name);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    /**
+     * A {@link FileHandleCache} with a high latency, so that read-ahead will be used, and with an optional gate to
+     * hold up reads.
+     */
+    static class SlowFileHandleCache extends FileHandleCache {
+
+        volatile CountDownLatch gate;
+
+        @Override
+        FileChannel acquire(FileHandle handle) throws IOException {
+            try {
+                CountDownLatch latch = gate;
+                if (latch != null)
+                    latch.await();
+                Thread.sleep(1);
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return super.acquire(handle);
+        }
+
+    }
+
+}
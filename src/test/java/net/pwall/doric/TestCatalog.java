@@ -0,0 +1,97 @@
+/*
+ * @(#) TestCatalog.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.json.JSON;
+import net.pwall.json.JSONArray;
+import net.pwall.json.JSONObject;
+
+public class TestCatalog {
+
+    private static final String[] lines = {
+            "id,name,price,qty,when,constant,empty,code",
+            "1,apple,1.25,10,2020-01-01,x,,A",
+            "2,banana,0.5,,2020-01-02,x,,B",
+            "3,cherry,12.75,30,2020-01-03,x,,A",
+            "4,apple pie,3.0,5,,x,,C",
+            "5,banana split,4.125,-7,2020-01-05,x,,B" };
+
+    @Test
+    public void testRoundTripMatchesMetadata() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            Ingestor.Options options = TableFixture.options();
+            options.setBitmapIndexes(true);
+            options.setSortedIndexes(true);
+            options.setBloomFilters(true);
+            options.setTextIndexColumns(Collections.singleton("name"));
+            File tableDirectory = TableFixture.ingest(directory, "t", options, lines);
+            assertTrue(Catalog.exists(tableDirectory));
+            JSONObject metadata = JSON.parseObject(new File(tableDirectory, "metadata.json"));
+            JSONArray jsonColumns = metadata.getArray("columns");
+            Catalog catalog = Catalog.open(tableDirectory);
+            assertEquals(metadata.getString("name"), catalog.getName());
+            assertEquals(metadata.getString("source"), catalog.getSource());
+            assertEquals(metadata.getLong("rows"), catalog.getNumRows());
+            assertEquals(jsonColumns.size(), catalog.getNumColumns());
+            for (int i = 0; i < catalog.getNumColumns(); i++) {
+                Column expected = Column.fromJSON(jsonColumns.getObject(i));
+                assertEquals(expected.getName(), catalog.getColumnName(i));
+                assertEquals(i, catalog.findColumn(expected.getName()));
+                assertEquals(expected.toJSON().toString(), catalog.readColumn(i).toJSON().toString());
+            }
+            assertEquals(-1, catalog.findColumn("missing"));
+            assertThrows(IndexOutOfBoundsException.class, () -> catalog.readColumn(lines[0].split(",").length));
+            Table table = Table.open(tableDirectory);
+            assertEquals("banana split", table.getRow(4).getString("name"));
+            assertEquals(3, table.getColumn("code").getBitmapIndex().getNumKeys());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testInvalidFilesRejected() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", lines);
+            File file = new File(tableDirectory, Catalog.fileName);
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            for (int length = 0; length < bytes.length; length++) {
+                Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+                assertThrows(IOException.class, () -> Catalog.open(tableDirectory));
+            }
+            byte[] badMagic = bytes.clone();
+            badMagic[0] = 'X';
+            Files.write(file.toPath(), badMagic);
+            assertThrows(IOException.class, () -> Catalog.open(tableDirectory));
+            byte[] badVersion = bytes.clone();
+            badVersion[4] = 0x7F;
+            Files.write(file.toPath(), badVersion);
+            assertThrows(IOException.class, () -> Catalog.open(tableDirectory));
+            byte[] badLength = bytes.clone();
+            badLength[20] = 0x7F; // table name length
+            Files.write(file.toPath(), badLength);
+            assertThrows(IOException.class, () -> Catalog.open(tableDirectory));
+            Files.write(file.toPath(), bytes);
+            assertEquals(5, Catalog.open(tableDirectory).getNumRows());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+}
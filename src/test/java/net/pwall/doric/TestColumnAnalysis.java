@@ -0,0 +1,221 @@
+/*
+ * @(#) TestColumnAnalysis.java
+ */
+
+package net.pwall.doric;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.json.JSONObject;
+
+public class TestColumnAnalysis {
+
+    @Test
+    public void testInteger() {
+        Column column = resolve("1", "5", "", "300");
+        assertEquals(Column.Type.integer, column.getType());
+        assertEquals(Column.StorageType.uint16, column.getStorageType()); // 300 << 1 with nulls
+        assertTrue(column.isNullable());
+        assertTrue(column.isAscending());
+        assertEquals(1, column.getMinInt());
+        assertEquals(300, column.getMaxInt());
+        column = resolve("-1", "-100", "-1000");
+        assertEquals(Column.StorageType.int16, column.getStorageType());
+        assertTrue(column.isDescending());
+        assertFalse(column.isNullable());
+        assertEquals(Column.StorageType.int64, resolve("1", "9223372036854775807").getStorageType());
+    }
+
+    @Test
+    public void testWidening() {
+        // integer then floating-point
+        Column column = resolve("1", "2.25", "-3");
+        assertEquals(Column.Type.floating, column.getType());
+        assertEquals(-3.0, column.getMinFloat(), 0.0);
+        assertEquals(2.25, column.getMaxFloat(), 0.0);
+        assertEquals(2, column.getMaxDecimals());
+        assertEquals(2, column.getDecimalShift());
+        assertEquals(Column.StorageType.int16, column.getStorageType()); // -300 to 225
+        // floating-point then integer
+        column = resolve("2.5", "7");
+        assertEquals(Column.Type.floating, column.getType());
+        assertEquals(7.0, column.getMaxFloat(), 0.0);
+        // too many decimals for a decimal shift, or an exponent
+        assertEquals(Column.StorageType.float64, resolve("1.123456", "2").getStorageType());
+        assertEquals(1000.0, resolve("1e3", "1.5").getMaxFloat(), 0.0);
+        // a number then a string, or a string then a number
+        assertEquals(Column.Type.undetermined, resolve("1", "x").getType());
+        assertEquals(Column.Type.undetermined, resolve("x", "1").getType());
+        assertEquals(Column.Type.undetermined, resolve("1.5", "1.5.1").getType());
+        // values the JDK parsers would accept are strings
+        assertEquals(Column.Type.undetermined, resolve("1", " 2").getType());
+        assertEquals(Column.Type.undetermined, resolve("1.5", "NaN").getType());
+    }
+
+    @Test
+    public void testDate() {
+        Column column = resolve("2020-01-01", "", "2020-03-01");
+        assertEquals(Column.Type.date, column.getType());
+        assertEquals(LocalDate.of(2020, 1, 1).toEpochDay(), column.getMinInt());
+        assertEquals(LocalDate.of(2020, 3, 1).toEpochDay(), column.getMaxInt());
+        assertTrue(column.isNullable());
+        assertTrue(column.isAscending());
+        // dates mixed with numbers, or invalid dates, are strings
+        assertEquals(Column.Type.undetermined, resolve("2020-01-01", "5").getType());
+        assertEquals(Column.Type.undetermined, resolve("5", "2020-01-01").getType());
+        assertEquals(Column.Type.undetermined, resolve("2020-01-01", "2020-02-30").getType());
+    }
+
+    @Test
+    public void testStringsAndConstants() {
+        Column column = resolve("b", "a", "café");
+        assertEquals(Column.Type.undetermined, column.getType());
+        assertEquals(Column.StorageType.bytes, column.getStorageType());
+        assertFalse(column.isAscending());
+        assertEquals(4, column.getMaxWidth());
+        assertEquals(3, column.getNumUniqueValues());
+        assertTrue(resolve("a", "b", "b", "c").isAscending());
+
+        column = resolve("42", "42");
+        assertEquals(Column.StorageType.constant, column.getStorageType());
+        assertEquals(42, column.getConstantValueInt().longValue());
+        column = resolve("1.5", "1.5");
+        assertEquals(Column.StorageType.constant, column.getStorageType());
+        assertEquals(1.5, column.getConstantValueFloat().doubleValue(), 0.0);
+        // a constant column can't represent nulls
+        assertEquals(Column.StorageType.uint8, resolve("42", "").getStorageType());
+
+        column = resolve("", "");
+        assertEquals(Column.Type.undetermined, column.getType());
+        assertEquals(Column.StorageType.none, column.getStorageType());
+        assertEquals(Column.StorageType.none, resolve().getStorageType());
+    }
+
+    @Test
+    public void testByteWidths() {
+        // 100 characters, but 300 bytes in UTF-8
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append('€');
+        ColumnAnalysis analysis = analyse(sb.toString(), "a");
+        Column column = analysis.resolve();
+        assertEquals(100, column.getMaxWidth());
+        assertEquals(Column.StorageType.uint16, column.getDataLengthStorageType());
+        assertEquals(Column.StorageType.uint16, column.getDataOffsetStorageType());
+        JSONObject json = analysis.resolveJSON();
+        assertEquals(column.getDataLengthStorageType().toString(), json.getString("lengthStorageType"));
+        assertEquals(column.getDataOffsetStorageType().toString(), json.getString("offsetStorageType"));
+    }
+
+    @Test
+    public void testRequiredType() {
+        ColumnAnalysis analysis = analyse("1", "2");
+        assertEquals(Column.Type.floating, analysis.resolve(Column.Type.floating).getType());
+        assertEquals(Column.Type.undetermined, analysis.resolve(Column.Type.undetermined).getType());
+        assertThrows(IllegalArgumentException.class, () -> analysis.resolve(Column.Type.date));
+        ColumnAnalysis floating = analyse("1.5");
+        assertThrows(IllegalArgumentException.class, () -> floating.resolve(Column.Type.integer));
+    }
+
+    @Test
+    public void testUniqueValues() {
+        ColumnAnalysis analysis = new ColumnAnalysis("c", 4);
+        for (int i = 0; i < 20; i++)
+            analysis.analyse(String.valueOf(i % 3));
+        assertEquals(3, analysis.getCardinality());
+        assertFalse(analysis.isCardinalityEstimated());
+        Column column = analysis.resolve();
+        assertEquals(3, column.getIntegerUniqueValues().size());
+        assertEquals(0, column.getIntegerUniqueValues().keySet().iterator().next().longValue());
+        for (int i = 0; i < 20; i++)
+            analysis.analyse(String.valueOf(i));
+        assertTrue(analysis.isCardinalityEstimated());
+        assertEquals(20, analysis.getCardinality(), 2);
+        column = analysis.resolve();
+        assertNull(column.getIntegerUniqueValues());
+        assertTrue(column.isCardinalityEstimated());
+    }
+
+    @Test
+    public void testIntAccumulators() {
+        ColumnAnalysis.IntMax max = new ColumnAnalysis.IntMax();
+        assertFalse(max.isInitialised());
+        max.accept(-5);
+        assertTrue(max.isInitialised());
+        assertEquals(-5, max.getMaximum()); // not the initial zero
+        max.accept(3);
+        max.accept(1);
+        assertEquals(3, max.getMaximum());
+        ColumnAnalysis.IntMinMax minMax = new ColumnAnalysis.IntMinMax();
+        assertFalse(minMax.isInitialised());
+        minMax.accept(7);
+        assertEquals(7, minMax.getMinimum());
+        assertEquals(7, minMax.getMaximum());
+        minMax.accept(Integer.MIN_VALUE);
+        minMax.accept(Integer.MAX_VALUE);
+        minMax.accept(0);
+        assertEquals(Integer.MIN_VALUE, minMax.getMinimum());
+        assertEquals(Integer.MAX_VALUE, minMax.getMaximum());
+    }
+
+    @Test
+    public void testLongAccumulator() {
+        ColumnAnalysis.LongMinMax minMax = new ColumnAnalysis.LongMinMax();
+        assertFalse(minMax.isInitialised());
+        minMax.accept(10);
+        assertFalse(minMax.isAscending()); // a single value has no order
+        assertFalse(minMax.isDescending());
+        minMax.accept(10);
+        minMax.accept(Long.MAX_VALUE);
+        assertTrue(minMax.isAscending());
+        assertFalse(minMax.isDescending());
+        minMax.accept(11);
+        assertFalse(minMax.isAscending());
+        assertEquals(10, minMax.getMinimum());
+        assertEquals(Long.MAX_VALUE, minMax.getMaximum());
+        ColumnAnalysis.LongMinMax descending = new ColumnAnalysis.LongMinMax();
+        descending.accept(0);
+        descending.accept(-1);
+        descending.accept(Long.MIN_VALUE);
+        assertTrue(descending.isDescending());
+        assertEquals(Long.MIN_VALUE, descending.getMinimum());
+        assertEquals(0, descending.getMaximum());
+    }
+
+    @Test
+    public void testDoubleAccumulator() {
+        ColumnAnalysis.DoubleMinMax minMax = new ColumnAnalysis.DoubleMinMax();
+        assertFalse(minMax.isInitialised());
+        minMax.accept(-1.5);
+        minMax.accept(-1.5);
+        minMax.accept(2.25);
+        assertTrue(minMax.isInitialised());
+        assertTrue(minMax.isAscending());
+        assertEquals(-1.5, minMax.getMinimum(), 0.0);
+        assertEquals(2.25, minMax.getMaximum(), 0.0);
+        minMax.accept(-3.0);
+        assertFalse(minMax.isAscending());
+        assertFalse(minMax.isDescending());
+        assertEquals(-3.0, minMax.getMinimum(), 0.0);
+        ColumnAnalysis.DoubleMinMax descending = new ColumnAnalysis.DoubleMinMax();
+        descending.accept(1e10);
+        descending.accept(0.5);
+        assertTrue(descending.isDescending());
+        assertFalse(descending.isAscending());
+    }
+
+    private static ColumnAnalysis analyse(String ... values) {
+        ColumnAnalysis analysis = new ColumnAnalysis("c");
+        for (String value : values)
+            analysis.analyse(value);
+        return analysis;
+    }
+
+    private static Column resolve(String ... values) {
+        return analyse(values).resolve();
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * @(#) TestColumnWriter.java
+ */
+
+package net.pwall.doric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestColumnWriter {
+
+    @Test
+    public void testValuesAcrossBuffers() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            // small buffers, so that values fall at the ends of buffers and the buffers are written several times
+            WriteBufferPool pool = new WriteBufferPool(64, 3, 8);
+            ColumnWriter writer = new ColumnWriter(directory, "data", pool);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(expected);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                switch (i % 7) {
+                case 0:
+                    writer.writeInt8(i);
+                    out.writeByte(i);
+                    break;
+                case 1:
+                    writer.writeInt16(-i);
+                    out.writeShort(-i);
+                    break;
+                case 2:
+                    writer.writeInt32(i * 100000);
+                    out.writeInt(i * 100000);
+                    break;
+                case 3:
+                    writer.writeInt64(-i * 10000000000L);
+                    out.writeLong(-i * 10000000000L);
+                    break;
+                case 4:
+                    writer.writeFloat64(i / 3.0);
+                    out.writeDouble(i / 3.0);
+                    break;
+                case 5:
+                    writer.writeFloat32(i / 7.0F);
+                    out.writeFloat(i / 7.0F);
+                    break;
+                default:
+                    // strings (including one longer than a buffer) are split across buffers
+                    sb.append("é").append(i);
+                    writer.writeBytes(sb.toString());
+                    out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+                assertEquals(out.size(), writer.getOffset());
+            }
+            writer.close();
+            writer.close(); // no effect
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(new File(directory, "data").toPath()));
+            assertEquals(3, pool.getAllocations());
+
+            ColumnWriter empty = new ColumnWriter(directory, "empty", pool);
+            empty.close();
+            assertEquals(0, new File(directory, "empty").length());
+            assertEquals(3, pool.getAllocations()); // re-used
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testBuffersReturnedOnce() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            WriteBufferPool pool = new WriteBufferPool(64, 2, 8);
+            ColumnWriter writer = new ColumnWriter(directory, "data", pool);
+            for (int i = 0; i < 20; i++)
+                writer.writeInt64(i);
+            writer.close();
+            writer.close();
+            // a buffer released twice would be handed to two writers
+            Map<ByteBuffer, Boolean> acquired = new IdentityHashMap<>();
+            for (int i = 0; i < 3; i++)
+                assertNull(acquired.put(pool.acquire(), true));
+            assertEquals(3, pool.getAllocations());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testPool() {
+        WriteBufferPool pool = new WriteBufferPool(128, 2, 1);
+        ByteBuffer buffer1 = pool.acquire();
+        ByteBuffer buffer2 = pool.acquire();
+        assertEquals(2, pool.getAllocations());
+        assertTrue(buffer1.isDirect());
+        assertEquals(128, buffer1.capacity());
+        buffer1.putInt(5);
+        pool.release(buffer1);
+        pool.release(buffer2); // exceeds the maximum pooled, so discarded
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer1, reused);
+        assertEquals(0, reused.position()); // cleared
+        assertEquals(128, reused.limit());
+        assertNotSame(buffer2, pool.acquire());
+        assertEquals(3, pool.getAllocations());
+        pool.release(ByteBuffer.allocateDirect(64)); // wrong size, so not pooled
+        pool.acquire();
+        assertEquals(4, pool.getAllocations());
+        assertThrows(IllegalArgumentException.class, () -> new WriteBufferPool(32, 2, 1));
+        assertThrows(IllegalArgumentException.class, () -> new WriteBufferPool(128, 0, 1));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * @(#) TestCompactor.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.query.Condition;
+
+public class TestCompactor {
+
+    @Test
+    public void testMergeSegments() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", "id,name,score", "1,a,1.5", "2,b,2.5");
+            append(directory, tableDirectory, "id,name,score", "3,c,3.5", "4,d,");
+            append(directory, tableDirectory, "id,name,score", "5,e,5.5", "6,f,6.5");
+            try (Compactor compactor = new Compactor(tableDirectory)) {
+                compactor.setMinSegments(4);
+                compactor.setRetainMillis(0);
+                assertFalse(compactor.compact()); // only three segments
+                append(directory, tableDirectory, "id,name,score", "7,g,1e3", "8,h,8.5");
+                Table before = Table.open(tableDirectory);
+                assertEquals(4, ((SegmentedTable)before).getSegments().size());
+                before.close();
+                assertTrue(compactor.compact());
+                assertEquals(1, compactor.getCompactions());
+                assertTrue(new File(tableDirectory, "segment-000001").exists());
+                // the replaced files are deleted once the retention period has passed
+                compactor.deleteObsolete();
+                assertFalse(new File(tableDirectory, "metadata.json").exists());
+                assertFalse(new File(tableDirectory, "segment-000001").exists());
+            }
+            Table table = Table.open(tableDirectory);
+            assertEquals(1, ((SegmentedTable)table).getSegments().size());
+            assertEquals(8, table.getNumRows());
+            for (int i = 0; i < 8; i++) {
+                Row row = table.getRow(i);
+                assertEquals(i + 1, row.getLong("id"));
+                assertEquals(String.valueOf((char)('a' + i)), row.getString("name"));
+            }
+            assertTrue(table.getRow(3).isNull("score"));
+            assertEquals(1000.0, table.getRow(6).getNumber("score").doubleValue(), 0.0);
+            assertEquals(3, table.where(Condition.between("id", 3L, 5L)).getNumRows());
+            assertEquals(6, table.where(Condition.between("score", 0.0, 10.0)).getNumRows()); // the null is skipped
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testClusterAndRetain() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", "id,key", "1,30", "2,10");
+            append(directory, tableDirectory, "id,key", "3,20", "4,10");
+            try (Compactor compactor = new Compactor(tableDirectory)) {
+                compactor.setMinSegments(2);
+                compactor.setClusterColumn("key");
+                assertTrue(compactor.compact());
+                SegmentedTable.Manifest manifest = SegmentedTable.Manifest.read(tableDirectory);
+                assertFalse(manifest.isBase());
+                assertFalse(manifest.getObsolete().isEmpty());
+                compactor.deleteObsolete(); // within the retention period, so nothing is deleted
+                assertTrue(new File(tableDirectory, "metadata.json").exists());
+                assertFalse(compactor.compact()); // only one segment now
+            }
+            Table table = Table.open(tableDirectory);
+            long[] ids = new long[4];
+            for (int i = 0; i < 4; i++)
+                ids[i] = table.getRow(i).getLong("id");
+            assertArrayEquals(new long[] { 2, 4, 3, 1 }, ids); // stable within equal keys
+            assertEquals(new RowRange(0, 2), table.findRange("key", 10L, 10L));
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testClusterWithNulls() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            for (String clusterColumn : new String[] { "key", "score" }) {
+                File tableDirectory = TableFixture.ingest(directory, clusterColumn, "id,key,score", "1,3,", "2,,0.5",
+                        "3,0,2.5");
+                append(directory, tableDirectory, "id,key,score", "4,,-1.5", "5,-2,", "6,3,0.5");
+                try (Compactor compactor = new Compactor(tableDirectory)) {
+                    compactor.setMinSegments(2);
+                    compactor.setClusterColumn(clusterColumn);
+                    assertTrue(compactor.compact());
+                }
+                Table table = Table.open(tableDirectory);
+                long[] ids = new long[6];
+                for (int i = 0; i < 6; i++)
+                    ids[i] = table.getRow(i).getLong("id");
+                // the nulls follow all other values, rather than sorting as zero
+                if (clusterColumn.equals("key"))
+                    assertArrayEquals(new long[] { 5, 3, 1, 6, 2, 4 }, ids);
+                else
+                    assertArrayEquals(new long[] { 4, 2, 6, 3, 1, 5 }, ids);
+                assertTrue(table.getRow(5).isNull(clusterColumn));
+                assertEquals(1, table.where(Condition.equal("key", 0L)).getNumRows());
+                table.close();
+            }
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static void append(File directory, File tableDirectory, String ... lines) throws IOException {
+        File csvFile = TableFixture.writeFile(directory, "append.csv", lines);
+        Ingestor.append(csvFile, tableDirectory, TableFixture.options());
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * @(#) TestExporter.java
+ */
+
+package net.pwall.doric;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.query.Aggregate;
+import net.pwall.doric.query.CSVQuery;
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestExporter {
+
+    @Test
+    public void testQuotingAndEncoding() throws IOException {
+        MemoryQuery query = new MemoryQuery(Arrays.asList(MemoryQuery.column("id", Column.Type.integer, true),
+                MemoryQuery.column("text, quoted", Column.Type.undetermined, true),
+                MemoryQuery.column("day", Column.Type.date, true),
+                MemoryQuery.column("amount", Column.Type.floating, true)));
+        query.addRow(1, "plain", LocalDate.of(2021, 3, 4).toEpochDay(), 2.5);
+        query.addRow(null, null, null, null);
+        query.addRow(-2, "a,b", 0, -0.125);
+        query.addRow(3, "say \"hi\"", null, null);
+        query.addRow(4, "line 1\nline 2\r", null, null);
+        query.addRow(5, "café € 😀", null, null);
+        query.addRow(6, "lone \uD83D surrogate", null, null);
+        Exporter.Options options = options(1, 3);
+        String expected = "id,\"text, quoted\",day,amount\n" +
+                "1,plain,2021-03-04,2.5\n" +
+                ",,,\n" +
+                "-2,\"a,b\",1970-01-01,-0.125\n" +
+                "3,\"say \"\"hi\"\"\",,\n" +
+                "4,\"line 1\nline 2\r\",,\n" +
+                "5,café € 😀,,\n" +
+                "6,lone ? surrogate,,\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(7, Exporter.export(query, out, options));
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+
+        // TSV, with a different quote character and no headers
+        options.setDelimiter('\t');
+        options.setQuote('\'');
+        options.setHeaders(false);
+        MemoryQuery tsv = new MemoryQuery(Arrays.asList(MemoryQuery.column("a", Column.Type.undetermined, false),
+                MemoryQuery.column("b", Column.Type.undetermined, false)));
+        tsv.addRow("x,y", "it's");
+        tsv.addRow("tab\there", "\"");
+        out.reset();
+        assertEquals(2, Exporter.export(tsv, out, options));
+        assertEquals("x,y\t'it''s'\n'tab\there'\t\"\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParallelSameAsSerial() throws IOException {
+        MemoryQuery query = new MemoryQuery(Arrays.asList(MemoryQuery.column("id", Column.Type.integer, false),
+                MemoryQuery.column("name", Column.Type.undetermined, true),
+                MemoryQuery.column("amount", Column.Type.floating, true)));
+        for (int i = 0; i < 10007; i++)
+            query.addRow(i, i % 13 == 0 ? null : i % 5 == 0 ? "né\"" + i + "\"\n" : "name" + i,
+                    i % 7 == 0 ? null : i / 8.0);
+        byte[] serial = export(query, options(1, 100));
+        for (int threads : new int[] { 2, 4 }) {
+            for (int blockRows : new int[] { 1, 7, 4096, 20000 }) {
+                byte[] parallel = export(query, options(threads, blockRows));
+                assertArrayEquals(serial, parallel, threads + " threads, " + blockRows + " rows");
+            }
+        }
+        // the exported data reads back as the same values
+        try (CSVQuery csvQuery = new CSVQuery(new ByteArrayInputStream(serial), StandardCharsets.UTF_8)) {
+            Iterator<Row> rows = csvQuery.iterator();
+            for (int i = 0; i < 10007; i++) {
+                Row source = query.getRow(i);
+                Row row = rows.next();
+                assertEquals(i, row.getLong("id"));
+                assertEquals(source.getString("name"), row.getString("name"));
+                assertEquals(source.isNull("amount"), row.isNull("amount"));
+                if (!source.isNull("amount"))
+                    assertEquals(source.getNumber("amount").doubleValue(), row.getNumber("amount").doubleValue(), 0.0);
+            }
+            assertFalse(rows.hasNext());
+        }
+    }
+
+    @Test
+    public void testExportTable() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            String[] lines = { "id,name,amount,day", "1,alpha,1.25,2020-01-01", "2,\"b,c\",,", "3,,-7.25,2021-12-31" };
+            File tableDirectory = TableFixture.ingest(directory, "t", lines);
+            Table table = Table.open(tableDirectory);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(3, Exporter.export(table, out, options(2, 2)));
+            assertEquals(String.join("\n", lines) + "\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            out.reset();
+            assertEquals(0, Exporter.export(table.where(Condition.equal("id", 9L)), out, options(1, 2)));
+            assertEquals("id,name,amount,day\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testExportNonASCII() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            // the non-ASCII characters are at the start, in the middle and at the end of the values
+            String[] lines = { "id,name", "1,né5", "2,abc€", "3,€", "4,😀x", "5,plain" };
+            Table table = Table.open(TableFixture.ingest(directory, "t", lines));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(5, Exporter.export(table, out, options(1, 2)));
+            assertEquals(String.join("\n", lines) + "\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testExportFullyPruned() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File partitioned = new File(directory, "p");
+            File csvFile = TableFixture.writeFile(directory, "p1.csv", "day,value", "20200101,1", "20200102,2");
+            Ingestor.ingestPartition("p", csvFile, partitioned, "p1", "day", TableFixture.options());
+            File segmented = TableFixture.ingest(directory, "s", "day,value", "20200101,1", "20200102,2");
+            csvFile = TableFixture.writeFile(directory, "append.csv", "day,value", "20200103,3");
+            Ingestor.append(csvFile, segmented, TableFixture.options());
+            PartitionedTable partitionedTable = PartitionedTable.open(partitioned);
+            Table segmentedTable = Table.open(segmented);
+            // no partition or segment can match, but the results have the columns of the tables
+            for (Query query : new Query[] { partitionedTable, segmentedTable }) {
+                Query result = query.where(Condition.equal("day", 20200107));
+                assertEquals(0, result.getNumRows());
+                Aggregate[] aggregates = Aggregate.compute(result, false, "value");
+                assertEquals(0, aggregates[0].getCount());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(0, Exporter.export(result, out, options(1, 2)));
+                assertEquals("day,value\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+            partitionedTable.close();
+            segmentedTable.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testOptions() {
+        Exporter.Options options = new Exporter.Options();
+        assertEquals(',', options.getDelimiter());
+        assertEquals('"', options.getQuote());
+        assertTrue(options.isHeaders());
+        assertEquals(Exporter.defaultBlockRows, options.getBlockRows());
+        assertThrows(IllegalArgumentException.class, () -> options.setDelimiter('§'));
+        assertThrows(IllegalArgumentException.class, () -> options.setQuote('“'));
+        assertThrows(IllegalArgumentException.class, () -> options.setBlockRows(0));
+    }
+
+    private static byte[] export(MemoryQuery query, Exporter.Options options) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(query.getNumRows(), Exporter.export(query, out, options));
+        return out.toByteArray();
+    }
+
+    private static Exporter.Options options(int threads, int blockRows) {
+        Exporter.Options options = new Exporter.Options();
+        options.setThreads(threads);
+        options.setBlockRows(blockRows);
+        return options;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * @(#) TestFileHandleCache.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFileHandleCache {
+
+    @Test
+    public void testLeastRecentlyUsedFileClosed() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            FileHandleCache cache = new FileHandleCache(2);
+            FileHandle handle1 = cache.getHandle(TestBufferPool.createFile(directory, "data1", 16));
+            FileHandle handle2 = cache.getHandle(TestBufferPool.createFile(directory, "data2", 16));
+            FileHandle handle3 = cache.getHandle(TestBufferPool.createFile(directory, "data3", 16));
+            assertEquals(0, cache.getNumOpen());
+            read(handle1);
+            read(handle2);
+            read(handle1); // handle2 is now the least recently used
+            assertEquals(2, cache.getNumOpen());
+            read(handle3);
+            assertEquals(2, cache.getNumOpen());
+            assertTrue(handle1.isOpen());
+            assertFalse(handle2.isOpen());
+            assertTrue(handle3.isOpen());
+            assertEquals(3, cache.getOpens());
+            assertEquals(1, cache.getCloses());
+            assertEquals(2, read(handle2)); // re-opened transparently
+            assertEquals(4, cache.getOpens());
+            assertThrows(FileNotFoundException.class, () -> cache.getHandle(new File(directory, "missing")));
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testAcquiredFilesNotClosed() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            FileHandleCache cache = new FileHandleCache(1);
+            FileHandle handle1 = cache.getHandle(TestBufferPool.createFile(directory, "data1", 16));
+            FileHandle handle2 = cache.getHandle(TestBufferPool.createFile(directory, "data2", 16));
+            handle1.acquire();
+            read(handle2); // limit exceeded temporarily
+            assertTrue(handle1.isOpen());
+            assertEquals(2, cache.getNumOpen());
+            handle1.close(); // deferred until released
+            assertTrue(handle1.isOpen());
+            handle1.release();
+            assertFalse(handle1.isOpen());
+            assertEquals(1, cache.getNumOpen());
+            assertThrows(IllegalStateException.class, handle1::acquire);
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testColumnsOpenedOnFirstUse() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            Table table = Table.open(TableFixture.ingest(directory, "t", "a,b,c", "1,x,2.5", "2,y,3.5", "3,z,4.5"));
+            for (int i = 0; i < 3; i++)
+                assertFalse(table.getColumn(i).isColumnInputOpen());
+            assertEquals("y", table.getRow(1).getString("b"));
+            assertFalse(table.getColumn("a").isColumnInputOpen());
+            assertTrue(table.getColumn("b").isColumnInputOpen());
+            assertFalse(table.getColumn("c").isColumnInputOpen());
+            table.close();
+            assertFalse(table.getColumn("b").isColumnInputOpen());
+            assertThrows(IllegalStateException.class, () -> new Column("d").getColumnInput());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static int read(FileHandle handle) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        try {
+            handle.acquire().read(buffer, 2);
+        }
+        finally {
+            handle.release();
+        }
+        return buffer.get(0);
+    }
+
+}
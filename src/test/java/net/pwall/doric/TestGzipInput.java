@@ -0,0 +1,211 @@
+/*
+ * @(#) TestGzipInput.java
+ */
+
+package net.pwall.doric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestGzipInput {
+
+    @Test
+    public void testUncompressedAndSingleMember() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            byte[] data = data(200000);
+            File plain = write(directory, "plain.csv", data);
+            assertFalse(GzipInput.isGzip(plain));
+            assertArrayEquals(data, readAll(plain, 4));
+            File empty = write(directory, "empty.csv", new byte[0]);
+            assertFalse(GzipInput.isGzip(empty));
+            assertArrayEquals(new byte[0], readAll(empty, 4));
+            File gzip = write(directory, "single.csv.gz", gzip(data));
+            assertTrue(GzipInput.isGzip(gzip));
+            assertArrayEquals(data, readAll(gzip, 4));
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testPlainMultiMember() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            // members without the BGZF size field (as from concatenating gzip files) are read sequentially
+            byte[] data = data(300000);
+            ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+            concatenated.write(gzip(Arrays.copyOfRange(data, 0, 100000)));
+            concatenated.write(gzip(Arrays.copyOfRange(data, 100000, 100001)));
+            concatenated.write(gzip(Arrays.copyOfRange(data, 100001, 300000)));
+            File file = write(directory, "multi.csv.gz", concatenated.toByteArray());
+            assertArrayEquals(data, readAll(file, 4));
+            assertArrayEquals(data, readAll(file, 1));
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testBGZF() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            byte[] data = data(1000000);
+            File file = write(directory, "data.csv.gz", bgzf(data, 65280));
+            assertTrue(GzipInput.isGzip(file));
+            assertArrayEquals(data, readAll(file, 4)); // in parallel
+            assertArrayEquals(data, readAll(file, 1)); // as a plain multi-member file
+            File small = write(directory, "small.csv.gz", bgzf(data, 1000));
+            assertArrayEquals(data, readAll(small, 3));
+            try (InputStream in = GzipInput.open(small, 3)) {
+                assertEquals(data[0] & 0xFF, in.read());
+                assertEquals(data[1] & 0xFF, in.read());
+            }
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testInvalidBGZF() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            byte[] data = data(10000);
+            byte[] valid = bgzf(data, 5000);
+            int trailer = ((valid[16] & 0xFF) | (valid[17] & 0xFF) << 8) + 1 - 4; // ISIZE of the first block
+            assertEquals(5000, getIntLE(valid, trailer));
+            for (int size : new int[] { 65537, 0x7FFFFFF0, -1 }) {
+                byte[] badSize = valid.clone();
+                putIntLE(badSize, trailer, size);
+                File file = write(directory, "badsize.gz", badSize);
+                IOException e = assertThrows(IOException.class, () -> readAll(file, 4));
+                assertTrue(e.getMessage().contains("uncompressed size"), e.getMessage());
+            }
+            byte[] badCRC = valid.clone();
+            badCRC[trailer - 4]++;
+            File crcFile = write(directory, "badcrc.gz", badCRC);
+            assertThrows(IOException.class, () -> readAll(crcFile, 4));
+            File truncated = write(directory, "truncated.gz", Arrays.copyOf(valid, valid.length - 40));
+            assertThrows(IOException.class, () -> readAll(truncated, 4));
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testIngestCompressed() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            StringBuilder sb = new StringBuilder("id,name\n");
+            for (int i = 0; i < 20000; i++)
+                sb.append(i).append(",name").append(i % 100).append('\n');
+            File csvFile = write(directory, "t.csv.gz", bgzf(sb.toString().getBytes(StandardCharsets.UTF_8), 4096));
+            File tableDirectory = new File(directory, "t");
+            assertTrue(tableDirectory.mkdir());
+            Ingestor.Options options = TableFixture.options();
+            options.setDecompressionThreads(4);
+            Ingestor.ingest("t", csvFile, tableDirectory, options);
+            Table table = Table.open(tableDirectory);
+            assertEquals(20000, table.getNumRows());
+            assertEquals("name99", table.getRow(19999).getString("name"));
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static byte[] data(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++)
+            result[i] = (byte)(i % 10 == 9 ? '\n' : 'a' + (i * 7 + i / 1000) % 26);
+        return result;
+    }
+
+    private static File write(File directory, String name, byte[] bytes) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static byte[] readAll(File file, int threads) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = GzipInput.open(file, threads)) {
+            byte[] buffer = new byte[10000];
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) > 0)
+                result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(result)) {
+            out.write(data);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Compress data in the BGZF format, with the given uncompressed block size, followed by the empty end-of-file
+     * block.
+     */
+    private static byte[] bgzf(byte[] data, int blockSize) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (int start = 0; start < data.length; start += blockSize)
+            writeBlock(result, Arrays.copyOfRange(data, start, Math.min(start + blockSize, data.length)));
+        writeBlock(result, new byte[0]);
+        return result.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, byte[] block) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(block);
+        deflater.finish();
+        byte[] compressed = new byte[block.length + 1024];
+        int compressedSize = 0;
+        while (!deflater.finished())
+            compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+        deflater.end();
+        int memberSize = 18 + compressedSize + 8;
+        byte[] header = { 0x1F, (byte)0x8B, 8, 4, 0, 0, 0, 0, 0, (byte)0xFF, 6, 0, 'B', 'C', 2, 0,
+                (byte)(memberSize - 1), (byte)((memberSize - 1) >> 8) };
+        out.write(header, 0, header.length);
+        out.write(compressed, 0, compressedSize);
+        CRC32 crc = new CRC32();
+        crc.update(block, 0, block.length);
+        byte[] trailer = new byte[8];
+        putIntLE(trailer, 0, (int)crc.getValue());
+        putIntLE(trailer, 4, block.length);
+        out.write(trailer, 0, 8);
+    }
+
+    private static int getIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 |
+                (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static void putIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte)value;
+        bytes[offset + 1] = (byte)(value >> 8);
+        bytes[offset + 2] = (byte)(value >> 16);
+        bytes[offset + 3] = (byte)(value >> 24);
+    }
+
+}
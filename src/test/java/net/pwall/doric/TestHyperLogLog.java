@@ -0,0 +1,90 @@
+/*
+ * @(#) TestHyperLogLog.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestHyperLogLog {
+
+    /**
+     * The allowed relative error: three times the standard error of {@code 1.04 / sqrt(4096)} at the default
+     * precision.
+     */
+    private static final double maxError = 3 * 1.04 / 64;
+
+    @Test
+    public void testAccuracy() {
+        for (int cardinality : new int[] { 10, 100, 1000, 10000, 100000, 1000000 }) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < cardinality; i++) {
+                sketch.add("value" + i);
+                sketch.add("value" + i / 2); // duplicates do not affect the estimate
+            }
+            assertEquals(cardinality, sketch.estimate(), cardinality * maxError, "cardinality " + cardinality);
+        }
+        HyperLogLog empty = new HyperLogLog();
+        assertEquals(0, empty.estimate());
+        HyperLogLog precise = new HyperLogLog(14); // standard error 0.8%
+        for (int i = 0; i < 500000; i++)
+            precise.add(String.valueOf(i));
+        assertEquals(500000, precise.estimate(), 500000 * 3 * 1.04 / 128);
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(3));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(19));
+    }
+
+    @Test
+    public void testMerge() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        HyperLogLog all = new HyperLogLog();
+        for (int i = 0; i < 60000; i++) {
+            first.add(String.valueOf(i));
+            all.add(String.valueOf(i));
+        }
+        for (int i = 40000; i < 100000; i++) {
+            second.add(String.valueOf(i));
+            all.add(String.valueOf(i));
+        }
+        first.merge(second);
+        // the merged sketch is the same as the sketch of all the values, so the overlap is not counted twice
+        assertEquals(all.estimate(), first.estimate());
+        assertEquals(100000, first.estimate(), 100000 * maxError);
+        assertThrows(IllegalArgumentException.class, () -> first.merge(new HyperLogLog(10)));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            HyperLogLog sketch = new HyperLogLog(10);
+            for (int i = 0; i < 5000; i++)
+                sketch.add("x" + i);
+            File file = new File(directory, "000.hll");
+            assertEquals(1 + 1024, sketch.write(file));
+            assertEquals(1 + 1024, file.length());
+            HyperLogLog copy = HyperLogLog.read(file);
+            assertEquals(10, copy.getPrecision());
+            assertEquals(sketch.estimate(), copy.estimate());
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Files.write(file.toPath(), Arrays.copyOf(bytes, 500));
+            assertThrows(IOException.class, () -> HyperLogLog.read(file));
+            Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length + 1));
+            assertThrows(IOException.class, () -> HyperLogLog.read(file));
+            bytes[0] = 30;
+            Files.write(file.toPath(), bytes);
+            assertThrows(IOException.class, () -> HyperLogLog.read(file));
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+}
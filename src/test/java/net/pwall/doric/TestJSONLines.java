@@ -0,0 +1,188 @@
+/*
+ * @(#) TestJSONLines.java
+ */
+
+package net.pwall.doric;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.query.Aggregate;
+import net.pwall.doric.query.Condition;
+
+public class TestJSONLines {
+
+    @Test
+    public void testParseLine() {
+        List<String> properties = parse("{ \"a\": 1, \"b\":-2.5e3,\"c\":\"x\\\"y\\u00e9\\n\", \"d\": true," +
+                " \"e\": null, \"f\": \"\", \"g\": {\"h\": [1, \"]}\"]}, \"i\": [ ] }");
+        assertEquals(Arrays.asList("a", "1", "b", "-2.5e3", "c", "x\"y\u00e9\n", "d", "true", "e", null, "f", null,
+                "g", "{\"h\": [1, \"]}\"]}", "i", "[ ]"), properties);
+        assertTrue(parse("   ").isEmpty());
+        assertTrue(parse("{}").isEmpty());
+        for (String invalid : new String[] { "[1]", "{\"a\":1", "{\"a\" 1}", "{\"a\":\"x}", "{\"a\":tru}",
+                "{\"a\":x}", "{\"a\":\"\\q\"}", "{\"a\":\"\\u12\"}", "{\"a\":{\"b\":1}", "{\"a\":1} x" }) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> JSONLines.parseLine(invalid, 7, (name, value) -> {}), invalid);
+            assertTrue(e.getMessage().startsWith("Invalid JSON Lines data, line 7"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testChunkBoundaries() throws IOException {
+        int numLines = JSONLines.chunkLines * 3 + 5;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numLines; i++) {
+            sb.append("{\"n\":").append(i).append("}\n");
+            if (i % 1000 == 0)
+                sb.append("\n  \n"); // blank lines are skipped, and not counted
+        }
+        for (int threads : new int[] { 1, 4 }) {
+            List<String> values = new ArrayList<>();
+            List<Long> firstLines = new ArrayList<>();
+            JSONLines.process(input(sb.toString()), threads, (lines, count, firstLine) -> {
+                firstLines.add(firstLine);
+                return JSONLines.parseProperties(lines, count, firstLine);
+            }, rows -> {
+                for (String[] row : rows)
+                    values.add(row[1]);
+            });
+            assertEquals(numLines, values.size());
+            for (int i = 0; i < numLines; i++)
+                assertEquals(String.valueOf(i), values.get(i));
+            assertEquals(4, firstLines.size());
+            assertTrue(firstLines.contains(1L + JSONLines.chunkLines * 3));
+        }
+        // an error in a later chunk is reported with its line number, and not lost in the parallel parsing
+        String invalid = sb.toString() + "{\"n\":}\n";
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> JSONLines.process(
+                input(invalid), 4, JSONLines::parseProperties, rows -> {}));
+        assertTrue(e.getMessage().contains("line " + (numLines + 1) + ","), e.getMessage());
+    }
+
+    @Test
+    public void testIngestWithNulls() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            String[] lines = new String[JSONLines.chunkLines * 2 + 3];
+            for (int i = 0; i < lines.length; i++) {
+                StringBuilder sb = new StringBuilder("{\"id\":").append(i);
+                if (i % 3 != 0) // null is represented by a missing property, null or an empty string
+                    sb.append(",\"count\":").append(i % 3 == 1 ? String.valueOf(i % 5) : "null");
+                if (i % 4 != 0)
+                    sb.append(",\"amount\":").append(i % 4 == 1 ? String.valueOf(i / 2.0) : "\"\"");
+                if (i % 5 != 0)
+                    sb.append(",\"day\":\"").append(LocalDate.ofEpochDay(i % 7 - 3)).append('"');
+                if (i >= JSONLines.chunkLines + 10) // first seen in the second chunk
+                    sb.append(",\"tags\":[\"t").append(i % 2).append("\"]");
+                lines[i] = sb.append('}').toString();
+            }
+            File jsonFile = TableFixture.writeFile(directory, "t.jsonl", lines);
+            File tableDirectory = new File(directory, "t");
+            assertTrue(tableDirectory.mkdir());
+            Ingestor.Options options = TableFixture.options();
+            options.setDecompressionThreads(3);
+            Ingestor.ingestJSONLines("t", jsonFile, tableDirectory, options);
+            Table table = Table.open(tableDirectory);
+            assertEquals(lines.length, table.getNumRows());
+            assertEquals(5, table.getNumColumns());
+            assertEquals("tags", table.getColumn(4).getName());
+            assertEquals(Column.Type.integer, table.getColumn("count").getType());
+            assertEquals(Column.Type.floating, table.getColumn("amount").getType());
+            assertEquals(Column.Type.date, table.getColumn("day").getType());
+            assertEquals(Column.Type.undetermined, table.getColumn("tags").getType()); // nested values as text
+            assertTrue(table.getColumn("count").isNullable());
+            assertTrue(table.getColumn("tags").isNullable());
+            assertEquals("", table.getRow(0).getString("tags"));
+            assertEquals("[\"t1\"]", table.getRow(lines.length - 2).getString("tags"));
+
+            long zeroCounts = 0;
+            long epochDays = 0;
+            long amounts = 0;
+            double amountSum = 0.0;
+            for (int i = 0; i < lines.length; i++) {
+                Row row = table.getRow(i);
+                assertEquals(i % 3 != 1, row.isNull("count"));
+                assertEquals(i % 4 != 1, row.isNull("amount"));
+                assertEquals(i % 5 == 0, row.isNull("day"));
+                if (i % 3 == 1 && i % 5 == 0)
+                    zeroCounts++;
+                if (i % 5 != 0 && i % 7 - 3 >= -1 && i % 7 - 3 <= 0)
+                    epochDays++;
+                if (i % 4 == 1) {
+                    amounts++;
+                    amountSum += i / 2.0;
+                }
+            }
+            // null values do not match, even where the stored value would be read as zero
+            assertEquals(zeroCounts, table.where(Condition.equal("count", 0L)).getNumRows());
+            assertEquals(zeroCounts, table.where(Condition.in("count", 0L, 10L)).getNumRows());
+            assertEquals(epochDays, table.where(Condition.between("day", -1L, 0L)).getNumRows());
+            assertEquals(amounts, table.where(Condition.between("amount", -1.0, 1e6)).getNumRows());
+            assertEquals(0, table.where(Condition.equal("amount", 0.0)).getNumRows());
+            assertEquals(lines.length - JSONLines.chunkLines - 10,
+                    table.where(Condition.startsWith("tags", "[")).getNumRows());
+            Aggregate[] aggregates = Aggregate.compute(table, false, "amount", "count");
+            assertEquals(amounts, aggregates[0].getCount());
+            assertEquals(amountSum, aggregates[0].getSum(), 0.0);
+            assertEquals((lines.length + 1) / 3, aggregates[1].getCount());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testSchemaInference() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File jsonFile = TableFixture.writeFile(directory, "t.jsonl", "{\"a\":1,\"b\":true}", "",
+                    "{\"b\":false,\"c\":\"x\",\"a\":2.5}", "{\"d\":{\"e\":1}}");
+            Table table = new Table("t");
+            try (InputStream in = GzipInput.open(jsonFile, 1)) {
+                table.analyseJSONLines(in, 1);
+            }
+            assertEquals(3, table.getNumRows());
+            assertEquals(4, table.getNumColumns());
+            String[] names = { "a", "b", "c", "d" }; // in the order first seen
+            for (int i = 0; i < names.length; i++)
+                assertEquals(names[i], table.getColumn(i).getName());
+            assertEquals(Column.Type.floating, table.getColumn("a").getType());
+            assertTrue(table.getColumn("a").isNullable());
+            assertTrue(table.getColumn("c").isNullable()); // missing before it was first seen
+            assertEquals(Column.Type.undetermined, table.getColumn("d").getType());
+            File badFile = TableFixture.writeFile(directory, "bad.jsonl", "{\"a\":1}", "{\"a\":[1,2}");
+            try (InputStream in = GzipInput.open(badFile, 1)) {
+                assertThrows(IllegalArgumentException.class, () -> new Table("bad").analyseJSONLines(in, 1));
+            }
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static List<String> parse(String line) {
+        List<String> result = new ArrayList<>();
+        JSONLines.parseLine(line, 1, (name, value) -> {
+            result.add(name);
+            result.add(value);
+        });
+        return result;
+    }
+
+    private static InputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * @(#) TestLargeTable.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.columninput.ColumnInput;
+import net.pwall.doric.index.Bitmap;
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestLargeTable {
+
+    private static final long numRows = (1L << 31) + 8;
+    private static final long lastRow = numRows - 1;
+
+    @Test
+    public void testRowsBeyondIntRange() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            // a sparse file, so only the blocks written take space
+            try (RandomAccessFile file = new RandomAccessFile(new File(directory, "n.int32"), "rw")) {
+                file.setLength(numRows * 4);
+                file.seek((lastRow - 2) * 4);
+                file.writeInt(42);
+                file.seek(lastRow * 4);
+                file.writeInt(-7);
+            }
+            Column n = new Column("n");
+            n.setType(Column.Type.integer);
+            n.setStorageType(Column.StorageType.int32);
+            Column.FileData fileData = new Column.FileData();
+            fileData.setRowData(new Column.FileDetails("n.int32", numRows * 4));
+            n.setFileData(fileData);
+            n.setDirectory(directory);
+            Column id = new Column("id");
+            id.setType(Column.Type.integer);
+            id.setStorageType(Column.StorageType.int64);
+            id.setAscending(true);
+            id.setColumnInput(new EvenNumbers());
+            List<Column> columns = new ArrayList<>();
+            columns.add(id);
+            columns.add(n);
+            Table table = new Table("large");
+            table.setColumns(columns);
+            table.setNumRows(numRows);
+
+            assertEquals(42, table.getRow(lastRow - 2).getLong("n"));
+            assertEquals(0, table.getRow(lastRow - 1).getLong("n"));
+            assertEquals(-7, table.getRow(lastRow).getLong("n"));
+            assertEquals(new RowRange(lastRow - 2, lastRow), table.findRange("id", lastRow * 2 - 4, lastRow * 2 - 1));
+            // the range is located by binary search, and the bitmap indexes are not used
+            Query result = table.where(Condition.between("id", lastRow * 2 - 4, lastRow * 2));
+            assertEquals(3, result.getNumRows());
+            assertEquals(42, result.getRow(0).getLong("n"));
+            assertEquals(lastRow * 2, result.getRow(2).getLong("id"));
+            assertEquals(0, table.where(Condition.equal("id", lastRow * 2 + 1)).getNumRows());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testBitmapLimit() {
+        assertThrows(IllegalArgumentException.class, () -> Bitmap.ofRange(new RowRange(0, Bitmap.maxRows + 1)));
+        Bitmap bitmap = new Bitmap();
+        bitmap.add(5);
+        bitmap.add(Integer.MAX_VALUE - 1);
+        assertArrayEquals(new int[] { 5, Integer.MAX_VALUE - 1 }, bitmap.and(new RowRange(5, numRows)).toArray());
+    }
+
+    /**
+     * A column input for a sorted column with the value of each row being twice the row number.
+     */
+    private static class EvenNumbers implements ColumnInput {
+
+        @Override
+        public boolean isNull(long rowNumber) {
+            return false;
+        }
+
+        @Override
+        public Number getNumber(long rowNumber) {
+            return getLong(rowNumber);
+        }
+
+        @Override
+        public long getLong(long rowNumber) {
+            return rowNumber * 2;
+        }
+
+        @Override
+        public String getString(long rowNumber) {
+            return String.valueOf(getLong(rowNumber));
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+    }
+
+}
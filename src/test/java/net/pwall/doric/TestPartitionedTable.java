@@ -0,0 +1,128 @@
+/*
+ * @(#) TestPartitionedTable.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestPartitionedTable {
+
+    @Test
+    public void testPruning() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = new File(directory, "t");
+            // added out of order, to check that the partitions are sorted by key
+            addPartition(directory, tableDirectory, "p3", 20200105, 200);
+            addPartition(directory, tableDirectory, "p1", 20200101, 0);
+            addPartition(directory, tableDirectory, "p2", 20200103, 100);
+            PartitionedTable table = PartitionedTable.open(tableDirectory);
+            List<PartitionedTable.Partition> partitions = table.getPartitions();
+            assertEquals(3, partitions.size());
+            assertEquals("p1", partitions.get(0).getName());
+            assertEquals(20200101, partitions.get(0).getMin());
+            assertEquals(20200102, partitions.get(0).getMax());
+            assertEquals("p3", partitions.get(2).getName());
+            assertEquals(60, table.getNumRows());
+            assertEquals(100, table.getRow(20).getLong("value"));
+            assertEquals(219, table.getRow(59).getLong("value"));
+            table.close();
+
+            table = PartitionedTable.open(tableDirectory);
+            List<PartitionedTable.Partition> pruned = table.prune(Condition.between("day", 20200103, 20200104));
+            assertEquals(1, pruned.size());
+            assertEquals("p2", pruned.get(0).getName());
+            assertFalse(table.getPartitions().get(0).isOpen()); // excluded on the partition list alone
+            assertFalse(table.getPartitions().get(2).isOpen());
+            Query result = table.where(Condition.between("day", 20200103, 20200104));
+            assertEquals(20, result.getNumRows());
+            table.close();
+
+            table = PartitionedTable.open(tableDirectory);
+            pruned = table.prune(Condition.between("value", 105L, 110L)); // excluded on partition column metadata
+            assertEquals(1, pruned.size());
+            assertEquals("p2", pruned.get(0).getName());
+            assertEquals(6, table.where(Condition.between("value", 105L, 110L)).getNumRows());
+            assertEquals(0, table.prune(Condition.equal("day", 20200107)).size());
+            assertEquals(0, table.where(Condition.equal("day", 20200107)).getNumRows());
+            assertEquals(2, table.where(Condition.or(Condition.equal("value", 5L),
+                    Condition.equal("value", 215L))).getNumRows());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testReplaceAndReject() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = new File(directory, "t");
+            addPartition(directory, tableDirectory, "p1", 20200101, 0);
+            addPartition(directory, tableDirectory, "p2", 20200103, 100);
+            addPartition(directory, tableDirectory, "p1", 20200101, 50); // replaces p1
+            PartitionedTable table = PartitionedTable.open(tableDirectory);
+            assertEquals(2, table.getPartitions().size());
+            assertEquals(50, table.getRow(0).getLong("value"));
+            table.close();
+            File csvFile = TableFixture.writeFile(directory, "bad.csv", "day,other", "20200109,1", "20200110,2");
+            assertThrows(IllegalArgumentException.class, () -> Ingestor.ingestPartition("t", csvFile,
+                    tableDirectory, "p4", "day", TableFixture.options()));
+            assertThrows(IllegalArgumentException.class, () -> Ingestor.ingestPartition("t", csvFile,
+                    tableDirectory, "p5", "other", TableFixture.options()));
+            assertThrows(IOException.class, () -> PartitionedTable.open(directory));
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testFullyPruned() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = new File(directory, "t");
+            addPartition(directory, tableDirectory, "p1", 20200101, 0);
+            addPartition(directory, tableDirectory, "p2", 20200103, 100);
+            PartitionedTable table = PartitionedTable.open(tableDirectory);
+            // the result still has the columns of the table
+            Query result = table.where(Condition.equal("day", 20200107));
+            assertEquals(0, result.getNumRows());
+            assertEquals(2, result.getNumColumns());
+            assertEquals("value", result.getColumn(1).getName());
+            assertEquals(Column.Type.integer, result.getColumn("value").getType());
+            assertFalse(result.iterator().hasNext());
+            // the columns of the partitioned table describe all the partitions
+            assertEquals(0, table.getColumn("value").getMinInt());
+            assertEquals(119, table.getColumn("value").getMaxInt());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    /**
+     * Add a partition of 20 rows covering two days, with values from {@code firstValue}.
+     */
+    private static void addPartition(File directory, File tableDirectory, String name, int firstDay, int firstValue)
+            throws IOException {
+        String[] lines = new String[21];
+        lines[0] = "day,value";
+        for (int i = 0; i < 20; i++)
+            lines[i + 1] = (firstDay + i / 10) + "," + (firstValue + i);
+        File csvFile = TableFixture.writeFile(directory, name + ".csv", lines);
+        Ingestor.ingestPartition("t", csvFile, tableDirectory, name, "day", TableFixture.options());
+    }
+
+}
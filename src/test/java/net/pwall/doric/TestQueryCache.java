@@ -0,0 +1,242 @@
+/*
+ * @(#) TestQueryCache.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestQueryCache {
+
+    @Test
+    public void testInvalidation() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", "id,amount", "1,1.5", "2,2.5", "3,", "4,4.5");
+            backdate(tableDirectory);
+            QueryCache cache = new QueryCache();
+            QueryCache.Plan count = QueryCache.Plan.count(Condition.between("id", 0L, 100L));
+            QueryCache.Plan sum = QueryCache.Plan.aggregate(null, "amount");
+            assertEquals(4, count(cache.get(tableDirectory, count)));
+            assertEquals(8.5, sum(cache.get(tableDirectory, sum)), 0.0);
+            for (int i = 0; i < 3; i++)
+                assertEquals(4, count(cache.get(tableDirectory, count)));
+            assertEquals(3, cache.getHits());
+            assertEquals(2, cache.getMisses());
+            // the files have not changed since the first request, so the version is not read again
+            assertEquals(1, cache.getVersionReads());
+
+            append(directory, tableDirectory, "id,amount", "5,10", "6,");
+            assertEquals(6, count(cache.get(tableDirectory, count)));
+            assertEquals(2, cache.getInvalidations());
+            assertEquals(18.5, sum(cache.get(tableDirectory, sum)), 0.0);
+            // the files were modified too recently for the modification time to be relied on
+            long versionReads = cache.getVersionReads();
+            assertEquals(6, count(cache.get(tableDirectory, count)));
+            assertEquals(versionReads + 1, cache.getVersionReads());
+            assertEquals(4, cache.getHits());
+
+            // a compaction does not change the result, but the cached results are discarded all the same
+            try (Compactor compactor = new Compactor(tableDirectory)) {
+                compactor.setMinSegments(2);
+                compactor.setRetainMillis(0);
+                assertTrue(compactor.compact());
+            }
+            long misses = cache.getMisses();
+            assertEquals(6, count(cache.get(tableDirectory, count)));
+            assertEquals(18.5, sum(cache.get(tableDirectory, sum)), 0.0);
+            assertEquals(misses + 2, cache.getMisses());
+            assertEquals(4, cache.getInvalidations());
+
+            cache.invalidate(tableDirectory);
+            assertEquals(0, cache.getNumEntries());
+            assertEquals(0, cache.getSize());
+            versionReads = cache.getVersionReads();
+            assertEquals(6, count(cache.get(tableDirectory, count)));
+            assertEquals(versionReads + 1, cache.getVersionReads());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testAppendedTable() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", "id,amount", "1,1.5", "2,2.5");
+            append(directory, tableDirectory, "id,amount", "3,1.2345", "4,");
+            QueryCache cache = new QueryCache();
+            // the cached copy takes its columns from all the segments, so the appended values are not rounded
+            Query result = cache.get(tableDirectory, QueryCache.Plan.where(Condition.between("id", 2L, 4L)));
+            assertEquals(3, result.getNumRows());
+            assertEquals(2.5, result.getRow(0).getNumber("amount").doubleValue(), 0.0);
+            assertEquals(1.2345, result.getRow(1).getNumber("amount").doubleValue(), 0.0);
+            assertTrue(result.getRow(2).isNull("amount"));
+
+            // every segment is excluded, but the result still has the columns of the table
+            Condition none = Condition.between("id", 10L, 20L);
+            result = cache.get(tableDirectory, QueryCache.Plan.where(none));
+            assertEquals(0, result.getNumRows());
+            assertEquals(2, result.getNumColumns());
+            assertEquals(0, count(cache.get(tableDirectory, QueryCache.Plan.count(none))));
+            assertEquals(0, cache.get(tableDirectory, QueryCache.Plan.aggregate(none, "amount")).getRow(0).
+                    getLong("count"));
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testRepartition() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = new File(directory, "t");
+            addPartition(directory, tableDirectory, "p1", 20200101, 10);
+            addPartition(directory, tableDirectory, "p2", 20200103, 10);
+            backdate(tableDirectory);
+            QueryCache cache = new QueryCache();
+            QueryCache.Plan count = QueryCache.Plan.count(Condition.between("value", 0L, 4L));
+            assertEquals(10, count(cache.get(tableDirectory, count)));
+            assertEquals(10, count(cache.get(tableDirectory, count)));
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.getVersionReads());
+
+            // replacing a partition changes the partition directory as well as the partition list
+            addPartition(directory, tableDirectory, "p1", 20200101, 4);
+            assertEquals(9, count(cache.get(tableDirectory, count)));
+            assertEquals(1, cache.getInvalidations());
+            assertEquals(9, count(cache.get(tableDirectory, count)));
+            assertEquals(2, cache.getHits());
+
+            addPartition(directory, tableDirectory, "p3", 20200105, 2);
+            assertEquals(11, count(cache.get(tableDirectory, count)));
+            assertEquals(2, cache.getInvalidations());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testCostEviction() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", "id", "1", "2");
+            backdate(tableDirectory);
+            long entrySize = entrySize(tableDirectory);
+            int[] executions = new int[1];
+            QueryCache.Plan expensive = plan("aaaaa", 50, executions);
+
+            // the least recently used entry is evicted, however expensive
+            QueryCache lru = new QueryCache(entrySize * 5 / 2, QueryCache.EvictionPolicy.leastRecentlyUsed);
+            lru.get(tableDirectory, expensive);
+            lru.get(tableDirectory, plan("bbbbb", 0, new int[1]));
+            lru.get(tableDirectory, plan("ccccc", 0, new int[1]));
+            assertEquals(2, lru.getNumEntries());
+            assertEquals(1, lru.getEvictions());
+            lru.get(tableDirectory, expensive);
+            assertEquals(2, executions[0]);
+
+            // the cheaper entry is evicted, although the expensive entry was used less recently
+            QueryCache cache = new QueryCache(entrySize * 5 / 2, QueryCache.EvictionPolicy.cost);
+            executions[0] = 0;
+            int[] cheapExecutions = new int[1];
+            QueryCache.Plan cheap = plan("bbbbb", 0, cheapExecutions);
+            cache.get(tableDirectory, expensive);
+            cache.get(tableDirectory, cheap);
+            cache.get(tableDirectory, plan("ccccc", 0, new int[1]));
+            assertEquals(1, cache.getEvictions());
+            cache.get(tableDirectory, expensive);
+            assertEquals(1, executions[0]);
+            cache.get(tableDirectory, cheap);
+            assertEquals(2, cheapExecutions[0]);
+
+            // the expensive entry ages out once enough cheaper entries have been evicted in its place
+            for (int i = 0; i < 1000; i++)
+                cache.get(tableDirectory, plan(String.format("%05d", i), 0, new int[1]));
+            cache.get(tableDirectory, expensive);
+            assertEquals(2, executions[0]);
+            assertTrue(cache.getSize() <= cache.getMaxBytes());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static long entrySize(File tableDirectory) throws IOException {
+        QueryCache cache = new QueryCache();
+        cache.get(tableDirectory, plan("zzzzz", 0, new int[1]));
+        return cache.getSize();
+    }
+
+    /**
+     * Create a plan with the nominated key that takes at least the nominated time to execute.
+     */
+    private static QueryCache.Plan plan(String key, long millis, int[] executions) {
+        return new QueryCache.Plan() {
+            @Override
+            public String getKey() {
+                return key;
+            }
+            @Override
+            public MemoryQuery execute(Query table) {
+                executions[0]++;
+                try {
+                    Thread.sleep(millis);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                MemoryQuery result = new MemoryQuery(Arrays.asList(MemoryQuery.column("rows", Column.Type.integer,
+                        false)));
+                result.addRow(table.getNumRows());
+                return result;
+            }
+        };
+    }
+
+    private static long count(Query result) throws IOException {
+        return result.getRow(0).getLong("count");
+    }
+
+    private static double sum(Query result) throws IOException {
+        return result.getRow(0).getNumber("sum").doubleValue();
+    }
+
+    /**
+     * Set the modification times of the files of a table to a time far enough in the past for them to be relied on.
+     */
+    private static void backdate(File directory) {
+        File[] children = directory.listFiles();
+        if (children != null)
+            for (File child : children)
+                backdate(child);
+        assertTrue(directory.setLastModified(System.currentTimeMillis() - QueryCache.racyMillis * 5));
+    }
+
+    private static void append(File directory, File tableDirectory, String ... lines) throws IOException {
+        File csvFile = TableFixture.writeFile(directory, "append.csv", lines);
+        Ingestor.append(csvFile, tableDirectory, TableFixture.options());
+    }
+
+    private static void addPartition(File directory, File tableDirectory, String name, int firstDay, int numRows)
+            throws IOException {
+        String[] lines = new String[numRows + 1];
+        lines[0] = "day,value";
+        for (int i = 0; i < numRows; i++)
+            lines[i + 1] = (firstDay + i * 2 / numRows) + "," + i;
+        File csvFile = TableFixture.writeFile(directory, name + ".csv", lines);
+        Ingestor.ingestPartition("t", csvFile, tableDirectory, name, "day", TableFixture.options());
+    }
+
+}
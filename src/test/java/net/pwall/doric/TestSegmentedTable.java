@@ -0,0 +1,197 @@
+/*
+ * @(#) TestSegmentedTable.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestSegmentedTable {
+
+    @Test
+    public void testAppend() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", lines(0, 100));
+            append(directory, tableDirectory, lines(100, 150));
+            append(directory, tableDirectory, "id,name,amount", "150,n150,100000.5", "151,n151,-3");
+            Table table = Table.open(tableDirectory);
+            assertTrue(table instanceof SegmentedTable);
+            assertEquals(3, ((SegmentedTable)table).getSegments().size());
+            assertEquals(152, table.getNumRows());
+            assertEquals("n099", table.getRow(99).getString("name"));
+            assertEquals(100, table.getRow(100).getLong("id"));
+            assertEquals(100000.5, table.getRow(150).getNumber("amount").doubleValue(), 0.0);
+            assertEquals(51, table.where(Condition.between("id", 100L, 150L)).getNumRows());
+            assertEquals(1, table.where(Condition.between("amount", -10.0, -1.0)).getNumRows());
+            table.close();
+            File badFile = TableFixture.writeFile(directory, "bad.csv", "id,name", "1,x", "2,y");
+            assertThrows(IllegalArgumentException.class, () -> Ingestor.append(badFile, tableDirectory,
+                    TableFixture.options()));
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testFindRangeAcrossSegments() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", lines(0, 100));
+            append(directory, tableDirectory, lines(100, 150));
+            append(directory, tableDirectory, lines(150, 200));
+            Table table = Table.open(tableDirectory);
+            assertEquals(new RowRange(90, 161), table.findRange("id", 90L, 160L));
+            assertEquals(new RowRange(120, 130), table.findRange("id", 120L, 129L));
+            assertEquals(new RowRange(150, 151), table.findRange("id", 150L, 150L));
+            assertTrue(table.findRange("id", 300L, 400L).isEmpty());
+            assertTrue(table.findRange("id", 10L, 5L).isEmpty());
+            assertEquals(new RowRange(99, 102), table.findRange("name", "n099", "n101"));
+            assertEquals(new RowRange(140, 150), table.findPrefixRange("name", "n14"));
+            assertEquals(new RowRange(50, 151), table.findRange("amount", 25.0, 75.0));
+            table.close();
+            append(directory, tableDirectory, lines(5, 10)); // no longer sorted across the segments
+            Table unsorted = Table.open(tableDirectory);
+            assertEquals(new RowRange(150, 160), unsorted.findRange("id", 150L, 159L));
+            assertThrows(IllegalStateException.class, () -> unsorted.findRange("id", 5L, 5L));
+            unsorted.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testCardinalityAcrossSegments() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            Ingestor.Options options = TableFixture.options();
+            options.setMaxUnique(100);
+            File tableDirectory = TableFixture.ingest(directory, "t", options, groups(0, 3000, "a", "b"));
+            File csvFile = TableFixture.writeFile(directory, "append.csv", groups(2000, 6000, "b", "c"));
+            Ingestor.append(csvFile, tableDirectory, options);
+            Table table = Table.open(tableDirectory);
+            Table first = ((SegmentedTable)table).getSegments().get(0);
+            assertTrue(first.getColumn("id").isCardinalityEstimated());
+            assertNotNull(first.getColumn("id").getSketch());
+            assertFalse(first.getColumn("grp").isCardinalityEstimated());
+            assertTrue(new File(tableDirectory, first.getColumn("grp").getFileData().getSketch().getName()).exists());
+            // the sketches of the segments are merged, so the overlapping values are only counted once
+            assertEquals(6000, table.getCardinality("id"), 6000 * 3 * 1.04 / 64);
+            assertEquals(3000, first.getCardinality("id"), 3000 * 3 * 1.04 / 64);
+            assertEquals(3, table.getCardinality("grp")); // small counts are exact in practice
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testMergedColumns() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", "id,amount,name,code", "1,1.5,a,7", "2,2.5,b,7");
+            append(directory, tableDirectory, "id,amount,name,code", "300,1.25,,7", "-4,-2.5,cc,7");
+            append(directory, tableDirectory, "id,amount,name,code", "5,,d,7");
+            Table table = Table.open(tableDirectory);
+            Column id = table.getColumn("id");
+            assertEquals(Column.StorageType.int16, id.getStorageType());
+            assertEquals(-4, id.getMinInt());
+            assertEquals(300, id.getMaxInt());
+            assertFalse(id.isNullable());
+            // the decimal shifts of the segments differ, so the values are described as unshifted floating-point
+            Column amount = table.getColumn("amount");
+            assertTrue(amount.isNullable());
+            assertEquals(Column.StorageType.float64, amount.getStorageType());
+            assertEquals(0, amount.getDecimalShift());
+            assertEquals(-2.5, amount.getMinFloat(), 0.0);
+            assertEquals(2.5, amount.getMaxFloat(), 0.0);
+            assertEquals(2, amount.getMaxDecimals());
+            assertEquals(Column.StorageType.bytes, table.getColumn("name").getStorageType());
+            assertEquals(Column.StorageType.constant, table.getColumn("code").getStorageType());
+            assertEquals(7, table.getColumn("code").getConstantValueInt().longValue());
+
+            // a query that excludes every segment still has the columns of the table
+            Query result = table.where(Condition.between("id", 1000L, 2000L));
+            assertEquals(0, result.getNumRows());
+            assertEquals(4, result.getNumColumns());
+            assertSame(amount, result.getColumn("amount"));
+            // a query on some of the segments describes only those segments
+            result = table.where(Condition.between("id", -10L, 0L));
+            assertEquals(1, result.getNumRows());
+            assertEquals(Column.StorageType.int16, result.getColumn("id").getStorageType());
+            assertEquals(2, result.getColumn("amount").getDecimalShift());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testTableLock() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            File tableDirectory = TableFixture.ingest(directory, "t", lines(0, 10));
+            String first = SegmentedTable.createSegmentDirectory(tableDirectory);
+            String second = SegmentedTable.createSegmentDirectory(tableDirectory);
+            assertNotEquals(first, second); // the directory reserves the name until the segment is added
+            FutureTask<String> allocation = new FutureTask<>(() ->
+                    SegmentedTable.createSegmentDirectory(tableDirectory));
+            try (SegmentedTable.TableLock lock = SegmentedTable.lock(tableDirectory)) {
+                // the lock file is locked, so that other processes are excluded
+                try (FileChannel channel = FileChannel.open(new File(tableDirectory,
+                        SegmentedTable.lockFileName).toPath(), StandardOpenOption.WRITE)) {
+                    assertThrows(OverlappingFileLockException.class, channel::tryLock);
+                }
+                // the lock may be taken again by the same thread, but not by another
+                SegmentedTable.addSegment(tableDirectory, first, 0);
+                new Thread(allocation).start();
+                assertThrows(TimeoutException.class, () -> allocation.get(200, TimeUnit.MILLISECONDS));
+            }
+            String third = allocation.get(10, TimeUnit.SECONDS);
+            assertNotEquals(second, third);
+            assertEquals(first, SegmentedTable.Manifest.read(tableDirectory).getSegments().get(0).getName());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static void append(File directory, File tableDirectory, String ... lines) throws IOException {
+        File csvFile = TableFixture.writeFile(directory, "append.csv", lines);
+        Ingestor.append(csvFile, tableDirectory, TableFixture.options());
+    }
+
+    private static String[] groups(int from, int to, String group1, String group2) {
+        String[] result = new String[to - from + 1];
+        result[0] = "id,grp";
+        for (int i = from; i < to; i++)
+            result[i - from + 1] = i + "," + (i % 2 == 0 ? group1 : group2);
+        return result;
+    }
+
+    private static String[] lines(int from, int to) {
+        String[] result = new String[to - from + 1];
+        result[0] = "id,name,amount";
+        for (int i = from; i < to; i++)
+            result[i - from + 1] = String.format("%d,n%03d,%.1f", i, i, i / 2.0);
+        return result;
+    }
+
+}
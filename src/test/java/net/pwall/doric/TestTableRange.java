@@ -0,0 +1,102 @@
+/*
+ * @(#) TestTableRange.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.query.Condition;
+import net.pwall.doric.query.Query;
+
+public class TestTableRange {
+
+    @Test
+    public void testFindRangeAscending() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            String[] lines = new String[1001];
+            lines[0] = "id,name";
+            for (int i = 0; i < 1000; i++)
+                lines[i + 1] = (i / 3) + ",n" + i;
+            Table table = Table.open(TableFixture.ingest(directory, "t", lines));
+            assertTrue(table.getColumn("id").isAscending());
+            RowRange range = table.findRange("id", 10L, 20L);
+            assertEquals(30, range.getStart());
+            assertEquals(63, range.getEnd());
+            assertTrue(table.findRange("id", 20L, 10L).isEmpty());
+            assertTrue(table.findRange("id", 1000L, 2000L).isEmpty());
+            assertEquals(33, table.where(Condition.between("id", 10L, 20L)).getNumRows());
+            assertEquals(3, table.where(Condition.in("id", 5L, 400L)).getNumRows());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testFindRangeDescending() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            Table table = Table.open(TableFixture.ingest(directory, "t", "id", "9", "7", "7", "5", "3", "1"));
+            assertTrue(table.getColumn("id").isDescending());
+            RowRange range = table.findRange("id", 3L, 7L);
+            assertEquals(1, range.getStart());
+            assertEquals(5, range.getEnd());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testStartsWithRangeEdge() throws Exception {
+        String highest = String.valueOf(Character.MAX_VALUE);
+        if (!Charset.defaultCharset().newEncoder().canEncode(Character.MAX_VALUE))
+            return; // the value can not be written to the CSV file on this platform
+        File directory = TableFixture.createDirectory();
+        try {
+            Table table = Table.open(TableFixture.ingest(directory, "t", "name", "aa", "ab", "abc", "ab" + highest,
+                    "ab" + highest + "z", "ac", "b"));
+            assertTrue(table.getColumn("name").isAscending());
+            RowRange range = table.findPrefixRange("name", "ab");
+            assertEquals(1, range.getStart());
+            assertEquals(5, range.getEnd());
+            List<String> names = new ArrayList<>();
+            Query result = table.where(Condition.startsWith("name", "ab"));
+            for (int i = 0; i < result.getNumRows(); i++)
+                names.add(result.getRow(i).getString("name"));
+            assertEquals(4, names.size());
+            assertTrue(names.contains("ab" + highest + "z"));
+            assertTrue(table.findPrefixRange("name", "abd").isEmpty());
+            assertEquals(7, table.findPrefixRange("name", "").getSize());
+            table.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    @Test
+    public void testUnsortedColumnRejected() throws IOException {
+        File directory = TableFixture.createDirectory();
+        try {
+            Table table = Table.open(TableFixture.ingest(directory, "t", "id", "3", "1", "2"));
+            assertThrows(IllegalStateException.class, () -> table.findRange("id", 1L, 2L));
+            assertEquals(1, table.where(Condition.equal("id", 2L)).getNumRows());
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+}
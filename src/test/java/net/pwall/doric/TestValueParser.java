@@ -0,0 +1,67 @@
+/*
+ * @(#) TestValueParser.java
+ */
+
+package net.pwall.doric;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestValueParser {
+
+    @Test
+    public void testParseLong() {
+        ValueParser parser = new ValueParser();
+        assertTrue(parser.parseLong("0"));
+        assertEquals(0, parser.getLong());
+        assertTrue(parser.parseLong("-123"));
+        assertEquals(-123, parser.getLong());
+        assertTrue(parser.parseLong("+77"));
+        assertEquals(77, parser.getLong());
+        assertTrue(parser.parseLong("9223372036854775807"));
+        assertEquals(Long.MAX_VALUE, parser.getLong());
+        assertTrue(parser.parseLong("-9223372036854775808"));
+        assertEquals(Long.MIN_VALUE, parser.getLong());
+        for (String s : new String[] { "", "-", "+", "9223372036854775808", "-9223372036854775809",
+                "99999999999999999999", "1.0", "1e3", " 1", "1 ", "0x10", "1L", "12a" })
+            assertFalse(parser.parseLong(s), s);
+    }
+
+    @Test
+    public void testParseDouble() {
+        ValueParser parser = new ValueParser();
+        String[] valid = { "0", "1.5", "-0.25", "+3.", ".5", "123.4567", "1e3", "1.5E-7", "-2e+10",
+                "0.1", "0.3", "9007199254740993", "12345678901234567890.5", "3.14159265358979323846" };
+        for (String s : valid) {
+            assertTrue(parser.parseDouble(s), s);
+            // the fast path must give the same (correctly rounded) result as the JDK
+            assertEquals(Double.parseDouble(s), parser.getDouble(), 0.0, s);
+        }
+        parser.parseDouble("123.4567");
+        assertEquals(4, parser.getDecimals());
+        parser.parseDouble("1e3");
+        assertEquals(0, parser.getDecimals());
+        parser.parseDouble("1.50e2");
+        assertEquals(2, parser.getDecimals());
+        for (String s : new String[] { "", "-", ".", "-.", "1.2.3", "1e", "1e+", "1ee3", "e3", "NaN", "Infinity",
+                "1.5f", "1d", " 1.5", "1,5", "0x1p3", "2020-01-01" })
+            assertFalse(parser.parseDouble(s), s);
+    }
+
+    @Test
+    public void testParseDate() {
+        ValueParser parser = new ValueParser();
+        assertTrue(parser.parseDate("1970-01-01"));
+        assertEquals(0, parser.getLong());
+        assertTrue(parser.parseDate("2020-02-29"));
+        assertEquals(LocalDate.of(2020, 2, 29).toEpochDay(), parser.getLong());
+        assertTrue(parser.parseDate("1969-12-31"));
+        assertEquals(-1, parser.getLong());
+        for (String s : new String[] { "", "2019-02-29", "2020-04-31", "2020-13-01", "2020-00-10", "2020-01-00",
+                "2020-1-01", "2020/01/01", "20200101", "2020-01-01T00:00", "+020-01-01", "2020-0a-01" })
+            assertFalse(parser.parseDate(s), s);
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * @(#) TestWriterPipeline.java
+ */
+
+package net.pwall.doric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.columnoutput.ColumnOutput;
+
+public class TestWriterPipeline {
+
+    @Test
+    public void testRowsWrittenInOrder() throws IOException {
+        for (int numThreads : new int[] { 1, 3, 20 }) {
+            RecordingOutput[] outputs = outputs(7);
+            try (WriterPipeline pipeline = new WriterPipeline(outputs, numThreads, 5)) {
+                String[] row = new String[7];
+                for (int i = 0; i < 103; i++) {
+                    for (int j = 0; j < 7; j++)
+                        row[j] = j + ":" + i;
+                    pipeline.put(row); // the array is re-used
+                }
+                pipeline.finish();
+            }
+            for (int j = 0; j < 7; j++) {
+                List<String> values = outputs[j].values;
+                assertEquals(103, values.size());
+                for (int i = 0; i < 103; i++)
+                    assertEquals(j + ":" + i, values.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        RecordingOutput[] outputs = outputs(2);
+        try (WriterPipeline pipeline = new WriterPipeline(outputs, 2, 5)) {
+            pipeline.finish();
+        }
+        assertTrue(outputs[0].values.isEmpty());
+    }
+
+    @Test
+    public void testFailureReported() {
+        RecordingOutput[] outputs = outputs(3);
+        outputs[1].failAt = 12;
+        IOException e = assertThrows(IOException.class, () -> {
+            try (WriterPipeline pipeline = new WriterPipeline(outputs, 2, 4)) {
+                // many more rows than the batches in circulation, so the producer must not block after the failure
+                for (int i = 0; i < 1000; i++)
+                    pipeline.put(new String[] { "a", "b", "c" });
+                pipeline.finish();
+            }
+        });
+        assertEquals("Column failed", e.getCause().getMessage());
+        assertEquals(12, outputs[1].values.size());
+
+        RecordingOutput[] rejecting = outputs(1);
+        rejecting[0].runtimeFailure = true;
+        assertThrows(IllegalStateException.class, () -> {
+            try (WriterPipeline pipeline = new WriterPipeline(rejecting, 1, 4)) {
+                pipeline.put(new String[] { "a" });
+                pipeline.finish();
+            }
+        });
+    }
+
+    @Test
+    public void testProducerWaitsForWorkers() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        RecordingOutput[] outputs = outputs(2);
+        outputs[0].gate = gate;
+        AtomicInteger rowsAccepted = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            try (WriterPipeline pipeline = new WriterPipeline(outputs, 2, 10)) {
+                for (int i = 0; i < 100; i++) {
+                    pipeline.put(new String[] { "x" + i, "y" + i });
+                    rowsAccepted.incrementAndGet();
+                }
+                pipeline.finish();
+            }
+            catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        producer.start();
+        // the producer fills every batch in circulation, then waits for one to be freed
+        for (int i = 0; i < 100 && rowsAccepted.get() < WriterPipeline.numBatches * 10; i++)
+            Thread.sleep(10);
+        Thread.sleep(50);
+        assertEquals(WriterPipeline.numBatches * 10, rowsAccepted.get());
+        assertTrue(producer.isAlive());
+        gate.countDown();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertNull(failure.get());
+        assertEquals(100, outputs[0].values.size());
+        assertEquals("x99", outputs[0].values.get(99));
+        assertEquals("y99", outputs[1].values.get(99));
+    }
+
+    @Test
+    public void testIngestSameWithThreads() throws Exception {
+        File directory = TableFixture.createDirectory();
+        try {
+            String[] lines = new String[3001];
+            lines[0] = "id,name,amount,day";
+            for (int i = 0; i < 3000; i++)
+                lines[i + 1] = i + ",name" + i % 37 + "," + (i % 50 == 0 ? "" : i / 4.0) + ",2020-01-" +
+                        (i % 28 + 10);
+            File single = TableFixture.ingest(directory, "single", lines);
+            Ingestor.Options options = TableFixture.options();
+            options.setWriterThreads(3);
+            options.setBatchSize(64);
+            File threaded = TableFixture.ingest(directory, "threaded", options, lines);
+            String[] names = sortedList(single);
+            assertArrayEquals(names, sortedList(threaded));
+            for (String name : names) {
+                // the metadata holds the table name and source, so it is compared column by column below
+                if (!name.equals("metadata.json") && !name.equals(Catalog.fileName))
+                    assertArrayEquals(Files.readAllBytes(new File(single, name).toPath()),
+                            Files.readAllBytes(new File(threaded, name).toPath()), name);
+            }
+            Table singleTable = Table.open(single);
+            Table threadedTable = Table.open(threaded);
+            for (int i = 0; i < singleTable.getNumColumns(); i++)
+                assertEquals(singleTable.getColumn(i).toJSON().toString(),
+                        threadedTable.getColumn(i).toJSON().toString());
+            singleTable.close();
+            threadedTable.close();
+        }
+        finally {
+            TableFixture.delete(directory);
+        }
+    }
+
+    private static String[] sortedList(File directory) {
+        String[] names = directory.list();
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static RecordingOutput[] outputs(int n) {
+        RecordingOutput[] result = new RecordingOutput[n];
+        for (int i = 0; i < n; i++)
+            result[i] = new RecordingOutput();
+        return result;
+    }
+
+    /**
+     * A {@link ColumnOutput} that records the values written to it, optionally failing at a nominated value or waiting
+     * for a gate to be opened before accepting values.
+     */
+    private static class RecordingOutput implements ColumnOutput {
+
+        private final List<String> values = new ArrayList<>();
+        private int failAt = -1;
+        private boolean runtimeFailure;
+        private volatile CountDownLatch gate;
+
+        @Override
+        public void putString(String value) throws IOException {
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await();
+                }
+                catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            if (values.size() == failAt)
+                throw new IOException("Column failed");
+            if (runtimeFailure)
+                throw new IllegalStateException("Column can not take <String>");
+            values.add(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * @(#) TestBitmap.java
+ */
+
+package net.pwall.doric.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.RowRange;
+
+public class TestBitmap {
+
+    @Test
+    public void testAddAndContains() {
+        Bitmap bitmap = new Bitmap();
+        bitmap.add(5);
+        bitmap.add(70000);
+        bitmap.add(1);
+        bitmap.add(5);
+        assertEquals(3, bitmap.getCardinality());
+        assertTrue(bitmap.contains(1));
+        assertTrue(bitmap.contains(5));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(2));
+        assertFalse(bitmap.contains(65541));
+        assertArrayEquals(new int[] { 1, 5, 70000 }, bitmap.toArray());
+    }
+
+    @Test
+    public void testDenseContainer() {
+        Bitmap bitmap = new Bitmap();
+        for (int i = 0; i < 10000; i += 2)
+            bitmap.add(i);
+        assertEquals(5000, bitmap.getCardinality());
+        assertTrue(bitmap.contains(9998));
+        assertFalse(bitmap.contains(9999));
+        int[] array = bitmap.toArray();
+        assertEquals(5000, array.length);
+        assertEquals(0, array[0]);
+        assertEquals(9998, array[4999]);
+    }
+
+    @Test
+    public void testAndOr() {
+        Bitmap evens = new Bitmap();
+        Bitmap threes = new Bitmap();
+        for (int i = 0; i < 200000; i++) {
+            if (i % 2 == 0)
+                evens.add(i);
+            if (i % 3 == 0)
+                threes.add(i);
+        }
+        Bitmap sixes = evens.and(threes);
+        assertEquals(33334, sixes.getCardinality());
+        assertTrue(sixes.contains(199998));
+        assertFalse(sixes.contains(4));
+        Bitmap either = evens.or(threes);
+        assertEquals(133333, either.getCardinality());
+        assertTrue(either.contains(9));
+        assertFalse(either.contains(7));
+    }
+
+    @Test
+    public void testRange() {
+        Bitmap bitmap = Bitmap.ofRange(65530, 131080);
+        assertEquals(65550, bitmap.getCardinality());
+        assertFalse(bitmap.contains(65529));
+        assertTrue(bitmap.contains(65530));
+        assertTrue(bitmap.contains(131079));
+        assertFalse(bitmap.contains(131080));
+        Bitmap sparse = new Bitmap();
+        sparse.add(3);
+        sparse.add(65535);
+        sparse.add(131079);
+        sparse.add(200000);
+        assertArrayEquals(new int[] { 65535, 131079 }, sparse.and(new RowRange(65530, 131080)).toArray());
+    }
+
+    @Test
+    public void testAndRangeClipsEndContainersOnly() {
+        Bitmap bitmap = new Bitmap();
+        for (int i = 0; i < 400000; i += 3)
+            bitmap.add(i);
+        Bitmap clipped = bitmap.and(new RowRange(70000, 270001));
+        int[] values = clipped.toArray();
+        assertEquals(70002, values[0]);
+        assertEquals(270000, values[values.length - 1]);
+        assertEquals(66667, values.length);
+        assertEquals(bitmap, bitmap.and(new RowRange(0, 400000)));
+        assertTrue(bitmap.and(new RowRange(400000, 500000)).isEmpty());
+        assertTrue(bitmap.and(new RowRange(5, 5)).isEmpty());
+        Bitmap high = new Bitmap();
+        high.add(Integer.MAX_VALUE - 1);
+        assertArrayEquals(new int[] { Integer.MAX_VALUE - 1 }, high.and(new RowRange(0, 5000000000L)).toArray());
+    }
+
+    @Test
+    public void testIterator() {
+        Bitmap bitmap = new Bitmap();
+        bitmap.add(100000);
+        bitmap.add(7);
+        bitmap.addRange(10, 13);
+        StringBuilder sb = new StringBuilder();
+        bitmap.iterator().forEachRemaining((int i) -> sb.append(i).append(' '));
+        assertEquals("7 10 11 12 100000 ", sb.toString());
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        Bitmap bitmap = new Bitmap();
+        for (int i = 0; i < 100000; i += 7)
+            bitmap.add(i);
+        bitmap.addRange(300000, 310000);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            bitmap.writeTo(out);
+        }
+        assertEquals(bitmap.getSerializedSize(), baos.size());
+        Bitmap copy = Bitmap.readFrom(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(bitmap, copy);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * @(#) TestBloomFilter.java
+ */
+
+package net.pwall.doric.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.Column;
+
+public class TestBloomFilter {
+
+    @Test
+    public void testNoFalseNegatives() throws IOException {
+        File directory = Files.createTempDirectory("doric-test").toFile();
+        try {
+            File file = new File(directory, "000.bloom");
+            long size;
+            try (BloomFilter.Builder builder = new BloomFilter.Builder(Column.Type.integer, file, 1000, 10, 7)) {
+                for (int i = 0; i < 5500; i++)
+                    builder.add(i * 31L);
+                size = builder.finish();
+            }
+            assertEquals(file.length(), size);
+            BloomFilter filter = new BloomFilter(file, Column.Type.integer);
+            int falsePositiveBlocks = 0;
+            for (int i = 0; i < 5500; i++) {
+                Bitmap rows = filter.getCandidateRows(i * 31L);
+                assertTrue(rows.contains(i));
+                int start = i / 1000 * 1000;
+                assertTrue(rows.contains(start));
+                assertTrue(rows.contains(Math.min(start + 999, 5499)));
+                assertFalse(rows.contains(5500));
+                falsePositiveBlocks += rows.getCardinality() / 1000 - 1;
+            }
+            // 10 bits per value and 7 hashes gives a false positive rate of about 1% per block
+            assertTrue(falsePositiveBlocks < 5500 * 5 * 3 / 100);
+            int absent = 0;
+            for (int i = 0; i < 1000; i++)
+                absent += filter.getCandidateRows(i * 31L + 1).getCardinality();
+            assertTrue(absent < 1000 * 5500 * 3 / 100);
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testNullBlocksAndValueForms() throws IOException {
+        File directory = Files.createTempDirectory("doric-test").toFile();
+        try {
+            File floatFile = new File(directory, "000.bloom");
+            try (BloomFilter.Builder builder = new BloomFilter.Builder(Column.Type.floating, floatFile, 4, 10, 7)) {
+                builder.add("1.5");
+                builder.add(-0.0);
+                builder.add(3);
+                builder.add("");
+                for (int i = 0; i < 4; i++)
+                    builder.addNull();
+                builder.add("2.5");
+                builder.finish();
+            }
+            BloomFilter filter = new BloomFilter(floatFile, Column.Type.floating);
+            assertArrayEquals(new int[] { 0, 1, 2, 3 }, filter.getCandidateRows(1.5).toArray());
+            assertArrayEquals(new int[] { 0, 1, 2, 3 }, filter.getCandidateRows(0.0).toArray());
+            assertArrayEquals(new int[] { 0, 1, 2, 3 }, filter.getCandidateRows(3L).toArray());
+            assertArrayEquals(new int[] { 8 }, filter.getCandidateRows(2.5).toArray());
+            File dateFile = new File(directory, "001.bloom");
+            try (BloomFilter.Builder builder = new BloomFilter.Builder(Column.Type.date, dateFile)) {
+                builder.add("2020-02-29");
+                builder.add("");
+                builder.finish();
+            }
+            filter = new BloomFilter(dateFile, Column.Type.date);
+            assertArrayEquals(new int[] { 0, 1 },
+                    filter.getCandidateRows(LocalDate.of(2020, 2, 29).toEpochDay()).toArray());
+            File emptyFile = new File(directory, "002.bloom");
+            try (BloomFilter.Builder builder = new BloomFilter.Builder(Column.Type.undetermined, emptyFile)) {
+                long size = builder.finish();
+                assertEquals(emptyFile.length(), size);
+            }
+            assertTrue(new BloomFilter(emptyFile, Column.Type.undetermined).getCandidateRows("x").isEmpty());
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * @(#) TestSortedIndex.java
+ */
+
+package net.pwall.doric.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSortedIndex {
+
+    @Test
+    public void testExternalSortSpillsAndMergesStably() throws IOException {
+        File directory = Files.createTempDirectory("doric-test").toFile();
+        try (ExternalSort sort = new ExternalSort(100, directory)) {
+            Random random = new Random(42);
+            for (int i = 0; i < 1050; i++)
+                sort.add(random.nextInt(50) - 25, i);
+            assertEquals(1050, sort.getCount());
+            assertTrue(directory.list().length > 1); // chunks have been spilled
+            List<long[]> pairs = new ArrayList<>();
+            sort.sort((value, rowNumber) -> pairs.add(new long[] { value, rowNumber }));
+            assertEquals(1050, pairs.size());
+            for (int i = 1; i < pairs.size(); i++) {
+                long[] previous = pairs.get(i - 1);
+                long[] current = pairs.get(i);
+                assertTrue(previous[0] < current[0] || previous[0] == current[0] && previous[1] < current[1]);
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testIndexLookup() throws IOException {
+        File directory = Files.createTempDirectory("doric-test").toFile();
+        try {
+            File file = new File(directory, "index.sorted");
+            long size;
+            try (SortedIndex.Builder builder = new SortedIndex.Builder(directory, 16)) {
+                for (int i = 0; i < 5000; i++)
+                    builder.add((i * 7919L) % 1000, i); // each value 0..999 appears five times
+                size = builder.write(file);
+            }
+            assertEquals(file.length(), size);
+            try (SortedIndex index = new SortedIndex(file, size)) {
+                Bitmap rows = index.getRows(10, 12);
+                assertEquals(15, rows.getCardinality());
+                rows.iterator().forEachRemaining((int row) -> {
+                    long value = (row * 7919L) % 1000;
+                    assertTrue(value >= 10 && value <= 12);
+                });
+                assertEquals(5, index.getRows(0, 0).getCardinality());
+                assertEquals(5, index.getRows(999, 5000).getCardinality());
+                assertTrue(index.getRows(1000, 2000).isEmpty());
+                assertTrue(index.getRows(-5, -1).isEmpty());
+                assertTrue(index.getRows(12, 10).isEmpty());
+                assertEquals(5000, index.getRows(Long.MIN_VALUE, Long.MAX_VALUE).getCardinality());
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * @(#) TestTextIndex.java
+ */
+
+package net.pwall.doric.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.Column;
+
+public class TestTextIndex {
+
+    private static final String[] words = { "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf",
+            "hotel", "india", "juliet", "kilo", "lima", "mike" };
+
+    @Test
+    public void testLookups() throws IOException {
+        File directory = Files.createTempDirectory("doric-test").toFile();
+        try {
+            String[] values = values(2000);
+            File file = new File(directory, "000.text");
+            build(directory, file, values, TextIndex.Builder.defaultSpillThreshold, 0);
+            TextIndex index = new TextIndex(file);
+            Bitmap rows = index.getCandidatesContaining("otel");
+            for (int i = 0; i < values.length; i++)
+                if (values[i].contains("otel"))
+                    assertTrue(rows.contains(i));
+            rows = index.getCandidatesStartingWith("kil");
+            for (int i = 0; i < values.length; i++)
+                if (values[i].startsWith("kil"))
+                    assertTrue(rows.contains(i));
+            rows = index.getRowsWithToken("juliet");
+            for (int i = 0; i < values.length; i++)
+                assertEquals(TextIndex.tokens(values[i]).contains("juliet"), rows.contains(i));
+            assertTrue(index.getRowsWithToken("zulu").isEmpty());
+            assertNull(index.getCandidatesContaining("ab"));
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testSpilledRunsMergeToSameIndex() throws IOException {
+        File directory = Files.createTempDirectory("doric-test").toFile();
+        try {
+            String[] values = values(3000);
+            File inMemory = new File(directory, "000.text");
+            long size = build(directory, inMemory, values, TextIndex.Builder.defaultSpillThreshold, 0);
+            assertEquals(inMemory.length(), size);
+            File spilled = new File(directory, "001.text");
+            size = build(directory, spilled, values, 500, 10);
+            assertEquals(spilled.length(), size);
+            assertArrayEquals(Files.readAllBytes(inMemory.toPath()), Files.readAllBytes(spilled.toPath()));
+            assertEquals(2, directory.list().length); // temporary files have been deleted
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testStringKeysReadInBlocks() throws IOException {
+        File directory = Files.createTempDirectory("doric-test").toFile();
+        try {
+            File file = new File(directory, "000.bitmap");
+            BitmapIndex.Builder builder = new BitmapIndex.Builder(Column.Type.undetermined);
+            int numKeys = BitmapIndex.sampleInterval * 5 + 3;
+            for (int i = 0; i < numKeys * 2; i++)
+                builder.add(String.format("k%04d", i % numKeys), i);
+            builder.write(file);
+            BitmapIndex index = new BitmapIndex(file, Column.Type.undetermined);
+            assertEquals(numKeys, index.getNumKeys());
+            for (int i = 0; i < numKeys; i++) {
+                String key = String.format("k%04d", i);
+                assertArrayEquals(new int[] { i, i + numKeys }, index.getRows(key, key).toArray());
+            }
+            assertEquals(numKeys * 2, index.getRows("", "l").getCardinality());
+            assertEquals(2 * 130, index.getRows("k0060", "k0189").getCardinality());
+            assertTrue(index.getRows("k0060x", "k0061").getCardinality() == 2);
+            assertTrue(index.getRows("a", "b").isEmpty());
+            assertTrue(index.getRows("z", "zz").isEmpty());
+            assertTrue(index.getRows("k0061", "k0060").isEmpty());
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    private static long build(File directory, File file, String[] values, int spillThreshold, int minRuns)
+            throws IOException {
+        try (TextIndex.Builder builder = new TextIndex.Builder(directory, spillThreshold)) {
+            for (int i = 0; i < values.length; i++)
+                builder.add(values[i], i);
+            assertTrue(builder.getNumRuns() >= minRuns);
+            return builder.write(file);
+        }
+    }
+
+    private static String[] values(int n) {
+        Random random = new Random(7);
+        String[] result = new String[n];
+        for (int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(4); j >= 0; j--) {
+                if (sb.length() > 0)
+                    sb.append(' ');
+                sb.append(words[random.nextInt(words.length)]).append('-').append(random.nextInt(100));
+            }
+            result[i] = sb.toString();
+        }
+        return result;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+}
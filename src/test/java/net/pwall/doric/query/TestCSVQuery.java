@@ -0,0 +1,267 @@
+/*
+ * @(#) TestCSVQuery.java
+ */
+
+package net.pwall.doric.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.pwall.doric.Column;
+import net.pwall.doric.Row;
+
+public class TestCSVQuery {
+
+    @Test
+    public void testTypeConversion() throws IOException {
+        String data = "id,amount,day,name\n1,2.5,2020-02-29,abc\n,,,\n-3,1e3,1970-01-01,\"x,y\"\n0,-0.25,1969-12-31,z\n";
+        try (CSVQuery query = new CSVQuery(new StringReader(data))) {
+            assertEquals(4, query.getNumColumns());
+            assertEquals(Column.Type.integer, query.getColumn("id").getType());
+            assertEquals(Column.Type.floating, query.getColumn("amount").getType());
+            assertEquals(Column.Type.date, query.getColumn("day").getType());
+            assertEquals(Column.Type.undetermined, query.getColumn("name").getType());
+            List<Row> rows = rows(query);
+            assertEquals(4, rows.size());
+            Row row = rows.get(0);
+            assertEquals(1, row.getLong("id"));
+            assertEquals(1L, row.getNumber("id"));
+            assertEquals(2.5, row.getNumber("amount").doubleValue(), 0.0);
+            assertEquals(LocalDate.of(2020, 2, 29).toEpochDay(), row.getLong("day"));
+            assertEquals("abc", row.getString("name"));
+            Row nulls = rows.get(1);
+            for (int i = 0; i < 4; i++)
+                assertTrue(nulls.isNull(i));
+            assertNull(nulls.getNumber("id"));
+            assertNull(nulls.getNumber("amount"));
+            assertEquals(1000.0, rows.get(2).getNumber("amount").doubleValue(), 0.0);
+            assertEquals("x,y", rows.get(2).getString("name"));
+            assertEquals(-1, rows.get(3).getLong("day"));
+            assertThrows(IllegalStateException.class, () -> row.getLong("amount"));
+            assertThrows(IllegalStateException.class, () -> row.getNumber("name"));
+        }
+        // a null value does not match a condition that its converted value (zero) would satisfy
+        try (CSVQuery query = new CSVQuery(new StringReader(data))) {
+            assertEquals(1, count(query.where(Condition.equal("id", 0L))));
+        }
+        try (CSVQuery query = new CSVQuery(new StringReader(data))) {
+            assertEquals(1, count(query.where(Condition.between("day", 0L, 0L))));
+        }
+        try (CSVQuery query = new CSVQuery(new StringReader(data))) {
+            assertEquals(2, count(query.where(Condition.between("amount", -1.0, 10.0))));
+        }
+        // a value after the sample that does not match the inferred type is reported when it is accessed
+        try (CSVQuery query = new CSVQuery(new StringReader("id,day\n1,2020-01-01\n2,2020-01-02\nx,y\n"))) {
+            query.setSampleSize(2);
+            List<Row> rows = rows(query);
+            assertEquals(2, rows.get(1).getLong("id"));
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () ->
+                    rows.get(2).getLong("id"));
+            assertEquals("Value does not match type of column id: x", e.getMessage());
+            assertThrows(IllegalArgumentException.class, () -> rows.get(2).getLong("day"));
+            assertThrows(RuntimeException.class, () -> query.setSampleSize(5)); // after reading started
+        }
+        try (CSVQuery query = new CSVQuery(new StringReader("a,b\n1,2\n3\n"))) {
+            assertThrows(IllegalArgumentException.class, () -> rows(query));
+        }
+    }
+
+    @Test
+    public void testQuotedNewlines() throws IOException {
+        String data = "id,\"long\nheading\",n\r\n1,\"a\r\nb\",2\r\n2,\"\"\"quoted\"\"\n\",3\n3,\"\",4\n4,x\"y,5\n";
+        try (CSVQuery query = new CSVQuery(new StringReader(data))) {
+            assertEquals("long\nheading", query.getColumn(1).getName());
+            checkQuotedNewlines(rows(query));
+        }
+        File file = File.createTempFile("doric-test", ".csv");
+        try {
+            Files.write(file.toPath(), data.getBytes(StandardCharsets.UTF_8));
+            try (CSVQuery query = new CSVQuery(file)) {
+                query.setSampleSize(1); // the remaining rows are read after the sample
+                List<Row> rows = rows(query);
+                checkQuotedNewlines(rows);
+                // the row number is the offset of the start of the row
+                assertEquals(data.indexOf("1,"), rows.get(0).getRowNumber());
+                assertEquals(data.indexOf("3,"), rows.get(2).getRowNumber());
+            }
+            Files.write(file.toPath(), "a,b\n1,\"open\n2,x\n".getBytes(StandardCharsets.UTF_8));
+            try (CSVQuery query = new CSVQuery(file)) {
+                RuntimeException e = assertThrows(RuntimeException.class, () -> rows(query));
+                assertEquals("Quotes not closed", e.getMessage());
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static void checkQuotedNewlines(List<Row> rows) throws IOException {
+        assertEquals(4, rows.size());
+        assertEquals("a\nb", rows.get(0).getString(1)); // the carriage return is not preserved
+        assertEquals("\"quoted\"\n", rows.get(1).getString(1));
+        assertEquals("", rows.get(2).getString(1));
+        assertEquals("x\"y", rows.get(3).getString(1)); // a quote within an unquoted value does not open a quote
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 1, rows.get(i).getLong("id"));
+            assertEquals(i + 2, rows.get(i).getLong("n"));
+        }
+    }
+
+    @Test
+    public void testSplitBoundaries() throws IOException {
+        File file = File.createTempFile("doric-test", ".csv");
+        try {
+            // every row contains a line that would be read as a row if a split started at the line following its
+            // nominal start, so the splits must start only at row boundaries
+            int numRows = 150000;
+            StringBuilder sb = new StringBuilder("id,note,amount\n");
+            for (int i = 0; i < numRows; i++)
+                sb.append(i).append(",\"first ").append(i).append("\n-1,fake,0\nlast\",").append(i).append(".5\n");
+            Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            assertTrue(file.length() > CSVQuery.minimumSplitSize * 4);
+            try (CSVQuery query = new CSVQuery(file)) {
+                Spliterator<Row> spliterator = query.spliterator();
+                Spliterator<Row> prefix = spliterator.trySplit();
+                assertNotNull(prefix);
+                List<Row> firstRows = new ArrayList<>();
+                spliterator.tryAdvance(firstRows::add);
+                long first = firstRows.get(0).getLong("id");
+                assertTrue(first > 0 && first < numRows, String.valueOf(first));
+                long[] prefixRows = new long[1];
+                prefix.forEachRemaining(row -> prefixRows[0]++);
+                assertEquals(first, prefixRows[0]);
+                spliterator.forEachRemaining(row -> {}); // so that the file is closed
+
+                List<Long> ids = StreamSupport.stream(query.spliterator(), true).map(row -> {
+                    try {
+                        assertEquals("first " + row.getLong("id") + "\n-1,fake,0\nlast", row.getString("note"));
+                        return row.getLong("id");
+                    }
+                    catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }).collect(Collectors.toList());
+                assertEquals(numRows, ids.size());
+                for (int i = 0; i < numRows; i++)
+                    assertEquals(i, ids.get(i).longValue());
+                Aggregate[] aggregates = Aggregate.compute(query, true, "amount");
+                assertEquals(numRows, aggregates[0].getCount());
+                assertEquals((double)numRows * numRows / 2, aggregates[0].getSum(), 0.0);
+                assertEquals(numRows / 2, Aggregate.count(query.where(Condition.between("id", 0L,
+                        numRows / 2 - 1L)), true));
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSplitWithoutQuotes() throws IOException {
+        File file = File.createTempFile("doric-test", ".csv");
+        try {
+            int numRows = 300000;
+            StringBuilder sb = new StringBuilder("id,name\n");
+            for (int i = 0; i < numRows; i++)
+                sb.append(i).append(",name ").append(i).append('\n');
+            Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            assertTrue(file.length() > CSVQuery.minimumSplitSize * 4);
+            try (CSVQuery query = new CSVQuery(file)) {
+                assertNotNull(query.spliterator().trySplit());
+                assertEquals(numRows, ids(query).size());
+                assertFalse(query.isQuotedNewlines());
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSplitLongQuotedValues() throws IOException {
+        File file = File.createTempFile("doric-test", ".csv");
+        try {
+            // the quoted values are longer than the split window, and contain no quotes to show where they start
+            int numRows = 50;
+            StringBuilder sb = new StringBuilder("id,note\n0,plain\n");
+            for (int i = 1; i < numRows; i++) {
+                sb.append(i).append(",\"");
+                for (int j = 0; j < CSVQuery.splitWindow / 2; j++)
+                    sb.append(i % 10).append(",\n");
+                sb.append("\"\n");
+            }
+            Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            assertTrue(file.length() > CSVQuery.minimumSplitSize * 4);
+            try (CSVQuery query = new CSVQuery(file)) {
+                query.setSampleSize(1); // the sample does not show the quoted newlines
+                query.setQuotedNewlines(true);
+                List<Long> ids = ids(query);
+                assertEquals(numRows, ids.size());
+                for (int i = 0; i < numRows; i++)
+                    assertEquals(i, ids.get(i).longValue());
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSmallFileNotSplit() throws IOException {
+        File file = File.createTempFile("doric-test", ".csv");
+        try {
+            Files.write(file.toPath(), "a\n1\n2\n".getBytes(StandardCharsets.UTF_8));
+            try (CSVQuery query = new CSVQuery(file)) {
+                Spliterator<Row> spliterator = query.spliterator();
+                assertNull(spliterator.trySplit());
+                assertEquals(2, count(query));
+                assertEquals(2, count(query)); // a file may be read more than once
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Read the {@code id} column of the rows of a query on a file, using a parallel stream.
+     */
+    private static List<Long> ids(CSVQuery query) {
+        List<Long> ids = StreamSupport.stream(query.spliterator(), true).map(row -> {
+            try {
+                return row.getLong("id");
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).collect(Collectors.toList());
+        for (int i = 0, n = ids.size(); i < n; i++)
+            assertEquals(i, ids.get(i).longValue());
+        return ids;
+    }
+
+    private static List<Row> rows(Query query) {
+        List<Row> result = new ArrayList<>();
+        for (Iterator<Row> iterator = query.iterator(); iterator.hasNext(); )
+            result.add(iterator.next());
+        return result;
+    }
+
+    private static long count(Query query) {
+        return Aggregate.count(query, false);
+    }
+
+}
@@ -6,6 +6,8 @@ package net.pwall.util;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
@@ -68,6 +70,23 @@ public class TestCSV {
         }
     }
 
+    @Test
+    public void testSplitLine() {
+        assertEquals(Arrays.asList("a", "b", "c"), CSV.splitLine("a,b,c", ',', '"'));
+        assertEquals(Arrays.asList("", "", ""), CSV.splitLine(",,", ',', '"'));
+        assertEquals(Collections.singletonList(""), CSV.splitLine("", ',', '"'));
+        assertEquals(Arrays.asList("a", ""), CSV.splitLine("a,", ',', '"'));
+        assertEquals(Arrays.asList("x,y", "", "1"), CSV.splitLine("\"x,y\",\"\",1", ',', '"'));
+        assertEquals(Arrays.asList("say \"hi\"", "\""), CSV.splitLine("\"say \"\"hi\"\"\",\"\"\"\"", ',', '"'));
+        assertEquals(Arrays.asList("line 1\nline 2", "z"), CSV.splitLine("\"line 1\nline 2\",z", ',', '"'));
+        assertEquals(Arrays.asList(" a ", "b\"c"), CSV.splitLine(" a ,b\"c", ',', '"'));
+        assertEquals(Arrays.asList("a,b", "c|d"), CSV.splitLine("a,b|'c|d'", '|', '\''));
+        RuntimeException e = assertThrows(RuntimeException.class, () -> CSV.splitLine("\"open,x", ',', '"'));
+        assertEquals("Quotes not closed", e.getMessage());
+        e = assertThrows(RuntimeException.class, () -> CSV.splitLine("\"a\"b,c", ',', '"'));
+        assertEquals("Invalid quotes", e.getMessage());
+    }
+
     @Test
     public void testByteSignExtension() {
         assertEquals(-2, testByte()); // confirming that byte sign-extends to int